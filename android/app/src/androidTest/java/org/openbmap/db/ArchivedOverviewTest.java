@@ -0,0 +1,141 @@
+package org.openbmap.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbmap.db.models.CellRecord;
+import org.openbmap.db.models.PositionRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Wifi and cell lists of an archived session: overview rows are read from archive, as positions are purged
+ */
+@RunWith(AndroidJUnit4.class)
+public class ArchivedOverviewTest {
+
+    private static final int SCANS = 20;
+
+    private static final int WIFIS_PER_SCAN = 5;
+
+    private static final int CELLS_PER_SCAN = 3;
+
+    private ScratchDatabase mScratch;
+    private long mSession;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mScratch = new ScratchDatabase();
+        mSession = mScratch.createSession();
+
+        // bssids repeat every 1000 scans, so each scan adds new wifis; cells are the same in every scan
+        final ScanWriter writer = new ScanWriter(mScratch.db);
+        mScratch.db.beginTransaction();
+        try {
+            for (int i = 0; i < SCANS; i++) {
+                final PositionRecord begin = ScratchDatabase.position(mSession, 2 * i);
+                final PositionRecord end = ScratchDatabase.position(mSession, 2 * i + 1);
+                writer.insertWifis(begin, end, ScratchDatabase.wifis(mSession, i, WIFIS_PER_SCAN, begin, end));
+                writer.insertCells(begin, end, cells(mSession, i, begin, end));
+            }
+            mScratch.db.setTransactionSuccessful();
+        } finally {
+            mScratch.db.endTransaction();
+        }
+        writer.close();
+
+        mFile = new File(mScratch.context.getCacheDir(), "overview" + SessionArchive.EXTENSION);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        mScratch.close();
+    }
+
+    @Test
+    public void listArchivedWifisAndCells() throws IOException {
+        final SessionArchive.Builder builder = new SessionArchive.Builder(mSession);
+        SessionArchiver.load(mScratch.db, mSession, builder);
+        builder.write(mFile);
+
+        // purge like SessionDeleter: flagged, so overview delete triggers leave overview rows alone
+        final ContentValues flag = new ContentValues();
+        flag.put(Schema.COL_IS_DELETING, Schema.DELETING_MEASUREMENTS);
+        mScratch.db.update(Schema.TBL_SESSIONS, flag, Schema.COL_ID + " = ?", new String[]{String.valueOf(mSession)});
+        for (final String table : new String[]{Schema.TBL_WIFIS, Schema.TBL_CELLS, Schema.TBL_POSITIONS}) {
+            mScratch.db.delete(table, Schema.COL_SESSION_ID + " = ?", new String[]{String.valueOf(mSession)});
+        }
+        final Cursor live = mScratch.db.query(ContentProvider.WIFI_OVERVIEW_TABLES, ContentProvider.WIFI_OVERVIEW_COLUMNS,
+                "w." + Schema.COL_SESSION_ID + " = ?", new String[]{String.valueOf(mSession)}, null, null, null);
+        assertEquals(0, live.getCount());
+        live.close();
+
+        final SessionArchive archive = SessionArchive.open(mFile);
+
+        // same columns, filter and sort order as content provider's wifi overview
+        Cursor wifis = SessionArchiver.queryTable(archive, SessionArchive.WIFI_OVERVIEW,
+                Schema.COL_KNOWN_WIFI + " = ?", new String[]{"0"}, Schema.COL_TIMESTAMP);
+        assertEquals(SCANS * WIFIS_PER_SCAN, wifis.getCount());
+        final HashSet<Long> bssids = new HashSet<>();
+        long last = 0;
+        while (wifis.moveToNext()) {
+            bssids.add(wifis.getLong(wifis.getColumnIndex(Schema.COL_BSSID)));
+            assertTrue(wifis.getInt(wifis.getColumnIndex(Schema.COL_MAX_LEVEL)) < 0);
+            final long timestamp = wifis.getLong(wifis.getColumnIndex(Schema.COL_TIMESTAMP));
+            assertTrue(timestamp >= last);
+            last = timestamp;
+        }
+        assertEquals(SCANS * WIFIS_PER_SCAN, bssids.size());
+        wifis.close();
+
+        wifis = SessionArchiver.queryTable(archive, SessionArchive.WIFI_OVERVIEW,
+                Schema.COL_KNOWN_WIFI + " = ?", new String[]{"1"}, null);
+        assertEquals(0, wifis.getCount());
+        wifis.close();
+
+        final Cursor cells = SessionArchiver.queryTable(archive, SessionArchive.CELL_OVERVIEW, null, null,
+                ContentProvider.CELL_OVERVIEW_ORDER);
+        assertEquals(CELLS_PER_SCAN, cells.getCount());
+        assertTrue(cells.moveToFirst());
+        // serving cell first
+        assertEquals(1, cells.getInt(cells.getColumnIndex(Schema.COL_IS_SERVING)));
+        assertEquals(SCANS, cells.getInt(cells.getColumnIndex(Schema.COL_OBSERVATIONS)));
+        cells.close();
+    }
+
+    private static ArrayList<CellRecord> cells(final long session, final int scan, final PositionRecord begin,
+                                               final PositionRecord end) {
+        final ArrayList<CellRecord> cells = new ArrayList<>(CELLS_PER_SCAN);
+        for (int j = 0; j < CELLS_PER_SCAN; j++) {
+            final CellRecord cell = new CellRecord((int) session);
+            cell.setIsServing(j == 0);
+            cell.setIsNeighbor(j != 0);
+            cell.setOperatorName("operator");
+            cell.setOperator("26201");
+            cell.setMcc("262");
+            cell.setMnc("01");
+            cell.setLogicalCellId(1000 + j);
+            cell.setActualCid(1000 + j);
+            cell.setArea(42);
+            cell.setStrengthdBm(-70 - j - scan % 5);
+            cell.setOpenBmapTimestamp(begin.getOpenBmapTimestamp());
+            cell.setBeginPosition(begin);
+            cell.setEndPosition(end);
+            cells.add(cell);
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,102 @@
+package org.openbmap.db;
+
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbmap.db.models.WifiRecord;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Database version 20 upgrade step: text bssids are rebuilt into 48-bit integers
+ * (see {@link DatabaseHelper#migrateBssidsToInteger})
+ */
+@RunWith(AndroidJUnit4.class)
+public class BssidMigrationTest {
+
+    private static final String[] LEGACY_BSSIDS = {
+            "00:11:22:aa:bb:cc", "00:11:22:AA:BB:CC", "ff:ff:ff:ff:ff:ff", "00:00:00:00:00:01", "not a bssid"};
+
+    private ScratchDatabase mScratch;
+    private long mSession;
+
+    @Before
+    public void setUp() {
+        mScratch = new ScratchDatabase();
+        mSession = mScratch.createSession();
+
+        final ScanWriter writer = new ScanWriter(mScratch.db);
+        final long position = writer.internPosition(ScratchDatabase.position(mSession, 0));
+        writer.close();
+
+        // integer column affinity keeps colon-separated text as it was stored before version 20
+        // first two rows differ in case only, same ssid
+        for (int i = 0; i < LEGACY_BSSIDS.length; i++) {
+            final int ssid = Math.max(i, 1);
+            mScratch.db.execSQL("INSERT INTO " + Schema.TBL_WIFIS + " (" + Schema.COL_BSSID + ", " + Schema.COL_SSID + ", "
+                            + Schema.COL_MD5_SSID + ", " + Schema.COL_LEVEL + ", " + Schema.COL_TIMESTAMP + ", "
+                            + Schema.COL_BEGIN_POSITION_ID + ", " + Schema.COL_END_POSITION_ID + ", " + Schema.COL_SESSION_ID + ", "
+                            + Schema.COL_KNOWN_WIFI + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)",
+                    new Object[]{LEGACY_BSSIDS[i], "ssid" + ssid, "md5" + ssid, -50 - i, 20160101120000L + i, position, position, mSession});
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mScratch.close();
+    }
+
+    @Test
+    public void migrate() {
+        assertEquals(LEGACY_BSSIDS.length, count("typeof(" + Schema.COL_BSSID + ") = 'text'"));
+
+        mScratch.db.beginTransaction();
+        try {
+            DatabaseHelper.migrateBssidsToInteger(mScratch.db);
+            mScratch.db.setTransactionSuccessful();
+        } finally {
+            mScratch.db.endTransaction();
+        }
+
+        // no row lost, all converted
+        assertEquals(LEGACY_BSSIDS.length, mScratch.count(Schema.TBL_WIFIS, mSession));
+        assertEquals(LEGACY_BSSIDS.length, count("typeof(" + Schema.COL_BSSID + ") = 'integer'"));
+
+        final Cursor cursor = mScratch.db.query(Schema.TBL_WIFIS, new String[]{Schema.COL_BSSID}, null, null, null, null,
+                Schema.COL_ID);
+        try {
+            for (final String legacy : LEGACY_BSSIDS) {
+                cursor.moveToNext();
+                assertEquals(legacy, WifiRecord.bssidToLong(legacy), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(2, count(Schema.COL_BSSID + " = " + 0x001122AABBCCL));
+        assertEquals(1, count(Schema.COL_BSSID + " = " + WifiRecord.INVALID_BSSID));
+
+        // overview and counters rebuilt on integer bssids: upper and lower case spelling are one wifi now
+        assertEquals(LEGACY_BSSIDS.length - 1, mScratch.count(Schema.TBL_WIFI_OVERVIEW, mSession));
+        final Cursor session = mScratch.db.query(Schema.TBL_SESSIONS, new String[]{Schema.COL_NUMBER_OF_WIFIS},
+                Schema.COL_ID + " = ?", new String[]{String.valueOf(mSession)}, null, null, null);
+        try {
+            session.moveToFirst();
+            assertEquals(LEGACY_BSSIDS.length - 1, session.getInt(0));
+        } finally {
+            session.close();
+        }
+    }
+
+    private int count(final String where) {
+        final Cursor cursor = mScratch.db.rawQuery("SELECT COUNT(*) FROM " + Schema.TBL_WIFIS + " WHERE " + where, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
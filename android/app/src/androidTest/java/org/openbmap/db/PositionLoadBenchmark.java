@@ -0,0 +1,123 @@
+package org.openbmap.db;
+
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbmap.db.models.PositionRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Loading wifis' begin and end positions row by row vs. in chunks of "_id IN (...)" queries,
+ * same queries as {@link DataHelper#loadPositionById(String)} and {@link DataHelper#loadPositionsByIds}
+ */
+@RunWith(AndroidJUnit4.class)
+public class PositionLoadBenchmark {
+
+    private static final String TAG = PositionLoadBenchmark.class.getSimpleName();
+
+    private static final int BSSIDS = 20000;
+
+    /**
+     * Same as DataHelper's chunk size
+     */
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    private ScratchDatabase mScratch;
+    private long mSession;
+
+    @Before
+    public void setUp() {
+        mScratch = new ScratchDatabase();
+        mSession = mScratch.createSession();
+
+        // one wifi per scan, so each wifi has positions of its own
+        final ScanWriter writer = new ScanWriter(mScratch.db);
+        mScratch.db.beginTransaction();
+        try {
+            for (int i = 0; i < BSSIDS; i++) {
+                final PositionRecord begin = ScratchDatabase.position(mSession, 2 * i);
+                final PositionRecord end = ScratchDatabase.position(mSession, 2 * i + 1);
+                writer.insertWifis(begin, end, ScratchDatabase.wifis(mSession, i, 1, begin, end));
+            }
+            mScratch.db.setTransactionSuccessful();
+        } finally {
+            mScratch.db.endTransaction();
+        }
+        writer.close();
+    }
+
+    @After
+    public void tearDown() {
+        mScratch.close();
+    }
+
+    @Test
+    public void comparePerRowWithBulk() {
+        final List<String> ids = positionIds();
+        assertEquals(2 * BSSIDS, ids.size());
+
+        long start = System.nanoTime();
+        final HashMap<String, Double> perRow = new HashMap<>();
+        for (final String id : ids) {
+            final Cursor cursor = mScratch.db.query(Schema.TBL_POSITIONS, null, Schema.COL_ID + " = ?",
+                    new String[]{id}, null, null, null);
+            if (cursor.moveToFirst()) {
+                perRow.put(id, cursor.getDouble(cursor.getColumnIndex(Schema.COL_LATITUDE)));
+            }
+            cursor.close();
+        }
+        final long perRowMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        final HashMap<String, Double> bulk = new HashMap<>();
+        int queries = 0;
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+            final List<String> chunk = ids.subList(i, Math.min(i + MAX_IDS_PER_QUERY, ids.size()));
+            final StringBuilder selection = new StringBuilder(Schema.COL_ID + " IN (");
+            for (int j = 0; j < chunk.size(); j++) {
+                selection.append(j == 0 ? "?" : ",?");
+            }
+            selection.append(")");
+            final Cursor cursor = mScratch.db.query(Schema.TBL_POSITIONS, null, selection.toString(),
+                    chunk.toArray(new String[chunk.size()]), null, null, null);
+            final int colId = cursor.getColumnIndex(Schema.COL_ID);
+            final int colLat = cursor.getColumnIndex(Schema.COL_LATITUDE);
+            while (cursor.moveToNext()) {
+                bulk.put(cursor.getString(colId), cursor.getDouble(colLat));
+            }
+            cursor.close();
+            queries++;
+        }
+        final long bulkMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(perRow, bulk);
+        Log.i(TAG, BSSIDS + " bssids: per row " + ids.size() + " queries, " + perRowMillis + " ms; bulk "
+                + queries + " queries, " + bulkMillis + " ms");
+    }
+
+    /**
+     * @return begin and end position ids of all wifis, in cursor order
+     */
+    private List<String> positionIds() {
+        final Cursor cursor = mScratch.db.query(Schema.TBL_WIFIS,
+                new String[]{Schema.COL_BEGIN_POSITION_ID, Schema.COL_END_POSITION_ID},
+                Schema.COL_SESSION_ID + " = ?", new String[]{String.valueOf(mSession)}, null, null, null);
+        final List<String> ids = new ArrayList<>(cursor.getCount() * 2);
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getString(0));
+            ids.add(cursor.getString(1));
+        }
+        cursor.close();
+        return ids;
+    }
+}
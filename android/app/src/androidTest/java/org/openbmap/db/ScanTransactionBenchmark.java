@@ -0,0 +1,208 @@
+package org.openbmap.db;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbmap.db.models.PositionRecord;
+import org.openbmap.db.models.WifiRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Per-statement autocommit vs. one transaction per scan (100 wifis, 2 positions),
+ * i.e. what {@link ContentProvider#applyBatch} saves by wrapping a batch in a transaction.
+ * Also compares former per-operation batches with {@link ContentProvider#applyBatch} and
+ * {@link ContentProvider#bulkInsert} through a provider instance, including change notifications sent
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanTransactionBenchmark {
+
+    private static final String TAG = ScanTransactionBenchmark.class.getSimpleName();
+
+    private static final int SCANS = 50;
+    private static final int WIFIS_PER_SCAN = 100;
+
+    private ScratchDatabase mScratch;
+
+    private ContentProvider mProvider;
+
+    private ChangeNotifier mNotifier;
+
+    @Before
+    public void setUp() {
+        mScratch = new ScratchDatabase();
+        mProvider = new ContentProvider();
+        mProvider.attachInfo(mScratch.context, null);
+        // no debouncing, so every requested notification is sent
+        mNotifier = new ChangeNotifier(mScratch.context.getContentResolver(), 0);
+        mProvider.attach(mScratch.helper, mNotifier);
+    }
+
+    @After
+    public void tearDown() {
+        mScratch.close();
+    }
+
+    @Test
+    public void compareAutocommitWithTransaction() {
+        final long autocommit = run(mScratch.createSession(), false);
+        final long transaction = run(mScratch.createSession(), true);
+        Log.i(TAG, "Per scan: autocommit " + (autocommit / (float) SCANS) + " ms, single transaction "
+                + (transaction / (float) SCANS) + " ms");
+    }
+
+    @Test
+    public void compareProviderBatches() throws OperationApplicationException {
+        // former behaviour: operations applied one by one (base class' applyBatch), each autocommitted and notified
+        long session = mScratch.createSession();
+        long notifications = mNotifier.getRequested();
+        long start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            final ArrayList<ContentProviderOperation> operations = operations(session, i);
+            final ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int j = 0; j < operations.size(); j++) {
+                results[j] = operations.get(j).apply(mProvider, results, j);
+            }
+        }
+        final long perOperation = (System.nanoTime() - start) / 1000000;
+        assertRows(session);
+        // position, wifi + session per wifi
+        assertEquals(SCANS * (2 + 2 * WIFIS_PER_SCAN), mNotifier.getRequested() - notifications);
+
+        session = mScratch.createSession();
+        notifications = mNotifier.getRequested();
+        start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            mProvider.applyBatch(operations(session, i));
+        }
+        final long batch = (System.nanoTime() - start) / 1000000;
+        assertRows(session);
+        // position, wifi and session once per batch
+        assertEquals(SCANS * 3, mNotifier.getRequested() - notifications);
+
+        session = mScratch.createSession();
+        notifications = mNotifier.getRequested();
+        start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            final PositionRecord begin = ScratchDatabase.position(session, 2 * i);
+            final PositionRecord end = ScratchDatabase.position(session, 2 * i + 1);
+            final Uri beginUri = mProvider.insert(ContentProvider.CONTENT_URI_POSITION, values(begin));
+            final Uri endUri = mProvider.insert(ContentProvider.CONTENT_URI_POSITION, values(end));
+            final List<WifiRecord> wifis = ScratchDatabase.wifis(session, i, WIFIS_PER_SCAN, begin, end);
+            final ContentValues[] rows = new ContentValues[wifis.size()];
+            for (int j = 0; j < rows.length; j++) {
+                rows[j] = values(wifis.get(j));
+                rows[j].put(Schema.COL_BEGIN_POSITION_ID, Long.parseLong(beginUri.getLastPathSegment()));
+                rows[j].put(Schema.COL_END_POSITION_ID, Long.parseLong(endUri.getLastPathSegment()));
+            }
+            assertEquals(WIFIS_PER_SCAN, mProvider.bulkInsert(ContentProvider.CONTENT_URI_WIFI, rows));
+        }
+        final long bulk = (System.nanoTime() - start) / 1000000;
+        assertRows(session);
+        // positions inserted one by one, wifi and session once per bulk insert
+        assertEquals(SCANS * (2 + 2), mNotifier.getRequested() - notifications);
+
+        Log.i(TAG, "Per scan through provider: per operation " + (perOperation / (float) SCANS) + " ms, applyBatch "
+                + (batch / (float) SCANS) + " ms, bulkInsert " + (bulk / (float) SCANS) + " ms");
+    }
+
+    /**
+     * @return elapsed millis for all scans
+     */
+    private long run(final long session, final boolean transaction) {
+        final ScanWriter writer = new ScanWriter(mScratch.db);
+        final long start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            final PositionRecord begin = ScratchDatabase.position(session, 2 * i);
+            final PositionRecord end = ScratchDatabase.position(session, 2 * i + 1);
+            if (transaction) {
+                mScratch.db.beginTransaction();
+            }
+            try {
+                writer.insertWifis(begin, end, ScratchDatabase.wifis(session, i, WIFIS_PER_SCAN, begin, end));
+                if (transaction) {
+                    mScratch.db.setTransactionSuccessful();
+                }
+            } finally {
+                if (transaction) {
+                    mScratch.db.endTransaction();
+                }
+            }
+        }
+        final long elapsed = (System.nanoTime() - start) / 1000000;
+        writer.close();
+
+        assertEquals(SCANS * WIFIS_PER_SCAN, mScratch.count(Schema.TBL_WIFIS, session));
+        assertEquals(SCANS * 2, mScratch.count(Schema.TBL_POSITIONS, session));
+        return elapsed;
+    }
+
+    private void assertRows(final long session) {
+        assertEquals(SCANS * WIFIS_PER_SCAN, mScratch.count(Schema.TBL_WIFIS, session));
+        assertEquals(SCANS * 2, mScratch.count(Schema.TBL_POSITIONS, session));
+    }
+
+    /**
+     * @return begin and end position insert, followed by wifi inserts referencing them
+     */
+    private static ArrayList<ContentProviderOperation> operations(final long session, final int scan) {
+        final PositionRecord begin = ScratchDatabase.position(session, 2 * scan);
+        final PositionRecord end = ScratchDatabase.position(session, 2 * scan + 1);
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>(WIFIS_PER_SCAN + 2);
+        operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_POSITION).withValues(values(begin)).build());
+        operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_POSITION).withValues(values(end)).build());
+        for (final WifiRecord wifi : ScratchDatabase.wifis(session, scan, WIFIS_PER_SCAN, begin, end)) {
+            operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_WIFI).withValues(values(wifi))
+                    .withValueBackReference(Schema.COL_BEGIN_POSITION_ID, 0)
+                    .withValueBackReference(Schema.COL_END_POSITION_ID, 1)
+                    .build());
+        }
+        return operations;
+    }
+
+    private static ContentValues values(final PositionRecord pos) {
+        final ContentValues values = new ContentValues();
+        values.put(Schema.COL_LATITUDE, pos.getLatitude());
+        values.put(Schema.COL_LONGITUDE, pos.getLongitude());
+        values.put(Schema.COL_ALTITUDE, pos.getAltitude());
+        values.put(Schema.COL_ACCURACY, pos.getAccuracy());
+        values.put(Schema.COL_TIMESTAMP, pos.getOpenBmapTimestamp());
+        values.put(Schema.COL_BEARING, pos.getBearing());
+        values.put(Schema.COL_SPEED, pos.getSpeed());
+        values.put(Schema.COL_SESSION_ID, pos.getSession());
+        values.put(Schema.COL_SOURCE, pos.getSource());
+        return values;
+    }
+
+    /**
+     * @return wifi columns as written by {@link ScanWriter}, without begin and end position
+     */
+    private static ContentValues values(final WifiRecord wifi) {
+        final ContentValues values = new ContentValues();
+        values.put(Schema.COL_BSSID, wifi.getBssidLong());
+        values.put(Schema.COL_SSID, wifi.getSsid());
+        values.put(Schema.COL_MD5_SSID, wifi.getMd5Ssid());
+        values.put(Schema.COL_CAPABILITIES, wifi.getCapabilities());
+        values.put(Schema.COL_FREQUENCY, wifi.getFrequency());
+        values.put(Schema.COL_LEVEL, wifi.getLevel());
+        values.put(Schema.COL_OBSERVATIONS, 1);
+        values.put(Schema.COL_LEVEL_MIN, wifi.getLevel());
+        values.put(Schema.COL_LEVEL_MAX, wifi.getLevel());
+        values.put(Schema.COL_TIMESTAMP, wifi.getOpenBmapTimestamp());
+        values.put(Schema.COL_SESSION_ID, wifi.getSessionId());
+        values.put(Schema.COL_KNOWN_WIFI, wifi.getCatalogStatusInt());
+        return values;
+    }
+}
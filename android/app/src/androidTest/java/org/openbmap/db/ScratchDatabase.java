@@ -0,0 +1,87 @@
+package org.openbmap.db;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+
+import org.openbmap.db.models.PositionRecord;
+import org.openbmap.db.models.WifiRecord;
+import org.openbmap.db.models.WifiRecord.CatalogStatus;
+
+import java.util.ArrayList;
+
+/**
+ * Throw-away database with the app's schema for benchmarks, never touches the app's own database
+ */
+public class ScratchDatabase {
+
+    private static final String NAME = "benchmark";
+
+    public final Context context;
+    public final DatabaseHelper helper;
+    public final SQLiteDatabase db;
+
+    public ScratchDatabase() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(NAME);
+        helper = new DatabaseHelper(context, NAME);
+        db = helper.getWritableDatabase();
+    }
+
+    /**
+     * @return id of new session
+     */
+    public long createSession() {
+        final ContentValues values = new ContentValues();
+        values.put(Schema.COL_CREATED_AT, System.currentTimeMillis());
+        values.put(Schema.COL_IS_ACTIVE, 0);
+        values.put(Schema.COL_HAS_BEEN_EXPORTED, 0);
+        values.put(Schema.COL_NUMBER_OF_WIFIS, 0);
+        values.put(Schema.COL_NUMBER_OF_CELLS, 0);
+        values.put(Schema.COL_NUMBER_OF_WAYPOINTS, 0);
+        return db.insert(Schema.TBL_SESSIONS, null, values);
+    }
+
+    public static PositionRecord position(final long session, final int i) {
+        final PositionRecord pos = new PositionRecord();
+        pos.setSession((int) session);
+        pos.setLatitude(52.0 + (i % 1000) * 0.0001);
+        pos.setLongitude(13.0 + (i / 1000) * 0.0001);
+        pos.setAltitude(40);
+        pos.setAccuracy(10);
+        pos.setTimestampByMillis(1451606400000L + i * 1000L);
+        pos.setSource("gps");
+        return pos;
+    }
+
+    /**
+     * @param scan scan number, bssids repeat every 1000 scans
+     * @return wifis of one scan
+     */
+    public static ArrayList<WifiRecord> wifis(final long session, final int scan, final int count,
+                                       final PositionRecord begin, final PositionRecord end) {
+        final ArrayList<WifiRecord> wifis = new ArrayList<>(count);
+        for (int j = 0; j < count; j++) {
+            final String bssid = String.format("%012x", ((long) (scan % 1000) << 16) | j);
+            final WifiRecord wifi = new WifiRecord(bssid, "ssid" + j, "[WPA2-PSK-CCMP][ESS]", 2412, -40 - (scan + j) % 50,
+                    begin.getOpenBmapTimestamp(), begin, end, (int) session, CatalogStatus.NEW);
+            wifis.add(wifi);
+        }
+        return wifis;
+    }
+
+    /**
+     * @return number of session's rows in table
+     */
+    public int count(final String table, final long session) {
+        return (int) DatabaseUtils.queryNumEntries(db, table, Schema.COL_SESSION_ID + " = ?",
+                new String[]{String.valueOf(session)});
+    }
+
+    public void close() {
+        helper.close();
+        context.deleteDatabase(NAME);
+    }
+}
@@ -0,0 +1,180 @@
+package org.openbmap.soapclient;
+
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbmap.db.ScanWriteBuffer;
+import org.openbmap.db.ScanWriter;
+import org.openbmap.db.Schema;
+import org.openbmap.db.ScratchDatabase;
+import org.openbmap.db.models.PositionRecord;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exporting a session ({@link WifiSerializer#WIFI_SQL_QUERY}) while a logger thread commits scan batches
+ * like {@link ScanWriteBuffer}, in write-ahead log and rollback journal mode
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExportContentionBenchmark {
+
+    private static final String TAG = ExportContentionBenchmark.class.getSimpleName();
+
+    private static final int EXPORTED_WIFIS = 100000;
+
+    private static final int WIFIS_PER_SCAN = 100;
+
+    /**
+     * Wifis per scan committed by logger thread
+     */
+    private static final int LOGGED_WIFIS_PER_SCAN = 20;
+
+    private ScratchDatabase mScratch;
+    private long mExported;
+    private long mLogged;
+
+    @Before
+    public void setUp() {
+        mScratch = new ScratchDatabase();
+        mExported = mScratch.createSession();
+        mLogged = mScratch.createSession();
+
+        final ScanWriter writer = new ScanWriter(mScratch.db);
+        mScratch.db.beginTransaction();
+        try {
+            for (int i = 0; i < EXPORTED_WIFIS / WIFIS_PER_SCAN; i++) {
+                final PositionRecord begin = ScratchDatabase.position(mExported, 2 * i);
+                final PositionRecord end = ScratchDatabase.position(mExported, 2 * i + 1);
+                writer.insertWifis(begin, end, ScratchDatabase.wifis(mExported, i, WIFIS_PER_SCAN, begin, end));
+            }
+            mScratch.db.setTransactionSuccessful();
+        } finally {
+            mScratch.db.endTransaction();
+        }
+        writer.close();
+    }
+
+    @After
+    public void tearDown() {
+        mScratch.close();
+    }
+
+    @Test
+    public void compareWalWithRollbackJournal() throws InterruptedException {
+        assertTrue(mScratch.db.enableWriteAheadLogging());
+        assertEquals("wal", journalMode());
+        run("wal");
+
+        mScratch.db.disableWriteAheadLogging();
+        assertFalse("wal".equals(journalMode()));
+        run(journalMode());
+    }
+
+    /**
+     * Exports session once alone and once while logger thread commits batches into another session
+     */
+    private void run(final String mode) throws InterruptedException {
+        long start = System.nanoTime();
+        assertEquals(EXPORTED_WIFIS, export());
+        final long aloneMillis = (System.nanoTime() - start) / 1000000;
+
+        final Logger logger = new Logger();
+        logger.start();
+        start = System.nanoTime();
+        assertEquals(EXPORTED_WIFIS, export());
+        final long loadedMillis = (System.nanoTime() - start) / 1000000;
+        logger.finish();
+
+        assertTrue(logger.mCommits > 0);
+        Log.i(TAG, mode + ": export " + aloneMillis + " ms alone, " + loadedMillis + " ms while logging; "
+                + logger.mCommits + " commits, avg. " + (logger.mTotalNanos / logger.mCommits / 1000000)
+                + " ms, max. " + (logger.mMaxNanos / 1000000) + " ms");
+    }
+
+    /**
+     * Pages through exported session like {@link WifiSerializer}
+     * @return number of exported wifis
+     */
+    private int export() {
+        int exported = 0;
+        long lastBeginId = -1;
+        long lastId = -1;
+        int read;
+        do {
+            final Cursor cursor = mScratch.db.rawQuery(WifiSerializer.WIFI_SQL_QUERY, new String[]{String.valueOf(mExported),
+                    String.valueOf(lastBeginId), String.valueOf(lastBeginId), String.valueOf(lastId)});
+            final int colBeginPosId = cursor.getColumnIndex(Schema.COL_BEGIN_POSITION_ID);
+            read = cursor.getCount();
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                lastBeginId = cursor.getLong(colBeginPosId);
+                exported++;
+            }
+            cursor.close();
+        } while (read == WifiSerializer.CURSOR_SIZE);
+        return exported;
+    }
+
+    /**
+     * Commits batches of {@link ScanWriteBuffer#MAX_PENDING_SCANS} scans in one transaction each, at least one batch and until finished
+     */
+    private class Logger extends Thread {
+
+        private final AtomicBoolean mStopped = new AtomicBoolean();
+
+        private int mCommits;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        @Override
+        public void run() {
+            final ScanWriter writer = new ScanWriter(mScratch.db);
+            int scan = 0;
+            do {
+                final long start = System.nanoTime();
+                mScratch.db.beginTransaction();
+                try {
+                    for (int i = 0; i < ScanWriteBuffer.MAX_PENDING_SCANS; i++, scan++) {
+                        final PositionRecord begin = ScratchDatabase.position(mLogged, 2 * scan);
+                        final PositionRecord end = ScratchDatabase.position(mLogged, 2 * scan + 1);
+                        writer.insertWifis(begin, end, ScratchDatabase.wifis(mLogged, scan, LOGGED_WIFIS_PER_SCAN, begin, end));
+                    }
+                    mScratch.db.setTransactionSuccessful();
+                } finally {
+                    mScratch.db.endTransaction();
+                }
+                final long nanos = System.nanoTime() - start;
+                mCommits++;
+                mTotalNanos += nanos;
+                mMaxNanos = Math.max(mMaxNanos, nanos);
+            } while (!mStopped.get());
+            writer.close();
+        }
+
+        /**
+         * Stops logging and waits until last batch has been committed
+         */
+        void finish() throws InterruptedException {
+            mStopped.set(true);
+            join();
+        }
+    }
+
+    private String journalMode() {
+        final Cursor cursor = mScratch.db.rawQuery("PRAGMA journal_mode", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0).toLowerCase() : "";
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.openbmap.soapclient;
+
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openbmap.db.Schema;
+import org.openbmap.db.ScanWriter;
+import org.openbmap.db.ScratchDatabase;
+import org.openbmap.db.models.PositionRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Paging through a session's wifis with LIMIT/OFFSET vs. keyset pagination ({@link WifiSerializer#WIFI_SQL_QUERY}),
+ * {@link WifiSerializer#CURSOR_SIZE} rows per page
+ */
+@RunWith(AndroidJUnit4.class)
+public class WifiExportPagingBenchmark {
+
+    private static final String TAG = WifiExportPagingBenchmark.class.getSimpleName();
+
+    private static final int[] SIZES = {25000, 50000, 100000, 200000};
+
+    private static final int WIFIS_PER_SCAN = 100;
+
+    /**
+     * Former query: same columns and joins, pages selected by OFFSET
+     */
+    private static final String OFFSET_QUERY = WifiSerializer.WIFI_SQL_QUERY.substring(0,
+            WifiSerializer.WIFI_SQL_QUERY.indexOf(" AND " + Schema.COL_BEGIN_POSITION_ID + " >= ?"))
+            + " ORDER BY " + Schema.COL_BEGIN_POSITION_ID + ", " + Schema.TBL_WIFIS + "." + Schema.COL_ID
+            + " LIMIT " + WifiSerializer.CURSOR_SIZE + " OFFSET ?";
+
+    private ScratchDatabase mScratch;
+
+    @Before
+    public void setUp() {
+        mScratch = new ScratchDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mScratch.close();
+    }
+
+    @Test
+    public void compareOffsetWithKeyset() {
+        for (final int size : SIZES) {
+            final long session = mScratch.createSession();
+            fill(session, size);
+
+            long start = System.nanoTime();
+            final List<Long> offset = pageByOffset(session);
+            final long offsetMillis = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            final List<Long> keyset = pageByKeyset(session);
+            final long keysetMillis = (System.nanoTime() - start) / 1000000;
+
+            assertEquals(size, keyset.size());
+            assertEquals(offset, keyset);
+            Log.i(TAG, size + " rows: offset " + offsetMillis + " ms, keyset " + keysetMillis + " ms");
+        }
+    }
+
+    private void fill(final long session, final int size) {
+        final ScanWriter writer = new ScanWriter(mScratch.db);
+        mScratch.db.beginTransaction();
+        try {
+            for (int i = 0; i < size / WIFIS_PER_SCAN; i++) {
+                final PositionRecord begin = ScratchDatabase.position(session, 2 * i);
+                final PositionRecord end = ScratchDatabase.position(session, 2 * i + 1);
+                writer.insertWifis(begin, end, ScratchDatabase.wifis(session, i, WIFIS_PER_SCAN, begin, end));
+            }
+            mScratch.db.setTransactionSuccessful();
+        } finally {
+            mScratch.db.endTransaction();
+        }
+        writer.close();
+    }
+
+    /**
+     * @return exported wifi ids in export order
+     */
+    private List<Long> pageByOffset(final long session) {
+        final List<Long> ids = new ArrayList<>();
+        int read;
+        do {
+            final Cursor cursor = mScratch.db.rawQuery(OFFSET_QUERY,
+                    new String[]{String.valueOf(session), String.valueOf(ids.size())});
+            read = cursor.getCount();
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            cursor.close();
+        } while (read == WifiSerializer.CURSOR_SIZE);
+        return ids;
+    }
+
+    /**
+     * @return exported wifi ids in export order
+     */
+    private List<Long> pageByKeyset(final long session) {
+        final List<Long> ids = new ArrayList<>();
+        long lastBeginId = -1;
+        long lastId = -1;
+        int read;
+        do {
+            final Cursor cursor = mScratch.db.rawQuery(WifiSerializer.WIFI_SQL_QUERY, new String[]{String.valueOf(session),
+                    String.valueOf(lastBeginId), String.valueOf(lastBeginId), String.valueOf(lastId)});
+            final int colBeginPosId = cursor.getColumnIndex(Schema.COL_BEGIN_POSITION_ID);
+            read = cursor.getCount();
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                lastBeginId = cursor.getLong(colBeginPosId);
+                ids.add(lastId);
+            }
+            cursor.close();
+        } while (read == WifiSerializer.CURSOR_SIZE);
+        return ids;
+    }
+}
@@ -82,6 +82,26 @@ public final class Preferences {
 	 */
 	public static final String KEY_LOG_WIFIS = "save_wifis";
 
+	/**
+	 * Shall wifi scans triggered by other apps be saved?
+	 */
+	public static final String KEY_PASSIVE_WIFIS = "logging.passive_wifis";
+
+	/**
+	 * Shall repeated sightings of a wifi be merged into one record?
+	 */
+	public static final String KEY_COLLAPSE_WIFIS = "logging.collapse_wifis";
+
+	/**
+	 * Max. distance (in meters) to first sighting for merging
+	 */
+	public static final String KEY_COLLAPSE_DISTANCE = "logging.collapse_distance";
+
+	/**
+	 * Max. time (in seconds) since first sighting for merging
+	 */
+	public static final String KEY_COLLAPSE_TIME = "logging.collapse_time";
+
 	/**
 	 * Minimum distance between cells logged.
 	 */
@@ -152,6 +172,31 @@ public final class Preferences {
      */
 	public static final String KEY_GPX_VERBOSITY = "gpx.verbosity";
 
+	/**
+	 * Time window (in milliseconds) for coalescing database change notifications
+	 */
+	public static final String KEY_NOTIFICATION_DELAY = "data.notification_delay";
+
+	/**
+	 * Store each new session in a separate database file
+	 */
+	public static final String KEY_SESSION_SHARDING = "data.session_sharding";
+
+	/**
+	 * Exported sessions not updated for this number of days are deleted, 0 = keep
+	 */
+	public static final String KEY_RETENTION_DAYS = "data.retention_days";
+
+	/**
+	 * Oldest exported sessions are deleted, while sessions take more megabytes, 0 = no limit
+	 */
+	public static final String KEY_RETENTION_MB = "data.retention_mb";
+
+	/**
+	 * Retention dry run button
+	 */
+	public static final String KEY_RETENTION_REPORT = "data.retention_report";
+
 	/*
 	 * Default values following ..
 	 */
@@ -260,6 +305,46 @@ public final class Preferences {
 	 */
 	public static final boolean VAL_SAVE_WIFIS = true;
 
+	/**
+	 * Don't save foreign wifi scans by default
+	 */
+	public static final boolean VAL_PASSIVE_WIFIS = false;
+
+	/**
+	 * Don't merge wifi sightings by default
+	 */
+	public static final boolean VAL_COLLAPSE_WIFIS = false;
+
+	/**
+	 * Default max. distance for merging wifi sightings (in meters)
+	 */
+	public static final String VAL_COLLAPSE_DISTANCE = "10";
+
+	/**
+	 * Default max. time for merging wifi sightings (in seconds)
+	 */
+	public static final String VAL_COLLAPSE_TIME = "60";
+
+	/**
+	 * Default window for coalescing database change notifications (in milliseconds)
+	 */
+	public static final String VAL_NOTIFICATION_DELAY = "500";
+
+	/**
+	 * Keep all sessions in main database by default
+	 */
+	public static final boolean VAL_SESSION_SHARDING = false;
+
+	/**
+	 * Keep exported sessions regardless of age by default
+	 */
+	public static final String VAL_RETENTION_DAYS = "0";
+
+	/**
+	 * Keep exported sessions regardless of size by default
+	 */
+	public static final String VAL_RETENTION_MB = "0";
+
 	/**
 	 * GPS update frequence in seconds, 0 = update position as often as possible by default
 	 */
@@ -25,6 +25,7 @@ import android.preference.PreferenceManager;
 import org.greenrobot.eventbus.EventBus;
 import org.mapsforge.map.android.graphics.AndroidGraphicFactory;
 import org.mapsforge.map.model.DisplayModel;
+import org.openbmap.db.SessionDeleter;
 import org.openbmap.services.MasterBrainService;
 
 public class RadiobeaconApplication extends Application {
@@ -46,6 +47,9 @@ public class RadiobeaconApplication extends Application {
 		Intent serviceIntent = new Intent(getApplicationContext(), MasterBrainService.class);
 		startService(serviceIntent);
 
+		// finish session deletions interrupted by process death
+		SessionDeleter.resume(this);
+
 		AndroidGraphicFactory.createInstance(this);
 		final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
 		final float fs = Float.valueOf(preferences.getString(SETTING_SCALE,
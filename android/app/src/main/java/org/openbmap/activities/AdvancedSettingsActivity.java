@@ -18,19 +18,25 @@
 
 package org.openbmap.activities;
 
+import android.app.AlertDialog;
 import android.content.SharedPreferences;
 import android.location.Location;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.widget.Toast;
 
 import org.openbmap.Preferences;
 import org.openbmap.R;
 import org.openbmap.RadioBeacon;
+import org.openbmap.db.RetentionPolicy;
+import org.openbmap.db.SessionPruner;
 import org.openbmap.utils.CatalogUpdater;
 import org.openbmap.utils.CurrentLocationHelper;
 import org.openbmap.utils.CurrentLocationHelper.LocationResult;
@@ -62,6 +68,8 @@ public class AdvancedSettingsActivity extends PreferenceActivity {
 
 		initCleanDatabaseButton();
 
+		initRetentionReportButton();
+
 		initHomezoneBlockingButton();
 
 		initLocalSyncButton();
@@ -231,5 +239,39 @@ public class AdvancedSettingsActivity extends PreferenceActivity {
 		});
 	}
 
+	/**
+	 * Shows which sessions retention policy would delete (dry run)
+	 */
+	private void initRetentionReportButton() {
+		final Preference pref = findPreference(Preferences.KEY_RETENTION_REPORT);
+		pref.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+			@Override
+			public boolean onPreferenceClick(final Preference preference) {
+				new AsyncTask<Void, Void, RetentionPolicy.Report>() {
+					@Override
+					protected RetentionPolicy.Report doInBackground(final Void... params) {
+						return SessionPruner.dryRun(getApplicationContext());
+					}
+
+					@Override
+					protected void onPostExecute(final RetentionPolicy.Report report) {
+						final String total = Formatter.formatShortFileSize(AdvancedSettingsActivity.this, report.totalBytes);
+						final String message = report.sessions.isEmpty()
+								? getString(R.string.retention_report_nothing, total)
+								: getString(R.string.retention_report, report.sessions.size(),
+										Formatter.formatShortFileSize(AdvancedSettingsActivity.this, report.bytes), total,
+										TextUtils.join(", ", report.sessions));
+						new AlertDialog.Builder(AdvancedSettingsActivity.this)
+								.setTitle(R.string.prefs_retention_report)
+								.setMessage(message)
+								.setPositiveButton(android.R.string.ok, null)
+								.show();
+					}
+				}.execute();
+				return true;
+			}
+		});
+	}
+
 
 }
@@ -99,7 +99,7 @@ public class CellDetailsActivity  extends FragmentActivity {
 		final Bundle extras = getIntent().getExtras();
 		final int id = extras.getInt(Schema.COL_ID);
 		// query content provider for cell details
-		mDisplayed = mDatahelper.loadCellById(id);
+		mDisplayed = mDatahelper.loadCellById(id, extras.getInt(Schema.COL_SESSION_ID));
 		mId = id;
 	}
 
@@ -112,7 +112,7 @@ public class CellDetailsActivity  extends FragmentActivity {
 		final int id = extras.getInt(Schema.COL_ID);
 
 		// query content provider for cell details
-		mDisplayed = mDatahelper.loadCellById(id);
+		mDisplayed = mDatahelper.loadCellById(id, extras.getInt(Schema.COL_SESSION_ID));
 		mId = id;
 
 		displayRecord(mDisplayed);
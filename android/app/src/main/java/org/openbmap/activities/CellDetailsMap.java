@@ -204,7 +204,8 @@ public class CellDetailsMap extends Fragment implements HeatmapBuilderListener,
 		}
 
 		final DataHelper dbHelper = new DataHelper(this.getActivity());
-		args.add(String.valueOf(dbHelper.getActiveSessionId()));
+		final int session = dbHelper.getActiveSessionId();
+		args.add(String.valueOf(session));
 		if (selectSql.length() > 0) {
 			selectSql += " AND ";
 		}
@@ -213,7 +214,7 @@ public class CellDetailsMap extends Fragment implements HeatmapBuilderListener,
 		final String[] projection = {Schema.COL_ID, Schema.COL_STRENGTHDBM, Schema.COL_TIMESTAMP,  "begin_" + Schema.COL_LATITUDE, "begin_" + Schema.COL_LONGITUDE};
 		// query data from content provider
 		return new CursorLoader(getActivity().getBaseContext(),
-				ContentProvider.CONTENT_URI_CELL_EXTENDED, projection, selectSql, args.toArray(new String[args.size()]), Schema.COL_STRENGTHDBM + " DESC");
+				ContentProvider.withSession(ContentProvider.CONTENT_URI_CELL_EXTENDED, session), projection, selectSql, args.toArray(new String[args.size()]), Schema.COL_STRENGTHDBM + " DESC");
 	}
 
 	@Override
@@ -142,6 +142,7 @@ public class CellsListContainer extends ListFragment implements LoaderManager.Lo
 			final Intent intent = new Intent();
 			intent.setClass(getActivity(), CellDetailsActivity.class);
 			intent.putExtra(Schema.COL_ID, (int) id);
+			intent.putExtra(Schema.COL_SESSION_ID, mSession);
 			startActivity(intent);
 		}
 	}
@@ -21,10 +21,12 @@ package org.openbmap.activities;
 import android.app.AlertDialog;
 import android.app.AlertDialog.Builder;
 import android.app.Dialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.v4.app.DialogFragment;
@@ -48,6 +50,8 @@ import org.openbmap.RadioBeacon;
 import org.openbmap.db.ContentProvider;
 import org.openbmap.db.DataHelper;
 import org.openbmap.db.Schema;
+import org.openbmap.db.SessionArchiver;
+import org.openbmap.db.SessionDeleter;
 import org.openbmap.db.models.Session;
 import org.openbmap.utils.ActionModeUtils;
 import org.openbmap.utils.ActionModeUtils.LongClickCallback;
@@ -217,13 +221,33 @@ LoaderCallbacks<Cursor>, LongClickCallback, OnAlertClickInterface {
 	private void resume(final int id) {
 		final DataHelper datahelper = new DataHelper(this.getActivity());
 		final Session check = datahelper.loadSession(id);
-		if (check != null && !check.hasBeenExported()) {
+		if (SessionDeleter.isPending(getActivity(), id)) {
+			Toast.makeText(this.getActivity(), R.string.warning_session_deleting, Toast.LENGTH_SHORT).show();
+		} else if (check != null && !check.hasBeenExported()) {
 			((SessionFragementListener) getActivity()).resumeCommand(id);
 		} else {
 			Toast.makeText(this.getActivity(), R.string.warning_session_closed, Toast.LENGTH_SHORT).show();
 		}
 	}
 
+	/**
+	 * Moves uploaded session into cold storage, see {@link SessionArchiver}
+	 */
+	private void archive(final int id) {
+		final Context context = getActivity().getApplicationContext();
+		new AsyncTask<Void, Void, Boolean>() {
+			@Override
+			protected Boolean doInBackground(final Void... params) {
+				return SessionArchiver.archive(context, id);
+			}
+
+			@Override
+			protected void onPostExecute(final Boolean success) {
+				Toast.makeText(context, success ? R.string.session_archived : R.string.session_archive_failed, Toast.LENGTH_SHORT).show();
+			}
+		}.execute();
+	}
+
 	/*
 	 * OnListClick resumes corresponding session.
 	 */
@@ -244,7 +268,8 @@ LoaderCallbacks<Cursor>, LongClickCallback, OnAlertClickInterface {
 				Schema.COL_HAS_BEEN_EXPORTED,
 				Schema.COL_NUMBER_OF_CELLS,
 				Schema.COL_NUMBER_OF_WIFIS,
-                Schema.COL_NUMBER_OF_WAYPOINTS
+                Schema.COL_NUMBER_OF_WAYPOINTS,
+				Schema.COL_IS_DELETING
 		};
 		return new CursorLoader(getActivity().getBaseContext(),
 				ContentProvider.CONTENT_URI_SESSION, projection, null, null, Schema.COL_CREATED_AT + " DESC");
@@ -286,7 +311,11 @@ LoaderCallbacks<Cursor>, LongClickCallback, OnAlertClickInterface {
 				//Log.d(TAG, "Modifying col " + cursor.getColumnIndex(Schema.COL_IS_ACTIVE));
 				// symbol for active track
 				final int result = cursor.getInt(columnIndex);
-				if (result > 0) {
+				if (cursor.getInt(cursor.getColumnIndex(Schema.COL_IS_DELETING)) == Schema.DELETING_SESSION) {
+					// Trash icon while deleting, counters count down
+					imgStatus.setImageResource(android.R.drawable.ic_menu_delete);
+					imgStatus.setVisibility(View.VISIBLE);
+				} else if (result > 0) {
 					// Yellow clock icon for Active
 					imgStatus.setImageResource(android.R.drawable.presence_away);
 					imgStatus.setVisibility(View.VISIBLE);
@@ -297,7 +326,11 @@ LoaderCallbacks<Cursor>, LongClickCallback, OnAlertClickInterface {
 			} else if (columnIndex == cursor.getColumnIndex(Schema.COL_HAS_BEEN_EXPORTED)) {
 				// symbol for uploaded tracks
 				final int result = cursor.getInt(columnIndex);
-				if (result > 0) {
+				if (result > 0 && SessionArchiver.isArchived(view.getContext(), cursor.getLong(cursor.getColumnIndex(Schema.COL_ID)))) {
+					// Save icon for archived sessions
+					imgUpload.setImageResource(android.R.drawable.ic_menu_save);
+					imgUpload.setVisibility(View.VISIBLE);
+				} else if (result > 0) {
 					// Lock icon for uploaded sessions
 					imgUpload.setImageResource(android.R.drawable.ic_lock_lock);
 					imgUpload.setVisibility(View.VISIBLE);
@@ -326,6 +359,11 @@ LoaderCallbacks<Cursor>, LongClickCallback, OnAlertClickInterface {
 			return true;
 		}
 
+		if (item != R.id.menu_delete_all_sessions && SessionDeleter.isPending(getActivity(), id)) {
+			Toast.makeText(this.getActivity(), R.string.warning_session_deleting, Toast.LENGTH_SHORT).show();
+			return true;
+		}
+
 		switch (item) {
 			case R.id.menu_upload_session:
 				final DataHelper datahelper = new DataHelper(this.getActivity());
@@ -345,6 +383,9 @@ LoaderCallbacks<Cursor>, LongClickCallback, OnAlertClickInterface {
 			case R.id.menu_save_gpx:
 				((SessionFragementListener) getActivity()).saveGpxCommand(id);
 				return true;
+			case R.id.menu_archive_session:
+				archive(id);
+				return true;
 			case R.id.menu_delete_session:
 				((SessionFragementListener) getActivity()).deleteCommand(id);
 				return true;
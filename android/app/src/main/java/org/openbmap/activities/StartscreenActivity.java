@@ -42,6 +42,7 @@ import org.openbmap.Preferences;
 import org.openbmap.R;
 import org.openbmap.RadioBeacon;
 import org.openbmap.db.DataHelper;
+import org.openbmap.db.SessionDeleter;
 import org.openbmap.db.models.Session;
 import org.openbmap.events.onStartTracking;
 import org.openbmap.events.onStopTracking;
@@ -371,7 +372,7 @@ implements SessionListFragment.SessionFragementListener, OnAlertClickInterface,
 	}
 
 	/**
-	 * User has confirmed delete
+	 * User has confirmed delete. Session is deleted in the background, see {@link SessionDeleter}
 	 * @param id
 	 */
 	public final void deleteConfirmed(final int id) {
@@ -381,10 +382,12 @@ implements SessionListFragment.SessionFragementListener, OnAlertClickInterface,
 
 		Log.i(TAG, "Deleting session " + id);
 
-		// Signalling service stop request
-        EventBus.getDefault().post(new onStopTracking());
+		// Signalling service stop request, other sessions keep logging while deleting
+		if (id == mDataHelper.getActiveSessionId()) {
+			EventBus.getDefault().post(new onStopTracking());
+		}
 
-		mDataHelper.deleteSession(id);
+		SessionDeleter.deleteInBackground(this, id);
 
 		final boolean skipDelete = PreferenceManager.getDefaultSharedPreferences(this).getBoolean(Preferences.KEY_KEEP_XML, Preferences.VAL_KEEP_XML);
 
@@ -395,7 +398,7 @@ implements SessionListFragment.SessionFragementListener, OnAlertClickInterface,
 
 		// force UI list update
 		updateUI();
-		Toast.makeText(getBaseContext(), R.string.deleted, Toast.LENGTH_SHORT).show();
+		Toast.makeText(getBaseContext(), R.string.deleting, Toast.LENGTH_SHORT).show();
 	}
 
 	/* (non-Javadoc)
@@ -411,7 +414,7 @@ implements SessionListFragment.SessionFragementListener, OnAlertClickInterface,
 	public final void deleteAllConfirmed() {
 		// Signalling service stop request
         EventBus.getDefault().post(new onStopTracking());
-		mDataHelper.deleteAllSession();
+		SessionDeleter.deleteAllInBackground(this);
 
 		updateUI();
 	}
@@ -597,6 +600,8 @@ implements SessionListFragment.SessionFragementListener, OnAlertClickInterface,
 		final Session session = mDataHelper.loadSession(id);
 		session.hasBeenExported(true);
 		session.isActive(false);
+		// retention age counts from export
+		session.setLastUpdated(System.currentTimeMillis());
 		mDataHelper.storeSession(session, false);
 
 		completedExports += 1;
@@ -46,6 +46,7 @@ import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.openbmap.R;
 import org.openbmap.RadioBeacon;
+import org.openbmap.db.DataHelper;
 import org.openbmap.db.models.CellRecord;
 import org.openbmap.db.models.Session;
 import org.openbmap.events.onCellUpdated;
@@ -75,6 +76,7 @@ public class StatsActivity extends Fragment {
     private TextView tvCellStrength;
     private TextView tvWifiDescription;
     private TextView tvWifiStrength;
+    private TextView tvBssidCount;
     private TextView tvTechnology;
     private TextView tvIgnored;
     private TextView tvFree;
@@ -203,6 +205,20 @@ public class StatsActivity extends Fragment {
 
         tvWifiStrength.setText(String.format("%d dBm", wifiStrength));
         mLastWifiUpdate = System.currentTimeMillis();
+        showBssidCount();
+    }
+
+    /**
+     * Shows active session's distinct bssid count (maintained by database, see {@link org.openbmap.db.SessionCounters})
+     */
+    private void showBssidCount() {
+        if (getActivity() == null) {
+            return;
+        }
+        final Session active = new DataHelper(getActivity()).loadActiveSession();
+        if (active != null) {
+            tvBssidCount.setText(getString(R.string.distinct_bssids, active.getBssidsCount()));
+        }
     }
 
     @Subscribe
@@ -297,6 +313,8 @@ public class StatsActivity extends Fragment {
         registerReceiver();
 
         startRepeatingTask();
+
+        showBssidCount();
     }
 
     void startRepeatingTask() {
@@ -334,6 +352,7 @@ public class StatsActivity extends Fragment {
 
         tvWifiDescription = (TextView) view.findViewById(R.id.stats_wifi_description);
         tvWifiStrength = (TextView) view.findViewById(R.id.stats_wifi_strength);
+        tvBssidCount = (TextView) view.findViewById(R.id.stats_bssid_count);
 
         tvIgnored = (TextView) view.findViewById(R.id.stats_blacklisted);
         tvFree = (TextView) view.findViewById(R.id.stats_free);
@@ -36,6 +36,7 @@ import org.greenrobot.eventbus.Subscribe;
 import org.openbmap.R;
 import org.openbmap.RadioBeacon;
 import org.openbmap.db.DataHelper;
+import org.openbmap.db.models.Session;
 import org.openbmap.events.onCellUpdated;
 import org.openbmap.events.onLocationUpdate;
 import org.openbmap.events.onWifiAdded;
@@ -167,15 +168,28 @@ public class StatusBar extends LinearLayout {
     @Subscribe
 	public void onEvent(onCellUpdated event) {
 		if (mDataHelper != null) {
-			tvCellCount.setText(String.valueOf(mDataHelper.countCells(mDataHelper.getActiveSessionId())));
+			final Session active = mDataHelper.loadActiveSession();
+			if (active != null) {
+				tvCellCount.setText(String.valueOf(active.getCellsCount()));
+			}
 		}
 	}
 
     @Subscribe
 	public void onEvent(onWifiAdded event) {
 		if (mDataHelper != null) {
-			tvWifiCount.setText(String.valueOf(mDataHelper.countWifis(mDataHelper.getActiveSessionId())));
-			tvNewWifiCount.setText(String.valueOf(mDataHelper.countNewWifis(mDataHelper.getActiveSessionId())));
+			showWifiCounts();
+		}
+	}
+
+	/**
+	 * Shows active session's wifi counters (maintained by database, so no need for aggregate queries)
+	 */
+	private void showWifiCounts() {
+		final Session active = mDataHelper.loadActiveSession();
+		if (active != null) {
+			tvWifiCount.setText(String.valueOf(active.getWifisCount()));
+			tvNewWifiCount.setText(String.valueOf(active.getNewWifisCount()));
 		}
 	}
 
@@ -184,8 +198,7 @@ public class StatusBar extends LinearLayout {
 		super.onAttachedToWindow();
 		mDataHelper = new DataHelper(mContext);
 
-        tvWifiCount.setText(String.valueOf(mDataHelper.countWifis(mDataHelper.getActiveSessionId())));
-        tvNewWifiCount.setText(String.valueOf(mDataHelper.countNewWifis(mDataHelper.getActiveSessionId())));
+		showWifiCounts();
 
 		registerReceiver();
 	}
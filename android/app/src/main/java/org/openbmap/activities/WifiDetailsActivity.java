@@ -133,7 +133,7 @@ public class WifiDetailsActivity extends FragmentActivity {
                 Cursor cur = null;
                 cur = mCatalog.rawQuery("SELECT _id, manufactor FROM manufactors WHERE "
                                 + "(bssid = ?) LIMIT 1",
-                        new String[]{wifi.getBssid().replace(":", "").replace("-", "").substring(0, 6).toUpperCase()});
+                        new String[]{WifiRecord.bssidToHex(wifi.getBssidLong()).substring(0, 6)});
 
                 if (cur.moveToFirst()) {
                     final String manufactor = cur.getString(cur.getColumnIndex("manufactor"));
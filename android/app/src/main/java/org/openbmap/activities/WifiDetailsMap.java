@@ -220,13 +220,16 @@ public class WifiDetailsMap extends Fragment implements HeatmapBuilderListener,
 		// set query params: bssid and session id
 		final String[] args = {"-1", String.valueOf(RadioBeacon.SESSION_NOT_TRACKING)};
 		if (mWifi != null) {
-			args[0] = mWifi.getBssid();
+			// bssids are stored as integers
+			args[0] = String.valueOf(mWifi.getBssidLong());
 		}
 		final DataHelper dbHelper = new DataHelper(this.getActivity());
-		args[1] = String.valueOf(dbHelper.getActiveSessionId());
+		final int session = dbHelper.getActiveSessionId();
+		args[1] = String.valueOf(session);
 
 		final String[] projection = { Schema.COL_ID, Schema.COL_SSID, Schema.COL_LEVEL,  "begin_" + Schema.COL_LATITUDE, "begin_" + Schema.COL_LONGITUDE};
-		return new CursorLoader(getActivity().getBaseContext(),  ContentProvider.CONTENT_URI_WIFI_EXTENDED,
+		return new CursorLoader(getActivity().getBaseContext(),
+						ContentProvider.withSession(ContentProvider.CONTENT_URI_WIFI_EXTENDED, session),
 						projection, Schema.COL_BSSID + " = ? AND " + Schema.COL_SESSION_ID + " = ?", args, Schema.COL_LEVEL + " ASC");
 	}
 
@@ -45,6 +45,7 @@ import org.openbmap.R;
 import org.openbmap.db.ContentProvider;
 import org.openbmap.db.DataHelper;
 import org.openbmap.db.Schema;
+import org.openbmap.db.models.WifiRecord;
 import org.openbmap.utils.TriToggleButton;
 
 /**
@@ -273,7 +274,7 @@ public class WifiListContainer extends ListFragment implements LoaderManager.Loa
 			// documentation says call getListView().getItemAtPosition(position) not lv directly
 			// see http://developer.android.com/reference/android/app/ListFragment.html
 			final Cursor row = (Cursor) getListView().getItemAtPosition(position);
-			final String bssid = row.getString(row.getColumnIndex(Schema.COL_BSSID));
+			final String bssid = WifiRecord.bssidToString(row.getLong(row.getColumnIndex(Schema.COL_BSSID)));
 
 			final Intent intent = new Intent();
 			intent.setClass(getActivity(), WifiDetailsActivity.class);
@@ -361,6 +362,12 @@ public class WifiListContainer extends ListFragment implements LoaderManager.Loa
 				return true;
 			}
 
+			if (columnIndex == cursor.getColumnIndex(Schema.COL_BSSID)) {
+				// bssids are stored as integers
+				((TextView) view).setText(WifiRecord.bssidToString(cursor.getLong(columnIndex)));
+				return true;
+			}
+
 			if (columnIndex == cursor.getColumnIndex(Schema.COL_SSID)) {
 				final String encryp = cursor.getString(cursor.getColumnIndex(Schema.COL_CAPABILITIES));
 				// some devices report no encryption for free wifis, others (e.g. Nexus 4) 
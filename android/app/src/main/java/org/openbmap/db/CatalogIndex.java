@@ -0,0 +1,297 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.openbmap.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import org.openbmap.db.models.WifiRecord;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Compiled bssid membership index for a wifi catalog
+ * <p/>
+ * Side file next to the catalog database containing the catalog's bssids as sorted 48-bit keys
+ * plus the catalog source byte. The file is memory-mapped and binary-searched, so lookups
+ * don't need a SQLite cursor and don't allocate.
+ * <p/>
+ * File layout (big endian):
+ * <pre>
+ *     int  magic
+ *     int  version
+ *     long catalog file length at build time
+ *     long catalog file modification time at build time
+ *     int  number of records
+ *     int  reserved
+ *     n * (6 byte bssid, 1 byte source)
+ * </pre>
+ * Index is considered stale (and must be rebuilt) if catalog's length or modification time differ
+ */
+public final class CatalogIndex {
+
+    private static final String TAG = CatalogIndex.class.getSimpleName();
+
+    /**
+     * Index file extension, appended to catalog file name
+     */
+    public static final String EXTENSION = ".bssidx";
+
+    /**
+     * Returned by lookup, if bssid isn't in catalog
+     */
+    public static final int NOT_FOUND = -1;
+
+    private static final int MAGIC = 0x42534958;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int RECORD_SIZE = 7;
+
+    private final ByteBuffer mBuffer;
+
+    private final int mCount;
+
+    private CatalogIndex(final ByteBuffer buffer, final int count) {
+        mBuffer = buffer;
+        mCount = count;
+    }
+
+    /**
+     * @param catalog catalog database file
+     * @return index file belonging to catalog
+     */
+    public static File indexFileFor(final File catalog) {
+        return new File(catalog.getAbsolutePath() + EXTENSION);
+    }
+
+    /**
+     * Opens index for given catalog
+     *
+     * @param catalog catalog database file
+     * @return index or null, if index doesn't exist, is invalid or outdated
+     */
+    public static CatalogIndex open(final File catalog) {
+        final File index = indexFileFor(catalog);
+        if (!index.exists()) {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(index, "r");
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                Log.w(TAG, "Invalid catalog index " + index);
+                return null;
+            }
+            if (buffer.getLong(8) != catalog.length() || buffer.getLong(16) != catalog.lastModified()) {
+                Log.i(TAG, "Catalog index outdated " + index);
+                return null;
+            }
+            final int count = buffer.getInt(24);
+            if (channel.size() != HEADER_SIZE + (long) count * RECORD_SIZE) {
+                Log.w(TAG, "Catalog index truncated " + index);
+                return null;
+            }
+            return new CatalogIndex(buffer, count);
+        } catch (final IOException e) {
+            Log.e(TAG, "Can't open catalog index " + index + ": " + e.toString());
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (final IOException e) {
+                    Log.w(TAG, "Error closing catalog index");
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiles index for given catalog. Catalog must contain table wifi_zone with columns bssid and source
+     *
+     * @param catalog catalog database file
+     * @return number of indexed bssids or -1 on error
+     */
+    public static int build(final File catalog) {
+        // take file stats before reading, so concurrent modifications mark index as outdated
+        final long length = catalog.length();
+        final long lastModified = catalog.lastModified();
+
+        SQLiteDatabase db = null;
+        Cursor cursor = null;
+        try {
+            db = SQLiteDatabase.openDatabase(catalog.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+            cursor = db.rawQuery("SELECT bssid, source FROM wifi_zone", null);
+
+            long[] packed = new long[Math.max(cursor.getCount(), 16)];
+            int n = 0;
+            while (cursor.moveToNext()) {
+                final long key = parseBssid(cursor.getString(0));
+                if (key == NOT_FOUND) {
+                    continue;
+                }
+                if (n == packed.length) {
+                    packed = Arrays.copyOf(packed, n * 2);
+                }
+                packed[n++] = pack(key, cursor.getInt(1));
+            }
+
+            write(indexFileFor(catalog), length, lastModified, packed, n);
+            Log.i(TAG, "Built catalog index for " + catalog.getName());
+            return n;
+        } catch (final SQLiteException e) {
+            Log.e(TAG, "Can't read catalog " + catalog + ": " + e.toString());
+            return -1;
+        } catch (final IOException e) {
+            Log.e(TAG, "Can't write catalog index for " + catalog + ": " + e.toString());
+            return -1;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (db != null) {
+                db.close();
+            }
+        }
+    }
+
+    /**
+     * Writes index file. Records are sorted and de-duplicated (for duplicate bssids lowest source wins)
+     *
+     * @param index        target file
+     * @param length       catalog file length
+     * @param lastModified catalog modification time
+     * @param packed       records as created by {@link #pack(long, int)}, modified in place
+     * @param n            number of valid records in packed
+     * @throws IOException
+     */
+    static void write(final File index, final long length, final long lastModified, final long[] packed, final int n) throws IOException {
+        Arrays.sort(packed, 0, n);
+
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || (packed[unique - 1] >>> 8) != (packed[i] >>> 8)) {
+                packed[unique++] = packed[i];
+            }
+        }
+
+        // write to temp file first, so readers never see partially written index
+        final File temp = new File(index.getAbsolutePath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            out.writeInt(unique);
+            out.writeInt(0);
+            for (int i = 0; i < unique; i++) {
+                final long key = packed[i] >>> 8;
+                out.writeShort((int) (key >>> 32));
+                out.writeInt((int) key);
+                out.writeByte((int) (packed[i] & 0xff));
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(index)) {
+            index.delete();
+            if (!temp.renameTo(index)) {
+                throw new IOException("Can't rename " + temp + " to " + index);
+            }
+        }
+    }
+
+    /**
+     * @return number of bssids in index
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Looks up bssid in index
+     *
+     * @param bssid bssid, either with or without separators, case insensitive
+     * @return catalog source or {@link #NOT_FOUND}
+     */
+    public int lookup(final String bssid) {
+        final long key = parseBssid(bssid);
+        return key == NOT_FOUND ? NOT_FOUND : lookup(key);
+    }
+
+    /**
+     * Looks up 48-bit bssid key in index
+     *
+     * @param key bssid as created by {@link #parseBssid(String)}
+     * @return catalog source or {@link #NOT_FOUND}
+     */
+    public int lookup(final long key) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int pos = HEADER_SIZE + mid * RECORD_SIZE;
+            final long current = ((long) (mBuffer.getShort(pos) & 0xffff) << 32) | (mBuffer.getInt(pos + 2) & 0xffffffffL);
+            if (current < key) {
+                low = mid + 1;
+            } else if (current > key) {
+                high = mid - 1;
+            } else {
+                return mBuffer.get(pos + 6) & 0xff;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Converts bssid to 48-bit key. Separators (':', '-') are ignored
+     *
+     * @param bssid bssid, e.g. 00:11:22:AA:BB:CC or 001122aabbcc
+     * @return key or {@link #NOT_FOUND} if bssid is malformed
+     */
+    public static long parseBssid(final String bssid) {
+        return WifiRecord.bssidToLong(bssid);
+    }
+
+    /**
+     * Packs key and source into a single sortable long
+     */
+    static long pack(final long key, final int source) {
+        return (key << 8) | (source & 0xff);
+    }
+}
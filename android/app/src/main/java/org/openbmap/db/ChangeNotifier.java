@@ -0,0 +1,215 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import org.openbmap.Preferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Debounces content change notifications
+ * Writes within the debounce window are coalesced into a single notification per uri.
+ * Also counts how many queries are triggered by notifications (re-queries)
+ * Content provider and {@link ScanWriteBuffer} share the process-wide instance ({@link #getInstance(Context)}),
+ * so their notifications are coalesced together
+ */
+public class ChangeNotifier {
+
+	private static final String TAG = ChangeNotifier.class.getSimpleName();
+
+	/**
+	 * Queries on a notified uri within this time after notification are counted as re-queries (millis)
+	 */
+	private static final long REQUERY_WINDOW = 2000;
+
+	/**
+	 * Metrics are logged every n notifications
+	 */
+	private static final int LOG_INTERVAL = 100;
+
+	private static ChangeNotifier sInstance;
+
+	private final ContentResolver mResolver;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private volatile long mWindow;
+
+	private final Set<Uri> mPending = new LinkedHashSet<>();
+
+	/**
+	 * Time of last notification by uri
+	 */
+	private final Map<Uri, Long> mNotifiedAt = new HashMap<>();
+
+	/*
+	 * Metrics
+	 */
+	private long mRequested;
+	private long mSent;
+	private long mQueries;
+	private long mRequeries;
+
+	private final Runnable mFlush = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * @param context context
+	 * @return process-wide notifier, debounce window as configured in preferences
+	 */
+	public static synchronized ChangeNotifier getInstance(final Context context) {
+		if (sInstance == null) {
+			final Context appContext = context.getApplicationContext();
+			sInstance = new ChangeNotifier(appContext.getContentResolver(),
+					getWindow(PreferenceManager.getDefaultSharedPreferences(appContext)));
+		}
+		return sInstance;
+	}
+
+	/**
+	 * @param prefs shared preferences
+	 * @return configured debounce window for change notifications (millis)
+	 */
+	static long getWindow(final SharedPreferences prefs) {
+		try {
+			return Long.parseLong(prefs.getString(Preferences.KEY_NOTIFICATION_DELAY, Preferences.VAL_NOTIFICATION_DELAY));
+		} catch (final NumberFormatException e) {
+			Log.w(TAG, "Invalid notification delay, using default");
+			return Long.parseLong(Preferences.VAL_NOTIFICATION_DELAY);
+		}
+	}
+
+	/**
+	 * @param resolver content resolver used for notifications
+	 * @param window debounce window in millis, 0 sends notifications immediately
+	 */
+	public ChangeNotifier(final ContentResolver resolver, final long window) {
+		mResolver = resolver;
+		mWindow = window;
+	}
+
+	/**
+	 * Sets debounce window
+	 * @param window debounce window in millis, 0 sends notifications immediately
+	 */
+	public final void setWindow(final long window) {
+		mWindow = window;
+	}
+
+	/**
+	 * Schedules change notification for uri
+	 * @param uri changed uri
+	 */
+	public final void notifyChange(final Uri uri) {
+		final boolean schedule;
+		synchronized (this) {
+			mRequested++;
+			schedule = mPending.isEmpty();
+			mPending.add(uri);
+		}
+		if (mWindow <= 0) {
+			flush();
+		} else if (schedule) {
+			mHandler.postDelayed(mFlush, mWindow);
+		}
+	}
+
+	/**
+	 * Records a query, used to count re-queries caused by notifications
+	 * @param uri queried uri
+	 */
+	public final synchronized void onQuery(final Uri uri) {
+		mQueries++;
+		final long now = SystemClock.elapsedRealtime();
+		for (final Map.Entry<Uri, Long> notified : mNotifiedAt.entrySet()) {
+			if (now - notified.getValue() <= REQUERY_WINDOW && isSameOrDescendant(uri, notified.getKey())) {
+				mRequeries++;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Sends all pending notifications
+	 */
+	private void flush() {
+		final ArrayList<Uri> uris;
+		final boolean log;
+		synchronized (this) {
+			uris = new ArrayList<>(mPending);
+			mPending.clear();
+			final long now = SystemClock.elapsedRealtime();
+			for (final Uri uri : uris) {
+				mNotifiedAt.put(uri, now);
+			}
+			log = mSent / LOG_INTERVAL != (mSent + uris.size()) / LOG_INTERVAL;
+			mSent += uris.size();
+		}
+
+		for (final Uri uri : uris) {
+			mResolver.notifyChange(uri, null);
+		}
+
+		if (log) {
+			logMetrics();
+		}
+	}
+
+	/**
+	 * @return number of change notifications requested so far, before debouncing
+	 */
+	final synchronized long getRequested() {
+		return mRequested;
+	}
+
+	/**
+	 * Dumps metrics to log
+	 */
+	public final synchronized void logMetrics() {
+		Log.i(TAG, "Change notification metrics: " + mRequested + " changes, " + mSent + " notifications sent"
+				+ ", " + mQueries + " queries, " + mRequeries + " re-queries after notification");
+	}
+
+	/**
+	 * Checks whether uri equals parent or is below parent (observers of parent uri are notified on descendant's changes and vice versa)
+	 */
+	private static boolean isSameOrDescendant(final Uri uri, final Uri parent) {
+		final String path = uri.toString();
+		final String parentPath = parent.toString();
+		return path.equals(parentPath) || path.startsWith(parentPath + "/");
+	}
+}
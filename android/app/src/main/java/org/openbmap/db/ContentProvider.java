@@ -18,19 +18,28 @@
 
 package org.openbmap.db;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
+import org.openbmap.Preferences;
 import org.openbmap.RadioBeacon;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Content provider
@@ -101,6 +110,92 @@ public class ContentProvider extends android.content.ContentProvider {
 	 */
 	public static final String CONTENT_URI_BSSID_SUFFIX = "bssid";
 
+	/**
+	 * Query parameter, which scopes URIs without session path segment to session's database (see {@link SessionShards})
+	 * URIs without this parameter are served from main database
+	 */
+	public static final String QUERY_PARAM_SESSION = "session";
+
+	/**
+	 * Scopes uri to session's database
+	 * @param uri uri
+	 * @param session session id
+	 * @return uri with {@link #QUERY_PARAM_SESSION}
+	 */
+	public static Uri withSession(final Uri uri, final long session) {
+		return uri.buildUpon().appendQueryParameter(QUERY_PARAM_SESSION, String.valueOf(session)).build();
+	}
+
+	/**
+	 * Wifi overview: strongest measurement per bssid, materialized in TBL_WIFI_OVERVIEW (see {@link OverviewTable})
+	 * Also read by {@link SessionArchiver}, which keeps overview rows of archived sessions
+	 */
+	static final String WIFI_OVERVIEW_TABLES = Schema.TBL_WIFI_OVERVIEW + " as w "
+			+ " JOIN " + Schema.TBL_POSITIONS + " as b ON " + Schema.COL_BEGIN_POSITION_ID + " = b." + Schema.COL_ID;
+
+	static final String[] WIFI_OVERVIEW_COLUMNS = {
+			"w." + Schema.COL_WIFI_ID + " as " + Schema.COL_ID,
+			"w." + Schema.COL_BSSID,
+			"w." + Schema.COL_MD5_SSID,
+			"w." + Schema.COL_SSID,
+			// keep former column name for existing readers
+			"w." + Schema.COL_LEVEL + " as \"" + Schema.COL_MAX_LEVEL + "\"",
+			"w." + Schema.COL_CAPABILITIES,
+			"w." + Schema.COL_FREQUENCY,
+			"w." + Schema.COL_TIMESTAMP,
+			"w." + Schema.COL_BEGIN_POSITION_ID,
+			"w." + Schema.COL_END_POSITION_ID,
+			"w." + Schema.COL_KNOWN_WIFI,
+			"w." + Schema.COL_FIRST_SEEN,
+			"w." + Schema.COL_LAST_SEEN,
+			"w." + Schema.COL_OBSERVATIONS
+	};
+
+	/**
+	 * Cell overview: strongest measurement per cell, materialized in TBL_CELL_OVERVIEW (see {@link OverviewTable})
+	 * Like the former aggregation, only cells with a stored position are listed. Unlike it, the join applies
+	 * to the strongest measurement only, which differs once positions are deleted while overview rows remain.
+	 * That only happens while {@link SessionDeleter} purges an archived session: the session is archived before
+	 * its positions go, so overview queries are already served from archive (see {@link #queryArchive}),
+	 * where rows have been joined before purging
+	 */
+	static final String CELL_OVERVIEW_TABLES = Schema.TBL_CELL_OVERVIEW + " as c "
+			+ " JOIN " + Schema.TBL_POSITIONS + " as b ON c." + Schema.COL_BEGIN_POSITION_ID + " = b." + Schema.COL_ID;
+
+	static final String[] CELL_OVERVIEW_COLUMNS = {
+			"c." + Schema.COL_CELL_ID + " as " + Schema.COL_ID,
+			Schema.COL_LOGICAL_CELLID,
+			Schema.COL_ACTUAL_CELLID,
+			Schema.COL_PSC,
+			Schema.COL_CDMA_BASEID,
+			Schema.COL_CDMA_SYSTEMID,
+			Schema.COL_CDMA_NETWORKID,
+			Schema.COL_OPERATORNAME,
+			Schema.COL_OPERATOR,
+			Schema.COL_MCC,
+			Schema.COL_MNC,
+			Schema.COL_AREA,
+			Schema.COL_PSC,
+			Schema.COL_NETWORKTYPE,
+			Schema.COL_IS_SERVING,
+			// keep former column name for existing readers
+			Schema.COL_STRENGTHDBM + " as \"MAX(" + Schema.COL_STRENGTHDBM + ")\"",
+			Schema.COL_FIRST_SEEN,
+			Schema.COL_LAST_SEEN,
+			Schema.COL_OBSERVATIONS
+	};
+
+	static final String CELL_OVERVIEW_SELECTION = "c." + Schema.COL_SESSION_ID + " = ? AND " + Schema.COL_LOGICAL_CELLID + " > ?";
+
+	static final String CELL_OVERVIEW_ORDER = Schema.COL_IS_SERVING + " DESC";
+
+	/**
+	 * @return arguments for {@link #CELL_OVERVIEW_SELECTION}
+	 */
+	static String[] cellOverviewArgs(final long session) {
+		return new String[]{String.valueOf(session), "-1"};
+	}
+
 	/**
 	 * Uri Matcher
 	 */
@@ -138,20 +233,201 @@ public class ContentProvider extends android.content.ContentProvider {
 	}
 
 	/**
-	 * Database Helper
+	 * Main database: session list and all sessions, which aren't sharded (see {@link SessionShards})
 	 */
 	private DatabaseHelper mDbHelper;
 
+	/**
+	 * Uris changed within the calling thread's running batch, null if no batch is running
+	 */
+	private final ThreadLocal<Set<Uri>> mDeferred = new ThreadLocal<>();
+
+	/**
+	 * Debounces change notifications
+	 */
+	private ChangeNotifier mNotifier;
+
+	/**
+	 * Updates debounce window on settings change (strong reference required, as preferences only keep weak references)
+	 */
+	private final SharedPreferences.OnSharedPreferenceChangeListener mPrefsListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+		@Override
+		public void onSharedPreferenceChanged(final SharedPreferences prefs, final String key) {
+			if (Preferences.KEY_NOTIFICATION_DELAY.equals(key)) {
+				mNotifier.setWindow(ChangeNotifier.getWindow(prefs));
+			}
+		}
+	};
+
 	@Override
 	public final boolean onCreate() {
-		mDbHelper = new DatabaseHelper(getContext().getApplicationContext());
-		final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+		// foreign key constraints are enabled by DatabaseHelper on every connection
+		mDbHelper = DatabaseHelper.getInstance(getContext());
 
-		// Enable foreign key constraints (per connection)
-		db.execSQL("PRAGMA foreign_keys = ON");
+		final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
+		mNotifier = ChangeNotifier.getInstance(getContext());
+		prefs.registerOnSharedPreferenceChangeListener(mPrefsListener);
 		return true;
 	}
 
+	/**
+	 * Replaces main database and change notifier after {@link #onCreate()}, used by benchmarks on a scratch database
+	 * @param helper main database
+	 * @param notifier change notifier
+	 */
+	final void attach(final DatabaseHelper helper, final ChangeNotifier notifier) {
+		mDbHelper = helper;
+		mNotifier = notifier;
+	}
+
+
+	/**
+	 * Applies all operations in a single transaction
+	 * If any operation fails, the whole batch is rolled back.
+	 * Change notifications are sent once per affected uri after commit
+	 */
+	@Override
+	public final ContentProviderResult[] applyBatch(final ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+		final Set<Uri> changed = beginDeferred(db);
+		boolean committed = false;
+		try {
+			final ContentProviderResult[] results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+			committed = true;
+			return results;
+		} finally {
+			endDeferred(db, changed, committed);
+		}
+	}
+
+	/**
+	 * Inserts all rows in a single transaction
+	 * Change notifications are sent once per affected uri after commit
+	 * @return number of inserted rows
+	 */
+	@Override
+	public final int bulkInsert(final Uri uri, final ContentValues[] values) {
+		final SQLiteDatabase db = helperFor(uri).getWritableDatabase();
+		final Set<Uri> changed = beginDeferred(db);
+		boolean committed = false;
+		try {
+			int rows = 0;
+			for (final ContentValues row : values) {
+				if (insert(uri, row) != null) {
+					rows++;
+				}
+			}
+			db.setTransactionSuccessful();
+			committed = true;
+			return rows;
+		} finally {
+			endDeferred(db, changed, committed);
+		}
+	}
+
+	/**
+	 * Starts transaction, change notifications are collected until {@link #endDeferred(SQLiteDatabase, Set, boolean)}
+	 * @return set collecting changed uris
+	 */
+	private Set<Uri> beginDeferred(final SQLiteDatabase db) {
+		final Set<Uri> changed = new LinkedHashSet<>();
+		db.beginTransaction();
+		mDeferred.set(changed);
+		return changed;
+	}
+
+	/**
+	 * Ends transaction and sends collected change notifications, if transaction has been committed
+	 */
+	private void endDeferred(final SQLiteDatabase db, final Set<Uri> changed, final boolean committed) {
+		mDeferred.remove();
+		db.endTransaction();
+		if (committed) {
+			for (final Uri uri : changed) {
+				notifyChange(uri);
+			}
+		}
+	}
+
+	/**
+	 * Notifies observers about changes, deferred if called within a batch
+	 * Notifications are debounced by {@link ChangeNotifier}
+	 * @param uri changed uri
+	 */
+	private void notifyChange(final Uri uri) {
+		final Set<Uri> deferred = mDeferred.get();
+		if (deferred != null) {
+			deferred.add(uri);
+		} else {
+			mNotifier.notifyChange(uri);
+		}
+	}
+
+	/**
+	 * @param session session id
+	 * @return database helper holding session's data
+	 */
+	private DatabaseHelper helperFor(final long session) {
+		return SessionShards.isSharded(getContext(), session) ? SessionShards.helperFor(getContext(), session) : mDbHelper;
+	}
+
+	/**
+	 * @param uri uri, optionally with {@link #QUERY_PARAM_SESSION}
+	 * @return database helper for uri
+	 */
+	private DatabaseHelper helperFor(final Uri uri) {
+		final String session = uri.getQueryParameter(QUERY_PARAM_SESSION);
+		if (session == null) {
+			return mDbHelper;
+		}
+		return helperFor(parseSession(session, uri));
+	}
+
+	/**
+	 * @param uri uri with session id as last path segment
+	 * @return database helper for uri
+	 */
+	private DatabaseHelper helperForPath(final Uri uri) {
+		return helperFor(parseSession(uri.getLastPathSegment(), uri));
+	}
+
+	/**
+	 * @param values row, optionally with session id
+	 * @return database helper for row
+	 */
+	private DatabaseHelper helperFor(final ContentValues values) {
+		final Long session = values.getAsLong(Schema.COL_SESSION_ID);
+		if (session == null) {
+			return mDbHelper;
+		}
+		return helperFor(session);
+	}
+
+	/**
+	 * Parses session id from uri's path or query parameter
+	 */
+	private static long parseSession(final String session, final Uri uri) {
+		try {
+			return Long.parseLong(session);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid session in URI: " + uri);
+		}
+	}
+
+	/**
+	 * Copies session counters to main database, if row has been written to a shard
+	 * @param helper database helper row has been written to
+	 * @param values row
+	 */
+	private void publishCounters(final DatabaseHelper helper, final ContentValues values) {
+		if (helper != mDbHelper) {
+			SessionShards.publishCounters(helper.getWritableDatabase(), mDbHelper.getWritableDatabase(),
+					values.getAsLong(Schema.COL_SESSION_ID));
+		}
+	}
+
 	/*
 	 * Returns the MIME data type of the URI given as a parameter.
 	 * @see android.content.ContentProvider#getType(android.net.Uri)
@@ -195,10 +471,14 @@ public class ContentProvider extends android.content.ContentProvider {
 	private Uri insertCellMeasurement(final Uri baseUri, final ContentValues values) {
 		if (values.containsKey(Schema.COL_BEGIN_POSITION_ID)
 				&& values.containsKey(Schema.COL_TIMESTAMP)) {
-			final long rowId = mDbHelper.getWritableDatabase().insert(Schema.TBL_CELLS, null, values);
+			final DatabaseHelper helper = helperFor(values);
+			final long rowId = helper.getWritableDatabase().insert(Schema.TBL_CELLS, null, values);
 			if (rowId > 0) {
 				final Uri cellUri = ContentUris.withAppendedId(baseUri, rowId);
-				getContext().getContentResolver().notifyChange(ContentProvider.CONTENT_URI_CELL, null);
+				notifyChange(ContentProvider.CONTENT_URI_CELL);
+				// session counters are updated by triggers
+				publishCounters(helper, values);
+				notifyChange(ContentProvider.CONTENT_URI_SESSION);
 				return cellUri;
 			}
 		} else {
@@ -215,10 +495,14 @@ public class ContentProvider extends android.content.ContentProvider {
 	 */
 	private Uri insertWifiMeasurement(final Uri baseUri, final ContentValues values) {
 		if (values.containsKey(Schema.COL_BEGIN_POSITION_ID) && values.containsKey(Schema.COL_END_POSITION_ID) && values.containsKey(Schema.COL_TIMESTAMP)) {
-			final long rowId = mDbHelper.getWritableDatabase().insert(Schema.TBL_WIFIS, null, values);
+			final DatabaseHelper helper = helperFor(values);
+			final long rowId = helper.getWritableDatabase().insert(Schema.TBL_WIFIS, null, values);
 			if (rowId > 0) {
 				final Uri wifiUri = ContentUris.withAppendedId(baseUri, rowId);
-				getContext().getContentResolver().notifyChange(ContentProvider.CONTENT_URI_WIFI, null);
+				notifyChange(ContentProvider.CONTENT_URI_WIFI);
+				// session counters are updated by triggers
+				publishCounters(helper, values);
+				notifyChange(ContentProvider.CONTENT_URI_SESSION);
 				return wifiUri;
 			}
 		} else {
@@ -238,10 +522,16 @@ public class ContentProvider extends android.content.ContentProvider {
 				&& values.containsKey(Schema.COL_LATITUDE)
 				&& values.containsKey(Schema.COL_TIMESTAMP)
 				&& values.containsKey(Schema.COL_SESSION_ID)) {
-			final long rowId = mDbHelper.getWritableDatabase().insert(Schema.TBL_POSITIONS, null, values);
+			final DatabaseHelper helper = helperFor(values);
+			final long rowId = helper.getWritableDatabase().insert(Schema.TBL_POSITIONS, null, values);
 			if (rowId > 0) {
 				final Uri positionUri = ContentUris.withAppendedId(baseUri, rowId);
-				getContext().getContentResolver().notifyChange(ContentProvider.CONTENT_URI_POSITION, null);
+				notifyChange(ContentProvider.CONTENT_URI_POSITION);
+				if (RadioBeacon.PROVIDER_USER_DEFINED.equals(values.getAsString(Schema.COL_SOURCE))) {
+					// waypoint counter is updated by trigger
+					publishCounters(helper, values);
+					notifyChange(ContentProvider.CONTENT_URI_SESSION);
+				}
 				return positionUri;
 			}
 		} else {
@@ -258,10 +548,10 @@ public class ContentProvider extends android.content.ContentProvider {
 	 */
 	private Uri insertLog(final Uri baseUri, final ContentValues values) {
 		if (values.containsKey(Schema.COL_TIMESTAMP)) {
-			final long rowId = mDbHelper.getWritableDatabase().insert(Schema.TBL_LOGS, null, values);
+			final long rowId = helperFor(values).getWritableDatabase().insert(Schema.TBL_LOGS, null, values);
 			if (rowId > 0) {
 				final Uri logUri = ContentUris.withAppendedId(baseUri, rowId);
-				getContext().getContentResolver().notifyChange(ContentProvider.CONTENT_URI_LOGFILE, null);
+				notifyChange(ContentProvider.CONTENT_URI_LOGFILE);
 				return logUri;
 			}
 		} else {
@@ -281,8 +571,11 @@ public class ContentProvider extends android.content.ContentProvider {
 		//if (values.containsKey(Schema.COL_TIMESTAMP)) {
 		final long rowId = mDbHelper.getWritableDatabase().insert(Schema.TBL_SESSIONS, null, values);
 		if (rowId > 0) {
+			if (SessionShards.isEnabled(getContext())) {
+				SessionShards.create(getContext(), rowId);
+			}
 			final Uri sessionUri = ContentUris.withAppendedId(baseUri, rowId);
-			getContext().getContentResolver().notifyChange(ContentProvider.CONTENT_URI_SESSION, null);
+			notifyChange(ContentProvider.CONTENT_URI_SESSION);
 			return sessionUri;
 		}
 		//} else {
@@ -302,48 +595,43 @@ public class ContentProvider extends android.content.ContentProvider {
 		switch (uriMatcher.match(uri)) {
 			case Schema.URI_CODE_WIFIS:
 				// Returns all recorded wifis.
-				return queryTable(ContentProvider.CONTENT_URI_WIFI, Schema.TBL_WIFIS, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
+				return queryTable(helperFor(uri), ContentProvider.CONTENT_URI_WIFI, Schema.TBL_WIFIS, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
 			case Schema.URI_CODE_WIFIS_EXTENDED:
 				// Returns all wifis including position data
-				return queryTable(ContentProvider.CONTENT_URI_WIFI_EXTENDED, Schema.VIEW_WIFIS_EXTENDED, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
+				return queryTable(helperFor(uri), ContentProvider.CONTENT_URI_WIFI_EXTENDED, Schema.VIEW_WIFIS_EXTENDED, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
 			case Schema.URI_CODE_CELLS_EXTENDED:
 				// Returns all wifis including position data
-				return queryTable(ContentProvider.CONTENT_URI_CELL_EXTENDED, Schema.VIEW_CELLS_EXTENDED, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
+				return queryTable(helperFor(uri), ContentProvider.CONTENT_URI_CELL_EXTENDED, Schema.VIEW_CELLS_EXTENDED, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
 
 			case Schema.URI_CODE_WIFI_OVERVIEW:
 				/**
 				 *  if several measurements for specific wifi bssid are available only strongest
 				 *  measurement (criteria level) is returned
-				 *  @author http://stackoverflow.com/questions/3800551/sql-select-first-row-in-each-group-by-group
+				 *  Strongest measurements are materialized in TBL_WIFI_OVERVIEW on insert, see {@link OverviewTable}
 				 */
 
-                String tablesWifis = Schema.TBL_WIFIS + " as w "
-                        + " JOIN " + Schema.TBL_POSITIONS + " as b ON " + Schema.COL_BEGIN_POSITION_ID + " = b." + Schema.COL_ID;
-
-                String columnsWifis[] = {
-                        "w.rowid as " + Schema.COL_ID,
-                        "w." + Schema.COL_BSSID,
-                        "w." + Schema.COL_MD5_SSID,
-                        "w." + Schema.COL_SSID,
-                        "MAX(" + Schema.COL_LEVEL + ")",
-                        "w." + Schema.COL_CAPABILITIES,
-                        "w." + Schema.COL_FREQUENCY,
-                        "w." + Schema.COL_TIMESTAMP,
-                        "w." + Schema.COL_BEGIN_POSITION_ID,
-                        "w." + Schema.COL_END_POSITION_ID,
-                        "w." + Schema.COL_KNOWN_WIFI
-                };
+                final long wifiSession = parseSession(uri.getLastPathSegment(), uri);
+                if (SessionArchiver.isArchived(getContext(), wifiSession)) {
+                    return queryArchive(uri, wifiSession, SessionArchive.WIFI_OVERVIEW, selectionIn, selectionArgsIn, Schema.COL_TIMESTAMP);
+                }
+
+                String tablesWifis = WIFI_OVERVIEW_TABLES;
+                if (SpatialIndex.isUsedBy(selectionIn)) {
+                    // viewport query: let spatial index drive the join, so cost scales with visible positions, not session size
+                    tablesWifis = Schema.TBL_POSITIONS + " as b "
+                            + " CROSS JOIN " + Schema.TBL_WIFI_OVERVIEW + " as w ON " + Schema.COL_BEGIN_POSITION_ID + " = b." + Schema.COL_ID;
+                }
+
                 String orderByWifis = "w." + Schema.COL_TIMESTAMP;
-                String groupByWifis = "w." + Schema.COL_BSSID + ", w." + Schema.COL_MD5_SSID;
-                return queryTable(uri, tablesWifis, columnsWifis,
+                return queryTable(helperForPath(uri), uri, tablesWifis, WIFI_OVERVIEW_COLUMNS,
                         addColumntoSelection("w." + Schema.COL_SESSION_ID, selectionIn),
                         addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn),
                         orderByWifis,
-                        groupByWifis,
+                        null,
                         null);
 			case Schema.URI_CODE_WIFI_ID:
 				// returns given wifi
-				return queryTable(ContentProvider.CONTENT_URI_WIFI,
+				return queryTable(helperFor(uri), ContentProvider.CONTENT_URI_WIFI,
                         Schema.TBL_WIFIS, projection,
                         addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn),
                         sortOrder,
@@ -351,82 +639,60 @@ public class ContentProvider extends android.content.ContentProvider {
                         null);
 			case Schema.URI_CODE_WIFIS_BY_SESSION:
 				// returns wifis for given session.
-				return queryTable(ContentProvider.CONTENT_URI_WIFI, Schema.TBL_WIFIS, projection, addColumntoSelection(Schema.COL_SESSION_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
+				return queryTable(helperForPath(uri), ContentProvider.CONTENT_URI_WIFI, Schema.TBL_WIFIS, projection, addColumntoSelection(Schema.COL_SESSION_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
 			case Schema.URI_CODE_CELLS:
 				//  returns all recorded cells.
-				return queryTable(ContentProvider.CONTENT_URI_CELL, Schema.TBL_CELLS, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
+				return queryTable(helperFor(uri), ContentProvider.CONTENT_URI_CELL, Schema.TBL_CELLS, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
 			case Schema.URI_CODE_CELL_OVERVIEW:
 				/**
 				 *  if several measurements for specific cell are available only strongest
 				 *  measurement (criteria level) is returned
-				 *  http://stackoverflow.com/questions/3800551/sql-select-first-row-in-each-group-by-group
+				 *  Strongest measurements are materialized in TBL_CELL_OVERVIEW on insert, see {@link OverviewTable}
+				 *  Only cells with a stored position are listed, see {@link #CELL_OVERVIEW_TABLES}
 				 */
 
-				String tablesCells = Schema.TBL_CELLS + " as c "
-						+ " JOIN " + Schema.TBL_POSITIONS + " as b ON " + Schema.COL_BEGIN_POSITION_ID + " = b." + Schema.COL_ID;
-
-                String columnsCells[] = {
-						"c.rowid as " + Schema.COL_ID,
-                        Schema.COL_LOGICAL_CELLID ,
-                        Schema.COL_ACTUAL_CELLID ,
-                        Schema.COL_PSC ,
-                        Schema.COL_CDMA_BASEID ,
-                        Schema.COL_CDMA_SYSTEMID,
-                        Schema.COL_CDMA_NETWORKID ,
-                        Schema.COL_OPERATORNAME,
-                        Schema.COL_OPERATOR,
-                        Schema.COL_MCC ,
-                        Schema.COL_MNC ,
-                        Schema.COL_AREA ,
-                        Schema.COL_PSC ,
-                        Schema.COL_NETWORKTYPE ,
-                        Schema.COL_IS_SERVING,
-                        " MAX(" + Schema.COL_STRENGTHDBM + ") "
-                };
-
-                String whereCells =  "c." + Schema.COL_SESSION_ID + " = ? AND " + Schema.COL_LOGICAL_CELLID + " > ?";
-                String[] whereArgs = {uri.getLastPathSegment(), "-1"};
-                String orderByCells = Schema.COL_IS_SERVING + " DESC";
-                String groupByCells = "c." + Schema.COL_LOGICAL_CELLID + ", "
-                        + Schema.COL_PSC + ", " + Schema.COL_CDMA_SYSTEMID + ", " + Schema.COL_CDMA_NETWORKID + ", " + Schema.COL_CDMA_BASEID + ", "
-                        + Schema.COL_IS_SERVING;
-
-                return queryTable(uri, tablesCells, columnsCells,
-                        whereCells,
-                        whereArgs,
-                        orderByCells,
-                        groupByCells,
+				final long cellSession = parseSession(uri.getLastPathSegment(), uri);
+				if (SessionArchiver.isArchived(getContext(), cellSession)) {
+					// like below, caller's selection isn't supported
+					return queryArchive(uri, cellSession, SessionArchive.CELL_OVERVIEW, null, null, CELL_OVERVIEW_ORDER);
+				}
+
+                return queryTable(helperForPath(uri), uri, CELL_OVERVIEW_TABLES, CELL_OVERVIEW_COLUMNS,
+                        CELL_OVERVIEW_SELECTION,
+                        cellOverviewArgs(cellSession),
+                        CELL_OVERVIEW_ORDER,
+                        null,
                         null);
 
 			case Schema.URI_CODE_CELL_ID:
 				//  Returns given cell.
-				return queryTable(ContentProvider.CONTENT_URI_CELL, Schema.TBL_CELLS, projection, addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
+				return queryTable(helperFor(uri), ContentProvider.CONTENT_URI_CELL, Schema.TBL_CELLS, projection, addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
 			case Schema.URI_CODE_CELLS_BY_SESSION:
 				// Returns cells for given session.
-				return queryTable(ContentProvider.CONTENT_URI_CELL, Schema.TBL_CELLS, projection, addColumntoSelection(Schema.COL_SESSION_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
+				return queryTable(helperForPath(uri), ContentProvider.CONTENT_URI_CELL, Schema.TBL_CELLS, projection, addColumntoSelection(Schema.COL_SESSION_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
 			case Schema.URI_CODE_POSITIONS:
 				// Returns all positions.
-				return queryTable(ContentProvider.CONTENT_URI_POSITION, Schema.TBL_POSITIONS, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
+				return queryTable(helperFor(uri), ContentProvider.CONTENT_URI_POSITION, Schema.TBL_POSITIONS, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
 			case Schema.URI_CODE_POSITION_ID:
 				// returns given position
-				return queryTable(ContentProvider.CONTENT_URI_POSITION, Schema.TBL_POSITIONS, projection, addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
+				return queryTable(helperFor(uri), ContentProvider.CONTENT_URI_POSITION, Schema.TBL_POSITIONS, projection, addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
             case Schema.URI_CODE_WAYPOINTS_BY_SESSION:
                 // returns session's trackpoints (i.e long press points).
                 String column = addColumntoSelection(Schema.COL_SESSION_ID, selectionIn);
                 column = addColumntoSelection(Schema.COL_SOURCE, column);
                 String[] args = addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn);
                 args = addtoSelectionArgs(RadioBeacon.PROVIDER_USER_DEFINED, args);
-       		    return queryTable(ContentProvider.CONTENT_URI_POSITION, Schema.TBL_POSITIONS, projection, column, args, sortOrder, null, null);
+       		    return queryTable(helperForPath(uri), ContentProvider.CONTENT_URI_POSITION, Schema.TBL_POSITIONS, projection, column, args, sortOrder, null, null);
             case Schema.URI_CODE_LOGS_BY_SESSION:
 				// Returns all log files for given session.
-				return queryTable(ContentProvider.CONTENT_URI_LOGFILE, Schema.TBL_LOGS, projection, addColumntoSelection(Schema.COL_SESSION_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
+				return queryTable(helperForPath(uri), ContentProvider.CONTENT_URI_LOGFILE, Schema.TBL_LOGS, projection, addColumntoSelection(Schema.COL_SESSION_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
 			case Schema.URI_CODE_SESSIONS:
 				// Returns all log files.
-				return queryTable(ContentProvider.CONTENT_URI_SESSION, Schema.TBL_SESSIONS, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
+				return queryTable(mDbHelper, ContentProvider.CONTENT_URI_SESSION, Schema.TBL_SESSIONS, projection, selectionIn, selectionArgsIn, sortOrder, null, null);
 			case Schema.URI_CODE_SESSION_ID:
-				return queryTable(ContentProvider.CONTENT_URI_SESSION, Schema.TBL_SESSIONS, projection, addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
+				return queryTable(mDbHelper, ContentProvider.CONTENT_URI_SESSION, Schema.TBL_SESSIONS, projection, addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn), sortOrder, null, null);
 			case Schema.URI_CODE_SESSION_ACTIVE:
-				return queryTable(ContentProvider.CONTENT_URI_SESSION, Schema.TBL_SESSIONS, projection, addColumntoSelection(Schema.COL_IS_ACTIVE, selectionIn), addtoSelectionArgs("1", selectionArgsIn), sortOrder, null, null);
+				return queryTable(mDbHelper, ContentProvider.CONTENT_URI_SESSION, Schema.TBL_SESSIONS, projection, addColumntoSelection(Schema.COL_IS_ACTIVE, selectionIn), addtoSelectionArgs("1", selectionArgsIn), sortOrder, null, null);
 			default:
 				throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
@@ -475,6 +741,7 @@ public class ContentProvider extends android.content.ContentProvider {
 	}
 
 	/**
+	 * @param helper database helper
 	 * @param notifyUri
 	 * @param projection
 	 * @param selectionIn
@@ -485,6 +752,7 @@ public class ContentProvider extends android.content.ContentProvider {
 	 * @return
 	 */
 	private Cursor queryTable(
+			final DatabaseHelper helper,
             final Uri notifyUri,
 			final String tableName,
 			final String[] projection,
@@ -495,11 +763,29 @@ public class ContentProvider extends android.content.ContentProvider {
 
 		SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 		qb.setTables(tableName);
-		final Cursor cursor = qb.query(mDbHelper.getReadableDatabase(), projection, selectionIn, selectionArgsIn, groupBy, null, sortOrder, limit);
+		final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, selectionIn, selectionArgsIn, groupBy, null, sortOrder, limit);
 		qb = null;
 
+		// only register for changes, reads must not trigger notifications themselves
 		cursor.setNotificationUri(getContext().getContentResolver(), notifyUri);
-		getContext().getContentResolver().notifyChange(notifyUri, null);
+		mNotifier.onQuery(notifyUri);
+		return cursor;
+	}
+
+	/**
+	 * Serves overview of an archived session from its archive, as session's positions (and shard) are gone
+	 * Viewport queries aren't supported, map overlays read archives directly (see SessionObjectsLoader)
+	 */
+	private Cursor queryArchive(final Uri uri, final long session, final int table, final String selectionIn,
+			final String[] selectionArgsIn, final String sortOrder) {
+		final SessionArchive archive = SessionArchiver.open(getContext(), session);
+		final Cursor cursor;
+		if (archive == null || SpatialIndex.isUsedBy(selectionIn)) {
+			cursor = new MatrixCursor(archive != null ? archive.getTableColumns(table) : new String[]{Schema.COL_ID});
+		} else {
+			cursor = SessionArchiver.queryTable(archive, table, selectionIn, selectionArgsIn, sortOrder);
+		}
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
 		return cursor;
 	}
 
@@ -511,18 +797,20 @@ public class ContentProvider extends android.content.ContentProvider {
 		switch (uriMatcher.match(uri)) {
 			case Schema.URI_CODE_SESSIONS:
 				// updates all sessions
-				return updateTable(uri, Schema.TBL_SESSIONS, values, selectionIn, selectionArgsIn);
+				return updateTable(mDbHelper, uri, Schema.TBL_SESSIONS, values, selectionIn, selectionArgsIn);
 			case Schema.URI_CODE_SESSION_ACTIVE:
 				// sets active session
 				if (values.containsKey(Schema.COL_IS_ACTIVE)) {
-					return updateTable(uri, Schema.TBL_SESSIONS, values, selectionIn, selectionArgsIn);
+					return updateTable(mDbHelper, uri, Schema.TBL_SESSIONS, values, selectionIn, selectionArgsIn);
 				} else {
 					throw new IllegalArgumentException("Mandatory column missing:" + Schema.COL_IS_ACTIVE);
 				}
 			case Schema.URI_CODE_SESSION_ID:
-				return updateTable(uri, Schema.TBL_SESSIONS, values, addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn));
+				return updateTable(mDbHelper, uri, Schema.TBL_SESSIONS, values, addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn));
 			case Schema.URI_CODE_WIFIS:
-				return updateTable(uri, Schema.TBL_WIFIS, values, selectionIn, selectionArgsIn);
+				return updateTable(helperFor(uri), uri, Schema.TBL_WIFIS, values, selectionIn, selectionArgsIn);
+			case Schema.URI_CODE_WIFI_ID:
+				return updateTable(helperFor(uri), uri, Schema.TBL_WIFIS, values, addColumntoSelection(Schema.COL_ID, selectionIn), addtoSelectionArgs(uri.getLastPathSegment(), selectionArgsIn));
 			default:
 				throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
@@ -536,11 +824,11 @@ public class ContentProvider extends android.content.ContentProvider {
 	 * @param selectionArgs
 	 * @return
 	 */
-	private int updateTable(final Uri uri, final String table, final ContentValues values,
+	private int updateTable(final DatabaseHelper helper, final Uri uri, final String table, final ContentValues values,
 			final String selection, final String[] selectionArgs) {
 
-		final int rows = mDbHelper.getWritableDatabase().update(table, values, selection, selectionArgs);
-		getContext().getContentResolver().notifyChange(uri, null);
+		final int rows = helper.getWritableDatabase().update(table, values, selection, selectionArgs);
+		notifyChange(uri);
 		return rows;
 	}
 
@@ -553,19 +841,24 @@ public class ContentProvider extends android.content.ContentProvider {
 			case Schema.URI_CODE_WIFI_ID:
 				// Delete selected wifi and delete all related entities (positions etc.).
 				final String wifiId = Long.toString(ContentUris.parseId(uri));
-				final int wRows = mDbHelper.getWritableDatabase().delete(Schema.TBL_WIFIS, Schema.COL_ID + " = ?", new String[] {wifiId});
-				getContext().getContentResolver().notifyChange(ContentProvider.CONTENT_URI_WIFI, null);
+				final int wRows = helperFor(uri).getWritableDatabase().delete(Schema.TBL_WIFIS, Schema.COL_ID + " = ?", new String[] {wifiId});
+				notifyChange(ContentProvider.CONTENT_URI_WIFI);
 				return wRows;
 			case Schema.URI_CODE_SESSION_ID:
 				// Deletes selected session.
 				final String sessionId = Long.toString(ContentUris.parseId(uri));
 				final int sRows = mDbHelper.getWritableDatabase().delete(Schema.TBL_SESSIONS, Schema.COL_ID + " = ?", new String[] {sessionId});
-				getContext().getContentResolver().notifyChange(ContentProvider.CONTENT_URI_SESSION, null);
+				// sharded or archived session: data is gone with its file
+				SessionShards.delete(getContext(), ContentUris.parseId(uri));
+				SessionArchiver.delete(getContext(), ContentUris.parseId(uri));
+				notifyChange(ContentProvider.CONTENT_URI_SESSION);
 				return sRows;
 			case Schema.URI_CODE_SESSIONS:
 				// Deletes all sessions.
 				final int aRows =  mDbHelper.getWritableDatabase().delete(Schema.TBL_SESSIONS, null, null);
-				getContext().getContentResolver().notifyChange(ContentProvider.CONTENT_URI_SESSION, null);
+				SessionShards.deleteAll(getContext());
+				SessionArchiver.deleteAll(getContext());
+				notifyChange(ContentProvider.CONTENT_URI_SESSION);
 				return aRows;
 			default:
 				throw new IllegalArgumentException("Unknown URI: " + uri);
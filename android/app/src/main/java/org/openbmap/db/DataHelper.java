@@ -1,15 +1,11 @@
 package org.openbmap.db;
 
-import android.content.ContentProviderOperation;
-import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.RemoteException;
 import android.util.Log;
 
 import org.openbmap.RadioBeacon;
@@ -17,11 +13,17 @@ import org.openbmap.db.models.CellRecord;
 import org.openbmap.db.models.LogFile;
 import org.openbmap.db.models.PositionRecord;
 import org.openbmap.db.models.Session;
+import org.openbmap.db.models.WifiObservation;
 import org.openbmap.db.models.WifiRecord;
 import org.openbmap.db.models.WifiRecord.CatalogStatus;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Data helper for talking to content resolver
@@ -30,22 +32,40 @@ public class DataHelper {
 
 	private static final String TAG = DataHelper.class.getSimpleName();
 
+	/**
+	 * Max. number of ids in one IN (..) query, SQLite allows 999 variables at most
+	 */
+	private static final int MAX_IDS_PER_QUERY = 500;
+
 	/**
 	 * ContentResolver to interact with content provider
 	 */
 	private final ContentResolver contentResolver;
 
+	/**
+	 * Write-behind buffer for scan results
+	 */
+	private final ScanWriteBuffer mWriteBuffer;
+
+	/**
+	 * Application context, used for finding sessions' databases
+	 */
+	private final Context mContext;
+
 	/**
 	 * Constructor
 	 *
 	 * @param context (Application) context used for acquiring content resolver
 	 */
 	public DataHelper(final Context context) {
-		contentResolver = context.getApplicationContext().getContentResolver();
+		mContext = context.getApplicationContext();
+		contentResolver = mContext.getContentResolver();
+		mWriteBuffer = ScanWriteBuffer.getInstance(context);
 	}
 
 	/**
 	 * Persists scan's wifis in database.
+	 * Wifis are buffered and committed later on, see {@link ScanWriteBuffer}
 	 * @param begin	begin position which is equal across all wifis
 	 * @param end end posistion which is equal across all wifis
 	 * @param wifis list of wifis sharing same begin and end position (i.e. all wifis from one scan)
@@ -58,58 +78,58 @@ public class DataHelper {
 			Log.d(TAG, "Inserting " + wifis.size() + " wifis with " + begin + end + " positions");
 		}
 
-		final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
-
-		// saving begin position
-		operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_POSITION)
-				.withValue(Schema.COL_LATITUDE, begin.getLatitude())
-				.withValue(Schema.COL_LONGITUDE, begin.getLongitude())
-				.withValue(Schema.COL_ALTITUDE, begin.getAltitude())
-				.withValue(Schema.COL_TIMESTAMP, begin.getOpenBmapTimestamp())
-				.withValue(Schema.COL_ACCURACY, begin.getAccuracy())
-				.withValue(Schema.COL_BEARING, begin.getBearing())
-				.withValue(Schema.COL_SPEED, begin.getSpeed())
-				.withValue(Schema.COL_SESSION_ID, begin.getSession())
-				.withValue(Schema.COL_SOURCE, begin.getSource())
-				.build());
-
-		// saving end position
-		operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_POSITION)
-				.withValue(Schema.COL_LATITUDE, end.getLatitude())
-				.withValue(Schema.COL_LONGITUDE, end.getLongitude())
-				.withValue(Schema.COL_ALTITUDE, end.getAltitude())
-				.withValue(Schema.COL_TIMESTAMP, end.getOpenBmapTimestamp())
-				.withValue(Schema.COL_ACCURACY, end.getAccuracy())
-				.withValue(Schema.COL_BEARING, end.getBearing())
-				.withValue(Schema.COL_SPEED, end.getSpeed())
-				.withValue(Schema.COL_SESSION_ID, end.getSession())
-				.withValue(Schema.COL_SOURCE, end.getSource())
-				.build());
-
-		for (final WifiRecord wifi : wifis) {
-			operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_WIFI)
-					.withValue(Schema.COL_BSSID, wifi.getBssid())
-					.withValue(Schema.COL_SSID, wifi.getSsid())
-					.withValue(Schema.COL_MD5_SSID, wifi.getMd5Ssid())
-					.withValue(Schema.COL_CAPABILITIES, wifi.getCapabilities())
-					.withValue(Schema.COL_FREQUENCY, wifi.getFrequency())
-					.withValue(Schema.COL_LEVEL, wifi.getLevel())
-					.withValue(Schema.COL_TIMESTAMP, wifi.getOpenBmapTimestamp())
-					.withValueBackReference (Schema.COL_BEGIN_POSITION_ID, 0) /* Index is 0 because Foo A is the first operation in the array*/
-					.withValueBackReference (Schema.COL_END_POSITION_ID, 1)
-					.withValue(Schema.COL_SESSION_ID, wifi.getSessionId())
-					//.withValue(Schema.COL_IS_NEW_WIFI, wifi.isNew() ? 1 : 0)
-					.withValue(Schema.COL_KNOWN_WIFI, wifi.getCatalogStatusInt())
-					.build());
+		mWriteBuffer.add(new ScanWriteBuffer.PendingScan() {
+			@Override
+			public long getSession() {
+				return begin.getSession();
+			}
+
+			@Override
+			public void write(final ScanWriter writer) {
+				writer.insertWifis(begin, end, wifis);
+			}
+
+			@Override
+			public String toString() {
+				return wifis.size() + " wifis at " + begin.getMillisTimestamp();
+			}
+		});
+	}
+
+	/**
+	 * Updates observation count and level range of collapsed wifi records
+	 * Updates are buffered in order with inserts, so they always hit the latest record of bssid
+	 * @param observations aggregated sightings
+	 */
+	public final void updateWifiObservations(final List<WifiObservation> observations) {
+		if (observations == null || observations.size() == 0) {
+			return;
 		}
 
-		try {
-			final ContentProviderResult[] results = contentResolver.applyBatch("org.openbmap.provider", operations);
-		} catch (final RemoteException e) {
-			Log.e(TAG, e.toString(), e);
-		} catch (final OperationApplicationException e) {
-			Log.e(TAG, e.toString(), e);
+		// copy, as observations keep changing until commit
+		final ArrayList<WifiObservation> copy = new ArrayList<>(observations.size());
+		for (final WifiObservation observation : observations) {
+			copy.add(observation.copy());
 		}
+		mWriteBuffer.add(new ScanWriteBuffer.PendingScan() {
+			@Override
+			public long getSession() {
+				// observations are collected per session
+				return copy.get(0).getSession();
+			}
+
+			@Override
+			public void write(final ScanWriter writer) {
+				for (final WifiObservation observation : copy) {
+					writer.updateObservation(observation);
+				}
+			}
+
+			@Override
+			public String toString() {
+				return copy.size() + " wifi observations";
+			}
+		});
 	}
 
 	/**
@@ -137,22 +157,25 @@ public class DataHelper {
 		final int columnIndex8 = cursor.getColumnIndex(Schema.COL_END_POSITION_ID);
 		final int columnIndex9 = cursor.getColumnIndex(Schema.COL_KNOWN_WIFI);
 
+		final ArrayList<String> beginIds = new ArrayList<>(cursor.getCount());
+		final ArrayList<String> endIds = new ArrayList<>(cursor.getCount());
 		while (cursor.moveToNext()) {
 			final WifiRecord wifi = new WifiRecord();
-			wifi.setBssid(cursor.getString(columnIndex));
+			wifi.setBssid(cursor.getLong(columnIndex));
 			wifi.setSsid(cursor.getString(columnIndex2));
 			wifi.setCapabilities(cursor.getString(columnIndex3));
 			wifi.setFrequency(cursor.getInt(columnIndex4));
 			wifi.setLevel(cursor.getInt(columnIndex5));
 			wifi.setOpenBmapTimestamp(cursor.getLong(columnIndex6));
-
-			wifi.setBeginPosition(loadPositionById(cursor.getString(columnIndex7)));
-			wifi.setEndPosition(loadPositionById(cursor.getString(columnIndex8)));
+			beginIds.add(cursor.getString(columnIndex7));
+			endIds.add(cursor.getString(columnIndex8));
 			//wifi.setNew(ca.getInt(columnIndex9) == 1);
 			wifi.setCatalogStatus(CatalogStatus.values()[cursor.getInt(columnIndex9)]);
 			wifis.add(wifi);
 		}
 		cursor.close();
+
+		setPositions(session, wifis, beginIds, endIds);
 		return wifis;
 	}
 
@@ -199,7 +222,7 @@ public class DataHelper {
 		//Log.d(TAG, "getWifiMeasurement returned " + ca.getCount() + " records");
 		if (cursor.moveToNext()) {
 			wifi = new WifiRecord(
-					cursor.getString(cursor.getColumnIndex(Schema.COL_BSSID)),
+					WifiRecord.bssidToString(cursor.getLong(cursor.getColumnIndex(Schema.COL_BSSID))),
 					cursor.getString(cursor.getColumnIndex(Schema.COL_SSID)),
 					cursor.getString(cursor.getColumnIndex(Schema.COL_CAPABILITIES)),
 					cursor.getInt(cursor.getColumnIndex(Schema.COL_FREQUENCY)),
@@ -218,21 +241,27 @@ public class DataHelper {
 
 	/**
 	 * Gets wifis by BSSID
-	 * @param bssid
+	 * @param bssid bssid in text form
 	 * @return Array (of measurements) for that BSSID
 	 */
 	public final ArrayList<WifiRecord> loadWifisByBssid(final String bssid, final Integer session) {
         //Log.d(TAG, "loadWifisByBssid called");
 		final ArrayList<WifiRecord> wifis = new ArrayList<>();
 
+		// bssids are stored as integers
+		final String key = String.valueOf(WifiRecord.bssidToLong(bssid));
 		String selectSql;
+		String[] selectArgs;
 		if (session != null) {
-			selectSql = Schema.COL_BSSID + " = \"" + bssid + "\" AND " + Schema.COL_SESSION_ID + " =\"" + session + "\"";
+			selectSql = Schema.COL_BSSID + " = ? AND " + Schema.COL_SESSION_ID + " = ?";
+			selectArgs = new String[]{key, String.valueOf(session)};
 		} else {
-			selectSql = Schema.COL_BSSID + " = \"" + bssid + "\"";
+			selectSql = Schema.COL_BSSID + " = ?";
+			selectArgs = new String[]{key};
 		}
 
-		final Cursor cursor = contentResolver.query(ContentProvider.CONTENT_URI_WIFI, null, selectSql, null, null);
+		final Uri uri = session != null ? ContentProvider.withSession(ContentProvider.CONTENT_URI_WIFI, session) : ContentProvider.CONTENT_URI_WIFI;
+		final Cursor cursor = contentResolver.query(uri, null, selectSql, selectArgs, null);
 
 		// Performance tweaking: don't call ca.getColumnIndex on each iteration
 		final int columnIndex = cursor.getColumnIndex(Schema.COL_BSSID);
@@ -245,24 +274,25 @@ public class DataHelper {
 		final int columnIndex8 = cursor.getColumnIndex(Schema.COL_END_POSITION_ID);
 		final int columnIndex9 = cursor.getColumnIndex(Schema.COL_KNOWN_WIFI);
 
+		final ArrayList<String> beginIds = new ArrayList<>(cursor.getCount());
+		final ArrayList<String> endIds = new ArrayList<>(cursor.getCount());
 		while (cursor.moveToNext()) {
 			final WifiRecord wifi = new WifiRecord();
-			wifi.setBssid(cursor.getString(columnIndex));
+			wifi.setBssid(cursor.getLong(columnIndex));
 			wifi.setSsid(cursor.getString(columnIndex2));
 			wifi.setCapabilities(cursor.getString(columnIndex3));
 			wifi.setFrequency(cursor.getInt(columnIndex4));
 			wifi.setLevel(cursor.getInt(columnIndex5));
 			wifi.setOpenBmapTimestamp(cursor.getLong(columnIndex6));
-
-			// TODO: not too safe ..
-			wifi.setBeginPosition(loadPositionById(cursor.getString(columnIndex7)));
-			// TODO: not too safe ..
-			wifi.setEndPosition(loadPositionById(cursor.getString(columnIndex8)));
+			beginIds.add(cursor.getString(columnIndex7));
+			endIds.add(cursor.getString(columnIndex8));
 			//wifi.setNew(ca.getInt(columnIndex9) == 1);
 			wifi.setCatalogStatus(CatalogStatus.values()[cursor.getInt(columnIndex9)]);
 			wifis.add(wifi);
 		}
 		cursor.close();
+
+		setPositions(session != null ? session : RadioBeacon.SESSION_NOT_TRACKING, wifis, beginIds, endIds);
 		return wifis;
 	}
 
@@ -288,11 +318,9 @@ public class DataHelper {
 		String[] selectionArgs = null;
 
 		if (minLon != null && maxLon != null && minLat != null && maxLat != null) {
-			selection = "b." + Schema.COL_LONGITUDE + " >= ?"
-					+ " AND b." + Schema.COL_LONGITUDE + " <= ?"
-					+ " AND b." + Schema.COL_LATITUDE + " >= ?"
-					+ " AND b." + Schema.COL_LATITUDE + " <= ?";
-			selectionArgs = new String[]{String.valueOf(minLon), String.valueOf(maxLon), String.valueOf(minLat), String.valueOf(maxLat)};
+			final boolean indexed = SpatialIndex.isAvailable(SessionShards.helperFor(mContext, session));
+			selection = SpatialIndex.within(indexed, "b." + Schema.COL_ID, "b." + Schema.COL_LATITUDE, "b." + Schema.COL_LONGITUDE);
+			selectionArgs = SpatialIndex.args(indexed, minLat, maxLat, minLon, maxLon);
 		}
 
 		final Cursor cursor = contentResolver.query(ContentUris.withAppendedId(Uri.withAppendedPath(ContentProvider.CONTENT_URI_WIFI,
@@ -310,17 +338,18 @@ public class DataHelper {
 		final int columnIndex8 = cursor.getColumnIndex(Schema.COL_END_POSITION_ID);
 		final int columnIndex9 = cursor.getColumnIndex(Schema.COL_KNOWN_WIFI);
 
+		final ArrayList<String> beginIds = new ArrayList<>(cursor.getCount());
+		final ArrayList<String> endIds = new ArrayList<>(cursor.getCount());
 		while (cursor.moveToNext()) {
 			final WifiRecord wifi = new WifiRecord();
-			wifi.setBssid(cursor.getString(columnIndex));
+			wifi.setBssid(cursor.getLong(columnIndex));
 			wifi.setSsid(cursor.getString(columnIndex2));
 			wifi.setCapabilities(cursor.getString(columnIndex3));
 			wifi.setFrequency(cursor.getInt(columnIndex4));
 			wifi.setLevel(cursor.getInt(columnIndex5));
 			wifi.setOpenBmapTimestamp(cursor.getLong(columnIndex6));
-
-			wifi.setBeginPosition(loadPositionById(cursor.getString(columnIndex7)));
-			wifi.setEndPosition(loadPositionById(cursor.getString(columnIndex8)));
+			beginIds.add(cursor.getString(columnIndex7));
+			endIds.add(cursor.getString(columnIndex8));
 
 			//wifi.setNew(ca.getInt(columnIndex9) == 1);
 			wifi.setCatalogStatus(CatalogStatus.values()[cursor.getInt(columnIndex9)]);
@@ -328,6 +357,8 @@ public class DataHelper {
 		}
 
 		cursor.close();
+
+		setPositions(session, wifis, beginIds, endIds);
 		//Log.d(TAG, "loadWifisOverviewWithiny executed (" + (System.currentTimeMillis() - start) + " ms)");
 		return wifis;
 	}
@@ -353,6 +384,8 @@ public class DataHelper {
 					cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_CELLS)),
 					cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_WIFIS)),
                     cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_WAYPOINTS)));
+			session.setNewWifisCount(cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_NEW_WIFIS)));
+			session.setBssidsCount(cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_BSSIDS)));
 		}
 		cursor.close();
 		return session;
@@ -391,9 +424,7 @@ public class DataHelper {
 			values.put(Schema.COL_DESCRIPTION, session.getDescription());
 			values.put(Schema.COL_HAS_BEEN_EXPORTED, session.hasBeenExported());
 			values.put(Schema.COL_IS_ACTIVE, session.isActive());
-			values.put(Schema.COL_NUMBER_OF_CELLS, session.getCellsCount());
-			values.put(Schema.COL_NUMBER_OF_WIFIS, session.getWifisCount());
-            values.put(Schema.COL_NUMBER_OF_WAYPOINTS, session.getWaypointsCount());
+			// counters aren't stored: they are maintained by database on insert, see SessionCounters
 			cursor.close();
 			return contentResolver.update(ContentProvider.CONTENT_URI_SESSION, values,
 					Schema.COL_ID + " = ?", new String[]{String.valueOf(session.getId())});
@@ -419,11 +450,13 @@ public class DataHelper {
 		values.put(Schema.COL_IS_ACTIVE, newSession.isActive());
 		values.put(Schema.COL_NUMBER_OF_CELLS, 0);
 		values.put(Schema.COL_NUMBER_OF_WIFIS, 0);
+		values.put(Schema.COL_NUMBER_OF_WAYPOINTS, 0);
 		return contentResolver.insert(ContentProvider.CONTENT_URI_SESSION, values);
 	}
 
 	/**
 	 * Deletes a session. This will also delete all objects referencing this session as foreign key
+	 * Large sessions lock the database while deleting, consider {@link SessionDeleter} instead
 	 * @param id
 	 *            Session to delete
 	 * @return number of delete rows
@@ -434,6 +467,7 @@ public class DataHelper {
 
 	/**
 	 * Deletes all sessions. This will also delete all objects referencing this session as foreign key
+	 * Large sessions lock the database while deleting, consider {@link SessionDeleter} instead
 	 */
 	public final long deleteAllSession() {
 		return contentResolver.delete(ContentProvider.CONTENT_URI_SESSION, null, null);
@@ -459,6 +493,8 @@ public class DataHelper {
 					cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_CELLS)),
 					cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_WIFIS)),
 					cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_WAYPOINTS)));
+			session.setNewWifisCount(cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_NEW_WIFIS)));
+			session.setBssidsCount(cursor.getInt(cursor.getColumnIndex(Schema.COL_NUMBER_OF_BSSIDS)));
 			cursor.close();
 			return session;
 		} else {
@@ -521,103 +557,47 @@ public class DataHelper {
 			return;
 		}
 
-		// add a new ContentProviderOperation
-		final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
-
-		//saving begin position
-		operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_POSITION)
-				.withValue(Schema.COL_LATITUDE, begin.getLatitude())
-				.withValue(Schema.COL_LONGITUDE, begin.getLongitude())
-				.withValue(Schema.COL_ALTITUDE, begin.getAltitude())
-				.withValue(Schema.COL_TIMESTAMP, begin.getOpenBmapTimestamp())
-				.withValue(Schema.COL_ACCURACY, begin.getAccuracy())
-				.withValue(Schema.COL_BEARING, begin.getBearing())
-				.withValue(Schema.COL_SPEED, begin.getSpeed())
-				.withValue(Schema.COL_SESSION_ID, begin.getSession())
-				.withValue(Schema.COL_SOURCE, begin.getSource())
-				.build());
-
-		// saving end position
-		operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_POSITION)
-                .withValue(Schema.COL_LATITUDE, end.getLatitude())
-                .withValue(Schema.COL_LONGITUDE, end.getLongitude())
-                .withValue(Schema.COL_ALTITUDE, end.getAltitude())
-                .withValue(Schema.COL_TIMESTAMP, end.getOpenBmapTimestamp())
-                .withValue(Schema.COL_ACCURACY, end.getAccuracy())
-                .withValue(Schema.COL_BEARING, end.getBearing())
-                .withValue(Schema.COL_SPEED, end.getSpeed())
-                .withValue(Schema.COL_SESSION_ID, end.getSession())
-                .withValue(Schema.COL_SOURCE, end.getSource())
-                .build());
-
-		for (final CellRecord cell: cells) {
-			if (!cell.isCdma()) {
-				// store GSM cell
-				operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_CELL)
-						.withValue(Schema.COL_NETWORKTYPE, cell.getNetworkType())
-						.withValue(Schema.COL_IS_CDMA, cell.isCdma())
-						.withValue(Schema.COL_IS_SERVING, cell.isServing())
-						.withValue(Schema.COL_IS_NEIGHBOR, cell.isNeighbor())
-						.withValue(Schema.COL_LOGICAL_CELLID, cell.getLogicalCellId())
-						.withValue(Schema.COL_ACTUAL_CELLID, cell.getActualCellId())
-						.withValue(Schema.COL_UTRAN_RNC, cell.getUtranRnc())
-						.withValue(Schema.COL_PSC, cell.getPsc())
-						.withValue(Schema.COL_AREA, cell.getArea())
-						.withValue(Schema.COL_MCC, cell.getMcc())
-						.withValue(Schema.COL_MNC, cell.getMnc())
-						.withValue(Schema.COL_OPERATORNAME, cell.getOperatorName())
-						.withValue(Schema.COL_OPERATOR, cell.getOperator())
-						.withValue(Schema.COL_STRENGTHDBM, cell.getStrengthdBm())
-						.withValue(Schema.COL_STRENGTHASU, cell.getStrengthAsu())
-						.withValue(Schema.COL_TIMESTAMP, cell.getOpenBmapTimestamp())
-						.withValueBackReference (Schema.COL_BEGIN_POSITION_ID, 0) // Index is 0 because first operation stores cell position
-						.withValueBackReference (Schema.COL_END_POSITION_ID, 1)
-						.withValue(Schema.COL_SESSION_ID, cell.getSessionId())
-						// set unused (CDMA) fields to default
-						.withValue(Schema.COL_CDMA_BASEID, -1)
-						.withValue(Schema.COL_CDMA_NETWORKID, -1)
-						.withValue(Schema.COL_CDMA_SYSTEMID, -1)
-						.withValue(Schema.COL_CDMA_BASEID, -1)
-
-						.build());
-			} else {
-				// store CDMA cell
-				operations.add(ContentProviderOperation.newInsert(ContentProvider.CONTENT_URI_CELL)
-						.withValue(Schema.COL_NETWORKTYPE, cell.getNetworkType())
-						.withValue(Schema.COL_IS_CDMA, cell.isCdma())
-						.withValue(Schema.COL_IS_SERVING, cell.isServing())
-						.withValue(Schema.COL_IS_NEIGHBOR, cell.isNeighbor())
-						.withValue(Schema.COL_AREA, cell.getArea())
-						.withValue(Schema.COL_MCC, cell.getMcc())
-						.withValue(Schema.COL_MNC, cell.getMnc())
-						.withValue(Schema.COL_PSC, cell.getPsc())
-						.withValue(Schema.COL_CDMA_BASEID, cell.getBaseId())
-						.withValue(Schema.COL_CDMA_NETWORKID, cell.getNetworkId())
-						.withValue(Schema.COL_CDMA_SYSTEMID, cell.getSystemId())
-						.withValue(Schema.COL_PSC, cell.getPsc())
-						.withValue(Schema.COL_PSC, cell.getPsc())
-						.withValue(Schema.COL_OPERATORNAME, cell.getOperatorName())
-						.withValue(Schema.COL_OPERATOR, cell.getOperator())
-						.withValue(Schema.COL_STRENGTHDBM, cell.getStrengthdBm())
-						.withValue(Schema.COL_TIMESTAMP, cell.getOpenBmapTimestamp())
-						.withValueBackReference (Schema.COL_BEGIN_POSITION_ID, 0) // Index is 0 because first operation stores cell position
-						.withValueBackReference (Schema.COL_END_POSITION_ID, 1)
-						.withValue(Schema.COL_SESSION_ID, cell.getSessionId())
-
-						// set unused (GSM) fields to -1
-						.withValue(Schema.COL_LOGICAL_CELLID, -1)
-						.withValue(Schema.COL_AREA, -1)
-						.build());
+		mWriteBuffer.add(new ScanWriteBuffer.PendingScan() {
+			@Override
+			public long getSession() {
+				return begin.getSession();
 			}
-		}
 
-		try {
-			final ContentProviderResult[] results = contentResolver.applyBatch("org.openbmap.provider", operations);
-		} catch (final RemoteException e) {
-			Log.e(TAG, e.toString(), e);
-		} catch (final OperationApplicationException e) {
-			Log.e(TAG, e.toString(), e);
-		}
+			@Override
+			public void write(final ScanWriter writer) {
+				writer.insertCells(begin, end, cells);
+			}
+
+			@Override
+			public String toString() {
+				return cells.size() + " cells at " + begin.getMillisTimestamp();
+			}
+		});
+	}
+
+	/**
+	 * Persists gpx track position.
+	 * Positions are buffered together with scans and interned, i.e. if a wifi or cell scan
+	 * has already stored the same fix, the existing row is shared (see {@link ScanWriter#internPosition(PositionRecord)})
+	 * @param pos position
+	 */
+	public final void storeTrackPosition(final PositionRecord pos) {
+		mWriteBuffer.add(new ScanWriteBuffer.PendingScan() {
+			@Override
+			public long getSession() {
+				return pos.getSession();
+			}
+
+			@Override
+			public void write(final ScanWriter writer) {
+				writer.internPosition(pos);
+			}
+
+			@Override
+			public String toString() {
+				return "track position at " + pos.getMillisTimestamp();
+			}
+		});
 	}
 
 	/**
@@ -626,10 +606,24 @@ public class DataHelper {
 	 * @return
 	 */
 	public final CellRecord loadCellById(final int id) {
+		return loadCellById(id, RadioBeacon.SESSION_NOT_TRACKING);
+	}
+
+	/**
+	 * Loads CellRecord from session's database.
+	 * @param id
+	 * @param session session id, {@link RadioBeacon#SESSION_NOT_TRACKING} for main database
+	 * @return
+	 */
+	public final CellRecord loadCellById(final int id, final long session) {
         // Log.d(TAG, "loadCellById called");
 		CellRecord cell = null;
 
-		final Cursor cursor = contentResolver.query(ContentUris.withAppendedId(ContentProvider.CONTENT_URI_CELL, id) , null, null, null, null);
+		Uri uri = ContentUris.withAppendedId(ContentProvider.CONTENT_URI_CELL, id);
+		if (session != RadioBeacon.SESSION_NOT_TRACKING) {
+			uri = ContentProvider.withSession(uri, session);
+		}
+		final Cursor cursor = contentResolver.query(uri, null, null, null, null);
 		if (cursor.moveToNext()) {
 			cell = cursorToCell(cursor);
 		}
@@ -708,9 +702,9 @@ public class DataHelper {
 		cell.setStrengthAsu(cursor.getInt(colStrengthAsu));
 		cell.setOpenBmapTimestamp(cursor.getLong(colTimestamp));
 		// TODO: dirty ...
-		cell.setBeginPosition(loadPositionById(cursor.getString(colBeginPositionId)));
-		cell.setEndPosition(loadPositionById(cursor.getString(colEndPositionId)));
 		cell.setSessionId(cursor.getInt(columnIndex18));
+		cell.setBeginPosition(loadPositionById(cursor.getString(colBeginPositionId), cell.getSessionId()));
+		cell.setEndPosition(loadPositionById(cursor.getString(colEndPositionId), cell.getSessionId()));
 
 		return cell;
 	}
@@ -750,6 +744,18 @@ public class DataHelper {
 	 * @return ArrayList<PositionRecord>
 	 */
 	public final PositionRecord loadPositionById(final String id) {
+		return loadPositionById(id, RadioBeacon.SESSION_NOT_TRACKING);
+	}
+
+	/**
+	 * Loads position from session's database.
+	 * @param id
+	 * 			Position id to return
+	 * @param session
+	 * 			Session id, {@link RadioBeacon#SESSION_NOT_TRACKING} for main database
+	 * @return PositionRecord
+	 */
+	public final PositionRecord loadPositionById(final String id, final long session) {
         // Log.d(TAG, "loadPositionById called");
 
 		if (id == null) {
@@ -764,7 +770,7 @@ public class DataHelper {
 		selection = Schema.COL_ID + " = ?";
 		selectionArgs = new String[]{id};
 
-		final Cursor cursor = contentResolver.query(ContentProvider.CONTENT_URI_POSITION, null, selection, selectionArgs, null);
+		final Cursor cursor = contentResolver.query(positionsUri(session), null, selection, selectionArgs, null);
 
 		PositionRecord position = new PositionRecord();
 		if (cursor.moveToNext()) {
@@ -776,6 +782,93 @@ public class DataHelper {
 		return position;
 	}
 
+	/**
+	 * Loads several positions at once.
+	 * Ids are queried in chunks of {@link #MAX_IDS_PER_QUERY}, so a session overview needs a handful of queries
+	 * instead of one query per position
+	 * @param session
+	 * 			Session id, {@link RadioBeacon#SESSION_NOT_TRACKING} for main database
+	 * @param ids
+	 * 			Position ids to load
+	 * @return positions by id, unknown ids are omitted
+	 */
+	public final HashMap<String, PositionRecord> loadPositionsByIds(final long session, final Collection<String> ids) {
+		final HashMap<String, PositionRecord> positions = new HashMap<>(ids.size() * 2);
+		final ArrayList<String> chunk = new ArrayList<>(MAX_IDS_PER_QUERY);
+
+		for (final String id : ids) {
+			if (id == null) {
+				continue;
+			}
+			chunk.add(id);
+			if (chunk.size() == MAX_IDS_PER_QUERY) {
+				loadPositionsChunk(session, chunk, positions);
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			loadPositionsChunk(session, chunk, positions);
+		}
+		return positions;
+	}
+
+	/**
+	 * Loads positions with given ids into map
+	 * @param session session id
+	 * @param ids position ids, at most {@link #MAX_IDS_PER_QUERY}
+	 * @param positions map positions are added to
+	 */
+	private void loadPositionsChunk(final long session, final List<String> ids, final Map<String, PositionRecord> positions) {
+		final StringBuilder selection = new StringBuilder(Schema.COL_ID + " IN (");
+		for (int i = 0; i < ids.size(); i++) {
+			selection.append(i == 0 ? "?" : ",?");
+		}
+		selection.append(")");
+
+		final Cursor cursor = contentResolver.query(positionsUri(session), null,
+				selection.toString(), ids.toArray(new String[ids.size()]), null);
+
+		final int colId = cursor.getColumnIndex(Schema.COL_ID);
+		final int[] columns = positionColumns(cursor);
+		while (cursor.moveToNext()) {
+			positions.put(cursor.getString(colId), positionFromCursor(cursor, columns));
+		}
+		cursor.close();
+	}
+
+	/**
+	 * Sets begin and end positions of wifis, positions are loaded in bulk
+	 * @param session session id
+	 * @param wifis wifis
+	 * @param beginIds begin position ids, same order as wifis
+	 * @param endIds end position ids, same order as wifis
+	 */
+	private void setPositions(final long session, final List<WifiRecord> wifis, final List<String> beginIds, final List<String> endIds) {
+		final HashSet<String> ids = new HashSet<>(beginIds);
+		ids.addAll(endIds);
+		final HashMap<String, PositionRecord> positions = loadPositionsByIds(session, ids);
+
+		for (int i = 0; i < wifis.size(); i++) {
+			final WifiRecord wifi = wifis.get(i);
+			final PositionRecord begin = positions.get(beginIds.get(i));
+			final PositionRecord end = positions.get(endIds.get(i));
+			// same fallback as loadPositionById: empty position, if not found
+			wifi.setBeginPosition(begin != null ? begin : new PositionRecord());
+			wifi.setEndPosition(end != null ? end : new PositionRecord());
+		}
+	}
+
+	/**
+	 * @param session session id, {@link RadioBeacon#SESSION_NOT_TRACKING} for main database
+	 * @return positions uri, scoped to session's database (see {@link SessionShards})
+	 */
+	private static Uri positionsUri(final long session) {
+		if (session == RadioBeacon.SESSION_NOT_TRACKING) {
+			return ContentProvider.CONTENT_URI_POSITION;
+		}
+		return ContentProvider.withSession(ContentProvider.CONTENT_URI_POSITION, session);
+	}
+
 	/**
 	 * Loads positions within certain arrea
 	 * @param session
@@ -796,27 +889,23 @@ public class DataHelper {
 			// if boundaries provided..
 			selectionArgs = new ArrayList<>();
 			selectionArgs.add(String.valueOf(session));
+			final boolean indexed = SpatialIndex.isAvailable(SessionShards.helperFor(mContext, session));
+			selectionArgs.addAll(Arrays.asList(SpatialIndex.args(indexed, minLat, maxLat, minLon, maxLon)));
 
-			selectionArgs.add(String.valueOf(minLat));
-			selectionArgs.add(String.valueOf(maxLat));
-
-			selectionArgs.add(String.valueOf(minLon));
-			selectionArgs.add(String.valueOf(maxLon));
-
-			selection +=  "AND (" + Schema.COL_LATITUDE + " > ? AND " + Schema.COL_LATITUDE + " < ?) AND ("
-					+ Schema.COL_LONGITUDE + " > ? AND " + Schema.COL_LONGITUDE + " < ?)";
+			selection += " AND " + SpatialIndex.within(indexed, Schema.COL_ID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE);
 			cursor = contentResolver.query(
-					ContentProvider.CONTENT_URI_POSITION,
+					positionsUri(session),
                     null, selection,
                     selectionArgs.toArray(new String[0]), Schema.COL_TIMESTAMP);
 
 		} else {
 			Log.v(TAG, "No boundaries provided, loading all positions");
-			cursor = contentResolver.query(ContentProvider.CONTENT_URI_POSITION, null, null, null, Schema.COL_TIMESTAMP);
+			cursor = contentResolver.query(positionsUri(session), null, null, null, Schema.COL_TIMESTAMP);
 		}
 
+		final int[] columns = positionColumns(cursor);
 		while (cursor.moveToNext()) {
-			positions.add(positionFromCursor(cursor));
+			positions.add(positionFromCursor(cursor, columns));
 		}
 
 		cursor.close();
@@ -829,27 +918,44 @@ public class DataHelper {
 	 * @return
 	 */
 	private PositionRecord positionFromCursor(final Cursor cursor) {
-		// Performance tweaking: don't call ca.getColumnIndex on each iteration
-		final int columnIndex = cursor.getColumnIndex(Schema.COL_LATITUDE);
-		final int columnIndex2 = cursor.getColumnIndex(Schema.COL_LONGITUDE);
-		final int columnIndex3 = cursor.getColumnIndex(Schema.COL_ALTITUDE);
-		final int columnIndex4 = cursor.getColumnIndex(Schema.COL_ACCURACY);
-		final int columnIndex5 = cursor.getColumnIndex(Schema.COL_TIMESTAMP);
-		final int columnIndex6 = cursor.getColumnIndex(Schema.COL_BEARING);
-		final int columnIndex7 = cursor.getColumnIndex(Schema.COL_SPEED);
-		final int columnIndex8 = cursor.getColumnIndex(Schema.COL_SESSION_ID);
-		final int columnIndex9 = cursor.getColumnIndex(Schema.COL_SOURCE);
+		return positionFromCursor(cursor, positionColumns(cursor));
+	}
+
+	/**
+	 * Looks up position column indices, so they can be re-used for all rows
+	 * @param cursor
+	 * @return column indices, as expected by {@link #positionFromCursor(Cursor, int[])}
+	 */
+	private static int[] positionColumns(final Cursor cursor) {
+		return new int[]{
+				cursor.getColumnIndex(Schema.COL_LATITUDE),
+				cursor.getColumnIndex(Schema.COL_LONGITUDE),
+				cursor.getColumnIndex(Schema.COL_ALTITUDE),
+				cursor.getColumnIndex(Schema.COL_ACCURACY),
+				cursor.getColumnIndex(Schema.COL_TIMESTAMP),
+				cursor.getColumnIndex(Schema.COL_BEARING),
+				cursor.getColumnIndex(Schema.COL_SPEED),
+				cursor.getColumnIndex(Schema.COL_SESSION_ID),
+				cursor.getColumnIndex(Schema.COL_SOURCE)};
+	}
 
+	/**
+	 * Creates PositionRecord from cursor, using pre-fetched column indices
+	 * @param cursor
+	 * @param columns column indices from {@link #positionColumns(Cursor)}
+	 * @return
+	 */
+	private static PositionRecord positionFromCursor(final Cursor cursor, final int[] columns) {
 		final PositionRecord position = new PositionRecord();
-		position.setLatitude(cursor.getDouble(columnIndex));
-		position.setLongitude(cursor.getDouble(columnIndex2));
-		position.setAltitude(cursor.getDouble(columnIndex3));
-		position.setAccuracy(cursor.getDouble(columnIndex4));
-		position.setTimestampByMillis(cursor.getLong(columnIndex5));
-		position.setBearing(cursor.getDouble(columnIndex6));
-		position.setSpeed(cursor.getDouble(columnIndex7));
-		position.setSession(cursor.getInt(columnIndex8));
-		position.setSource(cursor.getString(columnIndex9));
+		position.setLatitude(cursor.getDouble(columns[0]));
+		position.setLongitude(cursor.getDouble(columns[1]));
+		position.setAltitude(cursor.getDouble(columns[2]));
+		position.setAccuracy(cursor.getDouble(columns[3]));
+		position.setTimestampByMillis(cursor.getLong(columns[4]));
+		position.setBearing(cursor.getDouble(columns[5]));
+		position.setSpeed(cursor.getDouble(columns[6]));
+		position.setSession(cursor.getInt(columns[7]));
+		position.setSource(cursor.getString(columns[8]));
 
 		return position;
 	}
@@ -903,12 +1009,14 @@ public class DataHelper {
 	}
 
 	/**
-	 * Deactivates all active sessions.
+	 * Deactivates all active sessions, i.e. stops them. Stopped sessions are marked as updated now,
+	 * so retention age counts from last use (see {@link SessionPruner})
 	 * @return number of updated rows
 	 */
 	public final int invalidateActiveSessions() {
 		final ContentValues values = new ContentValues();
 		values.put(Schema.COL_IS_ACTIVE, 0);
+		values.put(Schema.COL_LAST_UPDATED, System.currentTimeMillis());
 		// disables all active sessions
 		return contentResolver.update(ContentProvider.CONTENT_URI_SESSION, values,
 				Schema.COL_IS_ACTIVE + " > 0" , null);
@@ -916,8 +1024,8 @@ public class DataHelper {
 
     /**
      * Stores position.
-     * This method is only used for separate positions. Wifi and cell positions are added in batch mode
-     * in storeCellsScanResults and storeWifiScanResults
+     * This method is only used for separate positions (e.g. waypoints). Wifi and cell positions are added in batch mode
+     * in storeCellsScanResults and storeWifiScanResults, track positions in storeTrackPosition
      * @param pos
      * @return
      */
@@ -0,0 +1,233 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reclaims free pages in small steps instead of a blocking VACUUM
+ *
+ * Databases are kept in auto_vacuum=INCREMENTAL mode, so deleted sessions leave free pages, which
+ * are moved to the end of file and truncated by PRAGMA incremental_vacuum. Each step frees at most
+ * {@link #STEP_PAGES} pages in a short write transaction, thus logger inserts aren't blocked for long.
+ *
+ * auto_vacuum can only be switched by a full VACUUM. Small databases are converted on open (see {@link #convertIfSmall(SQLiteDatabase)}),
+ * larger legacy databases only on user's request (compaction with conversion allowed), as VACUUM can't be interrupted.
+ */
+public final class DatabaseCompactor {
+
+	private static final String TAG = DatabaseCompactor.class.getSimpleName();
+
+	/**
+	 * Pages freed per incremental_vacuum step (1 MB with default page size)
+	 */
+	static final int STEP_PAGES = 256;
+
+	/**
+	 * Databases up to this size are converted to incremental mode right on open
+	 */
+	private static final long CONVERT_ON_OPEN_LIMIT = 1024 * 1024;
+
+	private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+	/**
+	 * Outcome of a compaction run
+	 */
+	public static final class Result {
+		/**
+		 * Bytes by which database files have shrunk
+		 */
+		public long reclaimedBytes;
+		/**
+		 * Free bytes left, because time budget was exhausted
+		 */
+		public long remainingBytes;
+		/**
+		 * Wall time spent
+		 */
+		public long elapsedMillis;
+		/**
+		 * Databases converted to incremental mode by a full VACUUM
+		 */
+		public int converted;
+		/**
+		 * Databases skipped, because they aren't in incremental mode yet and conversion wasn't allowed
+		 */
+		public int legacy;
+
+		/**
+		 * @return true, if no free pages are left
+		 */
+		public boolean isComplete() {
+			return remainingBytes == 0;
+		}
+
+		void add(final Result other) {
+			reclaimedBytes += other.reclaimedBytes;
+			remainingBytes += other.remainingBytes;
+			elapsedMillis += other.elapsedMillis;
+			converted += other.converted;
+			legacy += other.legacy;
+		}
+
+		@Override
+		public String toString() {
+			return "reclaimed " + reclaimedBytes + " bytes in " + elapsedMillis + " ms, "
+					+ remainingBytes + " bytes left, " + converted + " databases converted, " + legacy + " skipped";
+		}
+	}
+
+	private DatabaseCompactor() {
+	}
+
+	/**
+	 * Compacts main database and all session shards, until free pages are gone or time budget is exhausted
+	 * @param context context
+	 * @param budgetMillis time budget, checked between steps
+	 * @param convert if true, databases not yet in incremental mode are converted by a (blocking) full VACUUM
+	 * @return summed result
+	 */
+	public static Result compactAll(final Context context, final long budgetMillis, final boolean convert) {
+		final List<DatabaseHelper> helpers = new ArrayList<>();
+		helpers.add(DatabaseHelper.getInstance(context));
+		for (final Long session : SessionShards.list(context)) {
+			helpers.add(SessionShards.helperFor(context, session));
+		}
+
+		final long deadline = SystemClock.elapsedRealtime() + budgetMillis;
+		final Result total = new Result();
+		for (final DatabaseHelper helper : helpers) {
+			// shards may get deleted meanwhile
+			try {
+				total.add(compact(helper.getWritableDatabase(), deadline, convert));
+			} catch (final SQLException e) {
+				Log.w(TAG, "Couldn't compact " + helper.getDatabaseName() + ": " + e.getMessage());
+			} catch (final IllegalStateException e) {
+				Log.w(TAG, "Database " + helper.getDatabaseName() + " closed while compacting");
+			}
+		}
+		Log.i(TAG, "Compaction: " + total);
+		return total;
+	}
+
+	/**
+	 * Frees pages in steps of {@link #STEP_PAGES}, until no free pages are left or deadline has passed
+	 * @param db writable database, not within a transaction
+	 * @param deadline {@link SystemClock#elapsedRealtime()} at which no further step is started
+	 * @param convert if true, a database not yet in incremental mode is converted by a full VACUUM
+	 * @return result
+	 */
+	public static Result compact(final SQLiteDatabase db, final long deadline, final boolean convert) {
+		final long start = SystemClock.elapsedRealtime();
+		final Result result = new Result();
+		final long before = sizeBytes(db);
+
+		if (!isIncremental(db)) {
+			if (!convert) {
+				result.remainingBytes = freeBytes(db);
+				result.legacy = 1;
+				return result;
+			}
+			convert(db);
+			result.converted = 1;
+		}
+
+		while (freePages(db) > 0 && SystemClock.elapsedRealtime() < deadline) {
+			// incremental_vacuum frees one page per result row, so all rows have to be stepped through
+			final Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + STEP_PAGES + ")", null);
+			cursor.getCount();
+			cursor.close();
+		}
+
+		result.reclaimedBytes = Math.max(0, before - sizeBytes(db));
+		result.remainingBytes = freeBytes(db);
+		result.elapsedMillis = SystemClock.elapsedRealtime() - start;
+		return result;
+	}
+
+	/**
+	 * Converts newly created or small databases to incremental mode. Called on open, as
+	 * auto_vacuum can't be set on creation anymore (Android adds its metadata table before)
+	 * @param db writable database, not within a transaction
+	 */
+	static void convertIfSmall(final SQLiteDatabase db) {
+		try {
+			if (!isIncremental(db) && sizeBytes(db) <= CONVERT_ON_OPEN_LIMIT) {
+				convert(db);
+			}
+		} catch (final SQLException e) {
+			Log.w(TAG, "Couldn't enable incremental vacuum: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param db database
+	 * @return true, if database is in auto_vacuum=INCREMENTAL mode
+	 */
+	public static boolean isIncremental(final SQLiteDatabase db) {
+		return queryLong(db, "PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+	}
+
+	/**
+	 * @param db database
+	 * @return bytes on freelist
+	 */
+	public static long freeBytes(final SQLiteDatabase db) {
+		return freePages(db) * queryLong(db, "PRAGMA page_size");
+	}
+
+	/**
+	 * Switches to incremental mode. auto_vacuum setting only takes effect with a full VACUUM on the same connection
+	 */
+	private static void convert(final SQLiteDatabase db) {
+		final long start = SystemClock.elapsedRealtime();
+		db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+		db.execSQL("VACUUM");
+		Log.i(TAG, "Converted " + db.getPath() + " to incremental vacuum in " + (SystemClock.elapsedRealtime() - start) + " ms");
+	}
+
+	private static long freePages(final SQLiteDatabase db) {
+		return queryLong(db, "PRAGMA freelist_count");
+	}
+
+	/**
+	 * @param db database
+	 * @return size of database in bytes, including free pages
+	 */
+	static long sizeBytes(final SQLiteDatabase db) {
+		return queryLong(db, "PRAGMA page_count") * queryLong(db, "PRAGMA page_size");
+	}
+
+	private static long queryLong(final SQLiteDatabase db, final String sql) {
+		final Cursor cursor = db.rawQuery(sql, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+}
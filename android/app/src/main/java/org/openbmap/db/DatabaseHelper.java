@@ -18,17 +18,23 @@
 
 package org.openbmap.db;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import org.openbmap.Preferences;
 import org.openbmap.RadioBeacon;
+import org.openbmap.db.models.WifiRecord;
 import org.openbmap.utils.FileUtils;
 import org.openbmap.utils.MediaScanner;
 
@@ -85,10 +91,38 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	/**
 	 * SQL for creating table WIFIS
 	 */
-	private static final String SQL_CREATE_TABLE_WIFIS = ""
-			+  "CREATE TABLE " + Schema.TBL_WIFIS + " ("
+	private static final String SQL_CREATE_TABLE_WIFIS = sqlCreateTableWifis(Schema.TBL_WIFIS);
+
+	/**
+	 * Columns of table WIFIS, as copied on table rebuilds
+	 */
+	private static final String[] COLUMNS_WIFIS = new String[]{
+			Schema.COL_ID,
+			Schema.COL_BSSID,
+			Schema.COL_SSID,
+			Schema.COL_MD5_SSID,
+			Schema.COL_CAPABILITIES,
+			Schema.COL_FREQUENCY,
+			Schema.COL_LEVEL,
+			Schema.COL_TIMESTAMP,
+			Schema.COL_BEGIN_POSITION_ID,
+			Schema.COL_END_POSITION_ID,
+			Schema.COL_SESSION_ID,
+			Schema.COL_KNOWN_WIFI,
+			Schema.COL_OBSERVATIONS,
+			Schema.COL_LEVEL_MIN,
+			Schema.COL_LEVEL_MAX};
+
+	/**
+	 * SQL for creating a table with WIFIS schema
+	 * Bssids are stored as 48-bit integers (see {@link WifiRecord#bssidToLong(String)})
+	 * @param table table name
+	 */
+	private static String sqlCreateTableWifis(final String table) {
+		return ""
+			+  "CREATE TABLE " + table + " ("
 			+  Schema.COL_ID	 +  " INTEGER PRIMARY KEY AUTOINCREMENT,"
-			+  Schema.COL_BSSID + " TEXT,"
+			+  Schema.COL_BSSID + " INTEGER,"
 			+  Schema.COL_SSID + " TEXT,"
 			+  Schema.COL_MD5_SSID + " TEXT,"
 			+  Schema.COL_CAPABILITIES  + " TEXT,"
@@ -100,10 +134,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			+  Schema.COL_SESSION_ID + " INTEGER, "
 			//+  Schema.COL_IS_NEW_WIFI + " INTEGER, "
 			+  Schema.COL_KNOWN_WIFI + " INTEGER, "
+			+  Schema.COL_OBSERVATIONS + " INTEGER DEFAULT 1, "
+			+  Schema.COL_LEVEL_MIN + " INTEGER, "
+			+  Schema.COL_LEVEL_MAX + " INTEGER, "
 			+  " FOREIGN KEY (" + Schema.COL_SESSION_ID + ") REFERENCES " + Schema.TBL_SESSIONS + "( " + Schema.COL_ID + ") ON DELETE CASCADE, "
 			+  " FOREIGN KEY (" + Schema.COL_BEGIN_POSITION_ID + ") REFERENCES " + Schema.TBL_POSITIONS + "( " + Schema.COL_ID + "), "
 			+  " FOREIGN KEY (" + Schema.COL_END_POSITION_ID + ") REFERENCES " + Schema.TBL_POSITIONS + "( " + Schema.COL_ID + ")"
 			+  ")";
+	}
 
 	// Caution, stupid sqlite restriction! Have to provide name for each field, otherwise query fails
 	// see http://stackoverflow.com/questions/3269199/sqlite-for-android-custom-table-view-sql-view-not-android-view-discrepancy
@@ -231,7 +269,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			+ Schema.COL_IS_ACTIVE + " INTEGER,"
 			+ Schema.COL_NUMBER_OF_WIFIS + " INTEGER,"
 			+ Schema.COL_NUMBER_OF_CELLS + " INTEGER,"
-			+ Schema.COL_NUMBER_OF_WAYPOINTS + " INTEGER"
+			+ Schema.COL_NUMBER_OF_WAYPOINTS + " INTEGER,"
+			+ Schema.COL_NUMBER_OF_NEW_WIFIS + " INTEGER DEFAULT 0,"
+			+ Schema.COL_NUMBER_OF_BSSIDS + " INTEGER DEFAULT 0,"
+			+ Schema.COL_IS_DELETING + " INTEGER DEFAULT 0"
 			+ ")";
 
 	/**
@@ -257,16 +298,30 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			+  Schema.COL_BEGIN_POSITION_ID
 			+  ")";
 
+	/**
+	 * Exports page through session's wifis ordered by begin position, see WifiSerializer
+	 */
+	private static final String SQL_CREATE_IDX_WIFIS_SESSION_BEGIN_POSITION_ID = ""
+			+  "CREATE INDEX IF NOT EXISTS idx_wifis_sessions_begin_position_id ON "
+			+  Schema.TBL_WIFIS + "("
+			+  Schema.COL_SESSION_ID + ", "
+			+  Schema.COL_BEGIN_POSITION_ID
+			+  ")";
+
 	private static final String SQL_CREATE_IDX_WIFIS_END_POSITION_ID = ""
 			+  "CREATE INDEX idx_wifis_end_position_id ON "
 			+  Schema.TBL_WIFIS + "("
 			+  Schema.COL_END_POSITION_ID
 			+  ")";
 
+	/**
+	 * Exports page through session's cells ordered by begin position, see CellSerializer
+	 */
 	private static final String SQL_CREATE_IDX_CELLS_SESSION_ID = ""
 			+  "CREATE INDEX idx_cells_sessions_id ON "
 			+  Schema.TBL_CELLS + "("
-			+  Schema.COL_SESSION_ID
+			+  Schema.COL_SESSION_ID + ", "
+			+  Schema.COL_BEGIN_POSITION_ID
 			+  ")";
 
 	private static final String SQL_CREATE_IDX_CELLS_BEGIN_POSITION_ID = ""
@@ -305,23 +360,78 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 * SQL for creating index on Positions
 	 */
 	private static final String	SQL_CREATE_IDX_POSITIONS_TIMESTAMP	= ""
-			+  "CREATE INDEX idx_positions_timestamp"
+			+  "CREATE INDEX IF NOT EXISTS idx_positions_timestamp ON "
+			+  Schema.TBL_POSITIONS + "("
+			+  Schema.COL_TIMESTAMP
+			+  ")";
+
+	/**
+	 * SQL for creating index on Positions
+	 * GPX export pages through session's positions ordered by timestamp
+	 */
+	private static final String	SQL_CREATE_IDX_POSITIONS_SESSION_TIMESTAMP	= ""
+			+  "CREATE INDEX IF NOT EXISTS idx_positions_sessions_timestamp ON "
 			+  Schema.TBL_POSITIONS + "("
+			+  Schema.COL_SESSION_ID + ", "
 			+  Schema.COL_TIMESTAMP
 			+  ")";
 
+	/**
+	 * WAL size (in pages) which triggers an automatic checkpoint
+	 * Larger than SQLite's default (1000 pages), as WAL is also checkpointed explicitly on session stop
+	 */
+	private static final int WAL_AUTOCHECKPOINT = 4000;
+
+	/**
+	 * WAL file is truncated to this size after checkpoints (in bytes)
+	 */
+	private static final long WAL_SIZE_LIMIT = 4 * 1024 * 1024;
+
 	private SQLiteDatabase mDataBase;
 
 	private final Context mContext;
 
+	/**
+	 * True, if this database has a spatial index, detected on open (see {@link SpatialIndex})
+	 */
+	private volatile boolean mSpatialIndex;
+
+	private static DatabaseHelper sInstance;
+
+	/**
+	 * Returns process-wide instance, shared by content provider and in-process writers,
+	 * so all writes go through the same connection
+	 * @param context context
+	 * @return shared instance
+	 */
+	public static synchronized DatabaseHelper getInstance(final Context context) {
+		if (sInstance == null) {
+			sInstance = new DatabaseHelper(context.getApplicationContext());
+		}
+		return sInstance;
+	}
+
 	/**
 	 * Initializes DatabaseHelper
 	 * @param appContext Application context
      */
 	public DatabaseHelper(final Context appContext) {
-		super(appContext, DB_NAME, null, RadioBeacon.DATABASE_VERSION);
+		this(appContext, DB_NAME);
+	}
+
+	/**
+	 * Initializes DatabaseHelper for given database file, used for session shards (see {@link SessionShards})
+	 * @param appContext Application context
+	 * @param name database name
+	 */
+	DatabaseHelper(final Context appContext, final String name) {
+		super(appContext, name, null, RadioBeacon.DATABASE_VERSION);
 		Log.i(TAG, "Database scheme version " + RadioBeacon.DATABASE_VERSION);
 		mContext = appContext.getApplicationContext();
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			// connection is opened in WAL mode right away, see onConfigure
+			setWriteAheadLoggingEnabled(true);
+		}
 	}
 
 	@Override
@@ -334,6 +444,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			db.execSQL("DROP TABLE IF EXISTS " + Schema.TBL_POSITIONS);
 			db.execSQL(SQL_CREATE_TABLE_POSITIONS);
 			db.execSQL(SQL_CREATE_IDX_POSITIONS);
+			db.execSQL(SQL_CREATE_IDX_POSITIONS_TIMESTAMP);
+			db.execSQL(SQL_CREATE_IDX_POSITIONS_SESSION_TIMESTAMP);
+			db.execSQL("DROP TABLE IF EXISTS " + Schema.TBL_POSITIONS_RTREE);
+			SpatialIndex.create(db);
 			db.execSQL("DROP TABLE IF EXISTS " + Schema.TBL_LOGS);
 			db.execSQL(SQL_CREATE_TABLE_LOGS);
 			// TODO: find solution for Session NOT_TRACKING
@@ -342,8 +456,12 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
 			db.execSQL("DROP TABLE IF EXISTS " + Schema.TBL_CELLS);
 			db.execSQL(SQL_CREATE_TABLE_CELLS);
+			db.execSQL("DROP TABLE IF EXISTS " + Schema.TBL_CELL_OVERVIEW);
+			OverviewTable.CELLS.create(db);
 			db.execSQL("DROP TABLE IF EXISTS " + Schema.TBL_WIFIS);
 			db.execSQL(SQL_CREATE_TABLE_WIFIS);
+			db.execSQL("DROP TABLE IF EXISTS " + Schema.TBL_WIFI_OVERVIEW);
+			OverviewTable.WIFIS.create(db);
 
 			// create views
 			db.execSQL("DROP VIEW IF EXISTS " + Schema.VIEW_WIFIS_EXTENDED);
@@ -357,10 +475,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			db.execSQL(SQL_CREATE_IDX_CELLS);
 			db.execSQL(SQL_CREATE_IDX_WIFIS_SESSION_ID);
 			db.execSQL(SQL_CREATE_IDX_WIFIS_BEGIN_POSITION_ID);
+			db.execSQL(SQL_CREATE_IDX_WIFIS_SESSION_BEGIN_POSITION_ID);
 			db.execSQL(SQL_CREATE_IDX_WIFIS_END_POSITION_ID);
 			db.execSQL(SQL_CREATE_IDX_CELLS_SESSION_ID);
 			db.execSQL(SQL_CREATE_IDX_CELLS_BEGIN_POSITION_ID);
 			db.execSQL(SQL_CREATE_IDX_CELLS_END_POSITION_ID);
+
+			// live session counters, depend on overview tables
+			SessionCounters.create(db);
 		}
 	}
 
@@ -368,6 +490,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	public final void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
 		Log.i(TAG, "Updating database scheme from " + oldVersion + " to " + newVersion);
 
+		// foreign keys are already enforced while upgrading (see onConfigure), so rows older versions
+		// left behind without cascade would make the table rebuilds below fail
+		deleteOrphans(db);
+
 		if (oldVersion <= 1) {
 			// add wifi position view
 			Log.i(TAG, "Migrate to db version 2");
@@ -518,6 +644,302 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 Log.w(TAG, "Couldn't create cell position timestamp index");
             }
         }
+
+        // Observation collapsing: count and level range per wifi record
+        if (oldVersion <= 13) {
+            try {
+                db.execSQL("ALTER TABLE " + Schema.TBL_WIFIS + " ADD COLUMN " + Schema.COL_OBSERVATIONS + " INTEGER DEFAULT 1");
+                db.execSQL("ALTER TABLE " + Schema.TBL_WIFIS + " ADD COLUMN " + Schema.COL_LEVEL_MIN + " INTEGER");
+                db.execSQL("ALTER TABLE " + Schema.TBL_WIFIS + " ADD COLUMN " + Schema.COL_LEVEL_MAX + " INTEGER");
+            } catch (final SQLException e) {
+                Log.i(TAG, "Nothing to do: observation columns already exist");
+            }
+        }
+
+        if (oldVersion <= 14) {
+            // timestamp index DDL has been broken (missing ON) up to version 14
+            try {
+                db.execSQL(SQL_CREATE_IDX_POSITIONS_TIMESTAMP);
+            } catch (final SQLException e) {
+                Log.w(TAG, "Couldn't create position timestamp index");
+            }
+            SpatialIndex.create(db);
+        }
+
+        // Materialized wifi overview, replaces MAX(level) GROUP BY aggregation over whole session
+        if (oldVersion <= 15) {
+            try {
+                Log.w(TAG, "Database upgrade: building wifi overview. This may take some time!!!");
+                OverviewTable.WIFIS.create(db);
+            } catch (final SQLException e) {
+                Log.e(TAG, "Couldn't create wifi overview: " + e.getMessage());
+            }
+        }
+
+        // Materialized cell overview, replaces MAX(dbm) GROUP BY aggregation over whole session
+        if (oldVersion <= 16) {
+            try {
+                Log.w(TAG, "Database upgrade: building cell overview. This may take some time!!!");
+                OverviewTable.CELLS.create(db);
+            } catch (final SQLException e) {
+                Log.e(TAG, "Couldn't create cell overview: " + e.getMessage());
+            }
+        }
+
+        // Live session counters, maintained on insert instead of counting on session stop
+        if (oldVersion <= 17) {
+            try {
+                db.execSQL("ALTER TABLE " + Schema.TBL_SESSIONS + " ADD COLUMN " + Schema.COL_NUMBER_OF_NEW_WIFIS + " INTEGER DEFAULT 0");
+                db.execSQL("ALTER TABLE " + Schema.TBL_SESSIONS + " ADD COLUMN " + Schema.COL_NUMBER_OF_BSSIDS + " INTEGER DEFAULT 0");
+            } catch (final SQLException e) {
+                Log.i(TAG, "Nothing to do: session counter columns already exist");
+            }
+            try {
+                SessionCounters.create(db);
+            } catch (final SQLException e) {
+                Log.e(TAG, "Couldn't create session counters: " + e.getMessage());
+            }
+        }
+
+        // Composite indices for keyset pagination in exports
+        if (oldVersion <= 18) {
+            try {
+                Log.w(TAG, "Database upgrade: building export indices. This may take some time!!!");
+                db.execSQL(SQL_CREATE_IDX_WIFIS_SESSION_BEGIN_POSITION_ID);
+                db.execSQL("DROP INDEX IF EXISTS idx_cells_sessions_id");
+                db.execSQL(SQL_CREATE_IDX_CELLS_SESSION_ID);
+                db.execSQL(SQL_CREATE_IDX_POSITIONS_SESSION_TIMESTAMP);
+            } catch (final SQLException e) {
+                Log.w(TAG, "Couldn't create export indices");
+            }
+        }
+
+        // Bssids stored as 48-bit integers instead of colon-separated text
+        if (oldVersion <= 19) {
+            try {
+                Log.w(TAG, "Database upgrade: converting bssids to integers. This may take some time!!!");
+                migrateBssidsToInteger(db);
+            } catch (final SQLException e) {
+                Log.e(TAG, "Couldn't convert bssids: " + e.getMessage());
+            }
+        }
+
+        // Sessions queued for chunked deletion
+        if (oldVersion <= 20) {
+            try {
+                db.execSQL("ALTER TABLE " + Schema.TBL_SESSIONS + " ADD COLUMN " + Schema.COL_IS_DELETING + " INTEGER DEFAULT 0");
+            } catch (final SQLException e) {
+                Log.w(TAG, "Couldn't add deletion flag to sessions");
+            }
+        }
+
+        // Overview delete triggers re-aggregate by primary key and raw key columns
+        if (oldVersion <= 21) {
+            try {
+                OverviewTable.WIFIS.recreateDeleteTriggers(db);
+                OverviewTable.CELLS.recreateDeleteTriggers(db);
+            } catch (final SQLException e) {
+                Log.e(TAG, "Couldn't replace overview delete triggers: " + e.getMessage());
+            }
+        }
+	}
+
+	/**
+	 * Deletes rows referencing sessions or positions which don't exist anymore.
+	 * Before foreign keys were enabled on every connection, deleting a session didn't always cascade
+	 * @param db database, called within upgrade transaction
+	 */
+	private static void deleteOrphans(final SQLiteDatabase db) {
+		final String orphanSession = Schema.COL_SESSION_ID + " NOT IN (SELECT " + Schema.COL_ID + " FROM " + Schema.TBL_SESSIONS + ")";
+		final String orphanPosition = " OR " + Schema.COL_BEGIN_POSITION_ID + " NOT IN (SELECT " + Schema.COL_ID + " FROM " + Schema.TBL_POSITIONS + ")"
+				+ " OR " + Schema.COL_END_POSITION_ID + " NOT IN (SELECT " + Schema.COL_ID + " FROM " + Schema.TBL_POSITIONS + ")";
+		try {
+			db.delete(Schema.TBL_WIFIS, orphanSession + orphanPosition, null);
+			db.delete(Schema.TBL_CELLS, orphanSession + orphanPosition, null);
+			db.delete(Schema.TBL_POSITIONS, orphanSession, null);
+			db.delete(Schema.TBL_LOGS, orphanSession, null);
+		} catch (final SQLException e) {
+			Log.e(TAG, "Couldn't delete orphaned rows: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Rebuilds table WIFIS with integer bssids. SQLite can't change a column's type in place, so
+	 * rows are copied into a new table, which replaces the old one. Dependent view, indices,
+	 * wifi overview and session counters are rebuilt afterwards.
+	 *
+	 * Bssids are converted with {@link WifiRecord#bssidToLong(String)} once per distinct bssid
+	 * (SQL lacks hex parsing on older Android versions). Malformed bssids are stored as {@link WifiRecord#INVALID_BSSID}
+	 * @param db database, called within upgrade transaction
+	 */
+	static void migrateBssidsToInteger(final SQLiteDatabase db) {
+		final String tmp = Schema.TBL_WIFIS + "_new";
+		final String map = "bssid_map";
+
+		db.execSQL("DROP TABLE IF EXISTS " + map);
+		db.execSQL("CREATE TEMP TABLE " + map + " (text TEXT PRIMARY KEY, value INTEGER)");
+		final SQLiteStatement insert = db.compileStatement("INSERT INTO " + map + " VALUES (?, ?)");
+		final Cursor cursor = db.rawQuery("SELECT DISTINCT " + Schema.COL_BSSID + " FROM " + Schema.TBL_WIFIS
+				+ " WHERE " + Schema.COL_BSSID + " IS NOT NULL", null);
+		try {
+			while (cursor.moveToNext()) {
+				final String bssid = cursor.getString(0);
+				insert.bindString(1, bssid);
+				insert.bindLong(2, WifiRecord.bssidToLong(bssid));
+				insert.executeInsert();
+			}
+		} finally {
+			cursor.close();
+			insert.close();
+		}
+
+		// drop everything referencing wifis, otherwise rename fails on newer SQLite versions
+		db.execSQL("DROP VIEW IF EXISTS " + Schema.VIEW_WIFIS_EXTENDED);
+		db.execSQL("DROP TABLE IF EXISTS " + Schema.TBL_WIFI_OVERVIEW);
+		db.execSQL("DROP TABLE IF EXISTS " + tmp);
+		db.execSQL(sqlCreateTableWifis(tmp));
+
+		final StringBuilder columns = new StringBuilder();
+		final StringBuilder values = new StringBuilder();
+		for (final String column : COLUMNS_WIFIS) {
+			if (columns.length() > 0) {
+				columns.append(", ");
+				values.append(", ");
+			}
+			columns.append(column);
+			if (column.equals(Schema.COL_BSSID)) {
+				values.append("IFNULL((SELECT value FROM " + map + " WHERE text = " + Schema.TBL_WIFIS + "." + column + "), "
+						+ WifiRecord.INVALID_BSSID + ")");
+			} else {
+				values.append(column);
+			}
+		}
+		db.execSQL("INSERT INTO " + tmp + " (" + columns + ") SELECT " + values + " FROM " + Schema.TBL_WIFIS);
+		db.execSQL("DROP TABLE " + Schema.TBL_WIFIS);
+		db.execSQL("ALTER TABLE " + tmp + " RENAME TO " + Schema.TBL_WIFIS);
+		db.execSQL("DROP TABLE " + map);
+
+		db.execSQL(SQL_CREATE_IDX_WIFIS);
+		db.execSQL(SQL_CREATE_IDX_WIFIS_SESSION_ID);
+		db.execSQL(SQL_CREATE_IDX_WIFIS_BEGIN_POSITION_ID);
+		db.execSQL(SQL_CREATE_IDX_WIFIS_SESSION_BEGIN_POSITION_ID);
+		db.execSQL(SQL_CREATE_IDX_WIFIS_END_POSITION_ID);
+		db.execSQL(SQL_CREATE_VIEW_WIFI_POSITIONS);
+
+		OverviewTable.WIFIS.create(db);
+		SessionCounters.create(db);
+	}
+
+	/**
+	 * Enables foreign key constraints and tunes write-ahead logging (enabled in constructor),
+	 * before schema is created or upgraded (API 16+)
+	 * Foreign keys are a per-connection setting: configured here, they apply to every pooled connection,
+	 * so ON DELETE CASCADE also works for writes which don't go through the content provider
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	@Override
+	public void onConfigure(final SQLiteDatabase db) {
+		super.onConfigure(db);
+		db.setForeignKeyConstraintsEnabled(true);
+		if (db.isReadOnly()) {
+			return;
+		}
+
+		if ("wal".equalsIgnoreCase(journalMode(db))) {
+			configureWal(db);
+		} else {
+			Log.w(TAG, "Write-ahead logging not available, using rollback journal");
+		}
+	}
+
+	/**
+	 * Write-ahead logging lets readers (map overlays, lists, exports) not block on logger inserts and vice versa.
+	 * In WAL mode, Android keeps a pool with additional connections for concurrent reads.
+	 * Before API 16, there's no onConfigure, so WAL and foreign keys are enabled here
+	 * Also enables incremental vacuum on new databases, see {@link DatabaseCompactor}
+	 */
+	@Override
+	public void onOpen(final SQLiteDatabase db) {
+		super.onOpen(db);
+		mSpatialIndex = SpatialIndex.detect(db);
+		if (db.isReadOnly()) {
+			return;
+		}
+
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+			db.execSQL("PRAGMA foreign_keys = ON");
+			if (db.enableWriteAheadLogging()) {
+				configureWal(db);
+			} else {
+				Log.w(TAG, "Write-ahead logging not available, using rollback journal");
+			}
+		}
+		DatabaseCompactor.convertIfSmall(db);
+	}
+
+	/**
+	 * NORMAL is safe in WAL mode: database can't get corrupted, only last commits may get lost on power loss
+	 */
+	private static void configureWal(final SQLiteDatabase db) {
+		pragma(db, "PRAGMA synchronous = NORMAL");
+		pragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT);
+		pragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT);
+	}
+
+	private static String journalMode(final SQLiteDatabase db) {
+		try {
+			final Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+			try {
+				return cursor.moveToFirst() ? cursor.getString(0) : null;
+			} finally {
+				cursor.close();
+			}
+		} catch (final SQLException e) {
+			Log.w(TAG, "Can't read journal mode: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return true, if spatial index has been found on last open
+	 */
+	public boolean hasSpatialIndex() {
+		return mSpatialIndex;
+	}
+
+	/**
+	 * Copies WAL content back into database file, called on session stop
+	 * Keeps WAL small and readers fast, while no logger inserts are running
+	 */
+	public final void checkpoint() {
+		final long start = SystemClock.elapsedRealtime();
+		// checkpoint modes are supported since SQLite 3.7.6 (API 16 ships 3.7.11)
+		final String sql = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+				? "PRAGMA wal_checkpoint(FULL)" : "PRAGMA wal_checkpoint";
+		try {
+			final Cursor cursor = getWritableDatabase().rawQuery(sql, null);
+			if (cursor.moveToFirst() && cursor.getColumnCount() >= 3) {
+				Log.i(TAG, "WAL checkpoint: " + cursor.getInt(2) + " of " + cursor.getInt(1) + " pages"
+						+ (cursor.getInt(0) != 0 ? " (busy)" : "")
+						+ " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+			}
+			cursor.close();
+		} catch (final SQLException e) {
+			Log.w(TAG, "WAL checkpoint failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Executes pragma, using rawQuery as some pragmas return a result row
+	 */
+	private static void pragma(final SQLiteDatabase db, final String sql) {
+		try {
+			final Cursor cursor = db.rawQuery(sql, null);
+			cursor.moveToFirst();
+			cursor.close();
+		} catch (final SQLException e) {
+			Log.w(TAG, "Error executing " + sql + ": " + e.getMessage());
+		}
 	}
 
     @Override public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
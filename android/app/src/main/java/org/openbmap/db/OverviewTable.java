@@ -0,0 +1,369 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Materialized overview: one row per session and key (e.g. bssid and md5ssid for wifis)
+ * Each row holds the strongest measurement (same semantics as former MAX(level) GROUP BY queries),
+ * first and last seen timestamps and number of observations.
+ *
+ * Rows are maintained by triggers on source table, so all write paths (content provider, {@link ScanWriter})
+ * are covered. Overview reads become indexed lookups instead of full session aggregations.
+ */
+final class OverviewTable {
+
+	private static final String TAG = OverviewTable.class.getSimpleName();
+
+	/**
+	 * Strongest measurement per session, bssid and md5ssid
+	 */
+	static final OverviewTable WIFIS = new OverviewTable(Schema.TBL_WIFI_OVERVIEW, Schema.TBL_WIFIS,
+			new String[]{
+					Schema.COL_BSSID + " INTEGER",
+					Schema.COL_MD5_SSID + " TEXT"},
+			"''",
+			new String[]{
+					Schema.COL_SSID + " TEXT",
+					Schema.COL_CAPABILITIES + " TEXT",
+					Schema.COL_FREQUENCY + " INTEGER",
+					Schema.COL_TIMESTAMP + " LONG",
+					Schema.COL_BEGIN_POSITION_ID + " INTEGER",
+					Schema.COL_END_POSITION_ID + " INTEGER",
+					Schema.COL_KNOWN_WIFI + " INTEGER"},
+			Schema.COL_LEVEL, Schema.COL_WIFI_ID, Schema.COL_OBSERVATIONS);
+
+	/**
+	 * Strongest measurement per session, cell identity and serving state
+	 */
+	static final OverviewTable CELLS = new OverviewTable(Schema.TBL_CELL_OVERVIEW, Schema.TBL_CELLS,
+			new String[]{
+					Schema.COL_LOGICAL_CELLID + " INTEGER",
+					Schema.COL_PSC + " INTEGER",
+					Schema.COL_CDMA_SYSTEMID + " INTEGER",
+					Schema.COL_CDMA_NETWORKID + " INTEGER",
+					Schema.COL_CDMA_BASEID + " INTEGER",
+					Schema.COL_IS_SERVING + " INTEGER"},
+			"-1",
+			new String[]{
+					Schema.COL_ACTUAL_CELLID + " INTEGER",
+					Schema.COL_UTRAN_RNC + " INTEGER",
+					Schema.COL_AREA + " INTEGER",
+					Schema.COL_MCC + " TEXT",
+					Schema.COL_MNC + " TEXT",
+					Schema.COL_OPERATORNAME + " TEXT",
+					Schema.COL_OPERATOR + " TEXT",
+					Schema.COL_NETWORKTYPE + " INTEGER",
+					Schema.COL_IS_CDMA + " INTEGER",
+					Schema.COL_STRENGTHASU + " INTEGER",
+					Schema.COL_TIMESTAMP + " LONG",
+					Schema.COL_BEGIN_POSITION_ID + " INTEGER",
+					Schema.COL_END_POSITION_ID + " INTEGER"},
+			Schema.COL_STRENGTHDBM, Schema.COL_CELL_ID, null);
+
+	/**
+	 * Upper bound (exclusive) of source row ids, for packing level and id into one value
+	 */
+	private static final long ID_RANGE = 1L << 32;
+
+	/**
+	 * Replacement for NULL levels, below any measured level
+	 */
+	private static final int NO_LEVEL = -65536;
+
+	private final String mTable;
+
+	private final String mSource;
+
+	/**
+	 * Key columns (without session), NULLs are replaced by mKeyDefault for unique index to work
+	 */
+	private final String[] mKeys;
+
+	private final String[] mKeyDefinitions;
+
+	private final String mKeyDefault;
+
+	/**
+	 * Columns copied from strongest measurement
+	 */
+	private final String[] mStrongest;
+
+	private final String[] mStrongestDefinitions;
+
+	private final String mLevel;
+
+	private final String mSourceId;
+
+	/**
+	 * Source table's observation count column, null if each row counts as single observation
+	 */
+	private final String mCount;
+
+	/**
+	 * @param table overview table
+	 * @param source source table
+	 * @param keys key column definitions (name and type), session is always part of key
+	 * @param keyDefault replacement for NULL keys
+	 * @param strongest column definitions (name and type) copied from strongest measurement
+	 * @param level level column, higher is stronger
+	 * @param sourceId overview column for strongest measurement's id
+	 * @param count source table's observation count column, null if each row is a single observation
+	 */
+	private OverviewTable(final String table, final String source, final String[] keys, final String keyDefault,
+			final String[] strongest, final String level, final String sourceId, final String count) {
+		mTable = table;
+		mSource = source;
+		mKeyDefinitions = keys;
+		mKeys = names(keys);
+		mKeyDefault = keyDefault;
+		mStrongestDefinitions = strongest;
+		mStrongest = names(strongest);
+		mLevel = level;
+		mSourceId = sourceId;
+		mCount = count;
+	}
+
+	/**
+	 * Creates overview table, triggers and aggregates existing source rows
+	 * @param db writable database
+	 */
+	void create(final SQLiteDatabase db) {
+		db.execSQL(createTable());
+		db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS idx_" + mTable + " ON " + mTable
+				+ "(" + Schema.COL_SESSION_ID + ", " + join(mKeys, "", ", ") + ")");
+		db.execSQL("CREATE INDEX IF NOT EXISTS idx_" + mTable + "_begin_position_id ON " + mTable
+				+ "(" + Schema.COL_BEGIN_POSITION_ID + ")");
+		db.execSQL(createInsertTrigger());
+		if (mCount != null) {
+			db.execSQL(createUpdateTrigger());
+		}
+		for (final String trigger : createDeleteTriggers()) {
+			db.execSQL(trigger);
+		}
+		db.execSQL(aggregate(""));
+		Log.i(TAG, "Created " + mTable);
+	}
+
+	private String createTable() {
+		final StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS " + mTable + " ("
+				+ Schema.COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ Schema.COL_SESSION_ID + " INTEGER NOT NULL, ");
+		for (final String key : mKeyDefinitions) {
+			sql.append(key).append(" NOT NULL, ");
+		}
+		for (final String column : mStrongestDefinitions) {
+			sql.append(column).append(", ");
+		}
+		sql.append(mLevel + " INTEGER DEFAULT 0, "
+				+ mSourceId + " INTEGER NOT NULL, "
+				+ Schema.COL_FIRST_SEEN + " LONG, "
+				+ Schema.COL_LAST_SEEN + " LONG, "
+				+ Schema.COL_OBSERVATIONS + " INTEGER DEFAULT 0, "
+				+ " FOREIGN KEY (" + Schema.COL_SESSION_ID + ") REFERENCES " + Schema.TBL_SESSIONS + "( " + Schema.COL_ID + ") ON DELETE CASCADE"
+				+ ")");
+		return sql.toString();
+	}
+
+	/**
+	 * Creates overview row if needed and merges new measurement into it.
+	 * On ties the older measurement is kept, like MAX(level) GROUP BY did
+	 */
+	private String createInsertTrigger() {
+		final StringBuilder sql = new StringBuilder("CREATE TRIGGER IF NOT EXISTS trg_" + mTable + "_insert"
+				+ " AFTER INSERT ON " + mSource + " BEGIN"
+				+ " INSERT OR IGNORE INTO " + mTable + " (" + Schema.COL_SESSION_ID + join(mKeys, ", ", "")
+				+ join(mStrongest, ", ", "") + ", " + mLevel + ", " + mSourceId + ", "
+				+ Schema.COL_FIRST_SEEN + ", " + Schema.COL_LAST_SEEN + ", " + Schema.COL_OBSERVATIONS + ")"
+				+ " VALUES (new." + Schema.COL_SESSION_ID);
+		for (final String key : mKeys) {
+			sql.append(", IFNULL(new.").append(key).append(", ").append(mKeyDefault).append(")");
+		}
+		sql.append(join(mStrongest, ", new.", "")
+				+ ", new." + mLevel + ", new." + Schema.COL_ID + ", "
+				+ "new." + Schema.COL_TIMESTAMP + ", new." + Schema.COL_TIMESTAMP + ", 0);");
+
+		// all expressions of an UPDATE see the old row, so level comparison is consistent across columns
+		final String stronger = "new." + mLevel + " > " + mLevel;
+		sql.append(" UPDATE " + mTable + " SET ");
+		for (final String column : mStrongest) {
+			sql.append(column).append(" = CASE WHEN ").append(stronger)
+					.append(" THEN new.").append(column).append(" ELSE ").append(column).append(" END, ");
+		}
+		sql.append(mSourceId + " = CASE WHEN " + stronger + " THEN new." + Schema.COL_ID + " ELSE " + mSourceId + " END, "
+				+ mLevel + " = MAX(" + mLevel + ", new." + mLevel + "), "
+				+ Schema.COL_FIRST_SEEN + " = MIN(" + Schema.COL_FIRST_SEEN + ", new." + Schema.COL_TIMESTAMP + "), "
+				+ Schema.COL_LAST_SEEN + " = MAX(" + Schema.COL_LAST_SEEN + ", new." + Schema.COL_TIMESTAMP + "), "
+				+ Schema.COL_OBSERVATIONS + " = " + Schema.COL_OBSERVATIONS + " + " + count("new.")
+				+ " WHERE " + key("new") + ";"
+				+ " END");
+		return sql.toString();
+	}
+
+	/**
+	 * Observation count changes, when sightings are collapsed into an existing record
+	 */
+	private String createUpdateTrigger() {
+		return "CREATE TRIGGER IF NOT EXISTS trg_" + mTable + "_update"
+				+ " AFTER UPDATE OF " + mCount + " ON " + mSource + " BEGIN"
+				+ " UPDATE " + mTable + " SET " + Schema.COL_OBSERVATIONS + " = " + Schema.COL_OBSERVATIONS
+				+ " + " + count("new.") + " - " + count("old.")
+				+ " WHERE " + key("new") + ";"
+				+ " END";
+	}
+
+	/**
+	 * Single source rows are seldom deleted (sessions are deleted as a whole, overview rows cascade),
+	 * so affected overview row is simply re-aggregated. Skipped, if session itself is being deleted
+	 * (session row gone or flagged by {@link SessionDeleter}, which deletes overview rows itself).
+	 *
+	 * Source rows of an overview row are found by raw key columns (indexed), unless a key of deleted row is NULL
+	 * or equals default: then NULL keys in source table belong to the same overview row and have to be matched too
+	 */
+	private String[] createDeleteTriggers() {
+		final StringBuilder sessionExists = new StringBuilder("EXISTS (SELECT 1 FROM " + Schema.TBL_SESSIONS
+				+ " WHERE " + Schema.COL_ID + " = old." + Schema.COL_SESSION_ID
+				+ " AND " + Schema.COL_IS_DELETING + " = 0)");
+		final StringBuilder exactKeys = new StringBuilder();
+		final StringBuilder rawMatch = new StringBuilder(" WHERE " + Schema.COL_SESSION_ID + " = old." + Schema.COL_SESSION_ID);
+		final StringBuilder defaultMatch = new StringBuilder(rawMatch);
+		for (final String key : mKeys) {
+			exactKeys.append(" AND old.").append(key).append(" IS NOT NULL AND old.").append(key).append(" <> ").append(mKeyDefault);
+			rawMatch.append(" AND ").append(key).append(" = old.").append(key);
+			defaultMatch.append(" AND IFNULL(").append(key).append(", ").append(mKeyDefault).append(") = IFNULL(old.")
+					.append(key).append(", ").append(mKeyDefault).append(")");
+		}
+		return new String[]{
+				createDeleteTrigger("_delete", sessionExists + exactKeys.toString(), rawMatch.toString()),
+				createDeleteTrigger("_delete_default", sessionExists + " AND NOT (" + exactKeys.substring(" AND ".length()) + ")",
+						defaultMatch.toString())};
+	}
+
+	private String createDeleteTrigger(final String suffix, final String when, final String where) {
+		return "CREATE TRIGGER IF NOT EXISTS trg_" + mTable + suffix
+				+ " AFTER DELETE ON " + mSource
+				+ " WHEN " + when
+				+ " BEGIN"
+				+ " DELETE FROM " + mTable + " WHERE " + key("old") + ";"
+				+ " " + aggregate(where) + ";"
+				+ " END";
+	}
+
+	/**
+	 * Replaces delete triggers of older schema versions
+	 * @param db writable database
+	 */
+	void recreateDeleteTriggers(final SQLiteDatabase db) {
+		db.execSQL("DROP TRIGGER IF EXISTS trg_" + mTable + "_delete");
+		db.execSQL("DROP TRIGGER IF EXISTS trg_" + mTable + "_delete_default");
+		for (final String trigger : createDeleteTriggers()) {
+			db.execSQL(trigger);
+		}
+	}
+
+	/**
+	 * Aggregates source rows into overview rows in a single pass over source table.
+	 * Strongest measurement is found by MAX over level and id packed into one value ({@link #strongest(String)}),
+	 * its columns are then fetched by primary key. Joining back on key columns instead can't use an index
+	 * (keys are wrapped in IFNULL) and scans whole session once per key
+	 * @param where filter on source table
+	 */
+	private String aggregate(final String where) {
+		final StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO " + mTable + " (" + Schema.COL_SESSION_ID + join(mKeys, ", ", "")
+				+ join(mStrongest, ", ", "") + ", " + mLevel + ", " + mSourceId + ", "
+				+ Schema.COL_FIRST_SEEN + ", " + Schema.COL_LAST_SEEN + ", " + Schema.COL_OBSERVATIONS + ")"
+				+ " SELECT s." + Schema.COL_SESSION_ID + join(mKeys, ", s.k_", "")
+				+ join(mStrongest, ", w.", "") + ", w." + mLevel + ", w." + Schema.COL_ID + ", "
+				+ "s." + Schema.COL_FIRST_SEEN + ", s." + Schema.COL_LAST_SEEN + ", s." + Schema.COL_OBSERVATIONS
+				+ " FROM (SELECT " + Schema.COL_SESSION_ID);
+		for (final String key : mKeys) {
+			sql.append(", IFNULL(").append(key).append(", ").append(mKeyDefault).append(") AS k_").append(key);
+		}
+		sql.append(", MIN(" + Schema.COL_TIMESTAMP + ") AS " + Schema.COL_FIRST_SEEN
+				+ ", MAX(" + Schema.COL_TIMESTAMP + ") AS " + Schema.COL_LAST_SEEN
+				+ ", SUM(" + count("") + ") AS " + Schema.COL_OBSERVATIONS
+				+ ", MAX(" + level("") + ") AS k_level"
+				+ ", MAX(" + strongest("") + ") AS k_strongest"
+				+ " FROM " + mSource + where
+				+ " GROUP BY " + Schema.COL_SESSION_ID + join(mKeys, ", k_", "") + ") AS s"
+				+ " JOIN " + mSource + " AS w ON w." + Schema.COL_ID + " = s.k_level * " + ID_RANGE + " - s.k_strongest");
+		return sql.toString();
+	}
+
+	/**
+	 * Level of source row, NULL is weaker than any measured level
+	 */
+	private String level(final String row) {
+		return "IFNULL(" + row + mLevel + ", " + NO_LEVEL + ")";
+	}
+
+	/**
+	 * Level and id of source row packed into one value: higher level wins, on ties the older (lower) id.
+	 * Ids must be below {@link #ID_RANGE}
+	 */
+	private String strongest(final String row) {
+		return level(row) + " * " + ID_RANGE + " - " + row + Schema.COL_ID;
+	}
+
+	/**
+	 * Selection matching overview row of source row new.* / old.*
+	 */
+	private String key(final String row) {
+		final StringBuilder sql = new StringBuilder(Schema.COL_SESSION_ID + " = " + row + "." + Schema.COL_SESSION_ID);
+		for (final String key : mKeys) {
+			sql.append(" AND ").append(key).append(" = IFNULL(").append(row).append(".").append(key)
+					.append(", ").append(mKeyDefault).append(")");
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * Number of observations of source row
+	 */
+	private String count(final String row) {
+		return mCount != null ? "IFNULL(" + row + mCount + ", 1)" : "1";
+	}
+
+	/**
+	 * Concatenates columns, each one prefixed
+	 */
+	private static String join(final String[] columns, final String prefix, final String separator) {
+		final StringBuilder result = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				result.append(separator);
+			}
+			result.append(prefix).append(columns[i]);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Extracts column names from definitions
+	 */
+	private static String[] names(final String[] definitions) {
+		final String[] names = new String[definitions.length];
+		for (int i = 0; i < definitions.length; i++) {
+			names[i] = definitions[i].substring(0, definitions[i].indexOf(' '));
+		}
+		return names;
+	}
+}
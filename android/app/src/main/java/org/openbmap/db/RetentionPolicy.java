@@ -0,0 +1,147 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides which sessions are pruned: only exported, inactive sessions are considered, oldest first.
+ * A session is selected, if it hasn't been updated within max. age, or as long as all sessions
+ * together exceed max. size. Either limit can be disabled by passing 0.
+ *
+ * Selection only, deletion is done by {@link SessionPruner}
+ */
+public final class RetentionPolicy {
+
+	/**
+	 * Session as seen by retention policy
+	 */
+	public static final class Candidate {
+		final long session;
+		final long lastUpdated;
+		final long bytes;
+		final boolean exported;
+		final boolean active;
+
+		/**
+		 * @param session session id
+		 * @param lastUpdated last update (millis since epoch)
+		 * @param bytes (estimated) storage used by session
+		 * @param exported has session been uploaded?
+		 * @param active is session currently tracked?
+		 */
+		public Candidate(final long session, final long lastUpdated, final long bytes, final boolean exported, final boolean active) {
+			this.session = session;
+			this.lastUpdated = lastUpdated;
+			this.bytes = bytes;
+			this.exported = exported;
+			this.active = active;
+		}
+	}
+
+	/**
+	 * Sessions selected for pruning
+	 */
+	public static final class Report {
+		/**
+		 * Selected session ids, oldest first
+		 */
+		public final List<Long> sessions = new ArrayList<>();
+		/**
+		 * Bytes freed by deleting selected sessions (estimated)
+		 */
+		public long bytes;
+		/**
+		 * Bytes used by all sessions before pruning (estimated)
+		 */
+		public long totalBytes;
+		/**
+		 * Sessions actually deleted, 0 on dry run
+		 */
+		public int deleted;
+
+		@Override
+		public String toString() {
+			return sessions.size() + " sessions selected (" + bytes + " of " + totalBytes + " bytes), " + deleted + " deleted";
+		}
+	}
+
+	private final long mMaxAgeMillis;
+	private final long mMaxBytes;
+
+	/**
+	 * @param maxAgeMillis sessions not updated for longer are pruned, 0 to keep regardless of age
+	 * @param maxBytes oldest sessions are pruned until total size falls below, 0 to keep regardless of size
+	 */
+	public RetentionPolicy(final long maxAgeMillis, final long maxBytes) {
+		if (maxAgeMillis < 0 || maxBytes < 0) {
+			throw new IllegalArgumentException("Negative retention limit");
+		}
+		mMaxAgeMillis = maxAgeMillis;
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * @return true, if any limit is set
+	 */
+	public boolean isEnabled() {
+		return mMaxAgeMillis > 0 || mMaxBytes > 0;
+	}
+
+	/**
+	 * Selects sessions to prune
+	 * @param sessions all sessions
+	 * @param totalBytes storage used by all sessions
+	 * @param now current time (millis since epoch)
+	 * @return report, sessions ordered oldest first
+	 */
+	public Report select(final List<Candidate> sessions, final long totalBytes, final long now) {
+		final Report report = new Report();
+		report.totalBytes = totalBytes;
+		if (!isEnabled()) {
+			return report;
+		}
+
+		final List<Candidate> sorted = new ArrayList<>(sessions);
+		Collections.sort(sorted, new Comparator<Candidate>() {
+			@Override
+			public int compare(final Candidate lhs, final Candidate rhs) {
+				return lhs.lastUpdated < rhs.lastUpdated ? -1 : (lhs.lastUpdated == rhs.lastUpdated ? 0 : 1);
+			}
+		});
+
+		long remaining = totalBytes;
+		for (final Candidate candidate : sorted) {
+			if (!candidate.exported || candidate.active) {
+				continue;
+			}
+			final boolean tooOld = mMaxAgeMillis > 0 && candidate.lastUpdated < now - mMaxAgeMillis;
+			final boolean tooBig = mMaxBytes > 0 && remaining > mMaxBytes;
+			if (tooOld || tooBig) {
+				report.sessions.add(candidate.session);
+				report.bytes += candidate.bytes;
+				remaining -= candidate.bytes;
+			}
+		}
+		return report;
+	}
+}
@@ -0,0 +1,380 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Write-behind buffer for wifi and cell scans
+ * Scans are collected and committed in one transaction every {@link #MAX_PENDING_SCANS} scans
+ * or {@link #MAX_DELAY} milliseconds, whatever comes first.
+ * All commits are done sequentially on a single background thread, so batches are committed in order.
+ * Rows are written with {@link ScanWriter}, content provider uris are notified once per commit (debounced by {@link ChangeNotifier}).
+ * Scans of sharded sessions are committed to the session's own database (see {@link SessionShards})
+ */
+public final class ScanWriteBuffer {
+
+	private static final String TAG = ScanWriteBuffer.class.getSimpleName();
+
+	/**
+	 * Commit, once this many scans are pending
+	 */
+	public static final int MAX_PENDING_SCANS = 10;
+
+	/**
+	 * Max. time a scan is kept in buffer (millis)
+	 */
+	public static final long MAX_DELAY = 5000;
+
+	/**
+	 * Max. time to wait for an explicit flush (millis)
+	 */
+	private static final long FLUSH_TIMEOUT = 5000;
+
+	private static ScanWriteBuffer sInstance;
+
+	/**
+	 * Scan waiting for commit, toString() describes scan when it's lost
+	 */
+	public interface PendingScan {
+		/**
+		 * @return session the scan belongs to
+		 */
+		long getSession();
+
+		/**
+		 * Writes scan, called on commit thread within transaction
+		 * @param writer writer
+		 */
+		void write(ScanWriter writer);
+	}
+
+	private final Context mContext;
+
+	private final ChangeNotifier mNotifier;
+
+	/**
+	 * Main database
+	 */
+	private final DatabaseHelper mDbHelper;
+
+	/**
+	 * Writers with compiled statements by database, only used by commit thread
+	 */
+	private final HashMap<SQLiteDatabase, ScanWriter> mWriters = new HashMap<>();
+
+	private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+	private ArrayList<PendingScan> mPending = new ArrayList<>();
+
+	/*
+	 * Metrics, only modified by commit thread
+	 */
+	private long mCommits;
+	private long mCommittedScans;
+	private long mCommittedRows;
+	private long mFailed;
+	private int mMaxBatchScans;
+	private long mTotalLatency;
+	private long mMaxLatency;
+
+	private final Runnable mCommitTask = new Runnable() {
+		@Override
+		public void run() {
+			commit();
+		}
+	};
+
+	/**
+	 * @param context context used for acquiring content resolver
+	 * @return process-wide buffer
+	 */
+	public static synchronized ScanWriteBuffer getInstance(final Context context) {
+		if (sInstance == null) {
+			sInstance = new ScanWriteBuffer(context.getApplicationContext(), DatabaseHelper.getInstance(context));
+		}
+		return sInstance;
+	}
+
+	private ScanWriteBuffer(final Context context, final DatabaseHelper dbHelper) {
+		mContext = context;
+		mNotifier = ChangeNotifier.getInstance(context);
+		mDbHelper = dbHelper;
+	}
+
+	/**
+	 * Adds a scan to the buffer
+	 * @param scan scan
+	 */
+	public final synchronized void add(final PendingScan scan) {
+		final boolean wasEmpty = mPending.isEmpty();
+		mPending.add(scan);
+
+		if (mPending.size() >= MAX_PENDING_SCANS) {
+			mExecutor.execute(mCommitTask);
+		} else if (wasEmpty) {
+			mExecutor.schedule(mCommitTask, MAX_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Commits all pending scans and waits until done, but at most {@link #FLUSH_TIMEOUT} milliseconds.
+	 * Used on stop, destroy and low battery, so scans are durable before service stops or process dies:
+	 * also blocks on main thread and holds a partial wake lock meanwhile, so device can't fall asleep in between.
+	 * Must not be called from within a commit
+	 * @return true, if all scans have been committed within timeout
+	 */
+	public final boolean flush() {
+		final PowerManager.WakeLock wakeLock = ((PowerManager) mContext.getSystemService(Context.POWER_SERVICE))
+				.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+		// released by timeout, should we be interrupted before finally
+		wakeLock.acquire(2 * FLUSH_TIMEOUT);
+		try {
+			mExecutor.submit(mCommitTask).get(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (final InterruptedException e) {
+			Log.w(TAG, "Interrupted while flushing");
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			Log.e(TAG, "Error flushing scans: " + e.getCause(), e);
+		} catch (final TimeoutException e) {
+			Log.w(TAG, "Flush didn't finish within " + FLUSH_TIMEOUT + " ms");
+		} finally {
+			if (wakeLock.isHeld()) {
+				wakeLock.release();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Commits all pending scans in background without waiting
+	 * @param then optional task, run on commit thread once pending scans have been committed
+	 */
+	public final void flushAsync(final Runnable then) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				commit();
+				if (then != null) {
+					then.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Drops session's buffered scans and waits for an ongoing commit, whatever the session's storage mode,
+	 * so no rows are written after session has been deleted. Writer statements of session's shard
+	 * are closed, so shard can be closed and deleted afterwards
+	 * Must not be called from within a commit
+	 * @param session session id
+	 */
+	public final void discard(final long session) {
+		int dropped = 0;
+		synchronized (this) {
+			final Iterator<PendingScan> it = mPending.iterator();
+			while (it.hasNext()) {
+				if (it.next().getSession() == session) {
+					it.remove();
+					dropped++;
+				}
+			}
+		}
+		if (dropped > 0) {
+			Log.i(TAG, "Discarded " + dropped + " scans of session " + session);
+		}
+
+		// main database's writer is kept
+		final String path = SessionShards.isSharded(mContext, session)
+				? mContext.getDatabasePath(SessionShards.shardName(session)).getPath() : null;
+		try {
+			mExecutor.submit(new Runnable() {
+				@Override
+				public void run() {
+					if (path == null) {
+						return;
+					}
+					final Iterator<SQLiteDatabase> it = mWriters.keySet().iterator();
+					while (it.hasNext()) {
+						final SQLiteDatabase db = it.next();
+						if (path.equals(db.getPath())) {
+							mWriters.get(db).close();
+							it.remove();
+						}
+					}
+				}
+			}).get(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			Log.w(TAG, "Interrupted while discarding session " + session);
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			Log.e(TAG, "Error discarding session " + session + ": " + e.getCause(), e);
+		} catch (final TimeoutException e) {
+			Log.w(TAG, "Discarding session " + session + " didn't finish within " + FLUSH_TIMEOUT + " ms");
+		}
+	}
+
+	/**
+	 * @return number of scans not committed yet
+	 */
+	public final synchronized int getPendingScans() {
+		return mPending.size();
+	}
+
+	/**
+	 * Commits pending scans, runs on commit thread only
+	 * Consecutive scans stored in the same database share one transaction
+	 */
+	private void commit() {
+		final ArrayList<PendingScan> batch;
+		synchronized (this) {
+			batch = mPending;
+			mPending = new ArrayList<>();
+		}
+
+		int from = 0;
+		while (from < batch.size()) {
+			final long session = batch.get(from).getSession();
+			final DatabaseHelper helper = SessionShards.helperFor(mContext, session);
+			int to = from + 1;
+			while (to < batch.size() && SessionShards.helperFor(mContext, batch.get(to).getSession()) == helper) {
+				to++;
+			}
+			commit(helper, session, batch.subList(from, to));
+			from = to;
+		}
+	}
+
+	/**
+	 * Commits scans in a single transaction. If transaction fails (any runtime exception, e.g. constraint
+	 * violations or invalid bind arguments), batch is split in halves, which are retried separately,
+	 * so only the failing scans are lost
+	 * @param helper database helper scans are written to
+	 * @param session session of first scan
+	 * @param batch scans
+	 */
+	private void commit(final DatabaseHelper helper, final long session, final List<PendingScan> batch) {
+		final long start = SystemClock.elapsedRealtime();
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		final ScanWriter writer = writerFor(db);
+		final long rowsBefore = writer.getRows();
+		boolean committed = false;
+		db.beginTransaction();
+		try {
+			for (final PendingScan scan : batch) {
+				scan.write(writer);
+			}
+			db.setTransactionSuccessful();
+			committed = true;
+		} catch (final RuntimeException e) {
+			if (batch.size() == 1) {
+				Log.e(TAG, "Lost scan of session " + batch.get(0).getSession() + ": " + batch.get(0) + ": " + e.toString(), e);
+				mFailed++;
+			} else {
+				Log.w(TAG, "Commit of " + batch.size() + " scans failed, retrying in halves: " + e.toString());
+			}
+		} finally {
+			db.endTransaction();
+		}
+
+		final Set<Uri> changed = writer.drainChanged();
+		if (!committed) {
+			if (batch.size() > 1) {
+				final int half = batch.size() / 2;
+				commit(helper, batch.get(0).getSession(), batch.subList(0, half));
+				commit(helper, batch.get(half).getSession(), batch.subList(half, batch.size()));
+			}
+			return;
+		}
+
+		if (helper != mDbHelper && changed.contains(ContentProvider.CONTENT_URI_SESSION)) {
+			// shard holds only one session
+			SessionShards.publishCounters(db, mDbHelper.getWritableDatabase(), session);
+		}
+		final long latency = SystemClock.elapsedRealtime() - start;
+
+		for (final Uri uri : changed) {
+			mNotifier.notifyChange(uri);
+		}
+
+		final long rows = writer.getRows() - rowsBefore;
+		mCommits++;
+		mCommittedScans += batch.size();
+		mCommittedRows += rows;
+		mMaxBatchScans = Math.max(mMaxBatchScans, batch.size());
+		mTotalLatency += latency;
+		mMaxLatency = Math.max(mMaxLatency, latency);
+		Log.d(TAG, "Committed " + batch.size() + " scans (" + rows + " rows) in " + latency + " ms");
+	}
+
+	/**
+	 * Returns writer for database, writers of closed databases (e.g. deleted shards) are dropped
+	 * @param db database
+	 * @return writer
+	 */
+	private ScanWriter writerFor(final SQLiteDatabase db) {
+		ScanWriter writer = mWriters.get(db);
+		if (writer == null) {
+			final Iterator<SQLiteDatabase> it = mWriters.keySet().iterator();
+			while (it.hasNext()) {
+				if (!it.next().isOpen()) {
+					it.remove();
+				}
+			}
+			writer = new ScanWriter(db);
+			mWriters.put(db, writer);
+		}
+		return writer;
+	}
+
+	/**
+	 * Dumps metrics to log
+	 */
+	public final void logMetrics() {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final long commits = Math.max(mCommits, 1);
+				Log.i(TAG, "Write buffer metrics: " + mCommits + " commits"
+						+ ", avg. batch " + (mCommittedScans / commits) + " scans / " + (mCommittedRows / commits) + " rows"
+						+ ", max. batch " + mMaxBatchScans + " scans"
+						+ ", avg. latency " + (mTotalLatency / commits) + " ms, max. latency " + mMaxLatency + " ms"
+						+ ", " + (mCommittedRows * 1000 / Math.max(mTotalLatency, 1)) + " rows/s"
+						+ ", " + mFailed + " scans lost");
+			}
+		});
+	}
+}
@@ -0,0 +1,377 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import org.openbmap.RadioBeacon;
+import org.openbmap.db.models.CellRecord;
+import org.openbmap.db.models.PositionRecord;
+import org.openbmap.db.models.WifiObservation;
+import org.openbmap.db.models.WifiRecord;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-process writer for the logging hot path
+ * Inserts positions, wifis and cells through pre-compiled statements, which are reused across scans.
+ * This avoids building ContentValues (boxing) and re-compiling SQL for every row.
+ *
+ * Positions are interned: a gps fix shared by wifi scan, cell scan and gpx track is stored only once
+ * (see {@link #internPosition(PositionRecord)})
+ *
+ * Not thread-safe, caller is responsible for transactions. As writes bypass the content provider,
+ * changed uris are collected and have to be notified by caller (see {@link #drainChanged()})
+ */
+public class ScanWriter {
+
+	private static final String SQL_INSERT_POSITION = "INSERT INTO " + Schema.TBL_POSITIONS + " ("
+			+ Schema.COL_LATITUDE + ", "
+			+ Schema.COL_LONGITUDE + ", "
+			+ Schema.COL_ALTITUDE + ", "
+			+ Schema.COL_TIMESTAMP + ", "
+			+ Schema.COL_ACCURACY + ", "
+			+ Schema.COL_BEARING + ", "
+			+ Schema.COL_SPEED + ", "
+			+ Schema.COL_SESSION_ID + ", "
+			+ Schema.COL_SOURCE
+			+ ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	/**
+	 * Finds an existing row for the same fix (same identity as {@link PositionRecord#equals(PositionRecord)} plus source)
+	 * Uses idx_positions_sessions_timestamp. Returns -1 if there is no such row
+	 */
+	private static final String SQL_FIND_POSITION = "SELECT IFNULL((SELECT " + Schema.COL_ID
+			+ " FROM " + Schema.TBL_POSITIONS
+			+ " WHERE " + Schema.COL_SESSION_ID + " = ?"
+			+ " AND " + Schema.COL_TIMESTAMP + " = ?"
+			+ " AND " + Schema.COL_LATITUDE + " = ?"
+			+ " AND " + Schema.COL_LONGITUDE + " = ?"
+			+ " AND " + Schema.COL_ALTITUDE + " = ?"
+			+ " AND " + Schema.COL_ACCURACY + " = ?"
+			+ " AND " + Schema.COL_SOURCE + " IS ?"
+			+ " LIMIT 1), -1)";
+
+	private static final String SQL_INSERT_WIFI = "INSERT INTO " + Schema.TBL_WIFIS + " ("
+			+ Schema.COL_BSSID + ", "
+			+ Schema.COL_SSID + ", "
+			+ Schema.COL_MD5_SSID + ", "
+			+ Schema.COL_CAPABILITIES + ", "
+			+ Schema.COL_FREQUENCY + ", "
+			+ Schema.COL_LEVEL + ", "
+			+ Schema.COL_OBSERVATIONS + ", "
+			+ Schema.COL_LEVEL_MIN + ", "
+			+ Schema.COL_LEVEL_MAX + ", "
+			+ Schema.COL_TIMESTAMP + ", "
+			+ Schema.COL_BEGIN_POSITION_ID + ", "
+			+ Schema.COL_END_POSITION_ID + ", "
+			+ Schema.COL_SESSION_ID + ", "
+			+ Schema.COL_KNOWN_WIFI
+			+ ") VALUES (?, ?, ?, ?, ?, ?, 1, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String SQL_UPDATE_OBSERVATION = "UPDATE " + Schema.TBL_WIFIS + " SET "
+			+ Schema.COL_OBSERVATIONS + " = ?, "
+			+ Schema.COL_LEVEL_MIN + " = ?, "
+			+ Schema.COL_LEVEL_MAX + " = ?"
+			+ " WHERE " + Schema.COL_ID + " = (SELECT MAX(" + Schema.COL_ID + ") FROM " + Schema.TBL_WIFIS
+			+ " WHERE " + Schema.COL_BSSID + " = ? AND " + Schema.COL_SESSION_ID + " = ?)";
+
+	/**
+	 * GSM/UMTS/LTE cells, unused CDMA fields are set to -1
+	 */
+	private static final String SQL_INSERT_GSM_CELL = "INSERT INTO " + Schema.TBL_CELLS + " ("
+			+ Schema.COL_NETWORKTYPE + ", "
+			+ Schema.COL_IS_CDMA + ", "
+			+ Schema.COL_IS_SERVING + ", "
+			+ Schema.COL_IS_NEIGHBOR + ", "
+			+ Schema.COL_LOGICAL_CELLID + ", "
+			+ Schema.COL_ACTUAL_CELLID + ", "
+			+ Schema.COL_UTRAN_RNC + ", "
+			+ Schema.COL_PSC + ", "
+			+ Schema.COL_AREA + ", "
+			+ Schema.COL_MCC + ", "
+			+ Schema.COL_MNC + ", "
+			+ Schema.COL_OPERATORNAME + ", "
+			+ Schema.COL_OPERATOR + ", "
+			+ Schema.COL_STRENGTHDBM + ", "
+			+ Schema.COL_STRENGTHASU + ", "
+			+ Schema.COL_TIMESTAMP + ", "
+			+ Schema.COL_BEGIN_POSITION_ID + ", "
+			+ Schema.COL_END_POSITION_ID + ", "
+			+ Schema.COL_SESSION_ID + ", "
+			+ Schema.COL_CDMA_BASEID + ", "
+			+ Schema.COL_CDMA_NETWORKID + ", "
+			+ Schema.COL_CDMA_SYSTEMID
+			+ ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, -1, -1, -1)";
+
+	/**
+	 * CDMA cells, unused GSM fields are set to -1
+	 */
+	private static final String SQL_INSERT_CDMA_CELL = "INSERT INTO " + Schema.TBL_CELLS + " ("
+			+ Schema.COL_NETWORKTYPE + ", "
+			+ Schema.COL_IS_CDMA + ", "
+			+ Schema.COL_IS_SERVING + ", "
+			+ Schema.COL_IS_NEIGHBOR + ", "
+			+ Schema.COL_MCC + ", "
+			+ Schema.COL_MNC + ", "
+			+ Schema.COL_PSC + ", "
+			+ Schema.COL_CDMA_BASEID + ", "
+			+ Schema.COL_CDMA_NETWORKID + ", "
+			+ Schema.COL_CDMA_SYSTEMID + ", "
+			+ Schema.COL_OPERATORNAME + ", "
+			+ Schema.COL_OPERATOR + ", "
+			+ Schema.COL_STRENGTHDBM + ", "
+			+ Schema.COL_TIMESTAMP + ", "
+			+ Schema.COL_BEGIN_POSITION_ID + ", "
+			+ Schema.COL_END_POSITION_ID + ", "
+			+ Schema.COL_SESSION_ID + ", "
+			+ Schema.COL_LOGICAL_CELLID + ", "
+			+ Schema.COL_AREA
+			+ ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, -1, -1)";
+
+	private final SQLiteStatement mInsertPosition;
+	private final SQLiteStatement mFindPosition;
+	private final SQLiteStatement mInsertWifi;
+	private final SQLiteStatement mUpdateObservation;
+	private final SQLiteStatement mInsertGsmCell;
+	private final SQLiteStatement mInsertCdmaCell;
+
+	private final Set<Uri> mChanged = new LinkedHashSet<>();
+
+	private long mRows;
+
+	/**
+	 * Compiles all statements
+	 * @param db writable database
+	 */
+	public ScanWriter(final SQLiteDatabase db) {
+		mInsertPosition = db.compileStatement(SQL_INSERT_POSITION);
+		mFindPosition = db.compileStatement(SQL_FIND_POSITION);
+		mInsertWifi = db.compileStatement(SQL_INSERT_WIFI);
+		mUpdateObservation = db.compileStatement(SQL_UPDATE_OBSERVATION);
+		mInsertGsmCell = db.compileStatement(SQL_INSERT_GSM_CELL);
+		mInsertCdmaCell = db.compileStatement(SQL_INSERT_CDMA_CELL);
+	}
+
+	/**
+	 * Inserts position
+	 * @param pos position
+	 * @return row id or -1 on error
+	 */
+	public final long insertPosition(final PositionRecord pos) {
+		final SQLiteStatement s = mInsertPosition;
+		s.bindDouble(1, pos.getLatitude());
+		s.bindDouble(2, pos.getLongitude());
+		s.bindDouble(3, pos.getAltitude());
+		s.bindLong(4, pos.getOpenBmapTimestamp());
+		s.bindDouble(5, pos.getAccuracy());
+		s.bindDouble(6, pos.getBearing());
+		s.bindDouble(7, pos.getSpeed());
+		s.bindLong(8, pos.getSession());
+		bindString(s, 9, pos.getSource());
+		return insert(s, ContentProvider.CONTENT_URI_POSITION);
+	}
+
+	/**
+	 * Returns row id of position, inserting it only if the same fix hasn't been stored in session yet.
+	 * Waypoints are always inserted, as they are user-defined and counted separately
+	 * @param pos position
+	 * @return row id or -1 on error
+	 */
+	public final long internPosition(final PositionRecord pos) {
+		if (RadioBeacon.PROVIDER_USER_DEFINED.equals(pos.getSource())) {
+			return insertPosition(pos);
+		}
+
+		final SQLiteStatement s = mFindPosition;
+		s.bindLong(1, pos.getSession());
+		s.bindLong(2, pos.getOpenBmapTimestamp());
+		s.bindDouble(3, pos.getLatitude());
+		s.bindDouble(4, pos.getLongitude());
+		s.bindDouble(5, pos.getAltitude());
+		s.bindDouble(6, pos.getAccuracy());
+		bindString(s, 7, pos.getSource());
+		final long existing = s.simpleQueryForLong();
+		if (existing > 0) {
+			return existing;
+		}
+		return insertPosition(pos);
+	}
+
+	/**
+	 * Inserts a scan's wifis together with (interned) begin and end position
+	 * @param begin begin position
+	 * @param end end position
+	 * @param wifis wifis sharing same begin and end position
+	 */
+	public final void insertWifis(final PositionRecord begin, final PositionRecord end, final List<WifiRecord> wifis) {
+		final long beginId = internPosition(begin);
+		final long endId = internPosition(end);
+
+		final SQLiteStatement s = mInsertWifi;
+		for (final WifiRecord wifi : wifis) {
+			s.bindLong(1, wifi.getBssidLong());
+			bindString(s, 2, wifi.getSsid());
+			bindString(s, 3, wifi.getMd5Ssid());
+			bindString(s, 4, wifi.getCapabilities());
+			s.bindLong(5, wifi.getFrequency());
+			s.bindLong(6, wifi.getLevel());
+			s.bindLong(7, wifi.getLevel());
+			s.bindLong(8, wifi.getLevel());
+			s.bindLong(9, wifi.getOpenBmapTimestamp());
+			s.bindLong(10, beginId);
+			s.bindLong(11, endId);
+			s.bindLong(12, wifi.getSessionId());
+			s.bindLong(13, wifi.getCatalogStatusInt());
+			insert(s, ContentProvider.CONTENT_URI_WIFI);
+		}
+		// session counters are updated by triggers
+		mChanged.add(ContentProvider.CONTENT_URI_SESSION);
+	}
+
+	/**
+	 * Updates observation count and level range of bssid's latest wifi record in session
+	 * @param observation aggregated sightings
+	 */
+	public final void updateObservation(final WifiObservation observation) {
+		final SQLiteStatement s = mUpdateObservation;
+		s.bindLong(1, observation.getCount());
+		s.bindLong(2, observation.getLevelMin());
+		s.bindLong(3, observation.getLevelMax());
+		s.bindLong(4, WifiRecord.bssidToLong(observation.getBssid()));
+		s.bindLong(5, observation.getSession());
+		if (s.executeUpdateDelete() > 0) {
+			mRows++;
+			mChanged.add(ContentProvider.CONTENT_URI_WIFI);
+		}
+	}
+
+	/**
+	 * Inserts a scan's cells together with (interned) begin and end position
+	 * Automatically chooses, whether GSM or CDMA schema is used
+	 * @param begin begin position
+	 * @param end end position
+	 * @param cells cells sharing same begin and end position (i.e. serving cell + neighbors)
+	 */
+	public final void insertCells(final PositionRecord begin, final PositionRecord end, final List<CellRecord> cells) {
+		final long beginId = internPosition(begin);
+		final long endId = internPosition(end);
+
+		for (final CellRecord cell : cells) {
+			final SQLiteStatement s;
+			if (!cell.isCdma()) {
+				s = mInsertGsmCell;
+				s.bindLong(1, cell.getNetworkType());
+				s.bindLong(2, 0);
+				s.bindLong(3, cell.isServing() ? 1 : 0);
+				s.bindLong(4, cell.isNeighbor() ? 1 : 0);
+				s.bindLong(5, cell.getLogicalCellId());
+				s.bindLong(6, cell.getActualCellId());
+				s.bindLong(7, cell.getUtranRnc());
+				s.bindLong(8, cell.getPsc());
+				s.bindLong(9, cell.getArea());
+				bindString(s, 10, cell.getMcc());
+				bindString(s, 11, cell.getMnc());
+				bindString(s, 12, cell.getOperatorName());
+				bindString(s, 13, cell.getOperator());
+				s.bindLong(14, cell.getStrengthdBm());
+				s.bindLong(15, cell.getStrengthAsu());
+				s.bindLong(16, cell.getOpenBmapTimestamp());
+				s.bindLong(17, beginId);
+				s.bindLong(18, endId);
+				s.bindLong(19, cell.getSessionId());
+			} else {
+				s = mInsertCdmaCell;
+				s.bindLong(1, cell.getNetworkType());
+				s.bindLong(2, 1);
+				s.bindLong(3, cell.isServing() ? 1 : 0);
+				s.bindLong(4, cell.isNeighbor() ? 1 : 0);
+				bindString(s, 5, cell.getMcc());
+				bindString(s, 6, cell.getMnc());
+				s.bindLong(7, cell.getPsc());
+				bindString(s, 8, cell.getBaseId());
+				bindString(s, 9, cell.getNetworkId());
+				bindString(s, 10, cell.getSystemId());
+				bindString(s, 11, cell.getOperatorName());
+				bindString(s, 12, cell.getOperator());
+				s.bindLong(13, cell.getStrengthdBm());
+				s.bindLong(14, cell.getOpenBmapTimestamp());
+				s.bindLong(15, beginId);
+				s.bindLong(16, endId);
+				s.bindLong(17, cell.getSessionId());
+			}
+			insert(s, ContentProvider.CONTENT_URI_CELL);
+		}
+		// session counters are updated by triggers
+		mChanged.add(ContentProvider.CONTENT_URI_SESSION);
+	}
+
+	/**
+	 * @return total number of rows written
+	 */
+	public final long getRows() {
+		return mRows;
+	}
+
+	/**
+	 * Returns uris changed since last call and resets them
+	 * @return changed uris
+	 */
+	public final Set<Uri> drainChanged() {
+		final Set<Uri> changed = new LinkedHashSet<>(mChanged);
+		mChanged.clear();
+		return changed;
+	}
+
+	/**
+	 * Releases compiled statements
+	 */
+	public final void close() {
+		mInsertPosition.close();
+		mFindPosition.close();
+		mInsertWifi.close();
+		mUpdateObservation.close();
+		mInsertGsmCell.close();
+		mInsertCdmaCell.close();
+	}
+
+	private long insert(final SQLiteStatement statement, final Uri uri) {
+		final long rowId = statement.executeInsert();
+		if (rowId > 0) {
+			mRows++;
+			mChanged.add(uri);
+		}
+		return rowId;
+	}
+
+	/**
+	 * Binds string or null (SQLiteStatement.bindString doesn't accept null)
+	 */
+	private static void bindString(final SQLiteStatement statement, final int index, final String value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else {
+			statement.bindString(index, value);
+		}
+	}
+}
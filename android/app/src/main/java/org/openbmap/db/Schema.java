@@ -34,6 +34,9 @@ public final class Schema {
 	public static final String TBL_WIFI_POSITIONS = "wifi_zone";
 	public static final String TBL_LOGS = "logs";
 	public static final String TBL_SESSIONS = "sessions";
+	public static final String TBL_POSITIONS_RTREE = "positions_rtree";
+	public static final String TBL_WIFI_OVERVIEW = "wifi_overview";
+	public static final String TBL_CELL_OVERVIEW = "cell_overview";
 	
 	// Views
 	public static final String	VIEW_WIFIS_EXTENDED	= "wifis_positions";
@@ -77,6 +80,12 @@ public final class Schema {
 	public static final String COL_PSC = "psc";
 	public static final String COL_STRENGTHDBM = "dbm";
 	public static final String	COL_STRENGTHASU	= "asu";
+
+	/**
+	 * Columns TBL_CELL_OVERVIEW, rest is same as TBL_CELLS and TBL_WIFI_OVERVIEW.
+	 * Id of strongest measurement
+	 */
+	public static final String COL_CELL_ID = "cell_id";
 	
 	/**
 	 * Additional TBL_CDMACELLS, rest is same as TBL_CELLS.
@@ -95,8 +104,22 @@ public final class Schema {
 	public static final String COL_FREQUENCY = "frequency";
 	public static final String COL_LEVEL = "level";
 	public static final String COL_MAX_LEVEL = "MAX(" + COL_LEVEL + ")";
+	/**
+	 * Number of collapsed sightings, min and max level across these sightings
+	 */
+	public static final String COL_OBSERVATIONS = "observations";
+	public static final String COL_LEVEL_MIN = "level_min";
+	public static final String COL_LEVEL_MAX = "level_max";
 	//public static final String COL_IS_NEW_WIFI	= "is_new_wifi";	
 	public static final String COL_KNOWN_WIFI = "is_known";
+
+	/**
+	 * Columns TBL_WIFI_OVERVIEW, rest is same as TBL_WIFIS.
+	 * Id of strongest measurement, first and last seen timestamp
+	 */
+	public static final String COL_WIFI_ID = "wifi_id";
+	public static final String COL_FIRST_SEEN = "first_seen";
+	public static final String COL_LAST_SEEN = "last_seen";
 	
 	/**
 	 * Columns TBL_LOG_FILE.
@@ -115,9 +138,21 @@ public final class Schema {
 	public static final String COL_LAST_UPDATED = "updated_at";
 	public static final String COL_HAS_BEEN_EXPORTED = "exported";
 	public static final String COL_IS_ACTIVE = "is_active";
+	/**
+	 * Session or its archived measurements are queued for deletion, see {@link SessionDeleter}
+	 * 0 or one of {@link #DELETING_SESSION}, {@link #DELETING_MEASUREMENTS}
+	 */
+	public static final String COL_IS_DELETING = "is_deleting";
+	public static final int DELETING_SESSION = 1;
+	public static final int DELETING_MEASUREMENTS = 2;
 	public static final String COL_NUMBER_OF_WIFIS = "no_wifis";
 	public static final String COL_NUMBER_OF_CELLS = "no_cells";
 	public static final String COL_NUMBER_OF_WAYPOINTS = "no_waypoints";
+	/**
+	 * Wifis not yet in catalog and distinct bssids (a bssid may be listed with several ssids)
+	 */
+	public static final String COL_NUMBER_OF_NEW_WIFIS = "no_new_wifis";
+	public static final String COL_NUMBER_OF_BSSIDS = "no_bssids";
 
 	public static final int URI_CODE_CELLS = 0;
 	public static final int URI_CODE_CELL_ID = 1;
@@ -0,0 +1,844 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only columnar archive of an exported session (cold storage, see {@link SessionArchiver})
+ * <p/>
+ * Holds positions, wifis and cells with the fields needed for map overlays and GPX export.
+ * Each column is a sequence of zig-zag varints, compressed with deflate:
+ * timestamps and coordinates are delta-encoded (coordinates as 1e-7 degrees, altitude and accuracy
+ * as decimeters), bssids, ssids, position sources and cell names are dictionary-encoded.
+ * Wifis and cells reference their begin position by row index within positions.
+ * <p/>
+ * Additionally, overview rows as listed by the content provider (see {@link #WIFI_OVERVIEW}, {@link #CELL_OVERVIEW})
+ * are kept as generic tables: column names, column types and per column dictionary-encoded values.
+ * <p/>
+ * The file is memory-mapped, columns are inflated on first access.
+ * <p/>
+ * File layout (big endian):
+ * <pre>
+ *     int  magic
+ *     int  version
+ *     long session id
+ *     int  number of columns
+ *     int  reserved
+ *     n * (int column id, int rows, int offset, int compressed length, int raw length)
+ *     column data
+ * </pre>
+ */
+public final class SessionArchive {
+
+    private static final String TAG = SessionArchive.class.getSimpleName();
+
+    /**
+     * Archive file extension
+     */
+    public static final String EXTENSION = ".rbsa";
+
+    /**
+     * Position index of wifis and cells without (known) begin position
+     */
+    public static final int NO_POSITION = -1;
+
+    /**
+     * Table holding session's wifi overview rows
+     */
+    public static final int WIFI_OVERVIEW = 0;
+
+    /**
+     * Table holding session's cell overview rows
+     */
+    public static final int CELL_OVERVIEW = 1;
+
+    /**
+     * Table column types, same values as android.database.Cursor.FIELD_TYPE_*
+     */
+    public static final int TYPE_NULL = 0;
+    public static final int TYPE_INTEGER = 1;
+    public static final int TYPE_REAL = 2;
+    public static final int TYPE_TEXT = 3;
+
+    private static final int MAGIC = 0x52425341;
+
+    /**
+     * Version 2 added overview tables, version 1 archives are read without them
+     */
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 24;
+
+    private static final int DIRECTORY_ENTRY_SIZE = 20;
+
+    private static final double COORDINATE_SCALE = 1e7;
+
+    private static final double METER_SCALE = 10;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // column ids
+    private static final int POS_TIMESTAMP = 1;
+    private static final int POS_LATITUDE = 2;
+    private static final int POS_LONGITUDE = 3;
+    private static final int POS_ALTITUDE = 4;
+    private static final int POS_ACCURACY = 5;
+    private static final int POS_SOURCE = 6;
+    private static final int SOURCE_DICT = 7;
+    private static final int WIFI_BSSID = 8;
+    private static final int BSSID_DICT = 9;
+    private static final int WIFI_SSID = 10;
+    private static final int SSID_DICT = 11;
+    private static final int WIFI_LEVEL = 12;
+    private static final int WIFI_TIMESTAMP = 13;
+    private static final int WIFI_POSITION = 14;
+    private static final int CELL_NAME = 15;
+    private static final int CELL_NAME_DICT = 16;
+    private static final int CELL_POSITION = 17;
+
+    /**
+     * Tables use column ids from TABLE_BASE * (table + 1): names, types, then keys and dictionary for each column
+     */
+    private static final int TABLE_BASE = 100;
+
+    /**
+     * Key of null values in table columns
+     */
+    private static final int NULL_KEY = -1;
+
+    private final ByteBuffer mBuffer;
+
+    private final long mSession;
+
+    /**
+     * Directory: column id -> offset of directory entry
+     */
+    private final HashMap<Integer, Integer> mDirectory;
+
+    /**
+     * Inflated columns by column id
+     */
+    private final HashMap<Integer, long[]> mColumns = new HashMap<>();
+
+    /**
+     * Inflated dictionaries by column id
+     */
+    private final HashMap<Integer, String[]> mDictionaries = new HashMap<>();
+
+    private SessionArchive(final ByteBuffer buffer, final long session, final HashMap<Integer, Integer> directory) {
+        mBuffer = buffer;
+        mSession = session;
+        mDirectory = directory;
+    }
+
+    /**
+     * Opens archive
+     *
+     * @param file archive file
+     * @return archive or null, if file doesn't exist or is invalid
+     */
+    public static SessionArchive open(final File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) < 1 || buffer.getInt(4) > VERSION) {
+                Log.w(TAG, "Invalid session archive " + file);
+                return null;
+            }
+            final int columns = buffer.getInt(16);
+            if (columns < 0 || HEADER_SIZE + (long) columns * DIRECTORY_ENTRY_SIZE > channel.size()) {
+                Log.w(TAG, "Invalid session archive directory " + file);
+                return null;
+            }
+
+            final HashMap<Integer, Integer> directory = new HashMap<>();
+            for (int i = 0; i < columns; i++) {
+                final int entry = HEADER_SIZE + i * DIRECTORY_ENTRY_SIZE;
+                if ((long) buffer.getInt(entry + 8) + buffer.getInt(entry + 12) > channel.size()) {
+                    Log.w(TAG, "Truncated session archive " + file);
+                    return null;
+                }
+                directory.put(buffer.getInt(entry), entry);
+            }
+            // mapping stays valid after channel has been closed
+            return new SessionArchive(buffer, buffer.getLong(8), directory);
+        } catch (final IOException e) {
+            Log.e(TAG, "Error opening session archive " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (final IOException e) {
+                    Log.w(TAG, "Error closing session archive " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return archived session's id
+     */
+    public long getSession() {
+        return mSession;
+    }
+
+    public int getPositionCount() {
+        return rows(POS_TIMESTAMP);
+    }
+
+    public int getWifiCount() {
+        return rows(WIFI_BSSID);
+    }
+
+    public int getCellCount() {
+        return rows(CELL_NAME);
+    }
+
+    /**
+     * @param position position row
+     * @return timestamp in openbmap format (YYYYMMDDHHMMSS)
+     */
+    public long getTimestamp(final int position) {
+        return column(POS_TIMESTAMP)[position];
+    }
+
+    public double getLatitude(final int position) {
+        return column(POS_LATITUDE)[position] / COORDINATE_SCALE;
+    }
+
+    public double getLongitude(final int position) {
+        return column(POS_LONGITUDE)[position] / COORDINATE_SCALE;
+    }
+
+    public double getAltitude(final int position) {
+        return column(POS_ALTITUDE)[position] / METER_SCALE;
+    }
+
+    public double getAccuracy(final int position) {
+        return column(POS_ACCURACY)[position] / METER_SCALE;
+    }
+
+    /**
+     * @param position position row
+     * @return position source, e.g. {@link org.openbmap.RadioBeacon#PROVIDER_USER_DEFINED} for waypoints
+     */
+    public String getSource(final int position) {
+        return dictionary(SOURCE_DICT)[(int) column(POS_SOURCE)[position]];
+    }
+
+    /**
+     * @param wifi wifi row
+     * @return bssid as 48-bit integer
+     */
+    public long getBssid(final int wifi) {
+        return column(BSSID_DICT)[(int) column(WIFI_BSSID)[wifi]];
+    }
+
+    public String getSsid(final int wifi) {
+        return dictionary(SSID_DICT)[(int) column(WIFI_SSID)[wifi]];
+    }
+
+    public int getLevel(final int wifi) {
+        return (int) column(WIFI_LEVEL)[wifi];
+    }
+
+    public long getWifiTimestamp(final int wifi) {
+        return column(WIFI_TIMESTAMP)[wifi];
+    }
+
+    /**
+     * @param wifi wifi row
+     * @return row of wifi's begin position or {@link #NO_POSITION}
+     */
+    public int getWifiPosition(final int wifi) {
+        return (int) column(WIFI_POSITION)[wifi];
+    }
+
+    public String getCellName(final int cell) {
+        return dictionary(CELL_NAME_DICT)[(int) column(CELL_NAME)[cell]];
+    }
+
+    /**
+     * @param cell cell row
+     * @return row of cell's begin position or {@link #NO_POSITION}
+     */
+    public int getCellPosition(final int cell) {
+        return (int) column(CELL_POSITION)[cell];
+    }
+
+    /**
+     * Returns strongest measurement of each bssid, only considering measurements within bounding box
+     *
+     * @return wifi rows ordered by bssid
+     */
+    public int[] getStrongestWifis(final double minLat, final double maxLat, final double minLon, final double maxLon) {
+        final long[] bssids = column(WIFI_BSSID);
+        // bssid dictionary is sorted, so dictionary index order is bssid order
+        final int[] strongest = new int[column(BSSID_DICT).length];
+        Arrays.fill(strongest, -1);
+        for (int i = 0; i < bssids.length; i++) {
+            final int position = getWifiPosition(i);
+            if (position == NO_POSITION) {
+                continue;
+            }
+            final double lat = getLatitude(position);
+            final double lon = getLongitude(position);
+            if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) {
+                continue;
+            }
+            final int key = (int) bssids[i];
+            if (strongest[key] == -1 || getLevel(i) > getLevel(strongest[key])) {
+                strongest[key] = i;
+            }
+        }
+
+        int n = 0;
+        for (final int row : strongest) {
+            if (row != -1) {
+                strongest[n++] = row;
+            }
+        }
+        return Arrays.copyOf(strongest, n);
+    }
+
+    /**
+     * @return strongest measurement of each bssid, ordered by bssid
+     */
+    public int[] getStrongestWifis() {
+        return getStrongestWifis(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param table {@link #WIFI_OVERVIEW} or {@link #CELL_OVERVIEW}
+     * @return table's column names, empty if table hasn't been archived
+     */
+    public String[] getTableColumns(final int table) {
+        return dictionary(tableBase(table)).clone();
+    }
+
+    /**
+     * @param table {@link #WIFI_OVERVIEW} or {@link #CELL_OVERVIEW}
+     * @param column column index
+     * @return column type ({@link #TYPE_INTEGER}, {@link #TYPE_REAL}, {@link #TYPE_TEXT} or {@link #TYPE_NULL} if all null)
+     */
+    public int getTableType(final int table, final int column) {
+        return (int) column(tableBase(table) + 1)[column];
+    }
+
+    public int getTableRowCount(final int table) {
+        return rows(tableKeys(table, 0));
+    }
+
+    /**
+     * @param table {@link #WIFI_OVERVIEW} or {@link #CELL_OVERVIEW}
+     * @param row row index
+     * @param column column index
+     * @return Long, Double or String (depending on column type) or null
+     */
+    public Object getTableValue(final int table, final int row, final int column) {
+        final int key = (int) column(tableKeys(table, column))[row];
+        if (key == NULL_KEY) {
+            return null;
+        }
+        final String value = dictionary(tableKeys(table, column) + 1)[key];
+        switch (getTableType(table, column)) {
+            case TYPE_INTEGER:
+                return Long.valueOf(value);
+            case TYPE_REAL:
+                return Double.valueOf(value);
+            default:
+                return value;
+        }
+    }
+
+    private static int tableBase(final int table) {
+        return TABLE_BASE * (table + 1);
+    }
+
+    /**
+     * @return id of column holding dictionary keys, dictionary itself has next id
+     */
+    private static int tableKeys(final int table, final int column) {
+        return tableBase(table) + 2 + 2 * column;
+    }
+
+    private int rows(final int id) {
+        final Integer entry = mDirectory.get(id);
+        return entry == null ? 0 : mBuffer.getInt(entry + 4);
+    }
+
+    private synchronized long[] column(final int id) {
+        long[] values = mColumns.get(id);
+        if (values == null) {
+            final ByteBuffer raw = ByteBuffer.wrap(inflate(id));
+            values = new long[rows(id)];
+            long last = 0;
+            final boolean delta = isDelta(id);
+            for (int i = 0; i < values.length; i++) {
+                final long value = readVarLong(raw);
+                last = delta ? last + value : value;
+                values[i] = last;
+            }
+            mColumns.put(id, values);
+        }
+        return values;
+    }
+
+    private synchronized String[] dictionary(final int id) {
+        String[] values = mDictionaries.get(id);
+        if (values == null) {
+            final ByteBuffer raw = ByteBuffer.wrap(inflate(id));
+            values = new String[rows(id)];
+            for (int i = 0; i < values.length; i++) {
+                final byte[] bytes = new byte[(int) readVarLong(raw)];
+                raw.get(bytes);
+                values[i] = new String(bytes, UTF8);
+            }
+            mDictionaries.put(id, values);
+        }
+        return values;
+    }
+
+    private byte[] inflate(final int id) {
+        final Integer entry = mDirectory.get(id);
+        if (entry == null) {
+            return new byte[0];
+        }
+        final byte[] compressed = new byte[mBuffer.getInt(entry + 12)];
+        final ByteBuffer source = mBuffer.duplicate();
+        source.position(mBuffer.getInt(entry + 8));
+        source.get(compressed);
+
+        final byte[] raw = new byte[mBuffer.getInt(entry + 16)];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < raw.length && !inflater.finished() && !inflater.needsInput()) {
+                n += inflater.inflate(raw, n, raw.length - n);
+            }
+            if (n != raw.length) {
+                throw new IllegalStateException("Corrupt column " + id + " in archive of session " + mSession);
+            }
+        } catch (final DataFormatException e) {
+            throw new IllegalStateException("Corrupt column " + id + " in archive of session " + mSession, e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    private static boolean isDelta(final int id) {
+        return id == POS_TIMESTAMP || id == POS_LATITUDE || id == POS_LONGITUDE || id == POS_ALTITUDE
+                || id == BSSID_DICT || id == WIFI_TIMESTAMP || id == WIFI_POSITION || id == CELL_POSITION;
+    }
+
+    private static long readVarLong(final ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        // zig-zag decoding
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(final ByteArrayOutputStream out, final long v) {
+        // zig-zag encoding, so small negative deltas stay short
+        long value = (v << 1) ^ (v >> 63);
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Collects session rows and writes archive
+     * <p/>
+     * Positions have to be added in chronological order, before wifis and cells referencing them
+     */
+    public static final class Builder {
+
+        private final long mSession;
+
+        private final HashMap<Long, Integer> mPositionRows = new HashMap<>();
+
+        private final HashMap<Integer, LongList> mColumns = new HashMap<>();
+
+        private final HashMap<String, Integer> mSources = new HashMap<>();
+        private final HashMap<Long, Integer> mBssids = new HashMap<>();
+        private final HashMap<String, Integer> mSsids = new HashMap<>();
+        private final HashMap<String, Integer> mCellNames = new HashMap<>();
+
+        private final HashMap<Integer, String[]> mTableColumns = new HashMap<>();
+        private final HashMap<Integer, int[]> mTableTypes = new HashMap<>();
+        private final HashMap<Integer, HashMap<String, Integer>> mTableDictionaries = new HashMap<>();
+
+        /**
+         * @param session session id
+         */
+        public Builder(final long session) {
+            mSession = session;
+        }
+
+        /**
+         * @param id position id in database, referenced by wifis and cells
+         * @param timestamp timestamp in openbmap format (YYYYMMDDHHMMSS)
+         */
+        public Builder addPosition(final long id, final long timestamp, final double latitude, final double longitude,
+                                   final double altitude, final double accuracy, final String source) {
+            mPositionRows.put(id, mPositionRows.size());
+            values(POS_TIMESTAMP).add(timestamp);
+            values(POS_LATITUDE).add(Math.round(latitude * COORDINATE_SCALE));
+            values(POS_LONGITUDE).add(Math.round(longitude * COORDINATE_SCALE));
+            values(POS_ALTITUDE).add(Math.round(altitude * METER_SCALE));
+            values(POS_ACCURACY).add(Math.round(accuracy * METER_SCALE));
+            values(POS_SOURCE).add(intern(mSources, source != null ? source : ""));
+            return this;
+        }
+
+        /**
+         * @param bssid bssid as 48-bit integer
+         * @param positionId database id of begin position
+         */
+        public Builder addWifi(final long bssid, final String ssid, final int level, final long timestamp, final long positionId) {
+            Integer key = mBssids.get(bssid);
+            if (key == null) {
+                key = mBssids.size();
+                mBssids.put(bssid, key);
+            }
+            values(WIFI_BSSID).add(key);
+            values(WIFI_SSID).add(intern(mSsids, ssid != null ? ssid : ""));
+            values(WIFI_LEVEL).add(level);
+            values(WIFI_TIMESTAMP).add(timestamp);
+            values(WIFI_POSITION).add(positionRow(positionId));
+            return this;
+        }
+
+        /**
+         * @param name cell label as written to GPX
+         * @param positionId database id of begin position
+         */
+        public Builder addCell(final String name, final long positionId) {
+            values(CELL_NAME).add(intern(mCellNames, name != null ? name : ""));
+            values(CELL_POSITION).add(positionRow(positionId));
+            return this;
+        }
+
+        /**
+         * Declares table, must be called before rows are added
+         *
+         * @param table {@link #WIFI_OVERVIEW} or {@link #CELL_OVERVIEW}
+         * @param columns column names
+         */
+        public Builder setTable(final int table, final String[] columns) {
+            if (columns.length == 0 || columns.length > TABLE_BASE / 2 - 1) {
+                throw new IllegalArgumentException("Unsupported number of columns: " + columns.length);
+            }
+            mTableColumns.put(table, columns.clone());
+            mTableTypes.put(table, new int[columns.length]);
+            return this;
+        }
+
+        /**
+         * @param table table declared with {@link #setTable(int, String[])}
+         * @param values Long, Double, String or null for each column
+         */
+        public Builder addTableRow(final int table, final Object[] values) {
+            final int[] types = mTableTypes.get(table);
+            if (types == null || values.length != types.length) {
+                throw new IllegalArgumentException("Row doesn't match table " + table);
+            }
+            for (int i = 0; i < values.length; i++) {
+                final int id = tableKeys(table, i);
+                if (values[i] == null) {
+                    values(id).add(NULL_KEY);
+                    continue;
+                }
+                types[i] = mergeTypes(types[i], typeOf(values[i]));
+                HashMap<String, Integer> dictionary = mTableDictionaries.get(id + 1);
+                if (dictionary == null) {
+                    dictionary = new HashMap<>();
+                    mTableDictionaries.put(id + 1, dictionary);
+                }
+                values(id).add(intern(dictionary, values[i].toString()));
+            }
+            return this;
+        }
+
+        /**
+         * Writes archive
+         *
+         * @param target archive file, overwritten if existing
+         * @throws IOException on write errors
+         */
+        public void write(final File target) throws IOException {
+            sortBssids();
+
+            final List<Integer> ids = new ArrayList<>();
+            final List<byte[]> raw = new ArrayList<>();
+            final List<Integer> rows = new ArrayList<>();
+            for (final int id : new int[]{POS_TIMESTAMP, POS_LATITUDE, POS_LONGITUDE, POS_ALTITUDE, POS_ACCURACY, POS_SOURCE,
+                    WIFI_BSSID, WIFI_SSID, WIFI_LEVEL, WIFI_TIMESTAMP, WIFI_POSITION, CELL_NAME, CELL_POSITION}) {
+                final LongList values = values(id);
+                ids.add(id);
+                raw.add(encode(values, isDelta(id)));
+                rows.add(values.size);
+            }
+
+            final LongList bssids = new LongList();
+            for (final long bssid : bssidKeys(mBssids)) {
+                bssids.add(bssid);
+            }
+            ids.add(BSSID_DICT);
+            raw.add(encode(bssids, true));
+            rows.add(bssids.size);
+
+            for (final int id : new int[]{SOURCE_DICT, SSID_DICT, CELL_NAME_DICT}) {
+                final String[] dictionary = sortedKeys(id == SOURCE_DICT ? mSources : (id == SSID_DICT ? mSsids : mCellNames));
+                ids.add(id);
+                raw.add(encode(dictionary));
+                rows.add(dictionary.length);
+            }
+
+            for (final int table : mTableColumns.keySet()) {
+                final String[] columns = mTableColumns.get(table);
+                ids.add(tableBase(table));
+                raw.add(encode(columns));
+                rows.add(columns.length);
+
+                final LongList types = new LongList();
+                for (final int type : mTableTypes.get(table)) {
+                    types.add(type);
+                }
+                ids.add(tableBase(table) + 1);
+                raw.add(encode(types, false));
+                rows.add(types.size);
+
+                for (int i = 0; i < columns.length; i++) {
+                    final LongList keys = values(tableKeys(table, i));
+                    ids.add(tableKeys(table, i));
+                    raw.add(encode(keys, false));
+                    rows.add(keys.size);
+
+                    final HashMap<String, Integer> dictionary = mTableDictionaries.get(tableKeys(table, i) + 1);
+                    final String[] entries = dictionary != null ? sortedKeys(dictionary) : new String[0];
+                    ids.add(tableKeys(table, i) + 1);
+                    raw.add(encode(entries));
+                    rows.add(entries.length);
+                }
+            }
+
+            final List<byte[]> compressed = new ArrayList<>();
+            for (final byte[] column : raw) {
+                compressed.add(deflate(column));
+            }
+
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(mSession);
+                out.writeInt(ids.size());
+                out.writeInt(0);
+                int offset = HEADER_SIZE + ids.size() * DIRECTORY_ENTRY_SIZE;
+                for (int i = 0; i < ids.size(); i++) {
+                    out.writeInt(ids.get(i));
+                    out.writeInt(rows.get(i));
+                    out.writeInt(offset);
+                    out.writeInt(compressed.get(i).length);
+                    out.writeInt(raw.get(i).length);
+                    offset += compressed.get(i).length;
+                }
+                for (final byte[] column : compressed) {
+                    out.write(column);
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        private LongList values(final int id) {
+            LongList values = mColumns.get(id);
+            if (values == null) {
+                values = new LongList();
+                mColumns.put(id, values);
+            }
+            return values;
+        }
+
+        private int positionRow(final long positionId) {
+            final Integer row = mPositionRows.get(positionId);
+            return row != null ? row : NO_POSITION;
+        }
+
+        /**
+         * Re-numbers bssid keys in bssid order, so bssid dictionary can be delta-encoded
+         */
+        private void sortBssids() {
+            final Long[] sorted = mBssids.keySet().toArray(new Long[mBssids.size()]);
+            Arrays.sort(sorted);
+            final int[] remap = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                remap[mBssids.get(sorted[i])] = i;
+                mBssids.put(sorted[i], i);
+            }
+            final LongList keys = values(WIFI_BSSID);
+            for (int i = 0; i < keys.size; i++) {
+                keys.values[i] = remap[(int) keys.values[i]];
+            }
+        }
+
+        private static int typeOf(final Object value) {
+            if (value instanceof Long || value instanceof Integer) {
+                return TYPE_INTEGER;
+            } else if (value instanceof Double || value instanceof Float) {
+                return TYPE_REAL;
+            }
+            return TYPE_TEXT;
+        }
+
+        /**
+         * @return type able to hold values of both types (integers are widened to reals, anything else to text)
+         */
+        private static int mergeTypes(final int a, final int b) {
+            if (a == TYPE_NULL || a == b) {
+                return b;
+            }
+            if (a != TYPE_TEXT && b != TYPE_TEXT) {
+                return TYPE_REAL;
+            }
+            return TYPE_TEXT;
+        }
+
+        private static <K> int intern(final HashMap<K, Integer> dictionary, final K value) {
+            Integer key = dictionary.get(value);
+            if (key == null) {
+                key = dictionary.size();
+                dictionary.put(value, key);
+            }
+            return key;
+        }
+
+        /**
+         * @return bssids ordered by key
+         */
+        private static long[] bssidKeys(final HashMap<Long, Integer> dictionary) {
+            final long[] keys = new long[dictionary.size()];
+            for (final Long value : dictionary.keySet()) {
+                keys[dictionary.get(value)] = value;
+            }
+            return keys;
+        }
+
+        /**
+         * @return dictionary entries ordered by key
+         */
+        private static String[] sortedKeys(final HashMap<String, Integer> dictionary) {
+            final String[] keys = new String[dictionary.size()];
+            for (final String value : dictionary.keySet()) {
+                keys[dictionary.get(value)] = value;
+            }
+            return keys;
+        }
+
+        private static byte[] encode(final LongList values, final boolean delta) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(values.size * 2);
+            long last = 0;
+            for (int i = 0; i < values.size; i++) {
+                writeVarLong(out, delta ? values.values[i] - last : values.values[i]);
+                last = values.values[i];
+            }
+            return out.toByteArray();
+        }
+
+        private static byte[] encode(final String[] dictionary) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (final String value : dictionary) {
+                final byte[] bytes = value.getBytes(UTF8);
+                writeVarLong(out, bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+            return out.toByteArray();
+        }
+
+        private static byte[] deflate(final byte[] raw) {
+            final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+                final byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Growable long array, avoids boxing while collecting rows
+     */
+    private static final class LongList {
+        long[] values = new long[256];
+        int size;
+
+        void add(final long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Moves exported sessions into cold storage (see {@link SessionArchive})
+ *
+ * Archiving writes session's positions, wifis and cells into an archive file and deletes them from database.
+ * Session row (incl. counters) and log record stay in main database, so session list is unchanged.
+ * Rows are purged chunk-wise by {@link SessionDeleter}, an interrupted purge is resumed with pending deletions.
+ * Map overlays and GPX export read archived sessions via {@link #open(Context, long)}, wifi and cell lists
+ * via content provider's overview uris, which are served from archive (see {@link #queryTable}).
+ */
+public final class SessionArchiver {
+
+	private static final String TAG = SessionArchiver.class.getSimpleName();
+
+	/**
+	 * Archive folder within app's private files
+	 */
+	private static final String FOLDER = "archives";
+
+	private static final String PREFIX = "session_";
+
+	/**
+	 * Column declarations by {@link SessionArchive} column type, keeps types when archived tables are queried
+	 */
+	private static final String[] SQL_TYPES = {"", "INTEGER", "REAL", "TEXT"};
+
+	/**
+	 * Max. number of archives kept open, each open archive caches its inflated columns
+	 */
+	private static final int MAX_OPEN_ARCHIVES = 3;
+
+	/**
+	 * Open archives by session id, least recently used archive is closed first
+	 */
+	private static final LinkedHashMap<Long, SessionArchive> sArchives = new LinkedHashMap<Long, SessionArchive>(
+			MAX_OPEN_ARCHIVES + 1, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Long, SessionArchive> eldest) {
+			return size() > MAX_OPEN_ARCHIVES;
+		}
+	};
+
+	/**
+	 * Archived session ids, lazily read from archive folder
+	 */
+	private static HashSet<Long> sArchived;
+
+	private SessionArchiver() {
+	}
+
+	/**
+	 * @param context context
+	 * @param session session id
+	 * @return true, if session has been archived
+	 */
+	public static synchronized boolean isArchived(final Context context, final long session) {
+		return archived(context).contains(session);
+	}
+
+	/**
+	 * Opens session's archive, recently used archives are kept open (memory-mapped) for later calls
+	 * @param context context
+	 * @param session session id
+	 * @return archive or null, if session isn't archived or archive is invalid
+	 */
+	public static synchronized SessionArchive open(final Context context, final long session) {
+		if (!isArchived(context, session)) {
+			return null;
+		}
+		SessionArchive archive = sArchives.get(session);
+		if (archive == null) {
+			archive = SessionArchive.open(archiveFile(context, session));
+			if (archive != null) {
+				sArchives.put(session, archive);
+			}
+		}
+		return archive;
+	}
+
+	/**
+	 * Archives an exported, inactive session: writes archive file, then deletes positions, wifis and cells from database.
+	 * Purging non-sharded sessions may continue in background (see {@link SessionDeleter#resume(Context)}), if interrupted
+	 * @param context context
+	 * @param session session id
+	 * @return true on success, false if session can't be archived (not exported, active, already archived or on errors)
+	 */
+	public static boolean archive(final Context context, final long session) {
+		final long start = SystemClock.elapsedRealtime();
+		final SQLiteDatabase main = DatabaseHelper.getInstance(context).getWritableDatabase();
+		final Cursor cursor = main.query(Schema.TBL_SESSIONS, null, Schema.COL_ID + " = ?",
+				new String[]{String.valueOf(session)}, null, null, null);
+		try {
+			if (!cursor.moveToFirst()) {
+				Log.w(TAG, "Session " + session + " not found");
+				return false;
+			}
+			if (cursor.getInt(cursor.getColumnIndex(Schema.COL_HAS_BEEN_EXPORTED)) == 0
+					|| cursor.getInt(cursor.getColumnIndex(Schema.COL_IS_ACTIVE)) != 0) {
+				Log.w(TAG, "Only exported, inactive sessions can be archived");
+				return false;
+			}
+		} finally {
+			cursor.close();
+		}
+		if (isArchived(context, session)) {
+			Log.w(TAG, "Session " + session + " already archived");
+			return false;
+		}
+
+		final File target = archiveFile(context, session);
+		final File tmp = new File(target.getPath() + ".tmp");
+		final boolean sharded = SessionShards.isSharded(context, session);
+		final SQLiteDatabase db = SessionShards.helperFor(context, session).getWritableDatabase();
+		final int wifis;
+		try {
+			target.getParentFile().mkdirs();
+			final SessionArchive.Builder builder = new SessionArchive.Builder(session);
+			load(db, session, builder);
+			builder.write(tmp);
+
+			// verify before deleting anything
+			final SessionArchive check = SessionArchive.open(tmp);
+			if (check == null || check.getPositionCount() != count(db, Schema.TBL_POSITIONS, session)
+					|| check.getWifiCount() != count(db, Schema.TBL_WIFIS, session)
+					|| check.getCellCount() != count(db, Schema.TBL_CELLS, session)) {
+				Log.e(TAG, "Archive of session " + session + " incomplete");
+				tmp.delete();
+				return false;
+			}
+			wifis = check.getWifiCount();
+			if (!sharded) {
+				// flag before publishing, so rows are purged even if we're interrupted after rename
+				SessionDeleter.markPurge(context, session);
+			}
+			if (!tmp.renameTo(target)) {
+				Log.e(TAG, "Couldn't move archive of session " + session);
+				SessionDeleter.unmarkPurge(context, session);
+				tmp.delete();
+				return false;
+			}
+		} catch (final IOException e) {
+			Log.e(TAG, "Error writing archive of session " + session + ": " + e.getMessage());
+			tmp.delete();
+			return false;
+		} catch (final SQLException e) {
+			Log.e(TAG, "Error reading session " + session + ": " + e.getMessage());
+			tmp.delete();
+			return false;
+		}
+
+		synchronized (SessionArchiver.class) {
+			archived(context).add(session);
+		}
+
+		if (sharded) {
+			// counters have already been published to main database
+			SessionShards.delete(context, session);
+		} else {
+			// a concurrent resume may have reverted flag before archive was published
+			SessionDeleter.markPurge(context, session);
+			if (!SessionDeleter.purge(context, session)) {
+				// archive is complete, flag stays until purge succeeds on resume
+				Log.w(TAG, "Archived rows of session " + session + " will be purged later");
+			}
+		}
+		context.getContentResolver().notifyChange(ContentProvider.CONTENT_URI_SESSION, null);
+		Log.i(TAG, "Archived session " + session + " (" + wifis + " wifis, " + target.length() + " bytes) in "
+				+ (SystemClock.elapsedRealtime() - start) + " ms");
+		return true;
+	}
+
+	/**
+	 * Deletes session's archive, if any
+	 * @param context context
+	 * @param session session id
+	 * @return true, if archive has been deleted
+	 */
+	static synchronized boolean delete(final Context context, final long session) {
+		if (!archived(context).remove(session)) {
+			return false;
+		}
+		// mapping is released, once no reader references archive anymore
+		sArchives.remove(session);
+		final boolean deleted = archiveFile(context, session).delete();
+		Log.i(TAG, (deleted ? "Deleted archive of session " : "Couldn't delete archive of session ") + session);
+		return deleted;
+	}
+
+	/**
+	 * Deletes all archives
+	 * @param context context
+	 * @return number of deleted archives
+	 */
+	static synchronized int deleteAll(final Context context) {
+		int deleted = 0;
+		for (final Long session : new HashSet<>(archived(context))) {
+			if (delete(context, session)) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Reads session's rows into archive builder, positions in chronological order
+	 */
+	static void load(final SQLiteDatabase db, final long session, final SessionArchive.Builder builder) {
+		final String[] args = {String.valueOf(session)};
+
+		Cursor cursor = db.query(Schema.TBL_POSITIONS, new String[]{Schema.COL_ID, Schema.COL_TIMESTAMP, Schema.COL_LATITUDE,
+						Schema.COL_LONGITUDE, Schema.COL_ALTITUDE, Schema.COL_ACCURACY, Schema.COL_SOURCE},
+				Schema.COL_SESSION_ID + " = ?", args, null, null, Schema.COL_TIMESTAMP + ", " + Schema.COL_ID);
+		while (cursor.moveToNext()) {
+			builder.addPosition(cursor.getLong(0), cursor.getLong(1), cursor.getDouble(2), cursor.getDouble(3),
+					cursor.getDouble(4), cursor.getDouble(5), cursor.getString(6));
+		}
+		cursor.close();
+
+		cursor = db.query(Schema.TBL_WIFIS, new String[]{Schema.COL_BSSID, Schema.COL_SSID, Schema.COL_LEVEL,
+						Schema.COL_TIMESTAMP, Schema.COL_BEGIN_POSITION_ID},
+				Schema.COL_SESSION_ID + " = ?", args, null, null, Schema.COL_ID);
+		while (cursor.moveToNext()) {
+			builder.addWifi(cursor.getLong(0), cursor.getString(1), cursor.getInt(2), cursor.getLong(3), cursor.getLong(4));
+		}
+		cursor.close();
+
+		// overview rows as listed by content provider, they join positions, which are purged
+		cursor = db.query(ContentProvider.WIFI_OVERVIEW_TABLES, ContentProvider.WIFI_OVERVIEW_COLUMNS,
+				"w." + Schema.COL_SESSION_ID + " = ?", args, null, null, null);
+		loadTable(cursor, SessionArchive.WIFI_OVERVIEW, builder);
+		cursor = db.query(ContentProvider.CELL_OVERVIEW_TABLES, ContentProvider.CELL_OVERVIEW_COLUMNS,
+				ContentProvider.CELL_OVERVIEW_SELECTION, ContentProvider.cellOverviewArgs(session), null, null, null);
+		loadTable(cursor, SessionArchive.CELL_OVERVIEW, builder);
+
+		// same label as GPX export
+		cursor = db.query(Schema.TBL_CELLS, new String[]{"'CELL ' || " + Schema.COL_OPERATORNAME + " || " + Schema.COL_LOGICAL_CELLID,
+						Schema.COL_BEGIN_POSITION_ID},
+				Schema.COL_SESSION_ID + " = ?", args, null, null, Schema.COL_BEGIN_POSITION_ID + ", " + Schema.COL_ID);
+		while (cursor.moveToNext()) {
+			builder.addCell(cursor.getString(0), cursor.getLong(1));
+		}
+		cursor.close();
+	}
+
+	/**
+	 * Copies cursor's rows into archive table and closes cursor. Repeated column names are kept once
+	 */
+	private static void loadTable(final Cursor cursor, final int table, final SessionArchive.Builder builder) {
+		try {
+			final LinkedHashMap<String, Integer> columns = new LinkedHashMap<>();
+			for (int i = 0; i < cursor.getColumnCount(); i++) {
+				if (!columns.containsKey(cursor.getColumnName(i))) {
+					columns.put(cursor.getColumnName(i), i);
+				}
+			}
+			builder.setTable(table, columns.keySet().toArray(new String[columns.size()]));
+			final Object[] row = new Object[columns.size()];
+			while (cursor.moveToNext()) {
+				int i = 0;
+				for (final int column : columns.values()) {
+					switch (cursor.getType(column)) {
+						case Cursor.FIELD_TYPE_INTEGER:
+							row[i++] = cursor.getLong(column);
+							break;
+						case Cursor.FIELD_TYPE_FLOAT:
+							row[i++] = cursor.getDouble(column);
+							break;
+						case Cursor.FIELD_TYPE_NULL:
+							row[i++] = null;
+							break;
+						default:
+							row[i++] = cursor.getString(column);
+							break;
+					}
+				}
+				builder.addTableRow(table, row);
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Queries archived table like a database table: rows are loaded into an in-memory database, so
+	 * selection and sort order work as on live sessions
+	 * @param archive session archive
+	 * @param table {@link SessionArchive#WIFI_OVERVIEW} or {@link SessionArchive#CELL_OVERVIEW}
+	 * @param selection selection on archived columns, may be null
+	 * @param selectionArgs selection arguments
+	 * @param sortOrder sort order on archived columns, may be null
+	 * @return matching rows, detached from in-memory database
+	 */
+	static Cursor queryTable(final SessionArchive archive, final int table, final String selection,
+			final String[] selectionArgs, final String sortOrder) {
+		final String[] columns = archive.getTableColumns(table);
+		if (columns.length == 0) {
+			// archived before overview tables were kept
+			return new MatrixCursor(new String[]{Schema.COL_ID});
+		}
+
+		final SQLiteDatabase memory = SQLiteDatabase.create(null);
+		try {
+			final StringBuilder create = new StringBuilder("CREATE TABLE archived (");
+			final StringBuilder insert = new StringBuilder("INSERT INTO archived VALUES (");
+			for (int i = 0; i < columns.length; i++) {
+				create.append(i == 0 ? "" : ", ").append('"').append(columns[i]).append("\" ")
+						.append(SQL_TYPES[archive.getTableType(table, i)]);
+				insert.append(i == 0 ? "?" : ", ?");
+			}
+			memory.execSQL(create.append(")").toString());
+
+			final SQLiteStatement statement = memory.compileStatement(insert.append(")").toString());
+			memory.beginTransaction();
+			try {
+				for (int row = 0; row < archive.getTableRowCount(table); row++) {
+					for (int i = 0; i < columns.length; i++) {
+						final Object value = archive.getTableValue(table, row, i);
+						if (value == null) {
+							statement.bindNull(i + 1);
+						} else if (value instanceof Long) {
+							statement.bindLong(i + 1, (Long) value);
+						} else if (value instanceof Double) {
+							statement.bindDouble(i + 1, (Double) value);
+						} else {
+							statement.bindString(i + 1, (String) value);
+						}
+					}
+					statement.executeInsert();
+				}
+				memory.setTransactionSuccessful();
+			} finally {
+				memory.endTransaction();
+				statement.close();
+			}
+
+			final Cursor cursor = memory.query("archived", null, selection, selectionArgs, null, null, sortOrder);
+			try {
+				final MatrixCursor result = new MatrixCursor(cursor.getColumnNames(), cursor.getCount());
+				final Object[] values = new Object[cursor.getColumnCount()];
+				while (cursor.moveToNext()) {
+					for (int i = 0; i < values.length; i++) {
+						switch (cursor.getType(i)) {
+							case Cursor.FIELD_TYPE_INTEGER:
+								values[i] = cursor.getLong(i);
+								break;
+							case Cursor.FIELD_TYPE_FLOAT:
+								values[i] = cursor.getDouble(i);
+								break;
+							case Cursor.FIELD_TYPE_NULL:
+								values[i] = null;
+								break;
+							default:
+								values[i] = cursor.getString(i);
+								break;
+						}
+					}
+					result.addRow(values);
+				}
+				return result;
+			} finally {
+				cursor.close();
+			}
+		} finally {
+			memory.close();
+		}
+	}
+
+	private static int count(final SQLiteDatabase db, final String table, final long session) {
+		final Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table + " WHERE " + Schema.COL_SESSION_ID + " = ?",
+				new String[]{String.valueOf(session)});
+		try {
+			return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * @param context context
+	 * @param session session id
+	 * @return session's archive file (whether existing or not)
+	 */
+	static File archiveFile(final Context context, final long session) {
+		return new File(new File(context.getApplicationContext().getFilesDir(), FOLDER), PREFIX + session + SessionArchive.EXTENSION);
+	}
+
+	/**
+	 * Scans archive folder on first use
+	 */
+	private static HashSet<Long> archived(final Context context) {
+		if (sArchived == null) {
+			sArchived = new HashSet<>();
+			final File[] files = new File(context.getApplicationContext().getFilesDir(), FOLDER).listFiles();
+			if (files != null) {
+				for (final File file : files) {
+					final String name = file.getName();
+					if (!name.startsWith(PREFIX) || !name.endsWith(SessionArchive.EXTENSION)) {
+						continue;
+					}
+					try {
+						sArchived.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SessionArchive.EXTENSION.length())));
+					} catch (final NumberFormatException e) {
+						// ignore
+					}
+				}
+			}
+			Log.i(TAG, sArchived.size() + " session archives found");
+		}
+		return sArchived;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.openbmap.RadioBeacon;
+import org.openbmap.db.models.WifiRecord.CatalogStatus;
+
+/**
+ * Live session counters (wifis, new wifis, distinct bssids, cells and waypoints)
+ * Counters are maintained by triggers on overview tables and positions, i.e. within the same transaction
+ * as the scan insert, so session list and status bar can show exact counts without aggregate queries.
+ *
+ * Counters have same semantics as {@link DataHelper#countWifis(int)}, {@link DataHelper#countNewWifis(int)},
+ * {@link DataHelper#countCells(long)} and {@link DataHelper#countWaypoints(long)}
+ */
+final class SessionCounters {
+
+	private static final String TAG = SessionCounters.class.getSimpleName();
+
+	/**
+	 * 1, if overview row new.* / old.* is a new wifi (not in catalog), 0 otherwise
+	 */
+	private static String isNew(final String row) {
+		return "(" + row + "." + Schema.COL_KNOWN_WIFI + " IS " + CatalogStatus.NEW.ordinal() + ")";
+	}
+
+	/**
+	 * 1, if no other overview row of session shares bssid of row new.* / old.*
+	 */
+	private static String isOnlyBssid(final String row) {
+		return "(NOT EXISTS (SELECT 1 FROM " + Schema.TBL_WIFI_OVERVIEW
+				+ " WHERE " + Schema.COL_SESSION_ID + " = " + row + "." + Schema.COL_SESSION_ID
+				+ " AND " + Schema.COL_BSSID + " = " + row + "." + Schema.COL_BSSID
+				+ " AND " + Schema.COL_ID + " <> " + row + "." + Schema.COL_ID + "))";
+	}
+
+	/**
+	 * Updates counters of session referenced by row new.* / old.*
+	 * @param row new or old
+	 * @param sign + or -
+	 * @param counters counter columns and their increments
+	 */
+	private static String update(final String row, final String sign, final String... counters) {
+		final StringBuilder sql = new StringBuilder("UPDATE " + Schema.TBL_SESSIONS + " SET ");
+		for (int i = 0; i < counters.length; i += 2) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(counters[i]).append(" = IFNULL(").append(counters[i]).append(", 0) ")
+					.append(sign).append(" ").append(counters[i + 1]);
+		}
+		sql.append(" WHERE " + Schema.COL_ID + " = " + row + "." + Schema.COL_SESSION_ID + ";");
+		return sql.toString();
+	}
+
+	private static final String SQL_CREATE_TRIGGER_WIFIS_INSERT = "CREATE TRIGGER IF NOT EXISTS trg_session_wifis_insert"
+			+ " AFTER INSERT ON " + Schema.TBL_WIFI_OVERVIEW + " BEGIN "
+			+ update("new", "+",
+					Schema.COL_NUMBER_OF_WIFIS, "1",
+					Schema.COL_NUMBER_OF_NEW_WIFIS, isNew("new"),
+					Schema.COL_NUMBER_OF_BSSIDS, isOnlyBssid("new"))
+			+ " END";
+
+	private static final String SQL_CREATE_TRIGGER_WIFIS_DELETE = "CREATE TRIGGER IF NOT EXISTS trg_session_wifis_delete"
+			+ " AFTER DELETE ON " + Schema.TBL_WIFI_OVERVIEW + " BEGIN "
+			+ update("old", "-",
+					Schema.COL_NUMBER_OF_WIFIS, "1",
+					Schema.COL_NUMBER_OF_NEW_WIFIS, isNew("old"),
+					Schema.COL_NUMBER_OF_BSSIDS, isOnlyBssid("old"))
+			+ " END";
+
+	/**
+	 * Catalog status is taken from strongest measurement, so it may change on insert
+	 */
+	private static final String SQL_CREATE_TRIGGER_WIFIS_UPDATE = "CREATE TRIGGER IF NOT EXISTS trg_session_wifis_update"
+			+ " AFTER UPDATE OF " + Schema.COL_KNOWN_WIFI + " ON " + Schema.TBL_WIFI_OVERVIEW
+			+ " WHEN old." + Schema.COL_KNOWN_WIFI + " IS NOT new." + Schema.COL_KNOWN_WIFI + " BEGIN "
+			+ update("new", "+", Schema.COL_NUMBER_OF_NEW_WIFIS, isNew("new") + " - " + isNew("old"))
+			+ " END";
+
+	/**
+	 * Cell overview only lists cells with valid cell id
+	 */
+	private static final String SQL_CREATE_TRIGGER_CELLS_INSERT = "CREATE TRIGGER IF NOT EXISTS trg_session_cells_insert"
+			+ " AFTER INSERT ON " + Schema.TBL_CELL_OVERVIEW
+			+ " WHEN new." + Schema.COL_LOGICAL_CELLID + " > -1 BEGIN "
+			+ update("new", "+", Schema.COL_NUMBER_OF_CELLS, "1")
+			+ " END";
+
+	private static final String SQL_CREATE_TRIGGER_CELLS_DELETE = "CREATE TRIGGER IF NOT EXISTS trg_session_cells_delete"
+			+ " AFTER DELETE ON " + Schema.TBL_CELL_OVERVIEW
+			+ " WHEN old." + Schema.COL_LOGICAL_CELLID + " > -1 BEGIN "
+			+ update("old", "-", Schema.COL_NUMBER_OF_CELLS, "1")
+			+ " END";
+
+	private static final String SQL_CREATE_TRIGGER_WAYPOINTS_INSERT = "CREATE TRIGGER IF NOT EXISTS trg_session_waypoints_insert"
+			+ " AFTER INSERT ON " + Schema.TBL_POSITIONS
+			+ " WHEN new." + Schema.COL_SOURCE + " = '" + RadioBeacon.PROVIDER_USER_DEFINED + "' BEGIN "
+			+ update("new", "+", Schema.COL_NUMBER_OF_WAYPOINTS, "1")
+			+ " END";
+
+	private static final String SQL_CREATE_TRIGGER_WAYPOINTS_DELETE = "CREATE TRIGGER IF NOT EXISTS trg_session_waypoints_delete"
+			+ " AFTER DELETE ON " + Schema.TBL_POSITIONS
+			+ " WHEN old." + Schema.COL_SOURCE + " = '" + RadioBeacon.PROVIDER_USER_DEFINED + "' BEGIN "
+			+ update("old", "-", Schema.COL_NUMBER_OF_WAYPOINTS, "1")
+			+ " END";
+
+	private static final String SQL_RECOUNT = "UPDATE " + Schema.TBL_SESSIONS + " SET "
+			+ Schema.COL_NUMBER_OF_WIFIS + " = (SELECT COUNT(*) FROM " + Schema.TBL_WIFI_OVERVIEW
+			+ " WHERE " + Schema.COL_SESSION_ID + " = " + Schema.TBL_SESSIONS + "." + Schema.COL_ID + "), "
+			+ Schema.COL_NUMBER_OF_NEW_WIFIS + " = (SELECT COUNT(*) FROM " + Schema.TBL_WIFI_OVERVIEW
+			+ " WHERE " + Schema.COL_SESSION_ID + " = " + Schema.TBL_SESSIONS + "." + Schema.COL_ID
+			+ " AND " + Schema.COL_KNOWN_WIFI + " = " + CatalogStatus.NEW.ordinal() + "), "
+			+ Schema.COL_NUMBER_OF_BSSIDS + " = (SELECT COUNT(DISTINCT " + Schema.COL_BSSID + ") FROM " + Schema.TBL_WIFI_OVERVIEW
+			+ " WHERE " + Schema.COL_SESSION_ID + " = " + Schema.TBL_SESSIONS + "." + Schema.COL_ID + "), "
+			+ Schema.COL_NUMBER_OF_CELLS + " = (SELECT COUNT(*) FROM " + Schema.TBL_CELL_OVERVIEW
+			+ " WHERE " + Schema.COL_SESSION_ID + " = " + Schema.TBL_SESSIONS + "." + Schema.COL_ID
+			+ " AND " + Schema.COL_LOGICAL_CELLID + " > -1), "
+			+ Schema.COL_NUMBER_OF_WAYPOINTS + " = (SELECT COUNT(*) FROM " + Schema.TBL_POSITIONS
+			+ " WHERE " + Schema.COL_SESSION_ID + " = " + Schema.TBL_SESSIONS + "." + Schema.COL_ID
+			+ " AND " + Schema.COL_SOURCE + " = '" + RadioBeacon.PROVIDER_USER_DEFINED + "')";
+
+	private SessionCounters() {
+	}
+
+	/**
+	 * Creates counter triggers and recounts all sessions
+	 * Overview tables must exist already
+	 * @param db writable database
+	 */
+	static void create(final SQLiteDatabase db) {
+		db.execSQL(SQL_CREATE_TRIGGER_WIFIS_INSERT);
+		db.execSQL(SQL_CREATE_TRIGGER_WIFIS_DELETE);
+		db.execSQL(SQL_CREATE_TRIGGER_WIFIS_UPDATE);
+		db.execSQL(SQL_CREATE_TRIGGER_CELLS_INSERT);
+		db.execSQL(SQL_CREATE_TRIGGER_CELLS_DELETE);
+		db.execSQL(SQL_CREATE_TRIGGER_WAYPOINTS_INSERT);
+		db.execSQL(SQL_CREATE_TRIGGER_WAYPOINTS_DELETE);
+		recount(db);
+	}
+
+	/**
+	 * Recounts all sessions
+	 * @param db writable database
+	 */
+	static void recount(final SQLiteDatabase db) {
+		db.execSQL(SQL_RECOUNT);
+		Log.i(TAG, "Recounted session counters");
+	}
+}
@@ -0,0 +1,311 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.openbmap.RadioBeacon;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Deletes sessions in the background
+ *
+ * A single cascading delete holds the write lock until all of session's wifis, cells and positions are gone, which
+ * stalls an active logger for seconds on large sessions. Instead rows are deleted in chunks of {@link #CHUNK_ROWS},
+ * each chunk committing on its own, with a short pause in between so that logger's writes get through.
+ *
+ * Sessions are flagged ({@link Schema#COL_IS_DELETING}) before deletion starts, so deletion continues after
+ * process death once {@link #resume(Context)} is called. Measurements of archived sessions (see {@link SessionArchiver})
+ * are purged the same way. Session counters shrink while rows are deleted
+ * (see {@link SessionCounters}), session list observes {@link ContentProvider#CONTENT_URI_SESSION} for progress.
+ */
+public final class SessionDeleter {
+
+	private static final String TAG = SessionDeleter.class.getSimpleName();
+
+	/**
+	 * Max. rows deleted per transaction
+	 */
+	private static final int CHUNK_ROWS = 500;
+
+	/**
+	 * Pause between chunks (millis)
+	 */
+	private static final long CHUNK_PAUSE = 20;
+
+	/**
+	 * Progress notifications are coalesced within this window (millis)
+	 */
+	private static final long PROGRESS_WINDOW = 500;
+
+	/**
+	 * No session pending
+	 */
+	private static final long NONE = -1;
+
+	/**
+	 * Tables deleted chunk-wise. Overview rows go first, as overview delete triggers skip flagged sessions
+	 * (counters shrink with overview rows). Wifis and cells reference positions, so positions go last.
+	 * Remaining rows (logs) are removed by cascade when session row is deleted
+	 */
+	private static final String[] CHUNKED_TABLES = {Schema.TBL_WIFI_OVERVIEW, Schema.TBL_CELL_OVERVIEW,
+			Schema.TBL_WIFIS, Schema.TBL_CELLS, Schema.TBL_POSITIONS};
+
+	/**
+	 * Tables purged after archiving. Overview rows are kept, as session counters shrink with them
+	 * (wifi and cell lists of archived sessions are served from archive, see {@link SessionArchiver#queryTable})
+	 */
+	private static final String[] MEASUREMENT_TABLES = {Schema.TBL_WIFIS, Schema.TBL_CELLS, Schema.TBL_POSITIONS};
+
+	private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			return new Thread(r, TAG);
+		}
+	});
+
+	private static ChangeNotifier sNotifier;
+
+	private SessionDeleter() {
+	}
+
+	/**
+	 * Flags sessions for deletion and deletes them in the background
+	 * @param context context
+	 * @param sessions session ids
+	 */
+	public static void deleteInBackground(final Context context, final long... sessions) {
+		final SQLiteDatabase db = DatabaseHelper.getInstance(context).getWritableDatabase();
+		db.beginTransaction();
+		try {
+			for (final long session : sessions) {
+				mark(db, Schema.DELETING_SESSION, Schema.COL_ID + " = ?", new String[]{String.valueOf(session)});
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		resume(context);
+	}
+
+	/**
+	 * Flags all sessions for deletion and deletes them in the background
+	 * @param context context
+	 */
+	public static void deleteAllInBackground(final Context context) {
+		mark(DatabaseHelper.getInstance(context).getWritableDatabase(), Schema.DELETING_SESSION, null, null);
+		resume(context);
+	}
+
+	/**
+	 * Continues deleting flagged sessions and purging archived measurements, e.g. after process death
+	 * @param context context
+	 */
+	public static void resume(final Context context) {
+		final Context appContext = context.getApplicationContext();
+		notifier(appContext).notifyChange(ContentProvider.CONTENT_URI_SESSION);
+		sExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				long session;
+				while ((session = nextPending(appContext, Schema.DELETING_MEASUREMENTS)) != NONE) {
+					if (!purge(appContext, session)) {
+						// retried on next resume
+						return;
+					}
+				}
+				while ((session = nextPending(appContext, Schema.DELETING_SESSION)) != NONE) {
+					if (!delete(appContext, session)) {
+						return;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Deletes session chunk-wise on calling thread. Session's buffered scans are discarded first
+	 * @param context context
+	 * @param session session id
+	 * @return true, if session has been deleted
+	 */
+	public static boolean delete(final Context context, final long session) {
+		final long start = SystemClock.elapsedRealtime();
+		final SQLiteDatabase db = DatabaseHelper.getInstance(context).getWritableDatabase();
+		final String[] args = {String.valueOf(session)};
+		mark(db, Schema.DELETING_SESSION, Schema.COL_ID + " = ?", args);
+		// otherwise buffered or currently committed scans would be written after (or in between) chunks
+		ScanWriteBuffer.getInstance(context).discard(session);
+
+		final long[] stats = new long[2];
+		try {
+			deleteChunks(context, db, CHUNKED_TABLES, args, stats);
+		} catch (final SQLException e) {
+			Log.e(TAG, "Error deleting session " + session + ": " + e.getMessage());
+			return false;
+		}
+
+		// content provider removes session row, shard and archive
+		new DataHelper(context).deleteSession(session);
+		Log.i(TAG, "Deleted session " + session + " (" + stats[0] + " rows) in " + (SystemClock.elapsedRealtime() - start)
+				+ " ms, longest chunk " + stats[1] + " ms");
+		return true;
+	}
+
+	/**
+	 * Flags archived session's measurements for deletion. Must be set before archive is published,
+	 * so an interrupted archiving is either purged or reverted on {@link #resume(Context)}
+	 * @param context context
+	 * @param session session id
+	 */
+	static void markPurge(final Context context, final long session) {
+		mark(DatabaseHelper.getInstance(context).getWritableDatabase(), Schema.DELETING_MEASUREMENTS,
+				Schema.COL_ID + " = ?", new String[]{String.valueOf(session)});
+	}
+
+	/**
+	 * Clears flag set by {@link #markPurge(Context, long)}, if archiving failed
+	 * @param context context
+	 * @param session session id
+	 */
+	static void unmarkPurge(final Context context, final long session) {
+		mark(DatabaseHelper.getInstance(context).getWritableDatabase(), 0,
+				Schema.COL_ID + " = ? AND " + Schema.COL_IS_DELETING + " = " + Schema.DELETING_MEASUREMENTS,
+				new String[]{String.valueOf(session)});
+	}
+
+	/**
+	 * Deletes archived session's wifis, cells and positions chunk-wise on calling thread.
+	 * Session row, log and overview rows stay, so session list and counters are unchanged.
+	 * Waypoint counter (decremented by position triggers) is restored from archive
+	 * @param context context
+	 * @param session session id, flagged by {@link #markPurge(Context, long)}
+	 * @return true, if measurements have been deleted or archiving has been reverted
+	 */
+	static boolean purge(final Context context, final long session) {
+		final SessionArchive archive = SessionArchiver.open(context, session);
+		if (archive == null) {
+			// archive hasn't been published, rows are still the only copy
+			Log.w(TAG, "No archive for session " + session + ", keeping measurements");
+			unmarkPurge(context, session);
+			return true;
+		}
+
+		final long start = SystemClock.elapsedRealtime();
+		final SQLiteDatabase db = DatabaseHelper.getInstance(context).getWritableDatabase();
+		final String[] args = {String.valueOf(session)};
+		final long[] stats = new long[2];
+		try {
+			deleteChunks(context, db, MEASUREMENT_TABLES, args, stats);
+			int waypoints = 0;
+			for (int i = 0; i < archive.getPositionCount(); i++) {
+				if (RadioBeacon.PROVIDER_USER_DEFINED.equals(archive.getSource(i))) {
+					waypoints++;
+				}
+			}
+			final ContentValues values = new ContentValues();
+			values.put(Schema.COL_NUMBER_OF_WAYPOINTS, waypoints);
+			values.put(Schema.COL_IS_DELETING, 0);
+			db.update(Schema.TBL_SESSIONS, values, Schema.COL_ID + " = ? AND " + Schema.COL_IS_DELETING + " = "
+					+ Schema.DELETING_MEASUREMENTS, args);
+		} catch (final SQLException e) {
+			Log.e(TAG, "Error purging archived session " + session + ": " + e.getMessage());
+			return false;
+		}
+		notifier(context.getApplicationContext()).notifyChange(ContentProvider.CONTENT_URI_SESSION);
+		Log.i(TAG, "Purged archived session " + session + " (" + stats[0] + " rows) in " + (SystemClock.elapsedRealtime() - start)
+				+ " ms, longest chunk " + stats[1] + " ms");
+		return true;
+	}
+
+	/**
+	 * @param context context
+	 * @param session session id
+	 * @return true, if session is flagged for deletion
+	 */
+	public static boolean isPending(final Context context, final long session) {
+		final Cursor cursor = DatabaseHelper.getInstance(context).getReadableDatabase().query(Schema.TBL_SESSIONS,
+				new String[]{Schema.COL_IS_DELETING}, Schema.COL_ID + " = ?", new String[]{String.valueOf(session)},
+				null, null, null);
+		try {
+			return cursor.moveToFirst() && cursor.getInt(0) == Schema.DELETING_SESSION;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Deletes session's rows from tables in chunks of {@link #CHUNK_ROWS}, each chunk in its own transaction
+	 * @param stats out: deleted rows and longest chunk (millis)
+	 */
+	private static void deleteChunks(final Context context, final SQLiteDatabase db, final String[] tables, final String[] args,
+			final long[] stats) {
+		final ChangeNotifier notifier = notifier(context.getApplicationContext());
+		for (final String table : tables) {
+			final String chunk = "rowid IN (SELECT rowid FROM " + table + " WHERE " + Schema.COL_SESSION_ID + " = ?"
+					+ " LIMIT " + CHUNK_ROWS + ")";
+			int deleted;
+			do {
+				final long chunkStart = SystemClock.elapsedRealtime();
+				deleted = db.delete(table, chunk, args);
+				stats[1] = Math.max(stats[1], SystemClock.elapsedRealtime() - chunkStart);
+				stats[0] += deleted;
+				notifier.notifyChange(ContentProvider.CONTENT_URI_SESSION);
+				SystemClock.sleep(CHUNK_PAUSE);
+			} while (deleted == CHUNK_ROWS);
+		}
+	}
+
+	private static void mark(final SQLiteDatabase db, final int state, final String selection, final String[] args) {
+		final ContentValues values = new ContentValues();
+		values.put(Schema.COL_IS_DELETING, state);
+		db.update(Schema.TBL_SESSIONS, values, selection, args);
+	}
+
+	/**
+	 * @return oldest session with given deletion state or {@link #NONE}
+	 */
+	private static long nextPending(final Context context, final int state) {
+		final Cursor cursor = DatabaseHelper.getInstance(context).getReadableDatabase().query(Schema.TBL_SESSIONS,
+				new String[]{Schema.COL_ID}, Schema.COL_IS_DELETING + " = " + state, null, null, null, Schema.COL_ID, "1");
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : NONE;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private static synchronized ChangeNotifier notifier(final Context context) {
+		if (sNotifier == null) {
+			sNotifier = new ChangeNotifier(context.getContentResolver(), PROGRESS_WINDOW);
+		}
+		return sNotifier;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import org.openbmap.Preferences;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies {@link RetentionPolicy} configured in preferences (see {@link Preferences#KEY_RETENTION_DAYS}
+ * and {@link Preferences#KEY_RETENTION_MB}): deletes exported sessions one by one, chunk-wise (see {@link SessionDeleter}).
+ *
+ * Session sizes are estimated: shards and archives by file size, sessions in main database by their share of
+ * wifis, cells and waypoints (session counters) in used database pages.
+ * Session age is taken from {@link Schema#COL_LAST_UPDATED}, which is set on creation, stop and export.
+ */
+public final class SessionPruner {
+
+	private static final String TAG = SessionPruner.class.getSimpleName();
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static final long BYTES_PER_MB = 1024L * 1024;
+
+	/**
+	 * Session columns read for selection. Trigger-maintained counters (see {@link SessionCounters}) are used
+	 * for size estimation, so no measurement table is scanned
+	 */
+	private static final String[] SESSION_COLUMNS = {Schema.COL_ID, Schema.COL_LAST_UPDATED, Schema.COL_HAS_BEEN_EXPORTED,
+			Schema.COL_IS_ACTIVE, Schema.COL_NUMBER_OF_WIFIS, Schema.COL_NUMBER_OF_CELLS, Schema.COL_NUMBER_OF_WAYPOINTS};
+
+	private SessionPruner() {
+	}
+
+	/**
+	 * @param context context
+	 * @return retention policy configured in preferences
+	 */
+	public static RetentionPolicy policy(final Context context) {
+		final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		return new RetentionPolicy(
+				Math.max(0, parseLong(prefs.getString(Preferences.KEY_RETENTION_DAYS, Preferences.VAL_RETENTION_DAYS))) * MILLIS_PER_DAY,
+				Math.max(0, parseLong(prefs.getString(Preferences.KEY_RETENTION_MB, Preferences.VAL_RETENTION_MB))) * BYTES_PER_MB);
+	}
+
+	/**
+	 * Reports which sessions would be deleted, without deleting anything
+	 * @param context context
+	 * @return report
+	 */
+	public static RetentionPolicy.Report dryRun(final Context context) {
+		return select(context, policy(context));
+	}
+
+	/**
+	 * Deletes sessions selected by retention policy, oldest first, until time budget is exhausted.
+	 * Left-over sessions are deleted on next run
+	 * @param context context
+	 * @param budgetMillis time budget, checked between sessions
+	 * @return report, with number of deleted sessions
+	 */
+	public static RetentionPolicy.Report prune(final Context context, final long budgetMillis) {
+		final long deadline = SystemClock.elapsedRealtime() + budgetMillis;
+		final RetentionPolicy.Report report = select(context, policy(context));
+		for (final Long session : report.sessions) {
+			if (SystemClock.elapsedRealtime() >= deadline) {
+				break;
+			}
+			if (SessionDeleter.delete(context, session)) {
+				report.deleted++;
+			}
+		}
+		Log.i(TAG, "Pruning: " + report);
+		return report;
+	}
+
+	private static RetentionPolicy.Report select(final Context context, final RetentionPolicy policy) {
+		if (!policy.isEnabled()) {
+			return new RetentionPolicy.Report();
+		}
+
+		final SQLiteDatabase db = DatabaseHelper.getInstance(context).getReadableDatabase();
+		final List<RetentionPolicy.Candidate> candidates = new ArrayList<>();
+		long total = 0;
+		try {
+			final long used = DatabaseCompactor.sizeBytes(db) - DatabaseCompactor.freeBytes(db);
+			total = used;
+
+			final Cursor cursor = db.query(Schema.TBL_SESSIONS, SESSION_COLUMNS, null, null, null, null, null);
+			// sessions in main database are estimated by their share of counted wifis, cells and waypoints
+			long totalRows = 0;
+			while (cursor.moveToNext()) {
+				if (isInMainDatabase(context, cursor.getLong(0))) {
+					totalRows += rows(cursor);
+				}
+			}
+			cursor.moveToPosition(-1);
+			while (cursor.moveToNext()) {
+				final long session = cursor.getLong(0);
+				final long bytes;
+				if (SessionShards.isSharded(context, session)) {
+					bytes = shardBytes(context, session);
+					total += bytes;
+				} else if (SessionArchiver.isArchived(context, session)) {
+					bytes = SessionArchiver.archiveFile(context, session).length();
+					total += bytes;
+				} else {
+					bytes = totalRows == 0 ? 0 : used * rows(cursor) / totalRows;
+				}
+				candidates.add(new RetentionPolicy.Candidate(session, cursor.getLong(1), bytes,
+						cursor.getInt(2) != 0, cursor.getInt(3) != 0));
+			}
+			cursor.close();
+		} catch (final SQLException e) {
+			Log.e(TAG, "Couldn't load sessions: " + e.getMessage());
+			return new RetentionPolicy.Report();
+		}
+		return policy.select(candidates, total, System.currentTimeMillis());
+	}
+
+	/**
+	 * @return true, if session's measurements are stored in main database, i.e. neither sharded nor archived
+	 */
+	private static boolean isInMainDatabase(final Context context, final long session) {
+		return !SessionShards.isSharded(context, session) && !SessionArchiver.isArchived(context, session);
+	}
+
+	/**
+	 * @param cursor cursor on {@link #SESSION_COLUMNS}
+	 * @return session's wifis, cells and waypoints
+	 */
+	private static long rows(final Cursor cursor) {
+		return cursor.getLong(4) + cursor.getLong(5) + cursor.getLong(6);
+	}
+
+	/**
+	 * @return size of shard file and its write-ahead log
+	 */
+	private static long shardBytes(final Context context, final long session) {
+		final File file = context.getDatabasePath(SessionShards.shardName(session));
+		return file.length() + new File(file.getPath() + "-wal").length();
+	}
+
+	private static long parseLong(final String value) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (final NumberFormatException e) {
+			Log.w(TAG, "Invalid retention limit " + value);
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import org.openbmap.Preferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Optional per-session storage (see {@link Preferences#KEY_SESSION_SHARDING})
+ *
+ * Each sharded session keeps its positions, wifis, cells and log records in a database file of its own,
+ * while main database only holds the session list. Thus deleting a session is a file unlink instead of
+ * a cascading delete, and queries never touch other sessions' rows.
+ * Sharding applies to sessions created while enabled, all other sessions stay in main database.
+ *
+ * A shard has the same schema as main database. Its sessions table holds a single row, which is maintained
+ * by {@link SessionCounters} and copied to main database by {@link #publishCounters(SQLiteDatabase, SQLiteDatabase, long)}
+ */
+public final class SessionShards {
+
+	private static final String TAG = SessionShards.class.getSimpleName();
+
+	/**
+	 * Shard file name: prefix + session id
+	 */
+	static final String SHARD_PREFIX = DatabaseHelper.DB_NAME + "_session_";
+
+	/**
+	 * Session counters copied from shard to main database
+	 */
+	static final String[] COUNTERS = {
+			Schema.COL_NUMBER_OF_WIFIS,
+			Schema.COL_NUMBER_OF_NEW_WIFIS,
+			Schema.COL_NUMBER_OF_BSSIDS,
+			Schema.COL_NUMBER_OF_CELLS,
+			Schema.COL_NUMBER_OF_WAYPOINTS};
+
+	/**
+	 * Open shards by session id
+	 */
+	private static final HashMap<Long, DatabaseHelper> sHelpers = new HashMap<>();
+
+	/**
+	 * Session ids with shard, lazily read from databases folder
+	 */
+	private static HashSet<Long> sShards;
+
+	private SessionShards() {
+	}
+
+	/**
+	 * @param context context
+	 * @return true, if new sessions are to be stored in separate files
+	 */
+	public static boolean isEnabled(final Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context)
+				.getBoolean(Preferences.KEY_SESSION_SHARDING, Preferences.VAL_SESSION_SHARDING);
+	}
+
+	/**
+	 * Returns database helper holding session's data
+	 * @param context context
+	 * @param session session id
+	 * @return session's shard, if any, main database otherwise
+	 */
+	public static synchronized DatabaseHelper helperFor(final Context context, final long session) {
+		if (!shards(context).contains(session)) {
+			return DatabaseHelper.getInstance(context);
+		}
+
+		DatabaseHelper helper = sHelpers.get(session);
+		if (helper == null) {
+			helper = new DatabaseHelper(context, shardName(session));
+			sHelpers.put(session, helper);
+		}
+		return helper;
+	}
+
+	/**
+	 * Creates a new database helper for session's data, which is owned (and closed) by caller
+	 * Same as {@link DatabaseHelper#DatabaseHelper(Context)}, but opens shard for sharded sessions
+	 * @param context context
+	 * @param session session id
+	 * @return new database helper
+	 */
+	public static DatabaseHelper newHelper(final Context context, final long session) {
+		return new DatabaseHelper(context.getApplicationContext(),
+				isSharded(context, session) ? shardName(session) : DatabaseHelper.DB_NAME);
+	}
+
+	/**
+	 * @param context context
+	 * @param session session id
+	 * @return true, if session is stored in a shard
+	 */
+	public static synchronized boolean isSharded(final Context context, final long session) {
+		return shards(context).contains(session);
+	}
+
+	/**
+	 * @param context context
+	 * @return ids of all sessions stored in shards
+	 */
+	public static synchronized List<Long> list(final Context context) {
+		return new ArrayList<>(shards(context));
+	}
+
+	/**
+	 * Creates shard for a new session
+	 * @param context context
+	 * @param session session id, as inserted into main database
+	 * @return shard's database helper
+	 */
+	static synchronized DatabaseHelper create(final Context context, final long session) {
+		shards(context).add(session);
+		final DatabaseHelper helper = helperFor(context, session);
+
+		// counter triggers need session row within shard
+		final ContentValues values = new ContentValues();
+		values.put(Schema.COL_ID, session);
+		values.put(Schema.COL_CREATED_AT, System.currentTimeMillis());
+		for (final String counter : COUNTERS) {
+			values.put(counter, 0);
+		}
+		helper.getWritableDatabase().insertWithOnConflict(Schema.TBL_SESSIONS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+		Log.i(TAG, "Created shard " + shardName(session));
+		return helper;
+	}
+
+	/**
+	 * Deletes session's shard file. Session's buffered scans are discarded first and an ongoing commit
+	 * is waited for, so write buffer neither holds shard's statements nor falls back to main database
+	 * @param context context
+	 * @param session session id
+	 * @return true, if shard has been deleted
+	 */
+	static boolean delete(final Context context, final long session) {
+		if (!isSharded(context, session)) {
+			return false;
+		}
+		// not within lock, commit thread needs it for routing
+		ScanWriteBuffer.getInstance(context).discard(session);
+
+		final DatabaseHelper helper;
+		synchronized (SessionShards.class) {
+			if (!shards(context).remove(session)) {
+				return false;
+			}
+			helper = sHelpers.remove(session);
+		}
+		if (helper != null) {
+			helper.close();
+		}
+		// also removes journal and write-ahead log
+		final boolean deleted = context.deleteDatabase(shardName(session));
+		Log.i(TAG, (deleted ? "Deleted shard " : "Couldn't delete shard ") + shardName(session));
+		return deleted;
+	}
+
+	/**
+	 * Deletes all shards
+	 * @param context context
+	 * @return number of deleted shards
+	 */
+	static int deleteAll(final Context context) {
+		int deleted = 0;
+		for (final Long session : list(context)) {
+			if (delete(context, session)) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Copies session counters from shard to main database, so session list is up to date
+	 * @param shard shard database
+	 * @param main main database
+	 * @param session session id
+	 */
+	static void publishCounters(final SQLiteDatabase shard, final SQLiteDatabase main, final long session) {
+		final String[] args = {String.valueOf(session)};
+		try {
+			final Cursor cursor = shard.query(Schema.TBL_SESSIONS, COUNTERS, Schema.COL_ID + " = ?", args, null, null, null);
+			try {
+				if (cursor.moveToFirst()) {
+					final ContentValues values = new ContentValues();
+					for (int i = 0; i < COUNTERS.length; i++) {
+						values.put(COUNTERS[i], cursor.getInt(i));
+					}
+					main.update(Schema.TBL_SESSIONS, values, Schema.COL_ID + " = ?", args);
+				}
+			} finally {
+				cursor.close();
+			}
+		} catch (final SQLException e) {
+			Log.w(TAG, "Couldn't publish counters of session " + session + ": " + e.getMessage());
+		}
+	}
+
+	static String shardName(final long session) {
+		return SHARD_PREFIX + session;
+	}
+
+	/**
+	 * Scans databases folder for shards on first use
+	 */
+	private static HashSet<Long> shards(final Context context) {
+		if (sShards == null) {
+			sShards = new HashSet<>();
+			for (final String name : context.getApplicationContext().databaseList()) {
+				if (!name.startsWith(SHARD_PREFIX)) {
+					continue;
+				}
+				try {
+					// journal and write-ahead log files don't parse
+					sShards.add(Long.parseLong(name.substring(SHARD_PREFIX.length())));
+				} catch (final NumberFormatException e) {
+					// ignore
+				}
+			}
+			Log.i(TAG, sShards.size() + " session shards found");
+		}
+		return sShards;
+	}
+}
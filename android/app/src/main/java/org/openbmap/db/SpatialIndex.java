@@ -0,0 +1,162 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * R*Tree index over positions for bounding box (viewport) queries
+ * The index is kept in sync with positions table by triggers, so all write paths (content provider, {@link ScanWriter},
+ * cascading deletes) are covered.
+ *
+ * R*Tree module is an optional SQLite feature. If it's missing, bounding box selections fall back
+ * to plain latitude / longitude comparison. Availability is tracked per database (see {@link DatabaseHelper#hasSpatialIndex()}),
+ * callers check it once per query and pass it to both {@link #within(boolean, String, String, String)} and
+ * {@link #args(boolean, double, double, double, double)}, so selection and arguments always match.
+ */
+public final class SpatialIndex {
+
+	private static final String TAG = SpatialIndex.class.getSimpleName();
+
+	private static final String COL_ID = "id";
+	private static final String COL_MIN_LAT = "min_lat";
+	private static final String COL_MAX_LAT = "max_lat";
+	private static final String COL_MIN_LON = "min_lon";
+	private static final String COL_MAX_LON = "max_lon";
+
+	private static final String SQL_CREATE_TABLE = "CREATE VIRTUAL TABLE IF NOT EXISTS " + Schema.TBL_POSITIONS_RTREE
+			+ " USING rtree(" + COL_ID + ", " + COL_MIN_LAT + ", " + COL_MAX_LAT + ", " + COL_MIN_LON + ", " + COL_MAX_LON + ")";
+
+	private static final String SQL_CREATE_TRIGGER_INSERT = "CREATE TRIGGER IF NOT EXISTS trg_positions_rtree_insert"
+			+ " AFTER INSERT ON " + Schema.TBL_POSITIONS + " BEGIN"
+			+ " INSERT INTO " + Schema.TBL_POSITIONS_RTREE + " VALUES (new." + Schema.COL_ID + ","
+			+ " new." + Schema.COL_LATITUDE + ", new." + Schema.COL_LATITUDE + ","
+			+ " new." + Schema.COL_LONGITUDE + ", new." + Schema.COL_LONGITUDE + ");"
+			+ " END";
+
+	private static final String SQL_CREATE_TRIGGER_UPDATE = "CREATE TRIGGER IF NOT EXISTS trg_positions_rtree_update"
+			+ " AFTER UPDATE OF " + Schema.COL_LATITUDE + ", " + Schema.COL_LONGITUDE + " ON " + Schema.TBL_POSITIONS + " BEGIN"
+			+ " UPDATE " + Schema.TBL_POSITIONS_RTREE + " SET"
+			+ " " + COL_MIN_LAT + " = new." + Schema.COL_LATITUDE + ", " + COL_MAX_LAT + " = new." + Schema.COL_LATITUDE + ","
+			+ " " + COL_MIN_LON + " = new." + Schema.COL_LONGITUDE + ", " + COL_MAX_LON + " = new." + Schema.COL_LONGITUDE
+			+ " WHERE " + COL_ID + " = new." + Schema.COL_ID + ";"
+			+ " END";
+
+	private static final String SQL_CREATE_TRIGGER_DELETE = "CREATE TRIGGER IF NOT EXISTS trg_positions_rtree_delete"
+			+ " AFTER DELETE ON " + Schema.TBL_POSITIONS + " BEGIN"
+			+ " DELETE FROM " + Schema.TBL_POSITIONS_RTREE + " WHERE " + COL_ID + " = old." + Schema.COL_ID + ";"
+			+ " END";
+
+	private static final String SQL_FILL = "INSERT OR REPLACE INTO " + Schema.TBL_POSITIONS_RTREE
+			+ " SELECT " + Schema.COL_ID + ", " + Schema.COL_LATITUDE + ", " + Schema.COL_LATITUDE + ", "
+			+ Schema.COL_LONGITUDE + ", " + Schema.COL_LONGITUDE + " FROM " + Schema.TBL_POSITIONS;
+
+	private SpatialIndex() {
+	}
+
+	/**
+	 * Creates index (if R*Tree module is available), sync triggers and indexes existing positions
+	 * @param db writable database
+	 * @return true on success
+	 */
+	static boolean create(final SQLiteDatabase db) {
+		try {
+			db.execSQL(SQL_CREATE_TABLE);
+		} catch (final SQLException e) {
+			Log.w(TAG, "R*Tree module not available, using plain bounding box queries: " + e.getMessage());
+			return false;
+		}
+		db.execSQL(SQL_CREATE_TRIGGER_INSERT);
+		db.execSQL(SQL_CREATE_TRIGGER_UPDATE);
+		db.execSQL(SQL_CREATE_TRIGGER_DELETE);
+		db.execSQL(SQL_FILL);
+		Log.i(TAG, "Created spatial index on " + Schema.TBL_POSITIONS);
+		return true;
+	}
+
+	/**
+	 * Checks whether spatial index exists, called on database open
+	 * @param db database
+	 * @return true if database has a spatial index
+	 */
+	static boolean detect(final SQLiteDatabase db) {
+		final Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+				new String[]{Schema.TBL_POSITIONS_RTREE});
+		try {
+			return cursor.moveToFirst();
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * @param helper database helper, opened if not yet open
+	 * @return true if spatial index is available in helper's database
+	 */
+	public static boolean isAvailable(final DatabaseHelper helper) {
+		helper.getReadableDatabase();
+		return helper.hasSpatialIndex();
+	}
+
+	/**
+	 * Builds bounding box selection for positions
+	 * Placeholders are filled by {@link #args(boolean, double, double, double, double)}
+	 *
+	 * @param indexed true, if spatial index is available (see {@link #isAvailable(DatabaseHelper)})
+	 * @param idColumn position id column (e.g. b._id)
+	 * @param latColumn position latitude column
+	 * @param lonColumn position longitude column
+	 * @return selection
+	 */
+	public static String within(final boolean indexed, final String idColumn, final String latColumn, final String lonColumn) {
+		final String bbox = latColumn + " >= ? AND " + latColumn + " <= ? AND " + lonColumn + " >= ? AND " + lonColumn + " <= ?";
+		if (!indexed) {
+			return "(" + bbox + ")";
+		}
+		// R*Tree stores 32-bit floats (rounded outwards), so exact bounds are re-checked on matches
+		return "(" + idColumn + " IN (SELECT " + COL_ID + " FROM " + Schema.TBL_POSITIONS_RTREE
+				+ " WHERE " + COL_MAX_LAT + " >= ? AND " + COL_MIN_LAT + " <= ? AND " + COL_MAX_LON + " >= ? AND " + COL_MIN_LON + " <= ?)"
+				+ " AND " + bbox + ")";
+	}
+
+	/**
+	 * Selection arguments for {@link #within(boolean, String, String, String)}
+	 * @param indexed same value as passed to {@link #within(boolean, String, String, String)}
+	 * @return selection arguments
+	 */
+	public static String[] args(final boolean indexed, final double minLat, final double maxLat, final double minLon, final double maxLon) {
+		final String[] bbox = {String.valueOf(minLat), String.valueOf(maxLat), String.valueOf(minLon), String.valueOf(maxLon)};
+		if (!indexed) {
+			return bbox;
+		}
+		return new String[]{bbox[0], bbox[1], bbox[2], bbox[3], bbox[0], bbox[1], bbox[2], bbox[3]};
+	}
+
+	/**
+	 * Checks whether selection uses spatial index, i.e. positions should drive the query
+	 * @param selection selection
+	 * @return true if spatial index is used
+	 */
+	public static boolean isUsedBy(final String selection) {
+		return selection != null && selection.contains(Schema.TBL_POSITIONS_RTREE);
+	}
+}
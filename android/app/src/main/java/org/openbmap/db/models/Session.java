@@ -56,6 +56,16 @@ public class Session {
      */
     private int mWaypointsCount;
 
+	/**
+	 * Number of wifis not yet in catalog
+	 */
+	private int mNewWifisCount;
+
+	/**
+	 * Number of distinct bssids (same bssid may be listed with several ssids)
+	 */
+	private int mBssidsCount;
+
 	/**
 	 * @param id
 	 * @param createdAt
@@ -186,6 +196,22 @@ public class Session {
         return mWaypointsCount;
     }
 
+	public final void setNewWifisCount(final int numberOfNewWifis) {
+		mNewWifisCount = numberOfNewWifis;
+	}
+
+	public final int getNewWifisCount() {
+		return mNewWifisCount;
+	}
+
+	public final void setBssidsCount(final int numberOfBssids) {
+		mBssidsCount = numberOfBssids;
+	}
+
+	public final int getBssidsCount() {
+		return mBssidsCount;
+	}
+
 	@Override
 	public final String toString() {
 		return getId() + " / " + getDescription() + " / Created at " + getCreatedAt() + " / Updated at " + getLastUpdated() + " / Exported? " + hasBeenExported() + " / Active? " + isActive();
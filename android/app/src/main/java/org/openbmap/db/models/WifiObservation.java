@@ -0,0 +1,106 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.db.models;
+
+/**
+ * Aggregated sightings of a single bssid, stored in the bssid's latest wifi record of the session
+ * Anchor (position and time of first sighting) defines the collapsing window
+ */
+public class WifiObservation {
+
+	private final String mBssid;
+	private final int mSession;
+	private final double mLatitude;
+	private final double mLongitude;
+	private final long mFirstSeen;
+	private int mCount;
+	private int mLevelMin;
+	private int mLevelMax;
+
+	/**
+	 * @param bssid bssid
+	 * @param session session id
+	 * @param latitude latitude of first sighting
+	 * @param longitude longitude of first sighting
+	 * @param firstSeen time of first sighting (millis)
+	 * @param level level of first sighting
+	 */
+	public WifiObservation(final String bssid, final int session, final double latitude, final double longitude, final long firstSeen, final int level) {
+		mBssid = bssid;
+		mSession = session;
+		mLatitude = latitude;
+		mLongitude = longitude;
+		mFirstSeen = firstSeen;
+		mCount = 1;
+		mLevelMin = level;
+		mLevelMax = level;
+	}
+
+	/**
+	 * @return snapshot of current count and level range
+	 */
+	public final WifiObservation copy() {
+		final WifiObservation copy = new WifiObservation(mBssid, mSession, mLatitude, mLongitude, mFirstSeen, mLevelMin);
+		copy.mCount = mCount;
+		copy.mLevelMax = mLevelMax;
+		return copy;
+	}
+
+	/**
+	 * Adds another sighting
+	 * @param level signal level
+	 */
+	public final void add(final int level) {
+		mCount++;
+		mLevelMin = Math.min(mLevelMin, level);
+		mLevelMax = Math.max(mLevelMax, level);
+	}
+
+	public final String getBssid() {
+		return mBssid;
+	}
+
+	public final int getSession() {
+		return mSession;
+	}
+
+	public final double getLatitude() {
+		return mLatitude;
+	}
+
+	public final double getLongitude() {
+		return mLongitude;
+	}
+
+	public final long getFirstSeen() {
+		return mFirstSeen;
+	}
+
+	public final int getCount() {
+		return mCount;
+	}
+
+	public final int getLevelMin() {
+		return mLevelMin;
+	}
+
+	public final int getLevelMax() {
+		return mLevelMax;
+	}
+}
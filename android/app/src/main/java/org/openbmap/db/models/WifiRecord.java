@@ -34,7 +34,17 @@ public class WifiRecord extends AbstractLogEntry<WifiRecord> {
 
 	public enum CatalogStatus {NEW, OPENBMAP, LOCAL}
 
-	private String mBSsid;
+	/**
+	 * Returned by {@link #bssidToLong(String)} for malformed bssids
+	 */
+	public static final long INVALID_BSSID = -1;
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Bssid as 48-bit integer, see {@link #bssidToLong(String)}
+	 */
+	private long mBSsid = INVALID_BSSID;
 	private String mSsid;
 	private String mCapabilities;
 	private int mFrequency;
@@ -57,7 +67,7 @@ public class WifiRecord extends AbstractLogEntry<WifiRecord> {
 	public final boolean equals(final Object aWifi) {
 		WifiRecord oneWifi = (WifiRecord) aWifi;
 
-		return getBssid().equals(oneWifi.getBssid());
+		return getBssidLong() == oneWifi.getBssidLong();
 	}
 
 	public WifiRecord() {
@@ -107,25 +117,98 @@ public class WifiRecord extends AbstractLogEntry<WifiRecord> {
 
 
 	public final String toString() {
-		return "BSSID " + mBSsid + "/ SSID " + mSsid + " / Capabilities " + mCapabilities + " / Frq. " + mFrequency + " / Level " + mLevel;
+		return "BSSID " + getBssid() + "/ SSID " + mSsid + " / Capabilities " + mCapabilities + " / Frq. " + mFrequency + " / Level " + mLevel;
 	}
 
 
     /**
-     * Returns bssid
+     * Returns bssid in text form (e.g. for display)
      * Please note: bssid are always convert to UPPERCASE
      */
 	public final String getBssid() {
-		return mBSsid.toUpperCase();
+		return bssidToString(mBSsid);
 	}
 
     /**
      * Sets bssid
-     * Please note: bssid are always convert to UPPERCASE
-     * @param bssid
+     * @param bssid bssid in text form, separators (':', '-') are ignored
      */
 	public final void setBssid(final String bssid) {
-		this.mBSsid = bssid.toUpperCase();
+		this.mBSsid = bssidToLong(bssid);
+	}
+
+	/**
+	 * Returns bssid as 48-bit integer, as stored in database
+	 */
+	public final long getBssidLong() {
+		return mBSsid;
+	}
+
+	/**
+	 * Sets bssid
+	 * @param bssid bssid as 48-bit integer, as stored in database
+	 */
+	public final void setBssid(final long bssid) {
+		this.mBSsid = bssid;
+	}
+
+	/**
+	 * Converts bssid to 48-bit integer. Separators (':', '-') are ignored
+	 * @param bssid bssid, e.g. 00:11:22:AA:BB:CC or 001122aabbcc
+	 * @return bssid as integer or {@link #INVALID_BSSID} if bssid is malformed
+	 */
+	public static long bssidToLong(final String bssid) {
+		if (bssid == null) {
+			return INVALID_BSSID;
+		}
+		long key = 0;
+		int digits = 0;
+		for (int i = 0; i < bssid.length(); i++) {
+			final char c = bssid.charAt(i);
+			if (c == ':' || c == '-') {
+				continue;
+			}
+			final int value = Character.digit(c, 16);
+			if (value < 0 || ++digits > 12) {
+				return INVALID_BSSID;
+			}
+			key = (key << 4) | value;
+		}
+		return digits == 12 ? key : INVALID_BSSID;
+	}
+
+	/**
+	 * Converts 48-bit integer to upper case bssid with colons, e.g. 00:11:22:AA:BB:CC
+	 * @param bssid bssid as integer
+	 * @return bssid or null if bssid is invalid
+	 */
+	public static String bssidToString(final long bssid) {
+		return format(bssid, true);
+	}
+
+	/**
+	 * Converts 48-bit integer to upper case bssid without separators, e.g. 001122AABBCC
+	 * This format is used by wifi catalog and exports
+	 * @param bssid bssid as integer
+	 * @return bssid or null if bssid is invalid
+	 */
+	public static String bssidToHex(final long bssid) {
+		return format(bssid, false);
+	}
+
+	private static String format(final long bssid, final boolean colons) {
+		if (bssid < 0 || bssid > 0xFFFFFFFFFFFFL) {
+			return null;
+		}
+		final StringBuilder sb = new StringBuilder(colons ? 17 : 12);
+		for (int shift = 40; shift >= 0; shift -= 8) {
+			if (colons && shift < 40) {
+				sb.append(':');
+			}
+			final int octet = (int) (bssid >>> shift) & 0xFF;
+			sb.append(HEX_DIGITS[octet >>> 4]).append(HEX_DIGITS[octet & 0x0F]);
+		}
+		return sb.toString();
 	}
 
 	public final String getSsid() {
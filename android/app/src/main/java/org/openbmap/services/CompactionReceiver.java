@@ -0,0 +1,79 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import org.openbmap.RadioBeacon;
+import org.openbmap.db.DataHelper;
+import org.openbmap.db.DatabaseCompactor;
+import org.openbmap.db.RetentionPolicy;
+import org.openbmap.db.SessionPruner;
+
+/**
+ * Database maintenance in background, when device is plugged in and no session is tracked:
+ * prunes exported sessions according to retention policy (see {@link SessionPruner}), then compacts databases.
+ * Work is time-boxed, so left-over sessions and free pages are handled on next charge.
+ * Legacy databases are never converted here, as conversion is an untimed VACUUM (see {@link org.openbmap.utils.VacuumCleaner})
+ */
+public class CompactionReceiver extends BroadcastReceiver {
+
+    private static final String TAG = CompactionReceiver.class.getSimpleName();
+
+    /**
+     * Time budget for deleting expired sessions per charge (in millis)
+     */
+    private static final long PRUNING_BUDGET = 5000;
+
+    /**
+     * Time budget for compaction per charge (in millis), both budgets well below broadcast timeout
+     */
+    private static final long COMPACTION_BUDGET = 5000;
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        if (!Intent.ACTION_POWER_CONNECTED.equals(intent.getAction())) {
+            Log.d(TAG, "Received intent " + intent.getAction() + " but ignored");
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pending = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (new DataHelper(appContext).getActiveSessionId() != RadioBeacon.SESSION_NOT_TRACKING) {
+                        Log.i(TAG, "Skipping maintenance: tracking in progress");
+                        return;
+                    }
+                    final RetentionPolicy.Report report = SessionPruner.prune(appContext, PRUNING_BUDGET);
+                    Log.i(TAG, "Pruned " + report.deleted + " of " + report.sessions.size() + " expired sessions");
+                    final DatabaseCompactor.Result result = DatabaseCompactor.compactAll(appContext, COMPACTION_BUDGET, false);
+                    Log.i(TAG, "Reclaimed " + result.reclaimedBytes + " bytes in " + result.elapsedMillis + " ms");
+                } finally {
+                    pending.finish();
+                }
+            }
+        }, "Compaction").start();
+    }
+}
@@ -50,6 +50,9 @@ import org.openbmap.R;
 import org.openbmap.RadioBeacon;
 import org.openbmap.activities.TabHostActivity;
 import org.openbmap.db.DataHelper;
+import org.openbmap.db.DatabaseHelper;
+import org.openbmap.db.ScanWriteBuffer;
+import org.openbmap.db.SessionShards;
 import org.openbmap.db.models.Session;
 import org.openbmap.events.onStartGpx;
 import org.openbmap.events.onStartLocation;
@@ -372,8 +375,25 @@ public class MasterBrainService extends Service {
     private void stopTracking(int reason) {
         unbindAll();
 
+        // persist buffered scans (also on low battery) before session is closed, so session counts are complete.
+        // Bounded wait, holds a wake lock meanwhile
+        final ScanWriteBuffer buffer = ScanWriteBuffer.getInstance(this);
+        buffer.flush();
         updateDatabase();
 
+        // Once session is complete, fold write-ahead log back into database in background
+        final Context context = getApplicationContext();
+        final long session = mSession;
+        buffer.flushAsync(new Runnable() {
+            @Override
+            public void run() {
+                DatabaseHelper.getInstance(context).checkpoint();
+                if (SessionShards.isSharded(context, session)) {
+                    SessionShards.helperFor(context, session).checkpoint();
+                }
+            }
+        });
+
         for (int i = mClients.size() - 1; i >= 0; i--) {
             try {
                 mClients.get(i).send(Message.obtain(null, RadioBeacon.MSG_SERVICE_SHUTDOWN, reason, 0));
@@ -462,16 +482,10 @@ public class MasterBrainService extends Service {
     }
 
     /**
-     * Updates number of cells and wifis and closes active session
+     * Closes active session
+     * Number of cells, wifis and waypoints needn't be counted here, as session counters are maintained on insert
      */
     private void updateDatabase() {
-        final Session active = mDataHelper.loadActiveSession();
-        if (active != null) {
-            active.setWifisCount(mDataHelper.countWifis(active.getId()));
-            active.setCellsCount(mDataHelper.countCells(active.getId()));
-            active.setWaypointsCount(mDataHelper.countWaypoints(active.getId()));
-            mDataHelper.storeSession(active, false);
-        }
         mDataHelper.invalidateActiveSessions();
     }
 
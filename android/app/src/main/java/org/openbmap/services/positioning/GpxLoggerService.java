@@ -108,7 +108,7 @@ public class GpxLoggerService extends AbstractService {
 		final PositionRecord pos = new PositionRecord(gpsLocation, mSessionId, source);
 
 		// so far we set end position = begin position
-		mDataHelper.storePosition(pos);
+		mDataHelper.storeTrackPosition(pos);
 	}
 
 	@Override
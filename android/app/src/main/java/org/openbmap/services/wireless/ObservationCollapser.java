@@ -0,0 +1,140 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.openbmap.services.wireless;
+
+import org.openbmap.db.models.WifiObservation;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Merges repeated sightings of a bssid into a single wifi record, as long as
+ * they're within a distance and time window around the first sighting (e.g. while standing at a traffic light)
+ * Not thread-safe, used by scan processing thread only
+ */
+public class ObservationCollapser {
+
+    /**
+     * Expired windows are purged, once this many windows are open
+     */
+    private static final int MAX_OPEN_WINDOWS = 1000;
+
+    private static final double EARTH_RADIUS = 6371000;
+
+    private final float mMaxDistance;
+
+    private final long mMaxMillis;
+
+    /**
+     * Open windows by bssid
+     */
+    private final HashMap<String, WifiObservation> mOpen = new HashMap<>();
+
+    /**
+     * @param maxDistance max. distance to first sighting in meters
+     * @param maxMillis   max. time since first sighting in milliseconds
+     */
+    public ObservationCollapser(final float maxDistance, final long maxMillis) {
+        mMaxDistance = maxDistance;
+        mMaxMillis = maxMillis;
+    }
+
+    /**
+     * Tries to merge sighting into an open window
+     *
+     * @param bssid     bssid
+     * @param latitude  latitude of sighting
+     * @param longitude longitude of sighting
+     * @param millis    time of sighting
+     * @param level     signal level
+     * @return observation the sighting has been merged into or null, if a new record is needed
+     */
+    public final WifiObservation merge(final String bssid, final double latitude, final double longitude, final long millis, final int level) {
+        final WifiObservation open = mOpen.get(bssid);
+        if (open == null) {
+            return null;
+        }
+        if (!inWindow(open, latitude, longitude, millis)) {
+            mOpen.remove(bssid);
+            return null;
+        }
+        open.add(level);
+        return open;
+    }
+
+    /**
+     * Opens a new window for a freshly stored wifi record
+     *
+     * @param bssid     bssid
+     * @param session   session id
+     * @param latitude  latitude of sighting
+     * @param longitude longitude of sighting
+     * @param millis    time of sighting
+     * @param level     signal level
+     */
+    public final void open(final String bssid, final int session, final double latitude, final double longitude, final long millis, final int level) {
+        if (mOpen.size() >= MAX_OPEN_WINDOWS) {
+            purge(millis);
+        }
+        mOpen.put(bssid, new WifiObservation(bssid, session, latitude, longitude, millis, level));
+    }
+
+    /**
+     * Closes all windows
+     */
+    public final void clear() {
+        mOpen.clear();
+    }
+
+    /**
+     * @return number of open windows
+     */
+    public final int size() {
+        return mOpen.size();
+    }
+
+    private void purge(final long now) {
+        final Iterator<Map.Entry<String, WifiObservation>> it = mOpen.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue().getFirstSeen() > mMaxMillis) {
+                it.remove();
+            }
+        }
+    }
+
+    private boolean inWindow(final WifiObservation open, final double latitude, final double longitude, final long millis) {
+        final long elapsed = millis - open.getFirstSeen();
+        return elapsed >= 0 && elapsed <= mMaxMillis
+                && distance(open.getLatitude(), open.getLongitude(), latitude, longitude) <= mMaxDistance;
+    }
+
+    /**
+     * Haversine distance
+     *
+     * @return distance in meters
+     */
+    static double distance(final double lat1, final double lon1, final double lat2, final double lon2) {
+        final double dLat = Math.toRadians(lat2 - lat1);
+        final double dLon = Math.toRadians(lon2 - lon1);
+        final double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return EARTH_RADIUS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.openbmap.services.wireless;
+
+import android.annotation.TargetApi;
+import android.location.Location;
+import android.net.wifi.ScanResult;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Harvests wifi scans which haven't been triggered by us (other apps, system scans)
+ * <p/>
+ * Uses {@link ScanResult#timestamp} (time of last sighting, microseconds since boot) to
+ * <ul>
+ * <li>skip cached results which have already been processed or are too old</li>
+ * <li>match each result to the recorded position closest in time</li>
+ * </ul>
+ * Requires API 17 (JELLY_BEAN_MR1), both for ScanResult.timestamp and Location.getElapsedRealtimeNanos
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+public class PassiveScanHarvester {
+
+    private static final String TAG = PassiveScanHarvester.class.getSimpleName();
+
+    /**
+     * Number of recent positions kept for matching
+     */
+    private static final int HISTORY_SIZE = 30;
+
+    /**
+     * Results older than this are ignored (in microseconds)
+     */
+    private static final long MAX_RESULT_AGE = 15 * 1000 * 1000L;
+
+    /**
+     * Max. time between result and matched position (in microseconds)
+     */
+    private static final long MAX_POSITION_GAP = 2 * 1000 * 1000L;
+
+    /**
+     * Recent positions as ring buffer: mNext is the slot overwritten next (i.e. the oldest entry once full),
+     * so array order is not chronological
+     */
+    private final Location[] mPositions = new Location[HISTORY_SIZE];
+    private final String[] mProviders = new String[HISTORY_SIZE];
+    private int mNext = 0;
+    private int mCount = 0;
+
+    /**
+     * Newest result timestamp already processed (in microseconds since boot)
+     */
+    private long mSeenUntil = 0;
+
+    /*
+     * Metrics
+     */
+    private long mHarvestedScans;
+    private long mHarvestedResults;
+    private long mDuplicates;
+    private long mUnmatched;
+
+    /**
+     * Positions matched to a group of scan results
+     */
+    public static class Match {
+        public final Location location;
+        public final String provider;
+        public final List<ScanResult> results = new ArrayList<>();
+
+        Match(final Location location, final String provider) {
+            this.location = location;
+            this.provider = provider;
+        }
+    }
+
+    /**
+     * Records position for later matching
+     *
+     * @param location position
+     * @param provider position provider's name
+     */
+    public final void addPosition(final Location location, final String provider) {
+        mPositions[mNext] = location;
+        mProviders[mNext] = provider;
+        mNext = (mNext + 1) % HISTORY_SIZE;
+        mCount = Math.min(mCount + 1, HISTORY_SIZE);
+    }
+
+    /**
+     * Marks results as processed (e.g. results of our own scans), so they aren't harvested again
+     *
+     * @param results scan results
+     */
+    public final void markSeen(final List<ScanResult> results) {
+        for (final ScanResult r : results) {
+            mSeenUntil = Math.max(mSeenUntil, r.timestamp);
+        }
+    }
+
+    /**
+     * Filters fresh results and groups them by closest position
+     *
+     * @param results scan results as returned by WifiManager
+     * @return fresh results grouped by matched position
+     */
+    public final List<Match> harvest(final List<ScanResult> results) {
+        final long now = SystemClock.elapsedRealtime() * 1000;
+        final long seenUntil = mSeenUntil;
+
+        final Map<Location, Match> matches = new LinkedHashMap<>();
+        for (final ScanResult r : results) {
+            if (r.timestamp <= seenUntil || now - r.timestamp > MAX_RESULT_AGE) {
+                mDuplicates++;
+                continue;
+            }
+
+            final int index = closest(r.timestamp);
+            if (index < 0) {
+                mUnmatched++;
+                continue;
+            }
+
+            Match match = matches.get(mPositions[index]);
+            if (match == null) {
+                match = new Match(mPositions[index], mProviders[index]);
+                matches.put(mPositions[index], match);
+            }
+            match.results.add(r);
+            mHarvestedResults++;
+        }
+        markSeen(results);
+
+        if (!matches.isEmpty()) {
+            mHarvestedScans++;
+        }
+        return new ArrayList<>(matches.values());
+    }
+
+    /**
+     * @param timestamp result timestamp in microseconds since boot
+     * @return index of position closest in time or -1 if none within {@link #MAX_POSITION_GAP}
+     */
+    private int closest(final long timestamp) {
+        int best = -1;
+        long bestGap = MAX_POSITION_GAP;
+        for (int i = 0; i < mCount; i++) {
+            final long gap = Math.abs(mPositions[i].getElapsedRealtimeNanos() / 1000 - timestamp);
+            if (gap <= bestGap) {
+                best = i;
+                bestGap = gap;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Dumps metrics to log
+     */
+    public final void logMetrics() {
+        Log.i(TAG, "Passive scan metrics: harvested " + mHarvestedScans + " scans / " + mHarvestedResults + " results"
+                + ", skipped " + mDuplicates + " duplicate or outdated"
+                + ", " + mUnmatched + " without position");
+    }
+}
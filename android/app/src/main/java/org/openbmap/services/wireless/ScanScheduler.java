@@ -0,0 +1,270 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.openbmap.services.wireless;
+
+import java.util.Locale;
+
+/**
+ * Decides when next wifi and cell scans are due, based on current speed, scan turnaround time
+ * and how much new information recent wifi scans have found.
+ * <p/>
+ * Wifi: the configured minimum wifi distance is stretched (up to {@link #MAX_WIFI_STRETCH} times)
+ * while moving slowly through areas where scans hardly find any new bssids. Stretching fades out
+ * as the distance travelled during one scan turnaround approaches the stretched distance: scans
+ * are back-to-back then anyway and every scan covers new ground.
+ * <p/>
+ * Cells: the configured minimum cell distance is kept, but the minimum time interval between two
+ * cell updates shrinks with speed, so that cell updates don't fall behind on motorways.
+ * <p/>
+ * Decisions are counted and exposed via getters for tuning.
+ */
+public class ScanScheduler {
+
+    /**
+     * Max. factor applied to configured wifi distance, if scans don't find anything new
+     */
+    static final float MAX_WIFI_STRETCH = 4f;
+
+    /**
+     * Assumed wifi scan turnaround, until first scan has been measured (in milliseconds)
+     */
+    static final long DEFAULT_TURNAROUND = 2000;
+
+    /**
+     * Min. time interval between two cell updates while moving slowly (in milliseconds)
+     */
+    static final long MAX_CELL_INTERVAL = 2000;
+
+    /**
+     * Min. time interval between two cell updates at high speed (in milliseconds)
+     */
+    static final long MIN_CELL_INTERVAL = 1000;
+
+    /**
+     * Smoothing factor for speed, novelty and turnaround averages
+     */
+    private static final float ALPHA = 0.3f;
+
+    /**
+     * Smoothed speed in m/s
+     */
+    private float mSpeed = 0f;
+
+    /**
+     * Smoothed share of new bssids per scan (0..1), optimistic start value
+     */
+    private float mNovelty = 1f;
+
+    /**
+     * Smoothed wifi scan turnaround time in milliseconds (-1: unknown)
+     */
+    private long mTurnaround = -1;
+
+    /*
+     * Decision metrics
+     */
+    private long mWifiTriggered;
+    private long mWifiSkipped;
+    private long mCellTriggered;
+    private long mCellSkipped;
+    private float mLastWifiDistance;
+    private long mLastCellInterval;
+
+    /**
+     * Updates speed estimate
+     *
+     * @param speed    reported speed in m/s, used if hasSpeed is true
+     * @param hasSpeed true, if location provider reports speed
+     * @param distance distance to previous fix in meters
+     * @param elapsed  time since previous fix in milliseconds
+     */
+    public final synchronized void onLocation(final float speed, final boolean hasSpeed, final float distance, final long elapsed) {
+        final float current;
+        if (hasSpeed) {
+            current = speed;
+        } else if (elapsed > 0) {
+            current = distance / (elapsed / 1000f);
+        } else {
+            return;
+        }
+        mSpeed = mSpeed + ALPHA * (current - mSpeed);
+    }
+
+    /**
+     * Reports time between triggering a wifi scan and receiving its results
+     *
+     * @param millis turnaround time in milliseconds
+     */
+    public final synchronized void onWifiScanTurnaround(final long millis) {
+        if (millis < 0) {
+            return;
+        }
+        mTurnaround = mTurnaround < 0 ? millis : (long) (mTurnaround + ALPHA * (millis - mTurnaround));
+    }
+
+    /**
+     * Reports result of a processed wifi scan
+     *
+     * @param total    number of wifis in scan
+     * @param newWifis number of wifis not yet known
+     */
+    public final synchronized void onWifiScanResults(final int total, final int newWifis) {
+        if (total <= 0) {
+            return;
+        }
+        mNovelty = mNovelty + ALPHA * ((float) newWifis / total - mNovelty);
+    }
+
+    /**
+     * Returns required distance between two wifi scans
+     *
+     * @param minDistance configured minimum wifi distance in meters
+     * @return distance in meters
+     */
+    public final synchronized float getWifiDistance(final float minDistance) {
+        // distance travelled while waiting for scan results
+        final float travel = mSpeed * (mTurnaround < 0 ? DEFAULT_TURNAROUND : mTurnaround) / 1000f;
+        // 0 when slow, 1 once a single scan turnaround covers the max. stretched distance
+        final float fast = minDistance > 0 ? Math.min(1f, travel / (minDistance * MAX_WIFI_STRETCH)) : 1f;
+        final float stretch = 1f + (1f - mNovelty) * (1f - fast) * (MAX_WIFI_STRETCH - 1f);
+        return minDistance * stretch;
+    }
+
+    /**
+     * Returns required time interval between two cell updates
+     *
+     * @param minDistance configured minimum cell distance in meters
+     * @return interval in milliseconds
+     */
+    public final synchronized long getCellInterval(final float minDistance) {
+        if (mSpeed <= 0) {
+            return MAX_CELL_INTERVAL;
+        }
+        // time needed to cover configured distance
+        final long interval = (long) (minDistance / mSpeed * 1000);
+        return Math.max(MIN_CELL_INTERVAL, Math.min(MAX_CELL_INTERVAL, interval));
+    }
+
+    /**
+     * Decides whether wifi scan is due
+     *
+     * @param distance    distance since last wifi scan in meters
+     * @param minDistance configured minimum wifi distance in meters
+     * @return true if scan should be triggered
+     */
+    public final synchronized boolean isWifiScanDue(final float distance, final float minDistance) {
+        mLastWifiDistance = getWifiDistance(minDistance);
+        if (distance > mLastWifiDistance) {
+            mWifiTriggered++;
+            return true;
+        }
+        mWifiSkipped++;
+        return false;
+    }
+
+    /**
+     * Decides whether cell update is due
+     *
+     * @param distance    distance since last cell update in meters
+     * @param elapsed     time since last cell update in milliseconds
+     * @param minDistance configured minimum cell distance in meters
+     * @return true if update should be triggered
+     */
+    public final synchronized boolean isCellScanDue(final float distance, final long elapsed, final float minDistance) {
+        mLastCellInterval = getCellInterval(minDistance);
+        if (distance > minDistance && elapsed > mLastCellInterval) {
+            mCellTriggered++;
+            return true;
+        }
+        mCellSkipped++;
+        return false;
+    }
+
+    /**
+     * @return smoothed speed in m/s
+     */
+    public final synchronized float getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * @return smoothed share of new bssids per wifi scan (0..1)
+     */
+    public final synchronized float getNovelty() {
+        return mNovelty;
+    }
+
+    /**
+     * @return smoothed wifi scan turnaround in milliseconds or -1 if unknown
+     */
+    public final synchronized long getTurnaround() {
+        return mTurnaround;
+    }
+
+    /**
+     * @return number of triggered wifi scans
+     */
+    public final synchronized long getWifiTriggered() {
+        return mWifiTriggered;
+    }
+
+    /**
+     * @return number of skipped wifi scans
+     */
+    public final synchronized long getWifiSkipped() {
+        return mWifiSkipped;
+    }
+
+    /**
+     * @return number of triggered cell updates
+     */
+    public final synchronized long getCellTriggered() {
+        return mCellTriggered;
+    }
+
+    /**
+     * @return number of skipped cell updates
+     */
+    public final synchronized long getCellSkipped() {
+        return mCellSkipped;
+    }
+
+    /**
+     * @return wifi distance used in last decision
+     */
+    public final synchronized float getLastWifiDistance() {
+        return mLastWifiDistance;
+    }
+
+    /**
+     * @return cell interval used in last decision
+     */
+    public final synchronized long getLastCellInterval() {
+        return mLastCellInterval;
+    }
+
+    @Override
+    public final synchronized String toString() {
+        return "speed " + String.format(Locale.US, "%.1f", mSpeed) + " m/s"
+                + ", novelty " + String.format(Locale.US, "%.2f", mNovelty)
+                + ", turnaround " + mTurnaround + " ms"
+                + ", wifi " + mWifiTriggered + " triggered / " + mWifiSkipped + " skipped (distance " + mLastWifiDistance + " m)"
+                + ", cells " + mCellTriggered + " triggered / " + mCellSkipped + " skipped (interval " + mLastCellInterval + " ms)";
+    }
+}
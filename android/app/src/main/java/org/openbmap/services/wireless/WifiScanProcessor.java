@@ -0,0 +1,444 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.openbmap.services.wireless;
+
+import android.location.Location;
+import android.net.wifi.ScanResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import org.openbmap.db.DataHelper;
+import org.openbmap.db.models.PositionRecord;
+import org.openbmap.db.models.WifiObservation;
+import org.openbmap.db.models.WifiRecord;
+import org.openbmap.db.models.WifiRecord.CatalogStatus;
+import org.openbmap.services.wireless.blacklists.BlacklistReasonType;
+import org.openbmap.services.wireless.blacklists.LocationBlackList;
+import org.openbmap.services.wireless.blacklists.SsidBlackList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes wifi scan results on a dedicated background thread
+ * <p/>
+ * Main thread only takes a snapshot of the scan results together with begin and end location and hands it
+ * over via {@link #submit(ScanJob)}. Blacklist checks, catalog lookups, record creation and persistence
+ * take place on the processing thread.
+ * <p/>
+ * Overflow semantics: at most {@link #MAX_PENDING_SCANS} scans are queued. If the queue is full,
+ * the OLDEST pending scan is dropped in favour of the new one (and counted in {@link #getDroppedCount()})
+ */
+public class WifiScanProcessor {
+
+    private static final String TAG = WifiScanProcessor.class.getSimpleName();
+
+    /**
+     * Maximum number of scans waiting to be processed
+     */
+    public static final int MAX_PENDING_SCANS = 4;
+
+    /**
+     * Time to wait for pending scans on shutdown (in milliseconds)
+     */
+    private static final long SHUTDOWN_TIMEOUT = 3000;
+
+    /**
+     * Resolves catalog status for all bssids of a scan at once
+     */
+    public interface CatalogLookup {
+        /**
+         * @param bssids bssids to check
+         * @return map bssid to catalog status
+         */
+        Map<String, CatalogStatus> checkCatalogStatus(Collection<String> bssids);
+    }
+
+    /**
+     * Receives processing results. All callbacks are delivered on the main thread
+     */
+    public interface ScanListener {
+        void onBlacklisted(String ssid, String bssid, BlacklistReasonType because);
+
+        void onFreeWifi(String ssid);
+
+        void onWifisStored(ArrayList<WifiRecord> wifis);
+    }
+
+    /**
+     * Snapshot of a single wifi scan
+     */
+    public static class ScanJob {
+        private final List<ScanResult> mResults;
+        private final Location mBegin;
+        private final String mBeginProvider;
+        private final Location mEnd;
+        private final String mEndProvider;
+        private final int mSession;
+
+        /**
+         * @param results       scan results (will be copied)
+         * @param begin         location where scan has been initiated
+         * @param beginProvider begin location's provider name
+         * @param end           location where scan results arrived
+         * @param endProvider   end location's provider name
+         * @param session       session id
+         */
+        public ScanJob(final List<ScanResult> results, final Location begin, final String beginProvider,
+                       final Location end, final String endProvider, final int session) {
+            mResults = new ArrayList<>(results);
+            mBegin = new Location(begin);
+            mBeginProvider = beginProvider;
+            mEnd = new Location(end);
+            mEndProvider = endProvider;
+            mSession = session;
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Handler mMainHandler;
+
+    private final DataHelper mDataHelper;
+
+    private final SsidBlackList mSsidBlackList;
+
+    private final LocationBlackList mLocationBlackList;
+
+    private final CatalogLookup mCatalog;
+
+    private final ScanListener mListener;
+
+    /**
+     * Merges repeated sightings, if observation collapsing is enabled (null otherwise)
+     */
+    private volatile ObservationCollapser mCollapser;
+
+    /*
+     * Metrics
+     */
+    private final AtomicLong mSubmitted = new AtomicLong();
+    private final AtomicLong mProcessed = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mCollapsed = new AtomicLong();
+    private final AtomicLong mTotalProcessingTime = new AtomicLong();
+    private final AtomicLong mLastProcessingTime = new AtomicLong();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    public WifiScanProcessor(final DataHelper dataHelper, final SsidBlackList ssidBlackList, final LocationBlackList locationBlackList,
+                             final CatalogLookup catalog, final ScanListener listener) {
+        mDataHelper = dataHelper;
+        mSsidBlackList = ssidBlackList;
+        mLocationBlackList = locationBlackList;
+        mCatalog = catalog;
+        mListener = listener;
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_SCANS),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(r, TAG);
+                    }
+                },
+                new ThreadPoolExecutor.DiscardOldestPolicy() {
+                    @Override
+                    public void rejectedExecution(final Runnable r, final ThreadPoolExecutor e) {
+                        if (e.isShutdown()) {
+                            Log.w(TAG, "Processor already shut down, dropping scan");
+                        } else {
+                            Log.w(TAG, "Scan queue full (" + MAX_PENDING_SCANS + "), dropping oldest scan");
+                        }
+                        mDropped.incrementAndGet();
+                        super.rejectedExecution(r, e);
+                    }
+                });
+    }
+
+    /**
+     * Queues scan for processing
+     * @param job scan snapshot
+     */
+    public final void submit(final ScanJob job) {
+        mSubmitted.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final long start = System.currentTimeMillis();
+                process(job);
+                final long elapsed = System.currentTimeMillis() - start;
+                mLastProcessingTime.set(elapsed);
+                mTotalProcessingTime.addAndGet(elapsed);
+                mProcessed.incrementAndGet();
+                Log.d(TAG, "Processed " + job.mResults.size() + " scan results in " + elapsed + " ms");
+            }
+        });
+
+        // high-water mark, compare-and-set as scans may be submitted concurrently
+        final int depth = mExecutor.getQueue().size();
+        int max;
+        do {
+            max = mMaxQueueDepth.get();
+        } while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth));
+    }
+
+    /**
+     * Filters scan results and persists them. Runs on processing thread
+     * @param job scan snapshot
+     */
+    private void process(final ScanJob job) {
+        // if we're in blocked area, skip everything
+        if (mLocationBlackList.contains(job.mBegin)) {
+            notifyBlacklisted(null, null, BlacklistReasonType.LocationBad);
+            return;
+        }
+
+        final ArrayList<WifiRecord> wifis = new ArrayList<>();
+        final PositionRecord begin = new PositionRecord(job.mBegin, job.mSession, job.mBeginProvider);
+        final PositionRecord end = new PositionRecord(job.mEnd, job.mSession, job.mEndProvider);
+
+        // Generates a list of wifis from scan results
+        for (final ScanResult r : job.mResults) {
+            if (mSsidBlackList.contains(r.SSID)) {
+                // skip invalid wifis
+                Log.i(TAG, "Ignored " + r.SSID + " (on ssid blacklist)");
+                notifyBlacklisted(r.SSID, r.BSSID, BlacklistReasonType.SsidBlocked);
+                continue;
+            }
+
+            if (WifiRecord.bssidToLong(r.BSSID) == WifiRecord.INVALID_BSSID) {
+                Log.w(TAG, "Ignored " + r.SSID + " (malformed bssid " + r.BSSID + ")");
+                continue;
+            }
+
+            final WifiRecord wifi = new WifiRecord();
+            wifi.setBssid(r.BSSID);
+            wifi.setSsid(r.SSID.toLowerCase(Locale.US));
+            wifi.setCapabilities(r.capabilities);
+            wifi.setFrequency(r.frequency);
+            wifi.setLevel(r.level);
+            // TODO: clumsy: implicit conversion from UTC to YYYYMMDDHHMMSS in begin.setTimestamp
+            wifi.setOpenBmapTimestamp(begin.getOpenBmapTimestamp());
+            wifi.setBeginPosition(begin);
+            wifi.setEndPosition(end);
+            wifi.setSessionId(job.mSession);
+            wifis.add(wifi);
+
+            if (wifi.isFree()) {
+                Log.i(TAG, "Found free wifi, broadcasting");
+                notifyFree(r.SSID);
+            }
+        }
+
+        // resolve catalog status for whole scan in one go
+        final ArrayList<String> bssids = new ArrayList<>(wifis.size());
+        for (final WifiRecord wifi : wifis) {
+            bssids.add(wifi.getBssid());
+        }
+        final Map<String, CatalogStatus> status = mCatalog.checkCatalogStatus(bssids);
+        for (final WifiRecord wifi : wifis) {
+            final CatalogStatus known = status.get(wifi.getBssid());
+            wifi.setCatalogStatus(known != null ? known : CatalogStatus.NEW);
+        }
+
+        final ObservationCollapser collapser = mCollapser;
+        if (collapser == null) {
+            mDataHelper.storeWifiScanResults(begin, end, wifis);
+        } else {
+            storeCollapsed(collapser, begin, end, wifis);
+        }
+
+        if (wifis.size() > 0) {
+            notifyStored(wifis);
+        }
+    }
+
+    /**
+     * Merges sightings into open observation windows, remaining wifis are stored as new records
+     */
+    private void storeCollapsed(final ObservationCollapser collapser, final PositionRecord begin, final PositionRecord end,
+                                final ArrayList<WifiRecord> wifis) {
+        final ArrayList<WifiRecord> fresh = new ArrayList<>();
+        final ArrayList<WifiObservation> merged = new ArrayList<>();
+        for (final WifiRecord wifi : wifis) {
+            final WifiObservation observation = collapser.merge(wifi.getBssid(),
+                    begin.getLatitude(), begin.getLongitude(), begin.getMillisTimestamp(), wifi.getLevel());
+            if (observation == null) {
+                fresh.add(wifi);
+            } else if (!merged.contains(observation)) {
+                merged.add(observation);
+            }
+        }
+
+        // positions are only stored, if at least one new wifi record references them
+        mDataHelper.storeWifiScanResults(begin, end, fresh);
+        for (final WifiRecord wifi : fresh) {
+            collapser.open(wifi.getBssid(), wifi.getSessionId(),
+                    begin.getLatitude(), begin.getLongitude(), begin.getMillisTimestamp(), wifi.getLevel());
+        }
+        mDataHelper.updateWifiObservations(merged);
+        mCollapsed.addAndGet(wifis.size() - fresh.size());
+    }
+
+    /**
+     * Enables or disables observation collapsing for subsequent scans
+     * @param collapser collapser or null to disable
+     */
+    public final void setCollapser(final ObservationCollapser collapser) {
+        mCollapser = collapser;
+    }
+
+    private void notifyBlacklisted(final String ssid, final String bssid, final BlacklistReasonType because) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onBlacklisted(ssid, bssid, because);
+            }
+        });
+    }
+
+    private void notifyFree(final String ssid) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onFreeWifi(ssid);
+            }
+        });
+    }
+
+    private void notifyStored(final ArrayList<WifiRecord> wifis) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onWifisStored(wifis);
+            }
+        });
+    }
+
+    /**
+     * Stops accepting new scans and waits (a limited time) until pending scans are persisted
+     */
+    public final void shutdown() {
+        mExecutor.shutdown();
+        try {
+            if (!mExecutor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Pending scans not finished after " + SHUTDOWN_TIMEOUT + " ms, cancelling");
+                cancelPending();
+            }
+        } catch (final InterruptedException e) {
+            cancelPending();
+            Thread.currentThread().interrupt();
+        }
+        logMetrics();
+    }
+
+    /**
+     * Cancels scans still waiting for processing, which are counted as dropped
+     */
+    private void cancelPending() {
+        final int cancelled = mExecutor.shutdownNow().size();
+        if (cancelled > 0) {
+            mDropped.addAndGet(cancelled);
+            Log.w(TAG, "Dropped " + cancelled + " pending scans on shutdown");
+        }
+    }
+
+    /**
+     * @return number of scans currently waiting for processing
+     */
+    public final int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * @return highest number of scans waiting for processing so far
+     */
+    public final int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return number of scans handed over to processor
+     */
+    public final long getSubmittedCount() {
+        return mSubmitted.get();
+    }
+
+    /**
+     * @return number of scans processed
+     */
+    public final long getProcessedCount() {
+        return mProcessed.get();
+    }
+
+    /**
+     * @return number of scans dropped due to queue overflow or shutdown
+     */
+    public final long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return number of sightings merged into existing wifi records
+     */
+    public final long getCollapsedCount() {
+        return mCollapsed.get();
+    }
+
+    /**
+     * @return processing time of last scan in milliseconds
+     */
+    public final long getLastProcessingTime() {
+        return mLastProcessingTime.get();
+    }
+
+    /**
+     * @return average processing time per scan in milliseconds
+     */
+    public final long getAverageProcessingTime() {
+        final long processed = mProcessed.get();
+        return processed > 0 ? mTotalProcessingTime.get() / processed : 0;
+    }
+
+    /**
+     * Dumps metrics to log
+     */
+    public final void logMetrics() {
+        Log.i(TAG, "Scan processing metrics: submitted " + getSubmittedCount()
+                + ", processed " + getProcessedCount()
+                + ", dropped " + getDroppedCount()
+                + ", collapsed " + getCollapsedCount() + " sightings"
+                + ", queue depth " + getQueueDepth() + " (max " + getMaxQueueDepth() + ")"
+                + ", avg " + getAverageProcessingTime() + " ms"
+                + ", last " + getLastProcessingTime() + " ms");
+    }
+}
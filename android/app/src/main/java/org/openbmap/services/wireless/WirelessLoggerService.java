@@ -35,6 +35,8 @@ import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WifiManager.WifiLock;
 import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -61,7 +63,9 @@ import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.openbmap.Preferences;
 import org.openbmap.RadioBeacon;
+import org.openbmap.db.CatalogIndex;
 import org.openbmap.db.DataHelper;
+import org.openbmap.db.ScanWriteBuffer;
 import org.openbmap.db.models.CellRecord;
 import org.openbmap.db.models.LogFile;
 import org.openbmap.db.models.PositionRecord;
@@ -81,9 +85,11 @@ import org.openbmap.utils.GeometryUtils;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 
 import static android.os.Build.VERSION.SDK_INT;
 import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR1;
@@ -107,12 +113,6 @@ public class WirelessLoggerService extends AbstractService {
      */
     private SharedPreferences prefs = null;
 
-    /*
-     * minimum time interval between two cells update in milliseconds
-     */
-    // TODO: move to preferences
-    protected static final long MIN_CELL_TIME_INTERVAL = 2000;
-
     /**
      * in demo mode wifis and cells are recorded continuously, regardless of minimum wifi distance set
      * ALWAYS set DEMO_MODE to false in production release
@@ -197,6 +197,21 @@ public class WirelessLoggerService extends AbstractService {
      */
     private WifiScanCallback mWifiScanResults;
 
+    /**
+     * Time when last wifi scan has been triggered (elapsed realtime in millis)
+     */
+    private long mWifiScanStartedAt;
+
+    /**
+     * Decides when next wifi and cell scans are due
+     */
+    private ScanScheduler mScheduler = new ScanScheduler();
+
+    /**
+     * Collects wifi scans triggered by other apps
+     */
+    private PassiveScanHarvester mHarvester = new PassiveScanHarvester();
+
     /**
      * WifiLock to prevent wifi from going into sleep mode
      */
@@ -214,6 +229,11 @@ public class WirelessLoggerService extends AbstractService {
      */
     private static final int INVALID_VALUE = -1;
 
+    /**
+     * Max. number of bssids per catalog query (SQLite supports up to 999 host parameters)
+     */
+    private static final int MAX_CATALOG_QUERY_ARGS = 500;
+
     /*
      * DataHelper for persisting recorded information in database
      */
@@ -237,6 +257,32 @@ public class WirelessLoggerService extends AbstractService {
      */
     private SQLiteDatabase mRefDb;
 
+    /**
+     * Compiled bssid index of wifi catalog (null if not (yet) available)
+     */
+    private volatile CatalogIndex mCatalogIndex;
+
+    /**
+     * Wifi catalog file, null if no catalog is used
+     */
+    private volatile File mCatalogFile;
+
+    /**
+     * Catalog path selected in preferences at last (re-)open, null if none, see {@link #refreshCatalog()}
+     */
+    private String mCatalogPath;
+
+    /**
+     * Modification times of catalog and index at last (re-)open, see {@link #catalogIndex()}
+     */
+    private long mCatalogModified;
+    private long mIndexModified;
+
+    /**
+     * Filters and persists wifi scan results in background
+     */
+    private WifiScanProcessor mScanProcessor;
+
     /**
      * Receives location updates as well as wifi scan result updates
      */
@@ -252,6 +298,9 @@ public class WirelessLoggerService extends AbstractService {
                 // scan callback can be null after service has been stopped or another app has requested an update
                 if (mWifiScanResults != null) {
                     mWifiScanResults.onWifiResultsAvailable();
+                } else if (mIsTracking) {
+                    // not triggered by us, but maybe still worth saving
+                    harvestPassiveScan();
                 } else {
                     Log.i(TAG, "Scan Callback is null, skipping message");
                 }
@@ -267,25 +316,7 @@ public class WirelessLoggerService extends AbstractService {
         // get shared preferences
         prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
-        if (!prefs.getString(Preferences.KEY_CATALOG_FILE, Preferences.VAL_CATALOG_FILE).equals(Preferences.VAL_CATALOG_NONE)) {
-            final String catalogPath = prefs.getString(Preferences.KEY_WIFI_CATALOG_FOLDER,
-                    getApplicationContext().getExternalFilesDir(null).getAbsolutePath() + File.separator + Preferences.CATALOG_SUBDIR)
-                    + File.separator + prefs.getString(Preferences.KEY_CATALOG_FILE, Preferences.VAL_CATALOG_FILE);
-
-            if (!(new File(catalogPath)).exists()) {
-                Log.w(TAG, "Selected catalog doesn't exist");
-                mRefDb = null;
-            } else {
-                try {
-                    mRefDb = SQLiteDatabase.openDatabase(catalogPath, null, SQLiteDatabase.OPEN_READONLY);
-                } catch (final SQLiteCantOpenDatabaseException ex) {
-                    Log.e(TAG, "Can't open wifi catalog database @ " + catalogPath);
-                    mRefDb = null;
-                }
-            }
-        } else {
-            Log.w(TAG, "No wifi catalog selected. Can't compare scan results with openbmap dataset.");
-        }
+        openCatalog(catalogPath());
 
 		/*
          * Setting up database connection
@@ -299,6 +330,154 @@ public class WirelessLoggerService extends AbstractService {
         registerWifiManager();
 
         initBlacklists();
+
+        mScanProcessor = new WifiScanProcessor(mDataHelper, mSsidBlackList, mLocationBlacklist,
+                new WifiScanProcessor.CatalogLookup() {
+                    @Override
+                    public Map<String, CatalogStatus> checkCatalogStatus(final Collection<String> bssids) {
+                        return WirelessLoggerService.this.checkCatalogStatus(bssids);
+                    }
+                },
+                new WifiScanProcessor.ScanListener() {
+                    @Override
+                    public void onBlacklisted(final String ssid, final String bssid, final BlacklistReasonType because) {
+                        broadcastBlacklisted(ssid, bssid, because);
+                    }
+
+                    @Override
+                    public void onFreeWifi(final String ssid) {
+                        broadcastFree(ssid);
+                    }
+
+                    @Override
+                    public void onWifisStored(final ArrayList<WifiRecord> wifis) {
+                        int newWifis = 0;
+                        for (final WifiRecord wifi : wifis) {
+                            if (wifi.getCatalogStatus() == CatalogStatus.NEW) {
+                                newWifis++;
+                            }
+                        }
+                        mScheduler.onWifiScanResults(wifis.size(), newWifis);
+
+                        // take last seen wifi and broadcast infos in ui
+                        broadcastWifiInfos(wifis);
+                    }
+                });
+    }
+
+    /**
+     * Resolves wifi catalog path from preferences
+     *
+     * @return catalog path or null, if no catalog is selected
+     */
+    private String catalogPath() {
+        final String file = prefs.getString(Preferences.KEY_CATALOG_FILE, Preferences.VAL_CATALOG_FILE);
+        if (file.equals(Preferences.VAL_CATALOG_NONE)) {
+            return null;
+        }
+        return prefs.getString(Preferences.KEY_WIFI_CATALOG_FOLDER,
+                getApplicationContext().getExternalFilesDir(null).getAbsolutePath() + File.separator + Preferences.CATALOG_SUBDIR)
+                + File.separator + file;
+    }
+
+    /**
+     * (Re-)opens wifi catalog and its index, if another catalog has been selected in preferences meanwhile.
+     * Called before each catalog lookup, as catalog may be changed while service is running
+     */
+    private synchronized void refreshCatalog() {
+        final String path = catalogPath();
+        if (path == null ? mCatalogPath != null : !path.equals(mCatalogPath)) {
+            Log.i(TAG, "Wifi catalog changed to " + path);
+            openCatalog(path);
+        }
+    }
+
+    /**
+     * Closes current wifi catalog and opens given one
+     *
+     * @param path catalog path, null if no catalog is selected
+     */
+    private synchronized void openCatalog(final String path) {
+        closeCatalog();
+        mCatalogPath = path;
+        if (path == null) {
+            Log.w(TAG, "No wifi catalog selected. Can't compare scan results with openbmap dataset.");
+            return;
+        }
+        if (!(new File(path)).exists()) {
+            Log.w(TAG, "Selected catalog doesn't exist");
+            return;
+        }
+        try {
+            mRefDb = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+        } catch (final SQLiteCantOpenDatabaseException ex) {
+            Log.e(TAG, "Can't open wifi catalog database @ " + path);
+            mRefDb = null;
+            return;
+        }
+        openCatalogIndex(new File(path));
+    }
+
+    /**
+     * Closes wifi catalog and drops its index
+     */
+    private synchronized void closeCatalog() {
+        if (mRefDb != null && mRefDb.isOpen()) {
+            mRefDb.close();
+        }
+        mRefDb = null;
+        mCatalogFile = null;
+        mCatalogIndex = null;
+        mCatalogModified = 0;
+        mIndexModified = 0;
+    }
+
+    /**
+     * Opens compiled bssid index for catalog. If index is missing or outdated (e.g. catalog has changed),
+     * it's rebuilt in background. Until then catalog lookups fall back to SQL queries
+     *
+     * @param catalog catalog database file
+     */
+    private void openCatalogIndex(final File catalog) {
+        mCatalogFile = catalog;
+        if (catalogIndex() != null) {
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                // picked up by next lookup, as index file has changed
+                CatalogIndex.build(catalog);
+            }
+        }, "CatalogIndexBuilder").start();
+    }
+
+    /**
+     * Returns current catalog index. Index is reopened, once catalog or index file has changed
+     * (e.g. {@link org.openbmap.utils.CatalogUpdater} has added new wifis and rebuilt the index).
+     * While index is outdated, null is returned and lookups fall back to SQL queries
+     *
+     * @return index or null
+     */
+    private synchronized CatalogIndex catalogIndex() {
+        final File catalog = mCatalogFile;
+        if (catalog == null) {
+            return null;
+        }
+
+        final long catalogModified = catalog.lastModified();
+        final long indexModified = CatalogIndex.indexFileFor(catalog).lastModified();
+        if (catalogModified != mCatalogModified || indexModified != mIndexModified) {
+            mCatalogModified = catalogModified;
+            mIndexModified = indexModified;
+            mCatalogIndex = CatalogIndex.open(catalog);
+            if (mCatalogIndex != null) {
+                Log.i(TAG, "Using catalog index (" + mCatalogIndex.size() + " bssids)");
+            }
+        }
+        return mCatalogIndex;
     }
 
     /**
@@ -494,9 +673,13 @@ public class WirelessLoggerService extends AbstractService {
         unregisterWakeLocks();
         unregisterReceivers();
 
-        if (mRefDb != null && mRefDb.isOpen()) {
-            mRefDb.close();
+        // persist pending scans before closing catalog and before process may die (bounded wait)
+        if (mScanProcessor != null) {
+            mScanProcessor.shutdown();
         }
+        ScanWriteBuffer.getInstance(this).flush();
+
+        closeCatalog();
 
         super.onDestroy();
     }
@@ -525,6 +708,7 @@ public class WirelessLoggerService extends AbstractService {
         if (!pendingWifiScanResults) {
             Log.d(TAG, "Initiated Wifi scan. Waiting for results..");
             mWifiManager.startScan();
+            mWifiScanStartedAt = SystemClock.elapsedRealtime();
             pendingWifiScanResults = true;
 
             // initialize wifi scan callback if needed
@@ -541,8 +725,12 @@ public class WirelessLoggerService extends AbstractService {
 
                         if (pendingWifiScanResults) {
                             Log.d(TAG, "Wifi scan results arrived..");
+                            mScheduler.onWifiScanTurnaround(SystemClock.elapsedRealtime() - mWifiScanStartedAt);
                             final List<ScanResult> scanlist = mWifiManager.getScanResults();
                             if (scanlist != null) {
+                                if (SDK_INT >= JELLY_BEAN_MR1) {
+                                    mHarvester.markSeen(scanlist);
+                                }
 
                                 // Common position for all scan result wifis
                                 if (!GeometryUtils.isValidLocation(mBeginLocation) || !GeometryUtils.isValidLocation(mMostCurrentLocation)) {
@@ -550,61 +738,12 @@ public class WirelessLoggerService extends AbstractService {
                                     return;
                                 }
 
-                                // if we're in blocked area, skip everything
-                                // set mWifiSavedAt nevertheless, so next scan can be scheduled properly
-                                if (mLocationBlacklist.contains(mBeginLocation)) {
-                                    mWifiSavedAt = mBeginLocation;
-                                    broadcastBlacklisted(null, null, BlacklistReasonType.LocationBad);
-                                    return;
-                                }
-
-                                final ArrayList<WifiRecord> wifis = new ArrayList<>();
-                                final PositionRecord begin = new PositionRecord(mBeginLocation, mSessionId, mBeginLocationProvider);
-                                final PositionRecord end = new PositionRecord(mMostCurrentLocation, mSessionId, mMostCurrentLocationProvider);
-
-                                // Generates a list of wifis from scan results
-                                for (final ScanResult r : scanlist) {
-                                    boolean skipThis = false;
-                                    if (mSsidBlackList.contains(r.SSID)) {
-                                        // skip invalid wifis
-                                        Log.i(TAG, "Ignored " + r.SSID + " (on ssid blacklist)");
-                                        broadcastBlacklisted(r.SSID, r.BSSID, BlacklistReasonType.SsidBlocked);
-                                        skipThis = true;
-                                    } else {
-                                        Log.v(TAG, "Wifi not ssid blocked");
-                                    }
-
-                                    if (!skipThis) {
-                                        //Log.i(TAG, "Serializing wifi");
-                                        final WifiRecord wifi = new WifiRecord();
-                                        wifi.setBssid(r.BSSID);
-                                        wifi.setSsid(r.SSID.toLowerCase(Locale.US));
-                                        wifi.setCapabilities(r.capabilities);
-                                        wifi.setFrequency(r.frequency);
-                                        wifi.setLevel(r.level);
-                                        // TODO: clumsy: implicit conversion from UTC to YYYYMMDDHHMMSS in begin.setTimestamp
-                                        wifi.setOpenBmapTimestamp(begin.getOpenBmapTimestamp());
-                                        wifi.setBeginPosition(begin);
-                                        wifi.setEndPosition(end);
-                                        wifi.setSessionId(mSessionId);
-                                        //wifi.setNew(checkIsNew(r.BSSID));
-                                        Log.i(TAG, "Checking catalog status");
-                                        wifi.setCatalogStatus(checkCatalogStatus(r.BSSID));
-                                        wifis.add(wifi);
-                                        if (wifi.isFree()) {
-                                            Log.i(TAG, "Found free wifi, broadcasting");
-                                            broadcastFree(r.SSID);
-                                        }
-
-                                    }
-                                }
-                                // Log.i(TAG, "Saving wifis");
-                                mDataHelper.storeWifiScanResults(begin, end, wifis);
-
-                                // take last seen wifi and broadcast infos in ui
-                                if (wifis.size() > 0) {
-                                    broadcastWifiInfos(wifis);
-                                }
+                                // filtering and persisting is done by scan processor in background,
+                                // set mWifiSavedAt already, so next scan can be scheduled properly
+                                mScanProcessor.submit(new WifiScanProcessor.ScanJob(scanlist,
+                                        mBeginLocation, mBeginLocationProvider,
+                                        mMostCurrentLocation, mMostCurrentLocationProvider,
+                                        mSessionId));
 
                                 mWifiSavedAt = mBeginLocation;
                             } else {
@@ -612,6 +751,8 @@ public class WirelessLoggerService extends AbstractService {
                                 Log.e(TAG, "WifiManager.getScanResults returned null");
                             }
                             pendingWifiScanResults = false;
+                        } else {
+                            harvestPassiveScan();
                         }
                     }
                 };
@@ -619,6 +760,37 @@ public class WirelessLoggerService extends AbstractService {
         }
     }
 
+    /**
+     * Saves fresh results of wifi scans we haven't triggered ourselves (if enabled in settings)
+     * Each result is saved at the recorded position closest to its timestamp
+     */
+    private void harvestPassiveScan() {
+        if (SDK_INT < JELLY_BEAN_MR1
+                || !prefs.getBoolean(Preferences.KEY_LOG_WIFIS, Preferences.VAL_SAVE_WIFIS)
+                || !prefs.getBoolean(Preferences.KEY_PASSIVE_WIFIS, Preferences.VAL_PASSIVE_WIFIS)) {
+            return;
+        }
+
+        final List<ScanResult> scanlist = mWifiManager.getScanResults();
+        if (scanlist == null) {
+            Log.e(TAG, "WifiManager.getScanResults returned null");
+            return;
+        }
+
+        for (final PassiveScanHarvester.Match match : mHarvester.harvest(scanlist)) {
+            Log.d(TAG, "Harvested " + match.results.size() + " wifis from foreign scan");
+            mScanProcessor.submit(new WifiScanProcessor.ScanJob(match.results,
+                    match.location, match.provider,
+                    match.location, match.provider,
+                    mSessionId));
+
+            // fresh wifi data available for this position, so postpone own scan
+            if (match.location.getTime() > mWifiSavedAt.getTime()) {
+                mWifiSavedAt = match.location;
+            }
+        }
+    }
+
     /**
      * Broadcasts human-readable description of last wifi.
      */
@@ -1408,6 +1580,9 @@ public class WirelessLoggerService extends AbstractService {
         Log.d(TAG, "Start tracking on session " + sessionId);
         mIsTracking = true;
         mSessionId = sessionId;
+        mScheduler = new ScanScheduler();
+        mHarvester = new PassiveScanHarvester();
+        mScanProcessor.setCollapser(createCollapser());
         // invalidate current wifi scans
         pendingWifiScanResults = false;
 
@@ -1421,6 +1596,25 @@ public class WirelessLoggerService extends AbstractService {
         mDataHelper.storeLogFile(mLogFile, sessionId);
     }
 
+    /**
+     * Creates observation collapser according to settings
+     *
+     * @return collapser or null if observation collapsing is disabled
+     */
+    private ObservationCollapser createCollapser() {
+        if (!prefs.getBoolean(Preferences.KEY_COLLAPSE_WIFIS, Preferences.VAL_COLLAPSE_WIFIS)) {
+            return null;
+        }
+        try {
+            final float distance = Float.parseFloat(prefs.getString(Preferences.KEY_COLLAPSE_DISTANCE, Preferences.VAL_COLLAPSE_DISTANCE));
+            final long seconds = Long.parseLong(prefs.getString(Preferences.KEY_COLLAPSE_TIME, Preferences.VAL_COLLAPSE_TIME));
+            return new ObservationCollapser(distance, seconds * 1000);
+        } catch (final NumberFormatException e) {
+            Log.e(TAG, "Invalid observation collapsing settings, disabling");
+            return null;
+        }
+    }
+
     /**
      * Stops wireless Logging
      */
@@ -1430,6 +1624,12 @@ public class WirelessLoggerService extends AbstractService {
         mSessionId = RadioBeacon.SESSION_NOT_TRACKING;
         mWifiScanResults = null;
         mLogFile = null;
+        if (mScanProcessor != null) {
+            mScanProcessor.logMetrics();
+        }
+        Log.i(TAG, "Scan scheduler metrics: " + mScheduler);
+        mHarvester.logMetrics();
+        ScanWriteBuffer.getInstance(this).logMetrics();
     }
 
     /**
@@ -1461,6 +1661,8 @@ public class WirelessLoggerService extends AbstractService {
     public void onEvent(onStopTracking event) {
         Log.d(TAG, "ACK StopTrackingEvent event");
         stopTracking();
+        // buffered scans are committed before service stops (bounded wait)
+        ScanWriteBuffer.getInstance(this).flush();
         // before manager stopped the service
         this.stopSelf();
     }
@@ -1481,10 +1683,19 @@ public class WirelessLoggerService extends AbstractService {
             return;
         }
 
+        if (SDK_INT >= JELLY_BEAN_MR1) {
+            mHarvester.addPosition(location, source);
+        }
+
+        if (mMostCurrentLocation.getTime() > 0) {
+            mScheduler.onLocation(location.getSpeed(), location.hasSpeed(),
+                    location.distanceTo(mMostCurrentLocation), location.getTime() - mMostCurrentLocation.getTime());
+        }
+
 				/*
 				 * two criteria are required for cells updates
 				 * 		distance > MIN_CELL_DISTANCE
-				 * 		elapsed time (in milli seconds) > MIN_CELL_TIME_INTERVAL
+				 * 		elapsed time (in milli seconds) > speed-dependent interval (@see ScanScheduler)
 				 */
         if (acceptableCellDistance(location, mCellSavedAt)) {
             Log.d(TAG, "Cell update. Distance " + location.distanceTo(mCellSavedAt));
@@ -1495,12 +1706,13 @@ public class WirelessLoggerService extends AbstractService {
                 mCellSavedAt = location;
             }
         } else {
-            Log.i(TAG, "Cell update skipped: either to close to last location or interval < " + MIN_CELL_TIME_INTERVAL / 2000 + " seconds");
+            Log.i(TAG, "Cell update skipped: either to close to last location or interval < " + mScheduler.getLastCellInterval() + " ms");
         }
 
 				/*
 				 * required criteria for wifi updates
-				 * 		distance to last cell measurement > MIN_WIFI_DISTANCE
+				 * 		distance to last wifi scan > MIN_WIFI_DISTANCE, stretched by ScanScheduler
+				 * 		when moving slowly and scans find few new wifis
 				 * when in demo mode wifi updates take place regardless of MIN_WIFI_DISTANCE
 				 */
         if (acceptableWifiDistance(location, mWifiSavedAt)) {
@@ -1509,7 +1721,7 @@ public class WirelessLoggerService extends AbstractService {
             mBeginLocationProvider = source;
             performWifiUpdate();
         } else {
-            Log.i(TAG, "Wifi update skipped: either to close to last location or interval < " + MIN_CELL_TIME_INTERVAL / 2000 + " seconds");
+            Log.i(TAG, "Wifi update skipped: distance to last scan < " + mScheduler.getLastWifiDistance() + " m");
         }
 
         mMostCurrentLocation = location;
@@ -1517,49 +1729,75 @@ public class WirelessLoggerService extends AbstractService {
     }
 
     /**
-     * Checks, whether bssid exists in wifi catalog.
+     * Checks, whether bssids exist in wifi catalog.
+     * Whole scan is resolved with as few queries as possible (chunked IN list)
      *
-     * @param bssid
-     * @return Returns
+     * @param bssids bssids to check
+     * @return map bssid (as passed) to catalog status. Bssids not found in catalog are mapped to {@link CatalogStatus#NEW}
      */
-    @SuppressLint("DefaultLocale")
-    private CatalogStatus checkCatalogStatus(final String bssid) {
+    private Map<String, CatalogStatus> checkCatalogStatus(final Collection<String> bssids) {
+        final Map<String, CatalogStatus> result = new HashMap<>(bssids.size());
+
+        // catalog uses upper case bssids without colons
+        final Map<String, String> keys = new HashMap<>(bssids.size());
+        for (final String bssid : bssids) {
+            result.put(bssid, CatalogStatus.NEW);
+            keys.put(WifiRecord.bssidToHex(WifiRecord.bssidToLong(bssid)), bssid);
+        }
 
-        // default: return true, if ref database n/a
+        // catalog may have been changed in preferences meanwhile
+        refreshCatalog();
+
+        // default: all new, if ref database n/a
         if (mRefDb == null) {
             Log.e(TAG, "Reference database not specified");
-            return CatalogStatus.NEW;
+            return result;
+        }
+
+        // prefer compiled index, no need to touch SQLite then
+        final CatalogIndex index = catalogIndex();
+        if (index != null) {
+            for (final String bssid : bssids) {
+                final int source = index.lookup(bssid);
+                if (source != CatalogIndex.NOT_FOUND) {
+                    result.put(bssid, source == CatalogStatus.OPENBMAP.ordinal() ? CatalogStatus.OPENBMAP : CatalogStatus.LOCAL);
+                }
+            }
+            return result;
         }
 
+        final List<String> pending = new ArrayList<>(keys.keySet());
         try {
-			/*
-			 * Caution:
-			 * 		Requires wifi catalog's bssid in LOWER CASE. Otherwise no records are returned
-			 *
-			 *		If wifi catalog's bssid aren't in LOWER case, consider SELECT bssid FROM wifi_zone WHERE LOWER(bssid) = ?
-			 *		Drawback: can't use indices then
-			 */
-            final Cursor exists = mRefDb.rawQuery("SELECT bssid, source FROM wifi_zone WHERE bssid = ?", new String[]{bssid.replace(":", "").toUpperCase()});
-            if (exists.moveToFirst()) {
-                final int source = exists.getInt(1);
-                exists.close();
-                if (source == CatalogStatus.OPENBMAP.ordinal()) {
-                    Log.i(TAG, bssid + " is in openbmap reference database");
-                    return CatalogStatus.OPENBMAP;
-                } else {
-                    Log.i(TAG, bssid + " is in local reference database");
-                    return CatalogStatus.LOCAL;
+            for (int i = 0; i < pending.size(); i += MAX_CATALOG_QUERY_ARGS) {
+                final List<String> chunk = pending.subList(i, Math.min(i + MAX_CATALOG_QUERY_ARGS, pending.size()));
+
+                final StringBuilder sql = new StringBuilder("SELECT bssid, source FROM wifi_zone WHERE bssid IN (");
+                for (int j = 0; j < chunk.size(); j++) {
+                    sql.append(j == 0 ? "?" : ",?");
+                }
+                sql.append(")");
+
+                final Cursor exists = mRefDb.rawQuery(sql.toString(), chunk.toArray(new String[chunk.size()]));
+                try {
+                    while (exists.moveToNext()) {
+                        final String bssid = keys.get(exists.getString(0));
+                        if (bssid == null) {
+                            continue;
+                        }
+                        if (exists.getInt(1) == CatalogStatus.OPENBMAP.ordinal()) {
+                            result.put(bssid, CatalogStatus.OPENBMAP);
+                        } else {
+                            result.put(bssid, CatalogStatus.LOCAL);
+                        }
+                    }
+                } finally {
+                    exists.close();
                 }
-            } else {
-                Log.i(TAG, bssid + " is NOT in reference database");
-                exists.close();
-                //mRefdb.close();
-                return CatalogStatus.NEW;
             }
         } catch (final SQLiteException e) {
             Log.e(TAG, "Couldn't open reference database");
-            return CatalogStatus.NEW;
         }
+        return result;
     }
 
     /**
@@ -1575,6 +1813,7 @@ public class WirelessLoggerService extends AbstractService {
 
     /**
      * Ensures that there is a minimum distance and minimum time delay between two cell updates.
+     * Time delay depends on current speed (@see ScanScheduler)
      * If in DEMO_MODE this behaviour is overridden and cell updates are triggered as fast as possible
      *
      * @param current current position
@@ -1582,13 +1821,14 @@ public class WirelessLoggerService extends AbstractService {
      * @return true if distance and time since last cell update are ok or if in demo mode
      */
     private boolean acceptableCellDistance(final Location current, final Location last) {
-        return (current.distanceTo(last) > Float.parseFloat(
-                prefs.getString(Preferences.KEY_MIN_CELL_DISTANCE, Preferences.VAL_MIN_CELL_DISTANCE))
-                && (current.getTime() - last.getTime() > MIN_CELL_TIME_INTERVAL) || DEMO_MODE);
+        return (mScheduler.isCellScanDue(current.distanceTo(last), current.getTime() - last.getTime(),
+                Float.parseFloat(prefs.getString(Preferences.KEY_MIN_CELL_DISTANCE, Preferences.VAL_MIN_CELL_DISTANCE)))
+                || DEMO_MODE);
     }
 
     /**
      * Ensures that cell there is a minimum distance between two wifi scans.
+     * Minimum distance is adapted to speed and scan results (@see ScanScheduler)
      * If in DEMO_MODE this behaviour is overridden and wifi scans are triggered as fast as possible
      *
      * @param current current position
@@ -1596,8 +1836,8 @@ public class WirelessLoggerService extends AbstractService {
      * @return true if distance and time since last cell update are ok or if in demo mode
      */
     private boolean acceptableWifiDistance(final Location current, final Location last) {
-        return (current.distanceTo(last) > Float.parseFloat(
-                prefs.getString(Preferences.KEY_MIN_WIFI_DISTANCE, Preferences.VAL_MIN_WIFI_DISTANCE))
+        return (mScheduler.isWifiScanDue(current.distanceTo(last),
+                Float.parseFloat(prefs.getString(Preferences.KEY_MIN_WIFI_DISTANCE, Preferences.VAL_MIN_WIFI_DISTANCE)))
                 || DEMO_MODE);
     }
 }
@@ -0,0 +1,118 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.services.wireless.blacklists;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Fixed-degree grid bucketing items by their bounding box
+ * Each item is registered in every cell its bounding box touches, so a lookup only has to
+ * inspect the items of a single cell. Items covering too many cells (huge radius, antimeridian)
+ * are kept in a separate list which is always returned as well.
+ * @param <T> item type
+ */
+class GeoGrid<T> {
+
+	/**
+	 * Grid cell size in degrees (approx. 1.1 km in latitude)
+	 */
+	static final double CELL_DEGREES = 0.01;
+
+	/**
+	 * Items spanning more cells are not bucketed
+	 */
+	private static final int MAX_CELLS_PER_ITEM = 400;
+
+	/**
+	 * Number of longitude cells, used for packing cell coordinates into a single key
+	 */
+	private static final long LON_CELLS = (long) Math.ceil(360 / CELL_DEGREES) + 1;
+
+	private final HashMap<Long, ArrayList<T>> mCells = new HashMap<>();
+
+	private final ArrayList<T> mUnbucketed = new ArrayList<>();
+
+	private int mSize;
+
+	/**
+	 * Adds item covering given bounding box
+	 */
+	final void add(final double minLat, final double maxLat, final double minLon, final double maxLon, final T item) {
+		mSize++;
+		if (minLon < -180 || maxLon > 180 || minLat < -90 || maxLat > 90) {
+			mUnbucketed.add(item);
+			return;
+		}
+
+		final long minY = index(minLat);
+		final long maxY = index(maxLat);
+		final long minX = index(minLon);
+		final long maxX = index(maxLon);
+		if ((maxY - minY + 1) * (maxX - minX + 1) > MAX_CELLS_PER_ITEM) {
+			mUnbucketed.add(item);
+			return;
+		}
+
+		for (long y = minY; y <= maxY; y++) {
+			for (long x = minX; x <= maxX; x++) {
+				final Long key = key(y, x);
+				ArrayList<T> bucket = mCells.get(key);
+				if (bucket == null) {
+					bucket = new ArrayList<>(1);
+					mCells.put(key, bucket);
+				}
+				bucket.add(item);
+			}
+		}
+	}
+
+	/**
+	 * Returns candidate items for given point. Candidates still have to be checked exactly
+	 * @return candidates in point's cell
+	 */
+	final List<T> cell(final double lat, final double lon) {
+		final ArrayList<T> bucket = mCells.get(key(index(lat), index(lon)));
+		return bucket != null ? bucket : Collections.<T>emptyList();
+	}
+
+	/**
+	 * @return items which aren't bucketed and must be checked on every lookup
+	 */
+	final List<T> unbucketed() {
+		return mUnbucketed;
+	}
+
+	/**
+	 * @return number of items
+	 */
+	final int size() {
+		return mSize;
+	}
+
+	private static long index(final double degrees) {
+		return (long) Math.floor((degrees + 180) / CELL_DEGREES);
+	}
+
+	private static long key(final long y, final long x) {
+		return y * LON_CELLS + x;
+	}
+}
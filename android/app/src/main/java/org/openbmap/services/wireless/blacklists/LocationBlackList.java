@@ -18,7 +18,6 @@
 
 package org.openbmap.services.wireless.blacklists;
 
-import android.annotation.SuppressLint;
 import android.location.Location;
 import android.util.Log;
 
@@ -32,7 +31,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Validates ssid against xml file of black listed locations
@@ -71,17 +70,30 @@ public class LocationBlackList {
 	private static final int DEFAULT_RADIUS = 500;
 
 	/**
-	 * List of blocked locations
+	 * Meters per degree latitude (approx.), used for bounding boxes
 	 */
-	private final ArrayList<ForbiddenArea> mBlockList;
+	private static final double METERS_PER_DEGREE = 111320;
+
+	/**
+	 * Blocked locations, bucketed by grid cell
+	 */
+	private final GeoGrid<ForbiddenArea> mBlockList;
 
 	/**
 	 * Dead zone is defined by center point and radius
 	 */
-	private class ForbiddenArea {
+	private static class ForbiddenArea {
 		protected Location location;
 		protected long radius;
 
+		/*
+		 * Bounding box, used for cheap rejection before exact distance check
+		 */
+		protected double minLat;
+		protected double maxLat;
+		protected double minLon;
+		protected double maxLon;
+
 		/**
 		 * @param loc
 		 * @param rad
@@ -89,11 +101,27 @@ public class LocationBlackList {
 		public ForbiddenArea(final Location loc, final long rad) {
 			location = loc;
 			radius = rad;
+
+			// add some slack, distanceTo is ellipsoidal
+			final double latDelta = rad * 1.01 / METERS_PER_DEGREE;
+			final double cos = Math.cos(Math.toRadians(loc.getLatitude()));
+			final double lonDelta = cos > 0.01 ? latDelta / cos : 360;
+			minLat = loc.getLatitude() - latDelta;
+			maxLat = loc.getLatitude() + latDelta;
+			minLon = loc.getLongitude() - lonDelta;
+			maxLon = loc.getLongitude() + lonDelta;
+		}
+
+		/**
+		 * @return true, if location is within bounding box
+		 */
+		protected boolean inBounds(final double lat, final double lon) {
+			return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
 		}
 	}
 
 	public LocationBlackList() {
-		mBlockList = new ArrayList<>();
+		mBlockList = new GeoGrid<>();
 	}
 
 	/**
@@ -168,7 +196,8 @@ public class LocationBlackList {
 					} else if (eventType == XmlPullParser.END_TAG) {
 						if (LOCATION_TAG.equals(xpp.getName())) {
 							if (GeometryUtils.isValidLocation(loc, false)) {
-								mBlockList.add(new ForbiddenArea(loc, radius));
+								final ForbiddenArea area = new ForbiddenArea(loc, radius);
+								mBlockList.add(area.minLat, area.maxLat, area.minLon, area.maxLon, area);
 							} else {
 								Log.e(TAG, "Invalid location");
 							}
@@ -187,18 +216,25 @@ public class LocationBlackList {
 
 	/**
 	 * Checks whether given location is in ignore list
+	 * Only areas of the location's grid cell are considered, exact distance is only
+	 * calculated if location is within area's bounding box
 	 * @param location location
 	 * @return true, if in ignore list
 	 */
-	@SuppressLint("DefaultLocale")
 	public final boolean contains(final Location location) {
-		boolean match = false;
-		for (final ForbiddenArea dead : mBlockList) {
-			if (location.distanceTo(dead.location) < dead.radius) {
-				match = true; 
-				break;
+		final double lat = location.getLatitude();
+		final double lon = location.getLongitude();
+		return matches(mBlockList.cell(lat, lon), location, lat, lon)
+				|| matches(mBlockList.unbucketed(), location, lat, lon);
+	}
+
+	private static boolean matches(final List<ForbiddenArea> candidates, final Location location, final double lat, final double lon) {
+		for (int i = 0; i < candidates.size(); i++) {
+			final ForbiddenArea dead = candidates.get(i);
+			if (dead.inBounds(lat, lon) && location.distanceTo(dead.location) < dead.radius) {
+				return true;
 			}
 		}
-		return match; 
+		return false;
 	}
 }
@@ -18,7 +18,6 @@
 
 package org.openbmap.services.wireless.blacklists;
 
-import android.annotation.SuppressLint;
 import android.util.Log;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -30,7 +29,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 
 /**
  * Validates ssid against xml file of black listed wifis (e.g. mobile wlans on buses, trains, etc)
@@ -58,18 +56,18 @@ public class SsidBlackList {
 	private static final String	SUFFIX_TAG	= "suffix";
 	
 	/**
-	 * List of ignored ssid prefixes
+	 * Ignored ssid prefixes (lower case trie)
 	 */
-	private final ArrayList<String>	mPrefixes;
+	private final SsidTrie	mPrefixes;
 	
 	/**
-	 * List of ignored ssid suffixes
+	 * Ignored ssid suffixes (lower case, reversed trie)
 	 */
-	private final ArrayList<String>	mSuffixes;
+	private final SsidTrie	mSuffixes;
 
 	public SsidBlackList() {
-		mPrefixes = new ArrayList<>();
-		mSuffixes = new ArrayList<>();
+		mPrefixes = new SsidTrie(false);
+		mSuffixes = new SsidTrie(true);
 	}
 
 	/**
@@ -133,10 +131,10 @@ public class SsidBlackList {
 						}
 					} else if (eventType == XmlPullParser.END_TAG) {
 						if (PREFIX_TAG.equals(xpp.getName())) {
-							mPrefixes.add(value);
+							addPrefix(value);
 						}
 						if (SUFFIX_TAG.equals(xpp.getName())) {
-							mSuffixes.add(value);
+							addSuffix(value);
 						}
 					}
 					eventType = xpp.next();
@@ -150,33 +148,29 @@ public class SsidBlackList {
 		Log.i(TAG, "Loaded " + (mPrefixes.size() + mSuffixes.size()) + " SSID blacklist entries");
 	}
 
+	/**
+	 * Adds ssid prefix to ignore list
+	 * @param prefix prefix, case insensitive
+	 */
+	final void addPrefix(final String prefix) {
+		mPrefixes.add(prefix);
+	}
+
+	/**
+	 * Adds ssid suffix to ignore list
+	 * @param suffix suffix, case insensitive
+	 */
+	final void addSuffix(final String suffix) {
+		mSuffixes.add(suffix);
+	}
+
 	/**
 	 * Checks whether given ssid is in ignore list
+	 * Single pass over prefix and suffix trie, no allocations
 	 * @param ssid SSID to check
 	 * @return true, if in ignore list
 	 */
-	@SuppressLint("DefaultLocale")
 	public final boolean contains(final String ssid) {
-		boolean match = false;
-		for (final String prefix : mPrefixes) {
-			if (ssid.toLowerCase().startsWith(prefix.toLowerCase())) {
-				match = true; 
-				break;
-			}
-		}
-
-		// don't look any further
-		if (match) {
-			return match;
-		}
-		
-		for (final String suffix : mSuffixes) {
-			if (ssid.toLowerCase().endsWith(suffix.toLowerCase())) {
-				match = true;
-				break;
-			}
-		}
-
-		return match; // OK
+		return mPrefixes.matches(ssid) || mSuffixes.matches(ssid);
 	}
 }
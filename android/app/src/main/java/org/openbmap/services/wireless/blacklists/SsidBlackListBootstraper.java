@@ -220,6 +220,28 @@ public final class SsidBlackListBootstraper {
 
 
 
+	/**
+	 * @return default ssid prefixes
+	 */
+	static String[] getDefaultPrefixes() {
+		return values(PREFIXES);
+	}
+
+	/**
+	 * @return default ssid suffixes
+	 */
+	static String[] getDefaultSuffixes() {
+		return values(SUFFIXES);
+	}
+
+	private static String[] values(final String[][] entries) {
+		final String[] values = new String[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			values[i] = entries[i][1];
+		}
+		return values;
+	}
+
 	public static void run(final String filename) {
 		final File folder = new File(filename.substring(1, filename.lastIndexOf(File.separator)));
 		boolean folderAccessible = false;
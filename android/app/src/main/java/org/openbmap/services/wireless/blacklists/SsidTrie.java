@@ -0,0 +1,124 @@
+/*
+	Radiobeacon - Openbmap wifi and cell logger
+    Copyright (C) 2013  wish7
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.openbmap.services.wireless.blacklists;
+
+/**
+ * Case-insensitive character trie for ssid prefix and suffix matching
+ * Suffix tries store their entries reversed and are matched from the end of the ssid.
+ * Matching doesn't allocate.
+ */
+class SsidTrie {
+
+	/**
+	 * Trie node, children are kept in small parallel arrays (fan-out is low for ssid lists)
+	 */
+	private static final class Node {
+		private char[] mKeys = new char[0];
+		private Node[] mChildren = new Node[0];
+		private boolean mTerminal;
+
+		private Node child(final char c) {
+			for (int i = 0; i < mKeys.length; i++) {
+				if (mKeys[i] == c) {
+					return mChildren[i];
+				}
+			}
+			return null;
+		}
+
+		private Node addChild(final char c) {
+			final Node existing = child(c);
+			if (existing != null) {
+				return existing;
+			}
+			final int n = mKeys.length;
+			final char[] keys = new char[n + 1];
+			final Node[] children = new Node[n + 1];
+			System.arraycopy(mKeys, 0, keys, 0, n);
+			System.arraycopy(mChildren, 0, children, 0, n);
+			keys[n] = c;
+			children[n] = new Node();
+			mKeys = keys;
+			mChildren = children;
+			return children[n];
+		}
+	}
+
+	private final Node mRoot = new Node();
+
+	/**
+	 * If true, entries are stored and matched from the end
+	 */
+	private final boolean mReversed;
+
+	private int mSize;
+
+	/**
+	 * @param reversed false for prefix matching, true for suffix matching
+	 */
+	SsidTrie(final boolean reversed) {
+		mReversed = reversed;
+	}
+
+	/**
+	 * Adds entry. Null and empty entries are ignored (an empty prefix would match every ssid)
+	 * @param entry prefix (or suffix for reversed tries)
+	 */
+	final void add(final String entry) {
+		if (entry == null || entry.length() == 0) {
+			return;
+		}
+		Node node = mRoot;
+		final int len = entry.length();
+		for (int i = 0; i < len; i++) {
+			node = node.addChild(Character.toLowerCase(entry.charAt(mReversed ? len - 1 - i : i)));
+		}
+		if (!node.mTerminal) {
+			node.mTerminal = true;
+			mSize++;
+		}
+	}
+
+	/**
+	 * Checks whether any entry is prefix (or suffix for reversed tries) of given ssid
+	 * @param ssid ssid to check
+	 * @return true on match
+	 */
+	final boolean matches(final String ssid) {
+		Node node = mRoot;
+		final int len = ssid.length();
+		for (int i = 0; i < len; i++) {
+			node = node.child(Character.toLowerCase(ssid.charAt(mReversed ? len - 1 - i : i)));
+			if (node == null) {
+				return false;
+			}
+			if (node.mTerminal) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of distinct entries
+	 */
+	final int size() {
+		return mSize;
+	}
+}
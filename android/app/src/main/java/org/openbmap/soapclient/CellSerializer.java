@@ -25,6 +25,7 @@ import android.util.Log;
 import org.openbmap.db.DataHelper;
 import org.openbmap.db.DatabaseHelper;
 import org.openbmap.db.Schema;
+import org.openbmap.db.SessionShards;
 import org.openbmap.db.models.CellRecord;
 import org.openbmap.db.models.LogFile;
 
@@ -102,6 +103,7 @@ public class CellSerializer {
 	 */
 	private final String mTempPath;
 
+	private int mColId;
 	private int mColNetworkType;
 	private int mColIsCdma;
 	private int mColIsServing;
@@ -213,9 +215,11 @@ public class CellSerializer {
 			+ " JOIN \"" + Schema.TBL_POSITIONS + "\" AS \"req\" ON (" + Schema.COL_BEGIN_POSITION_ID + " = \"req\".\"_id\")"
 			+ " JOIN \"" + Schema.TBL_POSITIONS + "\" AS \"last\" ON (" + Schema.COL_END_POSITION_ID + " = \"last\".\"_id\")"
 			+ " WHERE " + Schema.TBL_CELLS + "." + Schema.COL_SESSION_ID + " = ?"
-			+ " ORDER BY " + Schema.COL_BEGIN_POSITION_ID
-			+ " LIMIT " + CURSOR_SIZE
-			+ " OFFSET ?";
+			// keyset pagination: continue after last exported (request_pos_id, _id)
+			+ " AND " + Schema.COL_BEGIN_POSITION_ID + " >= ?"
+			+ " AND (" + Schema.COL_BEGIN_POSITION_ID + " > ? OR " + Schema.TBL_CELLS + "." + Schema.COL_ID + " > ?)"
+			+ " ORDER BY " + Schema.COL_BEGIN_POSITION_ID + ", " + Schema.TBL_CELLS + "." + Schema.COL_ID
+			+ " LIMIT " + CURSOR_SIZE;
 
 	/**
 	 * Default constructor
@@ -267,15 +271,18 @@ public class CellSerializer {
 
 		final LogFile headerRecord = mDataHelper.loadLogFileBySession(mSession);
 
-		final DatabaseHelper mDbHelper = new DatabaseHelper(mContext.getApplicationContext());
+		final DatabaseHelper mDbHelper = SessionShards.newHelper(mContext, mSession);
 
 		final ArrayList<String> generatedFiles = new ArrayList<>();
 
 		// get first CHUNK_SIZE records
+		long lastBeginId = -1;
+		long lastId = -1;
 		Cursor cursorCells = mDbHelper.getReadableDatabase().rawQuery(CELL_SQL_QUERY,
-				new String[]{String.valueOf(mSession), String.valueOf(0)});
+				keysetArgs(lastBeginId, lastId));
 
 		// [start] init columns
+		mColId = cursorCells.getColumnIndex(Schema.COL_ID);
 		mColNetworkType = cursorCells.getColumnIndex(Schema.COL_NETWORKTYPE);
 		mColIsCdma = cursorCells.getColumnIndex(Schema.COL_IS_CDMA);
 		mColIsServing = cursorCells.getColumnIndex(Schema.COL_IS_SERVING);
@@ -315,7 +322,6 @@ public class CellSerializer {
 
 		mActiveMcc = determineActiveMcc(cursorCells);
 
-		long outer = 0;
 		// serialize
 		while (!cursorCells.isAfterLast()) {
 			long i = 0;
@@ -331,12 +337,14 @@ public class CellSerializer {
 				generatedFiles.add(fileName);
 			}
 
-			// fetch next CURSOR_SIZE records
-			outer += CURSOR_SIZE;
+			// fetch next CURSOR_SIZE records, starting after last record of this page
+			if (cursorCells.moveToLast()) {
+				lastBeginId = cursorCells.getLong(mColBeginPosId);
+				lastId = cursorCells.getLong(mColId);
+			}
 			cursorCells.close();
 			cursorCells = mDbHelper.getReadableDatabase().rawQuery(CELL_SQL_QUERY,
-					new String[]{String.valueOf(mSession),
-					String.valueOf(outer)});
+					keysetArgs(lastBeginId, lastId));
 		}
 
 		final long difference = System.currentTimeMillis() - startTime;
@@ -350,6 +358,19 @@ public class CellSerializer {
 	}
 
 
+	/**
+	 * Builds query arguments for next page
+	 * @param lastBeginId begin position id of last exported record, -1 for first page
+	 * @param lastId id of last exported record, -1 for first page
+	 * @return query arguments
+	 */
+	private String[] keysetArgs(final long lastBeginId, final long lastId) {
+		return new String[]{String.valueOf(mSession),
+				String.valueOf(lastBeginId),
+				String.valueOf(lastBeginId),
+				String.valueOf(lastId)};
+	}
+
 	/**
 	 * Gets timestamp from current record
 	 * @param cursor
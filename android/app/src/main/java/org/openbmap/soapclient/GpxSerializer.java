@@ -27,6 +27,9 @@ import org.apache.commons.lang3.StringEscapeUtils;
 import org.openbmap.RadioBeacon;
 import org.openbmap.db.DatabaseHelper;
 import org.openbmap.db.Schema;
+import org.openbmap.db.SessionArchive;
+import org.openbmap.db.SessionArchiver;
+import org.openbmap.db.SessionShards;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -68,8 +71,18 @@ public class GpxSerializer {
 
     private static final String TAG_GPX_CLOSE = "</gpx>";
 
+    /**
+     * Keyset pagination on positions: continues after last exported (timestamp, _id)
+     * Unlike OFFSET, SQLite doesn't have to skip previous pages, see idx_positions_sessions_timestamp
+     */
+    private static final String POSITION_KEYSET =
+            " AND " + Schema.COL_TIMESTAMP + " >= ?"
+          + " AND (" + Schema.COL_TIMESTAMP + " > ? OR " + Schema.COL_ID + " > ?)"
+          + " ORDER BY " + Schema.COL_TIMESTAMP + ", " + Schema.COL_ID
+          + " LIMIT " + CURSOR_SIZE;
+
     private static final String TRACKPOINT_SQL_QUERY1 =
-            "SELECT " + Schema.COL_LATITUDE + ", "
+            "SELECT " + Schema.COL_ID + ", " + Schema.COL_LATITUDE + ", "
                   + Schema.COL_LONGITUDE + ", " + " " +
                     Schema.COL_ALTITUDE + ", " +
                     Schema.COL_ACCURACY + ", " +
@@ -83,11 +96,10 @@ public class GpxSerializer {
                     " WHERE " +
                     Schema.COL_SESSION_ID + " = ?"
                 + " AND source != '" + RadioBeacon.PROVIDER_USER_DEFINED + "' "
-                + " ORDER BY " + Schema.COL_TIMESTAMP + " LIMIT " + CURSOR_SIZE
-                + " OFFSET ?";
+                + POSITION_KEYSET;
 
     private static final String WAYPOINT_SQL_QUERY =
-            "SELECT " + Schema.COL_LATITUDE + ", " +
+            "SELECT " + Schema.COL_ID + ", " + Schema.COL_LATITUDE + ", " +
                     Schema.COL_LONGITUDE + ", "
             + " " + Schema.COL_ALTITUDE + ", " +
                     Schema.COL_ACCURACY + ", " +
@@ -99,37 +111,36 @@ public class GpxSerializer {
             + " FROM " + Schema.TBL_POSITIONS +
                     " WHERE " + Schema.COL_SESSION_ID + " = ?"
                   + " AND source = '" + RadioBeacon.PROVIDER_USER_DEFINED + "' "
-                  + " ORDER BY " + Schema.COL_TIMESTAMP + " LIMIT " + CURSOR_SIZE
-                  + " OFFSET ?";
+                  + POSITION_KEYSET;
 
     private static final String WIFI_POINTS_SQL_QUERY =
             "SELECT w.rowid as " + Schema.COL_ID + ", w." +Schema.COL_BSSID + ", w." + Schema.COL_SSID + ", "
             + " MAX(" + Schema.COL_LEVEL + "), w." + Schema.COL_TIMESTAMP + ", "
             + " b." + Schema.COL_LATITUDE + ", b." + Schema.COL_LONGITUDE + ", b." + Schema.COL_ALTITUDE + ", b." + Schema.COL_ACCURACY
             + " FROM " + Schema.TBL_WIFIS + " as w JOIN positions as b ON request_pos_id = b._id "
-            + " WHERE w." + Schema.COL_SESSION_ID + " = ? GROUP BY w." + Schema.COL_BSSID
-            + " LIMIT " + CURSOR_SIZE + " OFFSET ?";
+            + " WHERE w." + Schema.COL_SESSION_ID + " = ? AND w." + Schema.COL_BSSID + " > ?"
+            + " GROUP BY w." + Schema.COL_BSSID + " ORDER BY w." + Schema.COL_BSSID
+            + " LIMIT " + CURSOR_SIZE;
 
     private static final String CELL_POINTS_SQL_QUERY =
             "SELECT " +
-                    Schema.COL_LATITUDE + ", " +
-                    Schema.COL_LONGITUDE + ", " +
-                    Schema.COL_ALTITUDE + ", " +
-                    Schema.COL_ACCURACY + ", " +
-                    Schema.COL_TIMESTAMP + ", \"CELL \" ||" +
+                    "c." + Schema.COL_ID + ", " +
+                    "c." + Schema.COL_BEGIN_POSITION_ID + ", " +
+                    "p." + Schema.COL_LATITUDE + ", " +
+                    "p." + Schema.COL_LONGITUDE + ", " +
+                    "p." + Schema.COL_ALTITUDE + ", " +
+                    "p." + Schema.COL_ACCURACY + ", " +
+                    "p." + Schema.COL_TIMESTAMP + ", \"CELL \" ||" +
                     Schema.COL_OPERATORNAME + " ||" +
                     Schema.COL_LOGICAL_CELLID + " AS name"
-                + " FROM " + Schema.TBL_POSITIONS + " AS p LEFT JOIN "
-                + " (SELECT " + Schema.COL_ID + ", " +
-                    Schema.COL_OPERATORNAME + ", " +
-                    Schema.COL_LOGICAL_CELLID + ", " +
-                    Schema.COL_BEGIN_POSITION_ID +
-                    " FROM " + Schema.TBL_CELLS + ") "
-            + " AS c ON c." +
-                    Schema.COL_BEGIN_POSITION_ID + " = p._id WHERE c._id IS NOT NULL " +
-                    "AND p." + Schema.COL_SESSION_ID + " = ?"
-            + " ORDER BY " + Schema.COL_TIMESTAMP + " LIMIT " + CURSOR_SIZE
-            + " OFFSET ?";
+                + " FROM " + Schema.TBL_CELLS + " AS c JOIN " + Schema.TBL_POSITIONS + " AS p"
+                + " ON c." + Schema.COL_BEGIN_POSITION_ID + " = p._id"
+                + " WHERE c." + Schema.COL_SESSION_ID + " = ?"
+                // positions are inserted in chronological order, so begin position id order is timestamp order
+                + " AND c." + Schema.COL_BEGIN_POSITION_ID + " >= ?"
+                + " AND (c." + Schema.COL_BEGIN_POSITION_ID + " > ? OR c." + Schema.COL_ID + " > ?)"
+                + " ORDER BY c." + Schema.COL_BEGIN_POSITION_ID + ", c." + Schema.COL_ID
+                + " LIMIT " + CURSOR_SIZE;
     //@formatter:on
     /**
      * Date format as used internally
@@ -174,7 +185,12 @@ public class GpxSerializer {
      */
     public final void doExport(final String trackName, final File target, int verbosity) throws IOException {
         Log.i(TAG, "Exporting gpx file" + target.getAbsolutePath());
-        mDbHelper = new DatabaseHelper(mContext.getApplicationContext());
+        final SessionArchive archive = SessionArchiver.open(mContext, mSession);
+        if (archive != null) {
+            exportArchive(archive, trackName, target, verbosity);
+            return;
+        }
+        mDbHelper = SessionShards.newHelper(mContext, mSession);
 
         final BufferedWriter bw = new BufferedWriter(new FileWriter(target));
 
@@ -205,6 +221,99 @@ public class GpxSerializer {
         Log.i(TAG, "Finished building gpx file");
     }
 
+    /**
+     * Writes the GPX file for an archived session, same content and order as database export
+     *
+     * @param archive
+     *         Session archive
+     * @param trackName
+     *         Name of the GPX track (metadata)
+     * @param target
+     *         Target GPX file
+     * @param verbosity
+     *         GPX verbosity (see constants above)
+     */
+    private void exportArchive(final SessionArchive archive, final String trackName, final File target, int verbosity) throws IOException {
+        final BufferedWriter bw = new BufferedWriter(new FileWriter(target));
+        bw.write(XML_HEADER);
+        bw.write(TAG_GPX);
+
+        if(verbosity == VERBOSITY_TRACK_AND_WAYPOINTS || verbosity == VERBOSITY_WAYPOINTS_ONLY
+                   || verbosity == VERBOSITY_ALL) {
+            for(int i = 0; i < archive.getPositionCount(); i++) {
+                if(RadioBeacon.PROVIDER_USER_DEFINED.equals(archive.getSource(i))) {
+                    bw.write(archivePoint("wpt", archive, i, null));
+                }
+            }
+        }
+
+        if(verbosity == VERBOSITY_TRACK_AND_WAYPOINTS || verbosity == VERBOSITY_ALL) {
+            bw.write("<trk>");
+            bw.write("<name>");
+            bw.write(trackName);
+            bw.write("</name>");
+            bw.write("<trkseg>");
+            for(int i = 0; i < archive.getPositionCount(); i++) {
+                if(!RadioBeacon.PROVIDER_USER_DEFINED.equals(archive.getSource(i))) {
+                    bw.write(archivePoint("trkpt", archive, i, null));
+                }
+            }
+            bw.write("</trkseg>");
+            bw.write("</trk>");
+        }
+
+        if(verbosity == VERBOSITY_ALL) {
+            for(final int wifi : archive.getStrongestWifis()) {
+                bw.write(archivePoint("wpt", archive, archive.getWifiPosition(wifi), archive.getSsid(wifi)));
+            }
+            for(int i = 0; i < archive.getCellCount(); i++) {
+                if(archive.getCellPosition(i) != SessionArchive.NO_POSITION) {
+                    bw.write(archivePoint("wpt", archive, archive.getCellPosition(i), archive.getCellName(i)));
+                }
+            }
+        }
+
+        bw.write(TAG_GPX_CLOSE);
+        bw.close();
+        Log.i(TAG, "Finished building gpx file from archive");
+    }
+
+    /**
+     * Formats archived position as gpx point
+     *
+     * @param tag
+     *         wpt or trkpt
+     * @param archive
+     *         Session archive
+     * @param position
+     *         Position row
+     * @param name
+     *         Point name or null
+     *
+     * @return gpx point
+     */
+    private static String archivePoint(final String tag, final SessionArchive archive, final int position, final String name) {
+        final StringBuilder out = new StringBuilder();
+        out.append("<").append(tag).append(" lat=\"");
+        out.append(String.valueOf(archive.getLatitude(position)));
+        out.append("\" lon=\"");
+        out.append(String.valueOf(archive.getLongitude(position)));
+        out.append("\">");
+        out.append("<ele>");
+        out.append(String.valueOf(archive.getAltitude(position)));
+        out.append("</ele>");
+        out.append("<time>");
+        out.append(getGpxDate(archive.getTimestamp(position)));
+        out.append("</time>");
+        if(name != null) {
+            out.append("<name>");
+            out.append(StringEscapeUtils.escapeXml10(name));
+            out.append("</name>");
+        }
+        out.append("</").append(tag).append(">");
+        return out.toString();
+    }
+
     /**
      * Iterates on track points and write them.
      *
@@ -215,19 +324,17 @@ public class GpxSerializer {
         Log.i(TAG, "Writing trackpoints");
 
         //@formatter:off
-        Cursor c = mDbHelper.getReadableDatabase().rawQuery(WAYPOINT_SQL_QUERY,
-                                                            new String[] {
-                                                                    String.valueOf(mSession),
-                                                                    String.valueOf(0)
-                                                            });
+        long lastKey = -1;
+        long lastId = -1;
+        Cursor c = mDbHelper.getReadableDatabase().rawQuery(WAYPOINT_SQL_QUERY, keysetArgs(lastKey, lastId));
         //@formatter:on
 
         final int colLatitude = c.getColumnIndex(Schema.COL_LATITUDE);
         final int colLongitude = c.getColumnIndex(Schema.COL_LONGITUDE);
         final int colAltitude = c.getColumnIndex(Schema.COL_ALTITUDE);
         final int colTimestamp = c.getColumnIndex(Schema.COL_TIMESTAMP);
+        final int colId = c.getColumnIndex(Schema.COL_ID);
 
-        long outer = 0;
         while(!c.isAfterLast()) {
             c.moveToFirst();
             while(!c.isAfterLast()) {
@@ -253,15 +360,13 @@ public class GpxSerializer {
             }
 
             // fetch next CURSOR_SIZE records
-            outer += CURSOR_SIZE;
+            if (c.moveToLast()) {
+                lastKey = c.getLong(colTimestamp);
+                lastId = c.getLong(colId);
+            }
             c.close();
-
             //@formatter:off
-            c = mDbHelper.getReadableDatabase().rawQuery(WAYPOINT_SQL_QUERY,
-                                                         new String[] {
-                                                                 String.valueOf(mSession),
-                                                                 String.valueOf(outer)
-                                                         });
+            c = mDbHelper.getReadableDatabase().rawQuery(WAYPOINT_SQL_QUERY, keysetArgs(lastKey, lastId));
             //@formatter:on
         }
 
@@ -280,17 +385,16 @@ public class GpxSerializer {
         Log.i(TAG, "Writing trackpoints");
 
         //@formatter:off
-        Cursor c = mDbHelper.getReadableDatabase().rawQuery(TRACKPOINT_SQL_QUERY1,
-                                                            new String[] {
-                                                                    String.valueOf(mSession),
-                                                                    String.valueOf(0)
-                                                            });
+        long lastKey = -1;
+        long lastId = -1;
+        Cursor c = mDbHelper.getReadableDatabase().rawQuery(TRACKPOINT_SQL_QUERY1, keysetArgs(lastKey, lastId));
         //@formatter:on
 
         final int colLatitude = c.getColumnIndex(Schema.COL_LATITUDE);
         final int colLongitude = c.getColumnIndex(Schema.COL_LONGITUDE);
         final int colAltitude = c.getColumnIndex(Schema.COL_ALTITUDE);
         final int colTimestamp = c.getColumnIndex(Schema.COL_TIMESTAMP);
+        final int colId = c.getColumnIndex(Schema.COL_ID);
 
         bw.write("<trk>");
         bw.write("<name>");
@@ -298,7 +402,6 @@ public class GpxSerializer {
         bw.write("</name>");
         bw.write("<trkseg>");
 
-        long outer = 0;
         while(!c.isAfterLast()) {
             c.moveToFirst();
             while(!c.isAfterLast()) {
@@ -324,14 +427,13 @@ public class GpxSerializer {
             }
 
             // fetch next CURSOR_SIZE records
-            outer += CURSOR_SIZE;
+            if (c.moveToLast()) {
+                lastKey = c.getLong(colTimestamp);
+                lastId = c.getLong(colId);
+            }
             c.close();
             //@formatter:off
-            c = mDbHelper.getReadableDatabase().rawQuery(TRACKPOINT_SQL_QUERY1,
-                                                         new String[] {
-                                                                 String.valueOf(mSession),
-                                                                 String.valueOf(outer)
-                                                         });
+            c = mDbHelper.getReadableDatabase().rawQuery(TRACKPOINT_SQL_QUERY1, keysetArgs(lastKey, lastId));
             //@formatter:on
         }
         c.close();
@@ -351,10 +453,11 @@ public class GpxSerializer {
         Log.i(TAG, "Writing wifi waypoints");
 
         //@formatter:off
+        long lastBssid = -1;
         Cursor c = mDbHelper.getReadableDatabase().rawQuery(WIFI_POINTS_SQL_QUERY,
                                                             new String[] {
                                                                     String.valueOf(mSession),
-                                                                    String.valueOf(0)
+                                                                    String.valueOf(lastBssid)
                                                             });
         //@formatter:on
 
@@ -363,8 +466,8 @@ public class GpxSerializer {
         final int colAltitude = c.getColumnIndex(Schema.COL_ALTITUDE);
         final int colTimestamp = c.getColumnIndex(Schema.COL_TIMESTAMP);
         final int colSsid = c.getColumnIndex(Schema.COL_SSID);
+        final int colBssid = c.getColumnIndex(Schema.COL_BSSID);
 
-        long outer = 0;
         while(!c.isAfterLast()) {
             c.moveToFirst();
             while(!c.isAfterLast()) {
@@ -391,13 +494,15 @@ public class GpxSerializer {
                 c.moveToNext();
             }
             // fetch next CURSOR_SIZE records
-            outer += CURSOR_SIZE;
+            if (c.moveToLast()) {
+                lastBssid = c.getLong(colBssid);
+            }
             c.close();
             //@formatter:off
             c = mDbHelper.getReadableDatabase().rawQuery(WIFI_POINTS_SQL_QUERY,
                                                          new String[] {
                                                                  String.valueOf(mSession),
-                                                                 String.valueOf(outer)
+                                                                 String.valueOf(lastBssid)
                                                          });
             //@formatter:on
         }
@@ -413,11 +518,9 @@ public class GpxSerializer {
     private void writeCells(final BufferedWriter bw) throws IOException {
         Log.i(TAG, "Writing cell waypoints");
         //@formatter:off
-        Cursor c = mDbHelper.getReadableDatabase().rawQuery(CELL_POINTS_SQL_QUERY,
-                                                            new String[] {
-                                                                    String.valueOf(mSession),
-                                                                    String.valueOf(0)
-                                                            });
+        long lastKey = -1;
+        long lastId = -1;
+        Cursor c = mDbHelper.getReadableDatabase().rawQuery(CELL_POINTS_SQL_QUERY, keysetArgs(lastKey, lastId));
         //@formatter:on
 
         final int colLatitude = c.getColumnIndex(Schema.COL_LATITUDE);
@@ -425,8 +528,9 @@ public class GpxSerializer {
         final int colAltitude = c.getColumnIndex(Schema.COL_ALTITUDE);
         final int colTimestamp = c.getColumnIndex(Schema.COL_TIMESTAMP);
         final int colName = c.getColumnIndex("name");
+        final int colId = c.getColumnIndex(Schema.COL_ID);
+        final int colBeginPosId = c.getColumnIndex(Schema.COL_BEGIN_POSITION_ID);
 
-        long outer = 0;
         while(!c.isAfterLast()) {
             c.moveToFirst();
             while(!c.isAfterLast()) {
@@ -457,19 +561,37 @@ public class GpxSerializer {
             //bw.write(out.toString());
             //out = null;
             // fetch next CURSOR_SIZE records
-            outer += CURSOR_SIZE;
+            if (c.moveToLast()) {
+                lastKey = c.getLong(colBeginPosId);
+                lastId = c.getLong(colId);
+            }
             c.close();
             //@formatter:off
-            c = mDbHelper.getReadableDatabase().rawQuery(CELL_POINTS_SQL_QUERY,
-                                                         new String[] {
-                                                                 String.valueOf(mSession),
-                                                                 String.valueOf(outer)
-                                                         });
+            c = mDbHelper.getReadableDatabase().rawQuery(CELL_POINTS_SQL_QUERY, keysetArgs(lastKey, lastId));
             //@formatter:on
         }
         c.close();
     }
 
+    /**
+     * Builds query arguments for next page
+     *
+     * @param lastKey
+     *         sort key (timestamp or begin position id) of last exported record, -1 for first page
+     * @param lastId
+     *         id of last exported record, -1 for first page
+     *
+     * @return query arguments
+     */
+    private String[] keysetArgs(final long lastKey, final long lastId) {
+        return new String[] {
+                String.valueOf(mSession),
+                String.valueOf(lastKey),
+                String.valueOf(lastKey),
+                String.valueOf(lastId)
+        };
+    }
+
     /**
      * Converts from openbmap date format (YYYYMMDDHHMMSS) to gpx date format (ISO 8601)
      *
@@ -26,7 +26,9 @@ import android.util.Log;
 import org.openbmap.db.DataHelper;
 import org.openbmap.db.DatabaseHelper;
 import org.openbmap.db.Schema;
+import org.openbmap.db.SessionShards;
 import org.openbmap.db.models.LogFile;
+import org.openbmap.db.models.WifiRecord;
 import org.openbmap.utils.XmlSanitizer;
 
 import java.io.BufferedWriter;
@@ -47,7 +49,7 @@ public class WifiSerializer {
 	/**
 	 * Cursor windows size, to prevent running out of mem on to large cursor
 	 */
-	private static final int CURSOR_SIZE	= 3000;
+	static final int CURSOR_SIZE	= 3000;
 
 	/**
 	 * XML templates
@@ -147,6 +149,8 @@ public class WifiSerializer {
 
 	private int	colBssid;
 
+	private int	colId;
+
 	/**
 	 * Timestamp for filename generation, this is generated by looking at the first cell
 	 */
@@ -165,7 +169,7 @@ public class WifiSerializer {
 	 */
 	private boolean	mAnonymise = false;
 
-	private static final String WIFI_SQL_QUERY = " SELECT " + Schema.TBL_WIFIS + "." + Schema.COL_ID + " AS \"_id\","
+	static final String WIFI_SQL_QUERY = " SELECT " + Schema.TBL_WIFIS + "." + Schema.COL_ID + " AS \"_id\","
 			+ Schema.COL_BSSID + ", "
 			+ Schema.COL_SSID + ", "
 			+ Schema.COL_MD5_SSID + ", "
@@ -196,9 +200,11 @@ public class WifiSerializer {
 			+ " JOIN \"" + Schema.TBL_POSITIONS + "\" AS \"req\" ON (\"request_pos_id\" = \"req\".\"_id\")"
 			+ " JOIN \"" + Schema.TBL_POSITIONS + "\" AS \"last\" ON (\"last_pos_id\" = \"last\".\"_id\")"
 			+ " WHERE " + Schema.TBL_WIFIS + "." + Schema.COL_SESSION_ID + " = ?"
-			+ " ORDER BY " + Schema.COL_BEGIN_POSITION_ID
-			+ " LIMIT " + CURSOR_SIZE
-			+ " OFFSET ?";
+			// keyset pagination: continue after last exported (request_pos_id, _id)
+			+ " AND " + Schema.COL_BEGIN_POSITION_ID + " >= ?"
+			+ " AND (" + Schema.COL_BEGIN_POSITION_ID + " > ? OR " + Schema.TBL_WIFIS + "." + Schema.COL_ID + " > ?)"
+			+ " ORDER BY " + Schema.COL_BEGIN_POSITION_ID + ", " + Schema.TBL_WIFIS + "." + Schema.COL_ID
+			+ " LIMIT " + CURSOR_SIZE;
 
 	/**
 	 * Default constructor
@@ -248,15 +254,18 @@ public class WifiSerializer {
 
 		final LogFile headerRecord = mDataHelper.loadLogFileBySession(mSession);
 
-		final DatabaseHelper mDbHelper = new DatabaseHelper(mContext.getApplicationContext());
+		final DatabaseHelper mDbHelper = SessionShards.newHelper(mContext, mSession);
 
 		final ArrayList<String> generatedFiles = new ArrayList<>();
 
 		// get first CHUNK_SIZE records
+		long lastBeginId = -1;
+		long lastId = -1;
 		Cursor cursorWifis = mDbHelper.getReadableDatabase().rawQuery(WIFI_SQL_QUERY,
-				new String[] {String.valueOf(mSession), String.valueOf(0)});
+				keysetArgs(lastBeginId, lastId));
 
 		// [start] init columns
+		colId = cursorWifis.getColumnIndex(Schema.COL_ID);
 		colBssid = cursorWifis.getColumnIndex(Schema.COL_BSSID);
 		colSsid = cursorWifis.getColumnIndex(Schema.COL_SSID);
 		colMd5Essid = cursorWifis.getColumnIndex(Schema.COL_MD5_SSID);
@@ -286,7 +295,6 @@ public class WifiSerializer {
 
 		final long startTime = System.currentTimeMillis();
 
-		long outer = 0;
 		while (!cursorWifis.isAfterLast()) {
 			long i = 0;
 			while (!cursorWifis.isAfterLast()) {
@@ -302,12 +310,14 @@ public class WifiSerializer {
 
 				generatedFiles.add(filename);
 			}
-			// fetch next CURSOR_SIZE records
-			outer += CURSOR_SIZE;
+			// fetch next CURSOR_SIZE records, starting after last record of this page
+			if (cursorWifis.moveToLast()) {
+				lastBeginId = cursorWifis.getLong(colBeginPosId);
+				lastId = cursorWifis.getLong(colId);
+			}
 			cursorWifis.close();
 			cursorWifis = mDbHelper.getReadableDatabase().rawQuery(WIFI_SQL_QUERY,
-					new String[]{String.valueOf(mSession),
-					String.valueOf(outer)});
+					keysetArgs(lastBeginId, lastId));
 		}
 
 		final long difference = System.currentTimeMillis() - startTime;
@@ -321,6 +331,19 @@ public class WifiSerializer {
 	}
 
 
+	/**
+	 * Builds query arguments for next page
+	 * @param lastBeginId begin position id of last exported record, -1 for first page
+	 * @param lastId id of last exported record, -1 for first page
+	 * @return query arguments
+	 */
+	private String[] keysetArgs(final long lastBeginId, final long lastId) {
+		return new String[]{String.valueOf(mSession),
+				String.valueOf(lastBeginId),
+				String.valueOf(lastBeginId),
+				String.valueOf(lastId)};
+	}
+
 	/**
 	 * Gets timestamp from current record
 	 * @param cursor
@@ -411,11 +434,11 @@ public class WifiSerializer {
 				 *  so write wifi xml now
 				 *  Note that for performance reasons all columns are casted to strings
 				 *
-				 *  BSSID: in xml files mac is printed without ":" (as opposed to database) for backwards compatibility
+				 *  BSSID: stored as integer, in xml files mac is printed as hex without ":" for backwards compatibility
 				 *  SSID: ssid can contain invalid characters, so sanitize..
 				 */
 				bw.write(wifiToXml(
-						cursor.getString(colBssid).replace(":", ""),
+						WifiRecord.bssidToHex(cursor.getLong(colBssid)),
 						cursor.getString(colMd5Essid),
 						// sanitizing moved to wifiToXml function
 						/*XmlSanitizer.sanitize(cursor.getString(colSsid)),*/
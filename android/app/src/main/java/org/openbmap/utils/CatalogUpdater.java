@@ -25,14 +25,18 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import org.openbmap.Preferences;
+import org.openbmap.RadioBeacon;
+import org.openbmap.db.CatalogIndex;
 import org.openbmap.db.ContentProvider;
-import org.openbmap.db.DatabaseHelper;
 import org.openbmap.db.Schema;
+import org.openbmap.db.SessionShards;
+import org.openbmap.db.models.WifiRecord;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -49,8 +53,6 @@ public class CatalogUpdater extends AsyncTask<Void, Void, Void> {
 	 */
 	private SharedPreferences prefs = null;
 
-	private DatabaseHelper	mDbHelper;
-
 	private Context	mContext;
 
 	public CatalogUpdater(final Context context) {
@@ -58,7 +60,6 @@ public class CatalogUpdater extends AsyncTask<Void, Void, Void> {
 		// dialog = new ProgressDialog(mContext);
 		// get shared preferences
 		prefs = PreferenceManager.getDefaultSharedPreferences(context);
-		mDbHelper = new DatabaseHelper(mContext.getApplicationContext());
 	}
 
 	@Override
@@ -71,20 +72,6 @@ public class CatalogUpdater extends AsyncTask<Void, Void, Void> {
 				return null;
 			}
 
-			final SQLiteDatabase localDb = mDbHelper.getReadableDatabase();
-			Cursor cursorWifis = localDb.rawQuery(
-					"SELECT w." + Schema.COL_BSSID +
-							", avg(p."+ Schema.COL_LATITUDE +") as latitude" +
-                            ", avg(p."+ Schema.COL_LONGITUDE +") as longitude " +
-                            " FROM "+ Schema.TBL_WIFIS +" w" +
-                            " JOIN "+ Schema.TBL_POSITIONS +
-                            " p ON (w."+ Schema.COL_BEGIN_POSITION_ID +
-                            " = p."+ Schema.COL_ID +") WHERE " +
-                            Schema.COL_KNOWN_WIFI +
-                            " = 0 GROUP BY w." +
-                            Schema.COL_BSSID + "",
-					null);
-
 			// Open catalog database
 			final String file = prefs.getString(Preferences.KEY_WIFI_CATALOG_FOLDER,
 					mContext.getExternalFilesDir(null).getAbsolutePath() + File.separator + Preferences.CATALOG_SUBDIR)
@@ -101,47 +88,18 @@ public class CatalogUpdater extends AsyncTask<Void, Void, Void> {
 
 			catalogDb.rawQuery("PRAGMA journal_mode=DELETE", null);
 
-			ArrayList<String> updateLater = new ArrayList<>();
-			ArrayList<ContentValues> newWifis = new ArrayList<>();
-			while (cursorWifis.moveToNext()) {
-				//Log.d(TAG, "Inserting " + cursorWifis.getString(0).replace(":", "") );
-
-				ContentValues newWifi = new ContentValues();
-				newWifi.put("bssid", cursorWifis.getString(0).replace(":", "").toUpperCase());
-				newWifi.put("latitude", cursorWifis.getDouble(1));
-				newWifi.put("longitude", cursorWifis.getDouble(2));
-				newWifi.put("source", 99);
-				newWifis.add(newWifi);
-
-				updateLater.add(cursorWifis.getString(0));
-			}
-
-			Log.i(TAG, "Pending inserts " + cursorWifis.getCount());
-			cursorWifis.close();
-			localDb.close();
-
-			catalogDb.beginTransaction();
-			try {
-				for (ContentValues add : newWifis) {
-					catalogDb.insertWithOnConflict("wifi_zone", null, add, SQLiteDatabase.CONFLICT_IGNORE);
-				}
-				catalogDb.setTransactionSuccessful();
-			} finally {
-				catalogDb.endTransaction();
-		    }
-
-			Log.i(TAG, "Added wifis to catalog, updating known wifi tag for all sessions");
-			ContentResolver contentResolver = mContext.getContentResolver();
-			ContentValues updateExisting = new ContentValues();
-			updateExisting.put(Schema.COL_KNOWN_WIFI, 2);
-
-			for (String bssid : updateLater) {
-				// reset is_new_wifi status
-				contentResolver.update(ContentProvider.CONTENT_URI_WIFI, updateExisting,
-						Schema.COL_BSSID + " = ?", new String[]{bssid.toUpperCase()});
+			// main database and session shards
+			final ArrayList<Long> sessions = new ArrayList<>();
+			sessions.add((long) RadioBeacon.SESSION_NOT_TRACKING);
+			sessions.addAll(SessionShards.list(mContext));
+			for (final Long session : sessions) {
+				addToCatalog(catalogDb, session);
 			}
 
 			catalogDb.close();
+
+			// catalog has changed, so refresh compiled bssid index
+			CatalogIndex.build(new File(file));
 			Log.i(TAG, "Catalog update finished ");
 		} catch (SQLiteException e) {
 			Log.e(TAG, "SQL exception occurred: " + e.toString(), e);
@@ -150,4 +108,68 @@ public class CatalogUpdater extends AsyncTask<Void, Void, Void> {
 		}
 		return null;
 	}
+
+	/**
+	 * Adds new wifis of main database or session shard to catalog and marks them as known
+	 * @param catalogDb catalog database
+	 * @param session shard's session id, {@link RadioBeacon#SESSION_NOT_TRACKING} for main database
+	 */
+	private void addToCatalog(final SQLiteDatabase catalogDb, final long session) {
+		final SQLiteDatabase localDb = SessionShards.newHelper(mContext, session).getReadableDatabase();
+		Cursor cursorWifis = localDb.rawQuery(
+				"SELECT w." + Schema.COL_BSSID +
+						", avg(p."+ Schema.COL_LATITUDE +") as latitude" +
+						", avg(p."+ Schema.COL_LONGITUDE +") as longitude " +
+						" FROM "+ Schema.TBL_WIFIS +" w" +
+						" JOIN "+ Schema.TBL_POSITIONS +
+						" p ON (w."+ Schema.COL_BEGIN_POSITION_ID +
+						" = p."+ Schema.COL_ID +") WHERE " +
+						Schema.COL_KNOWN_WIFI +
+						" = 0 GROUP BY w." +
+						Schema.COL_BSSID + "",
+				null);
+
+		ArrayList<Long> updateLater = new ArrayList<>();
+		ArrayList<ContentValues> newWifis = new ArrayList<>();
+		while (cursorWifis.moveToNext()) {
+			//Log.d(TAG, "Inserting " + cursorWifis.getString(0).replace(":", "") );
+
+			ContentValues newWifi = new ContentValues();
+			// catalog uses upper case bssids without colons
+			newWifi.put("bssid", WifiRecord.bssidToHex(cursorWifis.getLong(0)));
+			newWifi.put("latitude", cursorWifis.getDouble(1));
+			newWifi.put("longitude", cursorWifis.getDouble(2));
+			newWifi.put("source", 99);
+			newWifis.add(newWifi);
+
+			updateLater.add(cursorWifis.getLong(0));
+		}
+
+		Log.i(TAG, "Pending inserts " + cursorWifis.getCount());
+		cursorWifis.close();
+		localDb.close();
+
+		catalogDb.beginTransaction();
+		try {
+			for (ContentValues add : newWifis) {
+				catalogDb.insertWithOnConflict("wifi_zone", null, add, SQLiteDatabase.CONFLICT_IGNORE);
+			}
+			catalogDb.setTransactionSuccessful();
+		} finally {
+			catalogDb.endTransaction();
+		}
+
+		Log.i(TAG, "Added wifis to catalog, updating known wifi tag for all sessions");
+		ContentResolver contentResolver = mContext.getContentResolver();
+		ContentValues updateExisting = new ContentValues();
+		updateExisting.put(Schema.COL_KNOWN_WIFI, 2);
+
+		final Uri uri = session == RadioBeacon.SESSION_NOT_TRACKING
+				? ContentProvider.CONTENT_URI_WIFI : ContentProvider.withSession(ContentProvider.CONTENT_URI_WIFI, session);
+		for (Long bssid : updateLater) {
+			// reset is_new_wifi status
+			contentResolver.update(uri, updateExisting,
+					Schema.COL_BSSID + " = ?", new String[]{String.valueOf(bssid)});
+		}
+	}
 }
@@ -20,16 +20,22 @@ package org.openbmap.utils;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.os.AsyncTask;
 import android.util.Log;
 
 import org.openbmap.db.DataHelper;
 import org.openbmap.db.DatabaseHelper;
 import org.openbmap.db.Schema;
+import org.openbmap.db.SessionArchive;
+import org.openbmap.db.SessionArchiver;
+import org.openbmap.db.SessionShards;
+import org.openbmap.db.SpatialIndex;
 import org.openbmap.db.models.PositionRecord;
 import org.openbmap.db.models.WifiRecord;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -99,40 +105,24 @@ public class SessionObjectsLoader extends AsyncTask<Object, Void, List<SessionLa
         if(args[HIGHLIGHT_WIFI_COL] == null) {
             // Draw either all session wifis ...
 
-            //long start = System.currentTimeMillis();
-            final DatabaseHelper mDbHelper = new DatabaseHelper(mContext.getApplicationContext());
-
-            final StringBuilder selected = new StringBuilder();
-            for(int i = 0; i < mToLoad.size(); i++) {
-                selected.append(mToLoad.get(i));
-
-                if(i < mToLoad.size() - 1) {
-                    selected.append(", ");
+            // archived and sharded sessions are queried in their own file, all others at once in main database
+            final List<Integer> unsharded = new ArrayList<>();
+            for (final Integer session : mToLoad) {
+                final SessionArchive archive = SessionArchiver.open(mContext, session);
+                if (archive != null) {
+                    loadPoints(archive, args, points);
+                } else if (SessionShards.isSharded(mContext, session)) {
+                    loadPoints(SessionShards.helperFor(mContext, session),
+                            Collections.singletonList(session), args, points);
+                } else {
+                    unsharded.add(session);
                 }
             }
-
-            // use raw query for performance reasons
-            final String query = "SELECT w.rowid as " + Schema.COL_ID + ", MAX(" + Schema.COL_LEVEL + "), w." + Schema.COL_SESSION_ID + ", "
-                                         + " b." + Schema.COL_LATITUDE + ", b." + Schema.COL_LONGITUDE
-                                         + " FROM " + Schema.TBL_WIFIS + " as w "
-                                         + " JOIN " + Schema.TBL_POSITIONS + " as b ON " + Schema.COL_BEGIN_POSITION_ID + " = b." + Schema.COL_ID
-                                         + " WHERE w." + Schema.COL_SESSION_ID + " IN (" + selected + ") AND "
-                                         + " b.longitude >= " + args[MIN_LON_COL] + " AND "
-                                         + " b.longitude <= " + args[MAX_LON_COL] + " AND "
-                                         + " b.latitude >= " + args[MIN_LAT_COL] + " AND "
-                                         + " b.latitude <= " + args[MAX_LAT_COL] + " GROUP BY w." + Schema.COL_BSSID;
-
-            final Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(query, null);
-            final int colLat = cursor.getColumnIndex(Schema.COL_LATITUDE);
-            final int colLon = cursor.getColumnIndex(Schema.COL_LONGITUDE);
-            final int colSession = cursor.getColumnIndex(Schema.COL_SESSION_ID);
-
-            while(cursor.moveToNext()) {
-                points.add(new SessionLatLong(cursor.getDouble(colLat), cursor.getDouble(colLon),
-                                              cursor.getInt(colSession)));
+            if (!unsharded.isEmpty()) {
+                final DatabaseHelper mDbHelper = new DatabaseHelper(mContext.getApplicationContext());
+                loadPoints(mDbHelper, unsharded, args, points);
             }
-            Log.d(TAG, cursor.getCount() + " session points loaded");
-            cursor.close();
+            Log.d(TAG, points.size() + " session points loaded");
 
         } else {
             // ... or only selected
@@ -149,6 +139,69 @@ public class SessionObjectsLoader extends AsyncTask<Object, Void, List<SessionLa
         return points;
     }
 
+    /**
+     * Loads strongest measurement of each wifi within bounding box
+     * @param helper database holding sessions
+     * @param sessions sessions to load
+     * @param args bounding box, see {@link #doInBackground(Object...)}
+     * @param points list points are added to
+     */
+    private static void loadPoints(final DatabaseHelper helper, final List<Integer> sessions, final Object[] args,
+                                   final List<SessionLatLong> points) {
+        final StringBuilder selected = new StringBuilder();
+        for(int i = 0; i < sessions.size(); i++) {
+            selected.append(sessions.get(i));
+
+            if(i < sessions.size() - 1) {
+                selected.append(", ");
+            }
+        }
+
+        // use raw query for performance reasons
+        // with spatial index, visible positions drive the join, so cost scales with viewport, not with session size
+        final SQLiteDatabase db = helper.getReadableDatabase();
+        final boolean indexed = SpatialIndex.isAvailable(helper);
+        final String tables = indexed
+                ? Schema.TBL_POSITIONS + " as b CROSS JOIN " + Schema.TBL_WIFIS + " as w ON " + Schema.COL_BEGIN_POSITION_ID + " = b." + Schema.COL_ID
+                : Schema.TBL_WIFIS + " as w JOIN " + Schema.TBL_POSITIONS + " as b ON " + Schema.COL_BEGIN_POSITION_ID + " = b." + Schema.COL_ID;
+        final String query = "SELECT w.rowid as " + Schema.COL_ID + ", MAX(" + Schema.COL_LEVEL + "), w." + Schema.COL_SESSION_ID + ", "
+                                     + " b." + Schema.COL_LATITUDE + ", b." + Schema.COL_LONGITUDE
+                                     + " FROM " + tables
+                                     + " WHERE w." + Schema.COL_SESSION_ID + " IN (" + selected + ") AND "
+                                     + SpatialIndex.within(indexed, "b." + Schema.COL_ID, "b." + Schema.COL_LATITUDE, "b." + Schema.COL_LONGITUDE)
+                                     + " GROUP BY w." + Schema.COL_BSSID;
+
+        final Cursor cursor = db.rawQuery(query, SpatialIndex.args(indexed,
+                ((Number) args[MIN_LAT_COL]).doubleValue(), ((Number) args[MAX_LAT_COL]).doubleValue(),
+                ((Number) args[MIN_LON_COL]).doubleValue(), ((Number) args[MAX_LON_COL]).doubleValue()));
+        final int colLat = cursor.getColumnIndex(Schema.COL_LATITUDE);
+        final int colLon = cursor.getColumnIndex(Schema.COL_LONGITUDE);
+        final int colSession = cursor.getColumnIndex(Schema.COL_SESSION_ID);
+
+        while(cursor.moveToNext()) {
+            points.add(new SessionLatLong(cursor.getDouble(colLat), cursor.getDouble(colLon),
+                                          cursor.getInt(colSession)));
+        }
+        cursor.close();
+    }
+
+    /**
+     * Loads strongest measurement of each wifi within bounding box from archived session
+     * @param archive session archive
+     * @param args bounding box, see {@link #doInBackground(Object...)}
+     * @param points list points are added to
+     */
+    private static void loadPoints(final SessionArchive archive, final Object[] args, final List<SessionLatLong> points) {
+        final int[] wifis = archive.getStrongestWifis(
+                ((Number) args[MIN_LAT_COL]).doubleValue(), ((Number) args[MAX_LAT_COL]).doubleValue(),
+                ((Number) args[MIN_LON_COL]).doubleValue(), ((Number) args[MAX_LON_COL]).doubleValue());
+        for (final int wifi : wifis) {
+            final int position = archive.getWifiPosition(wifi);
+            points.add(new SessionLatLong(archive.getLatitude(position), archive.getLongitude(position),
+                                          (int) archive.getSession()));
+        }
+    }
+
     /**
      * Informs activity on available results by calling mListener.
      */
@@ -18,73 +18,148 @@
 
 package org.openbmap.utils;
 
+import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.database.SQLException;
-import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabaseLockedException;
 import android.database.sqlite.SQLiteException;
 import android.os.AsyncTask;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.widget.Toast;
 
 import org.openbmap.R;
-import org.openbmap.db.DatabaseHelper;
+import org.openbmap.db.DatabaseCompactor;
 
 /**
- * Reorganizes database (vacuum)
+ * Reorganizes database: reclaims free pages in time-boxed steps (see {@link DatabaseCompactor}).
+ * Can be cancelled between steps, remaining pages are reclaimed next time.
+ * Legacy databases are skipped; user is then asked to confirm the one-time conversion, which can't be cancelled
  */
-public class VacuumCleaner extends AsyncTask<Void, Void, Boolean> {
+public class VacuumCleaner extends AsyncTask<Void, Void, DatabaseCompactor.Result> {
 
 	private static final String TAG = VacuumCleaner.class.getSimpleName();
+
+	/**
+	 * Time budget per step (in millis), i.e. max. delay until cancel takes effect
+	 */
+	private static final long STEP_BUDGET = 500;
+
 	private final Context	mContext;
+	private final boolean	mConvert;
 	private ProgressDialog	mDialog;
 
 	public VacuumCleaner(final Context context) {
+		this(context, false);
+	}
+
+	/**
+	 * @param context context
+	 * @param convert if true, legacy databases are converted first by a full VACUUM (not cancelable)
+	 */
+	public VacuumCleaner(final Context context, final boolean convert) {
 		mContext = context;
+		mConvert = convert;
 	}
 	
 	@Override
 	protected final void onPreExecute() {
 		mDialog = new ProgressDialog(mContext);
 		mDialog.setTitle(mContext.getString(R.string.cleaning_database));
-		mDialog.setMessage(mContext.getString(R.string.please_stay_patient));
-		mDialog.setCancelable(false);
+		mDialog.setMessage(mContext.getString(mConvert ? R.string.converting_database : R.string.please_stay_patient));
+		mDialog.setCancelable(!mConvert);
 		mDialog.setIndeterminate(true);
+		mDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+			@Override
+			public void onCancel(final DialogInterface dialog) {
+				cancel(false);
+			}
+		});
 		mDialog.show();
 	}
 
 	@Override
-	protected final Boolean doInBackground(final Void... params) {
+	protected final DatabaseCompactor.Result doInBackground(final Void... params) {
 
 		Log.i(TAG, "Cleaning database");
+		final DatabaseCompactor.Result total = new DatabaseCompactor.Result();
 		try {
-			final SQLiteDatabase db = new DatabaseHelper(mContext.getApplicationContext()).getWritableDatabase();
-			db.execSQL("VACUUM");
-			Log.i(TAG, "Finished cleaning");
-			db.close();
+			DatabaseCompactor.Result step;
+			boolean convert = mConvert;
+			do {
+				// only first step converts legacy databases, later steps are cancelable again
+				step = DatabaseCompactor.compactAll(mContext.getApplicationContext(), STEP_BUDGET, convert);
+				if (convert) {
+					convert = false;
+					publishProgress();
+				}
+				total.reclaimedBytes += step.reclaimedBytes;
+				total.elapsedMillis += step.elapsedMillis;
+				total.converted += step.converted;
+				total.remainingBytes = step.remainingBytes;
+				total.legacy = step.legacy;
+			} while (!step.isComplete() && step.reclaimedBytes > 0 && !isCancelled());
+			Log.i(TAG, "Finished cleaning: " + total);
 		} catch (final SQLiteDatabaseLockedException e){
 			// possibly a database upgrade is currently taking place
 			Log.e(TAG, "Error locking database");
-			return false;
+			return null;
 		} catch (final SQLiteException e) {
 			Log.e(TAG, "Database error: " + e.getMessage());
-			return false;
+			return null;
 		} catch (final SQLException e) {
             Log.e(TAG, "Generic database expection: " + e.getMessage());
-            return false;
+            return null;
         }
-		return true;
+		return total;
+	}
+
+	@Override
+	protected final void onProgressUpdate(final Void... values) {
+		if (mDialog != null) {
+			mDialog.setMessage(mContext.getString(R.string.please_stay_patient));
+			mDialog.setCancelable(true);
+		}
 	}
 
 	@Override
-	protected final void onPostExecute(final Boolean success) {
+	protected final void onCancelled(final DatabaseCompactor.Result result) {
+		onPostExecute(result);
+	}
+
+	@Override
+	protected final void onPostExecute(final DatabaseCompactor.Result result) {
 		if (mDialog != null) {
 			mDialog.dismiss();
 		}
 		
-		if (!success) {
+		if (result == null) {
 			Toast.makeText(mContext,  mContext.getResources().getString(R.string.database_lock_error), Toast.LENGTH_LONG).show();
+		} else {
+			Toast.makeText(mContext, mContext.getString(R.string.database_compacted,
+					Formatter.formatShortFileSize(mContext, result.reclaimedBytes), result.elapsedMillis), Toast.LENGTH_LONG).show();
+			if (result.legacy > 0 && !isCancelled()) {
+				confirmConversion();
+			}
 		}
 	}
+
+	/**
+	 * Asks user whether legacy databases shall be converted now
+	 */
+	private void confirmConversion() {
+		new AlertDialog.Builder(mContext)
+				.setTitle(R.string.cleaning_database)
+				.setMessage(R.string.confirm_database_conversion)
+				.setPositiveButton(R.string.yes, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(final DialogInterface dialog, final int which) {
+						new VacuumCleaner(mContext, true).execute();
+					}
+				})
+				.setNegativeButton(R.string.no, null)
+				.show();
+	}
 }
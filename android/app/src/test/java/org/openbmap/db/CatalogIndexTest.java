@@ -0,0 +1,73 @@
+package org.openbmap.db;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CatalogIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParseBssid() {
+        assertEquals(0x001122AABBCCL, CatalogIndex.parseBssid("00:11:22:AA:BB:CC"));
+        assertEquals(0x001122AABBCCL, CatalogIndex.parseBssid("001122aabbcc"));
+        assertEquals(0xFFFFFFFFFFFFL, CatalogIndex.parseBssid("FF-FF-FF-FF-FF-FF"));
+        assertEquals(CatalogIndex.NOT_FOUND, CatalogIndex.parseBssid("00:11:22:AA:BB"));
+        assertEquals(CatalogIndex.NOT_FOUND, CatalogIndex.parseBssid("00:11:22:AA:BB:CC:DD"));
+        assertEquals(CatalogIndex.NOT_FOUND, CatalogIndex.parseBssid("00:11:22:AA:BB:XX"));
+        assertEquals(CatalogIndex.NOT_FOUND, CatalogIndex.parseBssid(null));
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        final File catalog = createCatalog();
+        final long[] packed = new long[]{
+                CatalogIndex.pack(CatalogIndex.parseBssid("FFFFFFFFFFFF"), 99),
+                CatalogIndex.pack(CatalogIndex.parseBssid("001122AABBCC"), 1),
+                CatalogIndex.pack(CatalogIndex.parseBssid("000000000001"), 99),
+                CatalogIndex.pack(CatalogIndex.parseBssid("001122AABBCC"), 1)
+        };
+        CatalogIndex.write(CatalogIndex.indexFileFor(catalog), catalog.length(), catalog.lastModified(), packed, packed.length);
+
+        final CatalogIndex index = CatalogIndex.open(catalog);
+        assertNotNull("Index opened", index);
+        assertEquals("Duplicates removed", 3, index.size());
+        assertEquals(1, index.lookup("00:11:22:aa:bb:cc"));
+        assertEquals(99, index.lookup("FF:FF:FF:FF:FF:FF"));
+        assertEquals(99, index.lookup("000000000001"));
+        assertEquals(CatalogIndex.NOT_FOUND, index.lookup("000000000000"));
+        assertEquals(CatalogIndex.NOT_FOUND, index.lookup("00:11:22:AA:BB:CD"));
+        assertEquals(CatalogIndex.NOT_FOUND, index.lookup("invalid"));
+    }
+
+    @Test
+    public void testOutdatedIndex() throws IOException {
+        final File catalog = createCatalog();
+        final long[] packed = new long[]{CatalogIndex.pack(1, 1)};
+        CatalogIndex.write(CatalogIndex.indexFileFor(catalog), catalog.length() + 1, catalog.lastModified(), packed, 1);
+        assertNull("Outdated index is rejected", CatalogIndex.open(catalog));
+    }
+
+    @Test
+    public void testMissingIndex() throws IOException {
+        assertNull("Missing index", CatalogIndex.open(createCatalog()));
+    }
+
+    private File createCatalog() throws IOException {
+        final File catalog = folder.newFile("catalog.sqlite");
+        final FileOutputStream out = new FileOutputStream(catalog);
+        out.write(new byte[]{1, 2, 3, 4});
+        out.close();
+        return catalog;
+    }
+}
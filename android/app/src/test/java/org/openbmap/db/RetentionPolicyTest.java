@@ -0,0 +1,67 @@
+package org.openbmap.db;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionPolicyTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long NOW = 100 * DAY;
+
+    private static List<RetentionPolicy.Candidate> sessions() {
+        final List<RetentionPolicy.Candidate> sessions = new ArrayList<>();
+        // id, last updated, bytes, exported, active
+        sessions.add(new RetentionPolicy.Candidate(4, NOW - DAY, 400, true, false));
+        sessions.add(new RetentionPolicy.Candidate(1, NOW - 40 * DAY, 100, true, false));
+        sessions.add(new RetentionPolicy.Candidate(2, NOW - 35 * DAY, 200, false, false));
+        sessions.add(new RetentionPolicy.Candidate(3, NOW - 20 * DAY, 300, true, false));
+        sessions.add(new RetentionPolicy.Candidate(5, NOW - 50 * DAY, 500, true, true));
+        return sessions;
+    }
+
+    @Test
+    public void testDisabled() {
+        final RetentionPolicy policy = new RetentionPolicy(0, 0);
+        assertFalse(policy.isEnabled());
+        final RetentionPolicy.Report report = policy.select(sessions(), 1500, NOW);
+        assertTrue(report.sessions.isEmpty());
+        assertEquals(0, report.bytes);
+        assertEquals(1500, report.totalBytes);
+    }
+
+    @Test
+    public void testMaxAge() {
+        final RetentionPolicy.Report report = new RetentionPolicy(30 * DAY, 0).select(sessions(), 1500, NOW);
+        // session 2 isn't exported, session 5 is active
+        assertEquals(Arrays.asList(1L), report.sessions);
+        assertEquals(100, report.bytes);
+    }
+
+    @Test
+    public void testMaxBytes() {
+        final RetentionPolicy.Report report = new RetentionPolicy(0, 1000).select(sessions(), 1500, NOW);
+        // oldest first, until total fits
+        assertEquals(Arrays.asList(1L, 3L, 4L), report.sessions);
+        assertEquals(800, report.bytes);
+    }
+
+    @Test
+    public void testCombined() {
+        final RetentionPolicy.Report report = new RetentionPolicy(10 * DAY, 1400).select(sessions(), 1500, NOW);
+        assertEquals(Arrays.asList(1L, 3L), report.sessions);
+        assertEquals(400, report.bytes);
+        assertEquals(0, report.deleted);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimit() {
+        new RetentionPolicy(-1, 0);
+    }
+}
@@ -0,0 +1,151 @@
+package org.openbmap.db;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createArchive() throws IOException {
+        final File file = new File(folder.getRoot(), "session_7" + SessionArchive.EXTENSION);
+        new SessionArchive.Builder(7)
+                .addPosition(100, 20160101120000L, 52.5200066, 13.4049540, 34.5, 12.0, "gps")
+                .addPosition(101, 20160101120005L, 52.5201066, 13.4048540, 35.1, 8.3, "WAYPOINT")
+                .addPosition(105, 20160101120010L, -33.8688197, 151.2092955, -2.0, 5.0, "gps")
+                .addWifi(0x001122AABBCCL, "home", -70, 20160101120000L, 100)
+                .addWifi(0x000000000001L, "ünïcode", -80, 20160101120001L, 101)
+                .addWifi(0x001122AABBCCL, "home", -50, 20160101120006L, 105)
+                .addWifi(0xFFFFFFFFFFFFL, null, -90, 20160101120007L, 999)
+                .addCell("CELL Telekom1234", 101)
+                .write(file);
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final SessionArchive archive = SessionArchive.open(createArchive());
+        assertEquals(7, archive.getSession());
+
+        assertEquals(3, archive.getPositionCount());
+        assertEquals(20160101120005L, archive.getTimestamp(1));
+        assertEquals(52.5201066, archive.getLatitude(1), 1e-7);
+        assertEquals(13.4048540, archive.getLongitude(1), 1e-7);
+        assertEquals(-33.8688197, archive.getLatitude(2), 1e-7);
+        assertEquals(151.2092955, archive.getLongitude(2), 1e-7);
+        assertEquals(35.1, archive.getAltitude(1), 0.05);
+        assertEquals(-2.0, archive.getAltitude(2), 0.05);
+        assertEquals(8.3, archive.getAccuracy(1), 0.05);
+        assertEquals("WAYPOINT", archive.getSource(1));
+        assertEquals("gps", archive.getSource(2));
+
+        assertEquals(4, archive.getWifiCount());
+        assertEquals(0x000000000001L, archive.getBssid(1));
+        assertEquals("ünïcode", archive.getSsid(1));
+        assertEquals(-50, archive.getLevel(2));
+        assertEquals(20160101120006L, archive.getWifiTimestamp(2));
+        assertEquals(2, archive.getWifiPosition(2));
+        assertEquals("", archive.getSsid(3));
+        assertEquals(SessionArchive.NO_POSITION, archive.getWifiPosition(3));
+
+        assertEquals(1, archive.getCellCount());
+        assertEquals("CELL Telekom1234", archive.getCellName(0));
+        assertEquals(1, archive.getCellPosition(0));
+    }
+
+    @Test
+    public void testStrongestWifis() throws IOException {
+        final SessionArchive archive = SessionArchive.open(createArchive());
+        // ordered by bssid, wifi without position skipped
+        assertArrayEquals(new int[]{1, 2}, archive.getStrongestWifis());
+        // strongest within bounding box only
+        assertArrayEquals(new int[]{1, 0}, archive.getStrongestWifis(50, 55, 10, 15));
+        assertEquals(0, archive.getStrongestWifis(0, 1, 0, 1).length);
+    }
+
+    @Test
+    public void testTables() throws IOException {
+        final File file = new File(folder.getRoot(), "tables" + SessionArchive.EXTENSION);
+        new SessionArchive.Builder(3)
+                .setTable(SessionArchive.WIFI_OVERVIEW, new String[]{"_id", "bssid", "ssid", "MAX(level)", "accuracy"})
+                .addTableRow(SessionArchive.WIFI_OVERVIEW, new Object[]{1L, 0x001122AABBCCL, "home", -50L, 12.5})
+                .addTableRow(SessionArchive.WIFI_OVERVIEW, new Object[]{2L, 0x000000000001L, null, -80L, 7L})
+                .setTable(SessionArchive.CELL_OVERVIEW, new String[]{"_id", "cid"})
+                .write(file);
+        final SessionArchive archive = SessionArchive.open(file);
+
+        assertArrayEquals(new String[]{"_id", "bssid", "ssid", "MAX(level)", "accuracy"},
+                archive.getTableColumns(SessionArchive.WIFI_OVERVIEW));
+        assertEquals(2, archive.getTableRowCount(SessionArchive.WIFI_OVERVIEW));
+        assertEquals(SessionArchive.TYPE_INTEGER, archive.getTableType(SessionArchive.WIFI_OVERVIEW, 1));
+        assertEquals(SessionArchive.TYPE_TEXT, archive.getTableType(SessionArchive.WIFI_OVERVIEW, 2));
+        // integers and reals mixed in one column are read as reals
+        assertEquals(SessionArchive.TYPE_REAL, archive.getTableType(SessionArchive.WIFI_OVERVIEW, 4));
+        assertEquals(0x001122AABBCCL, archive.getTableValue(SessionArchive.WIFI_OVERVIEW, 0, 1));
+        assertEquals("home", archive.getTableValue(SessionArchive.WIFI_OVERVIEW, 0, 2));
+        assertNull(archive.getTableValue(SessionArchive.WIFI_OVERVIEW, 1, 2));
+        assertEquals(-80L, archive.getTableValue(SessionArchive.WIFI_OVERVIEW, 1, 3));
+        assertEquals(7.0, archive.getTableValue(SessionArchive.WIFI_OVERVIEW, 1, 4));
+
+        // declared, but empty
+        assertArrayEquals(new String[]{"_id", "cid"}, archive.getTableColumns(SessionArchive.CELL_OVERVIEW));
+        assertEquals(0, archive.getTableRowCount(SessionArchive.CELL_OVERVIEW));
+    }
+
+    @Test
+    public void testEmptySession() throws IOException {
+        final File file = new File(folder.getRoot(), "empty" + SessionArchive.EXTENSION);
+        new SessionArchive.Builder(1).write(file);
+        final SessionArchive archive = SessionArchive.open(file);
+        assertEquals(0, archive.getPositionCount());
+        assertEquals(0, archive.getWifiCount());
+        assertEquals(0, archive.getStrongestWifis().length);
+        assertEquals(0, archive.getTableColumns(SessionArchive.WIFI_OVERVIEW).length);
+        assertEquals(0, archive.getTableRowCount(SessionArchive.WIFI_OVERVIEW));
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        final File file = new File(folder.getRoot(), "large" + SessionArchive.EXTENSION);
+        final SessionArchive.Builder builder = new SessionArchive.Builder(2);
+        final int n = 10000;
+        for (int i = 0; i < n; i++) {
+            builder.addPosition(i, 20160101120000L + i, 52.52 + i * 1e-5, 13.40 + i * 1e-5, 30 + i % 5, 10, "gps");
+            for (int j = 0; j < 3; j++) {
+                builder.addWifi(0x001122000000L + (i * 3 + j) % 500, "ssid" + ((i * 3 + j) % 500), -60 - j, 20160101120000L + i, i);
+            }
+        }
+        builder.write(file);
+        // raw rows would take > 100 bytes per position with its wifis
+        assertTrue(file.length() < n * 20);
+
+        final SessionArchive archive = SessionArchive.open(file);
+        assertEquals(n, archive.getPositionCount());
+        assertEquals(3 * n, archive.getWifiCount());
+        assertEquals(52.52 + 9999 * 1e-5, archive.getLatitude(9999), 1e-7);
+        assertEquals("ssid499", archive.getSsid(499));
+        assertEquals(500, archive.getStrongestWifis().length);
+    }
+
+    @Test
+    public void testInvalid() throws IOException {
+        assertNull(SessionArchive.open(new File(folder.getRoot(), "missing")));
+
+        final File garbage = folder.newFile("garbage" + SessionArchive.EXTENSION);
+        final FileOutputStream out = new FileOutputStream(garbage);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25});
+        out.close();
+        assertNull(SessionArchive.open(garbage));
+    }
+}
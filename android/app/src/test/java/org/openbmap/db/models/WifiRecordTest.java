@@ -0,0 +1,33 @@
+package org.openbmap.db.models;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WifiRecordTest {
+
+    @Test
+    public void testBssidToLong() {
+        assertEquals(0x001122AABBCCL, WifiRecord.bssidToLong("00:11:22:aa:bb:cc"));
+        assertEquals(0x001122AABBCCL, WifiRecord.bssidToLong("001122AABBCC"));
+        assertEquals(0xFFFFFFFFFFFFL, WifiRecord.bssidToLong("ff:ff:ff:ff:ff:ff"));
+        assertEquals(WifiRecord.INVALID_BSSID, WifiRecord.bssidToLong("00:11:22:aa:bb"));
+        assertEquals(WifiRecord.INVALID_BSSID, WifiRecord.bssidToLong("00:11:22:aa:bb:xx"));
+        assertEquals(WifiRecord.INVALID_BSSID, WifiRecord.bssidToLong(null));
+    }
+
+    @Test
+    public void testBssidToString() {
+        assertEquals("00:11:22:AA:BB:CC", WifiRecord.bssidToString(0x001122AABBCCL));
+        assertEquals("00:00:00:00:00:01", WifiRecord.bssidToString(1));
+        assertEquals("001122AABBCC", WifiRecord.bssidToHex(0x001122AABBCCL));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final WifiRecord wifi = new WifiRecord();
+        wifi.setBssid("0a:1b:2c:3d:4e:5f");
+        assertEquals(0x0A1B2C3D4E5FL, wifi.getBssidLong());
+        assertEquals("0A:1B:2C:3D:4E:5F", wifi.getBssid());
+    }
+}
@@ -0,0 +1,52 @@
+package org.openbmap.services.wireless;
+
+import org.junit.Test;
+import org.openbmap.db.models.WifiObservation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ObservationCollapserTest {
+
+    private static final String BSSID = "00:11:22:33:44:55";
+
+    @Test
+    public void testMergeWithinWindow() {
+        final ObservationCollapser collapser = new ObservationCollapser(10, 60000);
+        assertNull("Nothing open yet", collapser.merge(BSSID, 49.0, 9.0, 0, -70));
+
+        collapser.open(BSSID, 7, 49.0, 9.0, 0, -70);
+        // ~5 m north, 10 s later
+        final WifiObservation merged = collapser.merge(BSSID, 49.000045, 9.0, 10000, -60);
+        assertNotNull(merged);
+        assertEquals(BSSID, merged.getBssid());
+        assertEquals(7, merged.getSession());
+        assertEquals(2, merged.getCount());
+        assertEquals(-70, merged.getLevelMin());
+        assertEquals(-60, merged.getLevelMax());
+
+        collapser.merge(BSSID, 49.0, 9.0, 20000, -80);
+        assertEquals(3, merged.getCount());
+        assertEquals(-80, merged.getLevelMin());
+    }
+
+    @Test
+    public void testWindowExpires() {
+        final ObservationCollapser collapser = new ObservationCollapser(10, 60000);
+        collapser.open(BSSID, 1, 49.0, 9.0, 0, -70);
+
+        assertNull("Too far", collapser.merge(BSSID, 49.001, 9.0, 1000, -70));
+        assertEquals("Window closed", 0, collapser.size());
+
+        collapser.open(BSSID, 2, 49.0, 9.0, 0, -70);
+        assertNull("Too late", collapser.merge(BSSID, 49.0, 9.0, 61000, -70));
+    }
+
+    @Test
+    public void testDistance() {
+        // one degree latitude is approx. 111 km
+        assertEquals(111195, ObservationCollapser.distance(0, 0, 1, 0), 100);
+        assertEquals(0, ObservationCollapser.distance(49, 9, 49, 9), 0.001);
+    }
+}
@@ -0,0 +1,87 @@
+package org.openbmap.services.wireless;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanSchedulerTest {
+
+    private static final float WIFI_DISTANCE = 5f;
+    private static final float CELL_DISTANCE = 35f;
+
+    @Test
+    public void testDefaults() {
+        final ScanScheduler scheduler = new ScanScheduler();
+        // no novelty information yet: configured distance
+        assertEquals(WIFI_DISTANCE, scheduler.getWifiDistance(WIFI_DISTANCE), 0.001);
+        assertEquals(ScanScheduler.MAX_CELL_INTERVAL, scheduler.getCellInterval(CELL_DISTANCE));
+    }
+
+    @Test
+    public void testWalkingWithoutNewWifisStretchesDistance() {
+        final ScanScheduler scheduler = new ScanScheduler();
+        walk(scheduler, 1.4f);
+        for (int i = 0; i < 30; i++) {
+            scheduler.onWifiScanResults(40, 0);
+        }
+        final float distance = scheduler.getWifiDistance(WIFI_DISTANCE);
+        assertTrue("Stretched " + distance, distance > WIFI_DISTANCE * 3);
+        assertTrue("Bounded " + distance, distance <= WIFI_DISTANCE * ScanScheduler.MAX_WIFI_STRETCH);
+
+        assertFalse(scheduler.isWifiScanDue(WIFI_DISTANCE + 1, WIFI_DISTANCE));
+        assertTrue(scheduler.isWifiScanDue(WIFI_DISTANCE * ScanScheduler.MAX_WIFI_STRETCH + 1, WIFI_DISTANCE));
+        assertEquals(1, scheduler.getWifiSkipped());
+        assertEquals(1, scheduler.getWifiTriggered());
+    }
+
+    @Test
+    public void testWalkingWithNewWifisKeepsDistance() {
+        final ScanScheduler scheduler = new ScanScheduler();
+        walk(scheduler, 1.4f);
+        for (int i = 0; i < 30; i++) {
+            scheduler.onWifiScanResults(40, 40);
+        }
+        assertEquals(WIFI_DISTANCE, scheduler.getWifiDistance(WIFI_DISTANCE), 0.001);
+    }
+
+    @Test
+    public void testDrivingDisablesStretching() {
+        final ScanScheduler scheduler = new ScanScheduler();
+        walk(scheduler, 36f);
+        scheduler.onWifiScanTurnaround(2500);
+        for (int i = 0; i < 30; i++) {
+            scheduler.onWifiScanResults(40, 0);
+        }
+        assertEquals(WIFI_DISTANCE, scheduler.getWifiDistance(WIFI_DISTANCE), 0.001);
+    }
+
+    @Test
+    public void testCellIntervalShrinksWithSpeed() {
+        final ScanScheduler scheduler = new ScanScheduler();
+        walk(scheduler, 1.4f);
+        assertEquals(ScanScheduler.MAX_CELL_INTERVAL, scheduler.getCellInterval(CELL_DISTANCE));
+
+        walk(scheduler, 36f);
+        assertEquals(ScanScheduler.MIN_CELL_INTERVAL, scheduler.getCellInterval(CELL_DISTANCE));
+
+        assertFalse("Too close", scheduler.isCellScanDue(10, 5000, CELL_DISTANCE));
+        assertTrue(scheduler.isCellScanDue(40, 1100, CELL_DISTANCE));
+    }
+
+    @Test
+    public void testSpeedFromFixes() {
+        final ScanScheduler scheduler = new ScanScheduler();
+        for (int i = 0; i < 30; i++) {
+            scheduler.onLocation(0, false, 20, 1000);
+        }
+        assertEquals(20f, scheduler.getSpeed(), 0.1);
+    }
+
+    private static void walk(final ScanScheduler scheduler, final float speed) {
+        for (int i = 0; i < 30; i++) {
+            scheduler.onLocation(speed, true, 0, 1000);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.openbmap.services.wireless.blacklists;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeoGridTest {
+
+    @Test
+    public void testBucketing() {
+        final GeoGrid<String> grid = new GeoGrid<>();
+        grid.add(49.550, 49.556, 9.000, 9.010, "home");
+        grid.add(52.510, 52.530, 13.380, 13.420, "work");
+
+        assertEquals(2, grid.size());
+        assertTrue(grid.cell(49.553, 9.005).contains("home"));
+        assertTrue(grid.cell(52.520, 13.400).contains("work"));
+        assertEquals(0, grid.cell(48.000, 11.000).size());
+        assertEquals(0, grid.unbucketed().size());
+    }
+
+    @Test
+    public void testBucketBorders() {
+        final GeoGrid<String> grid = new GeoGrid<>();
+        // spans several cells in both directions
+        grid.add(-0.025, 0.025, -0.025, 0.025, "equator");
+
+        assertTrue(grid.cell(-0.024, -0.024).contains("equator"));
+        assertTrue(grid.cell(0.024, 0.024).contains("equator"));
+        assertTrue(grid.cell(0, 0).contains("equator"));
+        assertEquals(0, grid.cell(0.04, 0).size());
+    }
+
+    @Test
+    public void testLargeAreasAreNotBucketed() {
+        final GeoGrid<String> grid = new GeoGrid<>();
+        grid.add(40, 50, 0, 10, "huge");
+        grid.add(10, 11, 179.9, 180.1, "antimeridian");
+
+        assertEquals(2, grid.unbucketed().size());
+        assertEquals(0, grid.cell(45, 5).size());
+    }
+}
@@ -0,0 +1,125 @@
+package org.openbmap.services.wireless.blacklists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SsidBlackListTest {
+
+    /**
+     * Typical dense-city scan size
+     */
+    private static final int SCAN_SIZE = 80;
+
+    private static final int ITERATIONS = 20000;
+
+    private String[] mPrefixes;
+    private String[] mSuffixes;
+    private SsidBlackList mBlackList;
+
+    @Before
+    public void setUp() {
+        mPrefixes = SsidBlackListBootstraper.getDefaultPrefixes();
+        mSuffixes = SsidBlackListBootstraper.getDefaultSuffixes();
+        mBlackList = new SsidBlackList();
+        for (final String prefix : mPrefixes) {
+            mBlackList.addPrefix(prefix);
+        }
+        for (final String suffix : mSuffixes) {
+            mBlackList.addSuffix(suffix);
+        }
+    }
+
+    @Test
+    public void testContains() {
+        assertTrue("Prefix match", mBlackList.contains(mPrefixes[0] + "-xyz"));
+        assertTrue("Case insensitive prefix match", mBlackList.contains(mPrefixes[0].toUpperCase(Locale.US)));
+        assertTrue("Suffix match", mBlackList.contains("Johns iPhone"));
+        assertTrue("Case insensitive suffix match", mBlackList.contains("Johns IPHONE"));
+        assertTrue("Opt-out", mBlackList.contains("homenet_nomap"));
+        assertFalse("No match", mBlackList.contains("FRITZ!Box 7490"));
+        assertFalse("Empty ssid", mBlackList.contains(""));
+    }
+
+    @Test
+    public void testMatchesLinearImplementation() {
+        for (final String ssid : createScan()) {
+            assertEquals(ssid, linearContains(ssid), mBlackList.contains(ssid));
+        }
+    }
+
+    /**
+     * Compares trie lookup with the former linear implementation on the default list
+     */
+    @Test
+    public void benchmark() {
+        final String[] scan = createScan();
+
+        // warm up
+        int hits = 0;
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            for (final String ssid : scan) {
+                hits += mBlackList.contains(ssid) ? 1 : 0;
+                hits += linearContains(ssid) ? 1 : 0;
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (final String ssid : scan) {
+                hits += linearContains(ssid) ? 1 : 0;
+            }
+        }
+        final long linear = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (final String ssid : scan) {
+                hits += mBlackList.contains(ssid) ? 1 : 0;
+            }
+        }
+        final long trie = System.nanoTime() - start;
+
+        System.out.println("SSID blacklist (" + (mPrefixes.length + mSuffixes.length) + " entries, "
+                + ITERATIONS + " scans of " + SCAN_SIZE + " ssids, " + hits + " hits): linear "
+                + linear / 1000000 + " ms, trie " + trie / 1000000 + " ms");
+    }
+
+    private String[] createScan() {
+        final String[] scan = new String[SCAN_SIZE];
+        for (int i = 0; i < SCAN_SIZE; i++) {
+            switch (i % 4) {
+                case 0:
+                    scan[i] = mPrefixes[i % mPrefixes.length] + " " + i;
+                    break;
+                case 1:
+                    scan[i] = "Device " + i + " " + mSuffixes[i % mSuffixes.length];
+                    break;
+                default:
+                    scan[i] = "FRITZ!Box Fon WLAN " + i;
+                    break;
+            }
+        }
+        return scan;
+    }
+
+    private boolean linearContains(final String ssid) {
+        for (final String prefix : mPrefixes) {
+            // empty entries are skipped by SsidBlackList
+            if (prefix.length() > 0 && ssid.toLowerCase().startsWith(prefix.toLowerCase())) {
+                return true;
+            }
+        }
+        for (final String suffix : mSuffixes) {
+            if (suffix.length() > 0 && ssid.toLowerCase().endsWith(suffix.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}